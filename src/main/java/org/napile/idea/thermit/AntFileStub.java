@@ -0,0 +1,425 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.util.io.IOUtil;
+
+/**
+ * Lightweight model of a thermit file: the project name, the targets, the imports, the properties and the definitions, as
+ * written in the file, without any property expansion. Built by {@link AntFileStubIndex} so that imported files can be
+ * processed without loading their AST.
+ */
+public final class AntFileStub
+{
+	@Nullable
+	private final String myProjectName;
+	private final List<Target> myTargets;
+	private final List<Import> myImports;
+	private final List<Property> myProperties;
+	private final List<Definition> myMacrodefs;
+	private final List<Definition> myTypedefs;
+	private final boolean myPropertiesComplete;
+	private final boolean myUsesNamespaces;
+
+	AntFileStub(@Nullable String projectName, List<Target> targets, List<Import> imports, List<Property> properties, List<Definition> macrodefs, List<Definition> typedefs, boolean propertiesComplete, boolean usesNamespaces)
+	{
+		myProjectName = projectName;
+		myTargets = Collections.unmodifiableList(targets);
+		myImports = Collections.unmodifiableList(imports);
+		myProperties = Collections.unmodifiableList(properties);
+		myMacrodefs = Collections.unmodifiableList(macrodefs);
+		myTypedefs = Collections.unmodifiableList(typedefs);
+		myPropertiesComplete = propertiesComplete;
+		myUsesNamespaces = usesNamespaces;
+	}
+
+	@Nullable
+	public String getProjectName()
+	{
+		return myProjectName;
+	}
+
+	@NotNull
+	public List<Target> getTargets()
+	{
+		return myTargets;
+	}
+
+	@NotNull
+	public List<Import> getImports()
+	{
+		return myImports;
+	}
+
+	/**
+	 * @return top-level properties declared with a name and a value or location, in the order of the file
+	 */
+	@NotNull
+	public List<Property> getProperties()
+	{
+		return myProperties;
+	}
+
+	/**
+	 * @return macrodefs, presetdefs and scriptdefs declared anywhere in the file
+	 */
+	@NotNull
+	public List<Definition> getMacrodefs()
+	{
+		return myMacrodefs;
+	}
+
+	/**
+	 * @return typedefs and taskdefs declared anywhere in the file
+	 */
+	@NotNull
+	public List<Definition> getTypedefs()
+	{
+		return myTypedefs;
+	}
+
+	/**
+	 * @return true if all imports and includes of the file could be resolved without property expansion
+	 */
+	public boolean areImportsResolved()
+	{
+		for(Import anImport : myImports)
+		{
+			if(anImport.getResolvedPath() == null)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if {@link #getProperties()} are the only properties the file defines besides the ones of the project itself:
+	 *         no other top-level tasks, no property defining tasks in targets or definitions, and all imports resolved
+	 */
+	public boolean arePropertiesComplete()
+	{
+		return myPropertiesComplete && areImportsResolved();
+	}
+
+	/**
+	 * @return true if the file declares or uses xml namespaces, which may bring antlib definitions in
+	 */
+	public boolean usesNamespaces()
+	{
+		return myUsesNamespaces;
+	}
+
+	public static final class Target
+	{
+		private final String myName;
+		@Nullable
+		private final String myDepends;
+		@Nullable
+		private final String myDescription;
+		private final int myLine;
+
+		Target(String name, @Nullable String depends, @Nullable String description, int line)
+		{
+			myName = name;
+			myDepends = depends;
+			myDescription = description;
+			myLine = line;
+		}
+
+		@NotNull
+		public String getName()
+		{
+			return myName;
+		}
+
+		@Nullable
+		public String getDepends()
+		{
+			return myDepends;
+		}
+
+		@Nullable
+		public String getDescription()
+		{
+			return myDescription;
+		}
+
+		/**
+		 * @return zero-based line of the target tag
+		 */
+		public int getLine()
+		{
+			return myLine;
+		}
+	}
+
+	public static final class Import
+	{
+		@Nullable
+		private final String myResolvedPath;
+		private final boolean myInclude;
+		@Nullable
+		private final String myTargetPrefix;
+		@Nullable
+		private final String myTargetPrefixSeparator;
+		private final int myLine;
+
+		Import(@Nullable String resolvedPath, boolean include, @Nullable String targetPrefix, @Nullable String targetPrefixSeparator, int line)
+		{
+			myResolvedPath = resolvedPath;
+			myInclude = include;
+			myTargetPrefix = targetPrefix;
+			myTargetPrefixSeparator = targetPrefixSeparator;
+			myLine = line;
+		}
+
+		/**
+		 * @return absolute system-independent path or null if the path contains property references
+		 */
+		@Nullable
+		public String getResolvedPath()
+		{
+			return myResolvedPath;
+		}
+
+		public boolean isInclude()
+		{
+			return myInclude;
+		}
+
+		/**
+		 * @return the value of the "as" attribute
+		 */
+		@Nullable
+		public String getTargetPrefix()
+		{
+			return myTargetPrefix;
+		}
+
+		@Nullable
+		public String getTargetPrefixSeparator()
+		{
+			return myTargetPrefixSeparator;
+		}
+
+		/**
+		 * @return zero-based line of the import tag
+		 */
+		public int getLine()
+		{
+			return myLine;
+		}
+	}
+
+	public static final class Property
+	{
+		private final String myName;
+		@Nullable
+		private final String myValue;
+		@Nullable
+		private final String myLocation;
+		private final int myLine;
+
+		Property(String name, @Nullable String value, @Nullable String location, int line)
+		{
+			myName = name;
+			myValue = value;
+			myLocation = location;
+			myLine = line;
+		}
+
+		@NotNull
+		public String getName()
+		{
+			return myName;
+		}
+
+		/**
+		 * @return the raw value attribute
+		 */
+		@Nullable
+		public String getValue()
+		{
+			return myValue;
+		}
+
+		/**
+		 * @return the raw location attribute, set only if there is no value attribute
+		 */
+		@Nullable
+		public String getLocation()
+		{
+			return myLocation;
+		}
+
+		/**
+		 * @return zero-based line of the property tag
+		 */
+		public int getLine()
+		{
+			return myLine;
+		}
+	}
+
+	public static final class Definition
+	{
+		@Nullable
+		private final String myName;
+		@Nullable
+		private final String myClassName;
+		private final int myLine;
+
+		Definition(@Nullable String name, @Nullable String className, int line)
+		{
+			myName = name;
+			myClassName = className;
+			myLine = line;
+		}
+
+		/**
+		 * @return the declared name, null for typedefs loading an antlib or a properties file
+		 */
+		@Nullable
+		public String getName()
+		{
+			return myName;
+		}
+
+		/**
+		 * @return the classname attribute, always null for macrodefs
+		 */
+		@Nullable
+		public String getClassName()
+		{
+			return myClassName;
+		}
+
+		/**
+		 * @return zero-based line of the definition tag
+		 */
+		public int getLine()
+		{
+			return myLine;
+		}
+	}
+
+	void write(DataOutput out) throws IOException
+	{
+		writeNullableString(out, myProjectName);
+		out.writeInt(myTargets.size());
+		for(Target target : myTargets)
+		{
+			IOUtil.writeUTF(out, target.myName);
+			writeNullableString(out, target.myDepends);
+			writeNullableString(out, target.myDescription);
+			out.writeInt(target.myLine);
+		}
+		out.writeInt(myImports.size());
+		for(Import anImport : myImports)
+		{
+			writeNullableString(out, anImport.myResolvedPath);
+			out.writeBoolean(anImport.myInclude);
+			writeNullableString(out, anImport.myTargetPrefix);
+			writeNullableString(out, anImport.myTargetPrefixSeparator);
+			out.writeInt(anImport.myLine);
+		}
+		out.writeInt(myProperties.size());
+		for(Property property : myProperties)
+		{
+			IOUtil.writeUTF(out, property.myName);
+			writeNullableString(out, property.myValue);
+			writeNullableString(out, property.myLocation);
+			out.writeInt(property.myLine);
+		}
+		writeDefinitions(out, myMacrodefs);
+		writeDefinitions(out, myTypedefs);
+		out.writeBoolean(myPropertiesComplete);
+		out.writeBoolean(myUsesNamespaces);
+	}
+
+	static AntFileStub read(DataInput in) throws IOException
+	{
+		final String projectName = readNullableString(in);
+		int size = in.readInt();
+		final List<Target> targets = new ArrayList<Target>(size);
+		for(int i = 0; i < size; i++)
+		{
+			targets.add(new Target(IOUtil.readUTF(in), readNullableString(in), readNullableString(in), in.readInt()));
+		}
+		size = in.readInt();
+		final List<Import> imports = new ArrayList<Import>(size);
+		for(int i = 0; i < size; i++)
+		{
+			imports.add(new Import(readNullableString(in), in.readBoolean(), readNullableString(in), readNullableString(in), in.readInt()));
+		}
+		size = in.readInt();
+		final List<Property> properties = new ArrayList<Property>(size);
+		for(int i = 0; i < size; i++)
+		{
+			properties.add(new Property(IOUtil.readUTF(in), readNullableString(in), readNullableString(in), in.readInt()));
+		}
+		final List<Definition> macrodefs = readDefinitions(in);
+		final List<Definition> typedefs = readDefinitions(in);
+		return new AntFileStub(projectName, targets, imports, properties, macrodefs, typedefs, in.readBoolean(), in.readBoolean());
+	}
+
+	private static void writeDefinitions(DataOutput out, List<Definition> definitions) throws IOException
+	{
+		out.writeInt(definitions.size());
+		for(Definition definition : definitions)
+		{
+			writeNullableString(out, definition.myName);
+			writeNullableString(out, definition.myClassName);
+			out.writeInt(definition.myLine);
+		}
+	}
+
+	private static List<Definition> readDefinitions(DataInput in) throws IOException
+	{
+		final int size = in.readInt();
+		final List<Definition> definitions = new ArrayList<Definition>(size);
+		for(int i = 0; i < size; i++)
+		{
+			definitions.add(new Definition(readNullableString(in), readNullableString(in), in.readInt()));
+		}
+		return definitions;
+	}
+
+	private static void writeNullableString(DataOutput out, @Nullable String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if(value != null)
+		{
+			IOUtil.writeUTF(out, value);
+		}
+	}
+
+	@Nullable
+	private static String readNullableString(DataInput in) throws IOException
+	{
+		return in.readBoolean() ? IOUtil.readUTF(in) : null;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.intellij.util.text.CharArrayUtil;
+import com.intellij.util.xml.NanoXmlUtil;
+
+/**
+ * Stores {@link AntFileStub} for every thermit file under a single key
+ */
+public class AntFileStubIndex extends FileBasedIndexExtension<Integer, AntFileStub>
+{
+	public static final ID<Integer, AntFileStub> INDEX_NAME = ID.create("thermit-file-stubs");
+	private static final int VERSION = 3;
+	private static final Integer STUB_KEY = 0;
+
+	private static final DataIndexer<Integer, AntFileStub, FileContent> DATA_INDEXER = new DataIndexer<Integer, AntFileStub, FileContent>()
+	{
+		@Override
+		@NotNull
+		public Map<Integer, AntFileStub> map(final FileContent inputData)
+		{
+			final VirtualFile parent = inputData.getFile().getParent();
+			final String baseDir = parent != null ? parent.getPath() : null;
+			final StubBuilder builder = new StubBuilder(baseDir);
+			NanoXmlUtil.parse(CharArrayUtil.readerFromCharSequence(inputData.getContentAsText()), builder);
+			final AntFileStub stub = builder.getStub();
+			return stub != null ? Collections.singletonMap(STUB_KEY, stub) : Collections.<Integer, AntFileStub>emptyMap();
+		}
+	};
+
+	private static final DataExternalizer<AntFileStub> VALUE_EXTERNALIZER = new DataExternalizer<AntFileStub>()
+	{
+		public void save(DataOutput out, AntFileStub value) throws IOException
+		{
+			value.write(out);
+		}
+
+		public AntFileStub read(DataInput in) throws IOException
+		{
+			return AntFileStub.read(in);
+		}
+	};
+
+	/**
+	 * @return the stub or null if the file is not an indexed thermit file or indices are not available
+	 */
+	@Nullable
+	public static AntFileStub getStub(@NotNull Project project, @NotNull VirtualFile file)
+	{
+		if(DumbService.isDumb(project))
+		{
+			return null;
+		}
+		final List<AntFileStub> values = FileBasedIndex.getInstance().getValues(INDEX_NAME, STUB_KEY, GlobalSearchScope.fileScope(project, file));
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	@NotNull
+	public ID<Integer, AntFileStub> getName()
+	{
+		return INDEX_NAME;
+	}
+
+	@Override
+	@NotNull
+	public DataIndexer<Integer, AntFileStub, FileContent> getIndexer()
+	{
+		return DATA_INDEXER;
+	}
+
+	@Override
+	public KeyDescriptor<Integer> getKeyDescriptor()
+	{
+		return EnumeratorIntegerDescriptor.INSTANCE;
+	}
+
+	@Override
+	public DataExternalizer<AntFileStub> getValueExternalizer()
+	{
+		return VALUE_EXTERNALIZER;
+	}
+
+	@Override
+	public FileBasedIndex.InputFilter getInputFilter()
+	{
+		return AntImportsIndex.INPUT_FILTER;
+	}
+
+	@Override
+	public boolean dependsOnFileContent()
+	{
+		return true;
+	}
+
+	@Override
+	public int getVersion()
+	{
+		return VERSION;
+	}
+
+	private static class StubBuilder extends NanoXmlUtil.IXMLBuilderAdapter
+	{
+		private static final Set<String> TOP_LEVEL_DECLARATIONS = new HashSet<String>(Arrays.asList("target", "import", "include", "description", "property", "macrodef", "presetdef", "scriptdef", "typedef", "taskdef"));
+		private static final Set<String> MACRODEFS = new HashSet<String>(Arrays.asList("macrodef", "presetdef", "scriptdef"));
+		private static final Set<String> TYPEDEFS = new HashSet<String>(Arrays.asList("typedef", "taskdef"));
+		// tags mapped to property providers by AntDomExtender
+		private static final Set<String> PROPERTY_DEFINING_TASKS = new HashSet<String>(Arrays.asList("property", "dirname", "available", "condition", "uptodate", "checksum", "loadfile", "whichresource", "jarlib-resolve", "p4counter", "pathconvert", "basename", "length", "tempfile", "exec", "buildnumber", "tstamp", "format", "input", "param"));
+
+		@Nullable
+		private final String myBaseDir;
+		private final Map<String, String> myAttributes = new HashMap<String, String>();
+		private int myDepth = 0;
+		private int myLine = 0;
+		private boolean myIsProject = false;
+		private boolean myCollectAttributes = false;
+
+		private String myProjectName;
+		private final List<AntFileStub.Target> myTargets = new ArrayList<AntFileStub.Target>();
+		private final List<AntFileStub.Import> myImports = new ArrayList<AntFileStub.Import>();
+		private final List<AntFileStub.Property> myProperties = new ArrayList<AntFileStub.Property>();
+		private final List<AntFileStub.Definition> myMacrodefs = new ArrayList<AntFileStub.Definition>();
+		private final List<AntFileStub.Definition> myTypedefs = new ArrayList<AntFileStub.Definition>();
+		private boolean myPropertiesComplete = true;
+		private boolean myUsesNamespaces = false;
+
+		private StubBuilder(@Nullable String baseDir)
+		{
+			myBaseDir = baseDir;
+		}
+
+		@Nullable
+		public AntFileStub getStub()
+		{
+			return myIsProject ? new AntFileStub(myProjectName, myTargets, myImports, myProperties, myMacrodefs, myTypedefs, myPropertiesComplete, myUsesNamespaces) : null;
+		}
+
+		@Override
+		public void startElement(final String elemName, final String nsPrefix, final String nsURI, final String systemID, final int lineNr) throws Exception
+		{
+			myDepth++;
+			if(nsPrefix != null && nsPrefix.length() > 0)
+			{
+				myUsesNamespaces = true;
+			}
+			if(myDepth == 1)
+			{
+				if(!"project".equalsIgnoreCase(elemName))
+				{
+					stop();
+				}
+				myIsProject = true;
+			}
+			else if(myDepth == 2)
+			{
+				if(!TOP_LEVEL_DECLARATIONS.contains(elemName))
+				{
+					myPropertiesComplete = false;
+				}
+			}
+			else if(PROPERTY_DEFINING_TASKS.contains(elemName))
+			{
+				myPropertiesComplete = false;
+			}
+			myAttributes.clear();
+			myCollectAttributes = myDepth <= 2 || MACRODEFS.contains(elemName) || TYPEDEFS.contains(elemName);
+			myLine = lineNr;
+		}
+
+		@Override
+		public void addAttribute(final String key, final String nsPrefix, final String nsURI, final String value, final String type) throws Exception
+		{
+			if("xmlns".equals(nsPrefix) || key.startsWith("xmlns"))
+			{
+				myUsesNamespaces = true;
+			}
+			if(myCollectAttributes)
+			{
+				myAttributes.put(key, value);
+			}
+		}
+
+		@Override
+		public void elementAttributesProcessed(final String name, final String nsPrefix, final String nsURI) throws Exception
+		{
+			if(myDepth == 1)
+			{
+				myProjectName = myAttributes.get("name");
+			}
+			else if(myDepth == 2)
+			{
+				addDeclaration(name);
+			}
+			else if(myCollectAttributes)
+			{
+				addDefinition(name);
+			}
+		}
+
+		private void addDeclaration(String tagName)
+		{
+			final String elementName = myAttributes.get("name");
+			// NanoXml lines are one-based
+			final int line = Math.max(0, myLine - 1);
+			if("target".equals(tagName))
+			{
+				if(elementName != null)
+				{
+					myTargets.add(new AntFileStub.Target(elementName, myAttributes.get("depends"), myAttributes.get("description"), line));
+				}
+			}
+			else if("import".equals(tagName) || "include".equals(tagName))
+			{
+				final String path = myAttributes.get("file");
+				if(path != null)
+				{
+					myImports.add(new AntFileStub.Import(AntImportsIndex.resolvePath(myBaseDir, path), "include".equals(tagName), myAttributes.get("as"), myAttributes.get("prefixSeparator"), line));
+				}
+			}
+			else if("property".equals(tagName))
+			{
+				final String value = myAttributes.get("value");
+				final String location = value == null ? myAttributes.get("location") : null;
+				if(elementName != null && (value != null || (location != null && !location.contains("${"))))
+				{
+					myProperties.add(new AntFileStub.Property(elementName, value, location, line));
+				}
+				else
+				{
+					// loaded from a file, a resource or the environment, or a location that needs expansion
+					myPropertiesComplete = false;
+				}
+			}
+			else
+			{
+				addDefinition(tagName);
+			}
+		}
+
+		private void addDefinition(String tagName)
+		{
+			final String elementName = myAttributes.get("name");
+			final int line = Math.max(0, myLine - 1);
+			if(MACRODEFS.contains(tagName))
+			{
+				if(elementName != null)
+				{
+					myMacrodefs.add(new AntFileStub.Definition(elementName, null, line));
+				}
+			}
+			else if(TYPEDEFS.contains(tagName))
+			{
+				// a nameless typedef loads an antlib or a properties file
+				myTypedefs.add(new AntFileStub.Definition(elementName, myAttributes.get("classname"), line));
+			}
+		}
+
+		@Override
+		public void endElement(final String name, final String nsPrefix, final String nsURI) throws Exception
+		{
+			myDepth--;
+			if(myDepth == 0)
+			{
+				stop();
+			}
+		}
+	}
+}
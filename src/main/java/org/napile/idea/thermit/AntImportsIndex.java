@@ -15,97 +15,259 @@
  */
 package org.napile.idea.thermit;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.dom.AntDomFileDescription;
 import com.intellij.ide.highlighter.XmlFileType;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.util.indexing.DataIndexer;
 import com.intellij.util.indexing.FileBasedIndex;
 import com.intellij.util.indexing.FileContent;
 import com.intellij.util.indexing.ID;
 import com.intellij.util.indexing.ScalarIndexExtension;
-import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.xml.NanoXmlUtil;
 
 /**
+ * Reverse import graph: maps every resolved import/include path to the thermit files importing it.
+ * Additionally every file with at least one import/include is stored under {@link #ANT_FILES_WITH_IMPORTS_KEY}
+ *
  * @author Eugene Zhuravlev
  *         Date: Apr 28, 2008
  */
-public class AntImportsIndex extends ScalarIndexExtension<Integer>
+public class AntImportsIndex extends ScalarIndexExtension<String>
 {
-	public static final ID<Integer, Void> INDEX_NAME = ID.create("thermit-imports");
-	private static final int VERSION = 5;
-	public static final Integer ANT_FILES_WITH_IMPORTS_KEY = new Integer(0);
+	public static final ID<String, Void> INDEX_NAME = ID.create("thermit-imports");
+	private static final int VERSION = 7;
+	// cannot clash with the keys for imported files, which are always absolute paths
+	public static final String ANT_FILES_WITH_IMPORTS_KEY = "";
+	// prefixes of the keys for xml files read by xmlproperty, typedef or taskdef, by path or by classpath resource name
+	private static final String LOADED_FILE_PREFIX = "loaded:";
+	private static final String LOADED_RESOURCE_PREFIX = "resource:";
+	// incremented whenever a file is indexed, the imports of the file may have changed
+	private static final AtomicLong ourIndexingCount = new AtomicLong(0L);
 
-	private static final DataIndexer<Integer, Void, FileContent> DATA_INDEXER = new DataIndexer<Integer, Void, FileContent>()
+	private static final DataIndexer<String, Void, FileContent> DATA_INDEXER = new DataIndexer<String, Void, FileContent>()
 	{
 		@Override
 		@NotNull
-		public Map<Integer, Void> map(final FileContent inputData)
+		public Map<String, Void> map(final FileContent inputData)
 		{
-			final Map<Integer, Void> map = new HashMap<Integer, Void>();
+			ourIndexingCount.incrementAndGet();
+			final Map<String, Void> map = new HashMap<String, Void>();
+			final VirtualFile parent = inputData.getFile().getParent();
+			final String baseDir = parent != null ? parent.getPath() : null;
 
 			NanoXmlUtil.parse(CharArrayUtil.readerFromCharSequence(inputData.getContentAsText()), new NanoXmlUtil.IXMLBuilderAdapter()
 			{
-				private boolean isFirstElement = true;
+				private int myDepth = 0;
+				private boolean myIsIncludingDirective = false;
+				private boolean myIsLoadingDirective = false;
+				private String myFileAttribute;
+				private String myResourceAttribute;
 
 				@Override
 				public void startElement(final String elemName, final String nsPrefix, final String nsURI, final String systemID, final int lineNr) throws Exception
 				{
-					if(isFirstElement)
+					myDepth++;
+					if(myDepth == 1)
 					{
 						if(!"project".equalsIgnoreCase(elemName))
 						{
 							stop();
 						}
-						isFirstElement = false;
 					}
 					else
 					{
-						if("import".equalsIgnoreCase(elemName) || "include".equalsIgnoreCase(elemName))
-						{
-							map.put(ANT_FILES_WITH_IMPORTS_KEY, null);
-							stop();
-						}
+						// imports and includes are allowed at the top level only
+						myIsIncludingDirective = myDepth == 2 && ("import".equalsIgnoreCase(elemName) || "include".equalsIgnoreCase(elemName));
+						myIsLoadingDirective = "xmlproperty".equalsIgnoreCase(elemName) || "typedef".equalsIgnoreCase(elemName) || "taskdef".equalsIgnoreCase(elemName);
+						myFileAttribute = null;
+						myResourceAttribute = null;
 					}
 				}
 
 				@Override
 				public void addAttribute(final String key, final String nsPrefix, final String nsURI, final String value, final String type) throws Exception
 				{
-					//if (myAttributes != null) {
-					//  myAttributes.add(key);
-					//}
+					if((myIsIncludingDirective || myIsLoadingDirective) && "file".equals(key))
+					{
+						myFileAttribute = value;
+					}
+					else if(myIsLoadingDirective && "resource".equals(key))
+					{
+						myResourceAttribute = value;
+					}
 				}
 
 				@Override
 				public void elementAttributesProcessed(final String name, final String nsPrefix, final String nsURI) throws Exception
 				{
-					//if (myAttributes != null) {
-					//  if (!(myAttributes.contains("name") && myAttributes.contains("default"))) {
-					//    stop();
-					//  }
-					//  myAttributes = null;
-					//}
+					if(myDepth == 2 && myIsIncludingDirective)
+					{
+						map.put(ANT_FILES_WITH_IMPORTS_KEY, null);
+						final String path = resolvePath(baseDir, myFileAttribute);
+						if(path != null)
+						{
+							map.put(path, null);
+						}
+						myIsIncludingDirective = false;
+					}
+					else if(myIsLoadingDirective)
+					{
+						final String path = resolvePath(baseDir, myFileAttribute);
+						if(path != null)
+						{
+							map.put(LOADED_FILE_PREFIX + path, null);
+						}
+						if(myResourceAttribute != null && myResourceAttribute.trim().length() > 0 && !myResourceAttribute.contains("${"))
+						{
+							map.put(LOADED_RESOURCE_PREFIX + StringUtil.trimStart(FileUtil.toSystemIndependentName(myResourceAttribute.trim()), "/"), null);
+						}
+						myIsLoadingDirective = false;
+					}
 				}
 
+				@Override
+				public void endElement(final String name, final String nsPrefix, final String nsURI) throws Exception
+				{
+					myDepth--;
+					if(myDepth == 0)
+					{
+						stop(); // nothing can follow the root element
+					}
+				}
 			});
 			return map;
 		}
 	};
-	private static final FileBasedIndex.InputFilter INPUT_FILTER = new FileBasedIndex.InputFilter()
+	static final FileBasedIndex.InputFilter INPUT_FILTER = new FileBasedIndex.InputFilter()
 	{
 		@Override
 		public boolean acceptInput(final VirtualFile file)
 		{
-			return file.getFileType() instanceof XmlFileType;
+			return file.getFileType() instanceof XmlFileType && AntDomFileDescription.EXTENSION.equals(file.getExtension());
 		}
 	};
 
+	/**
+	 * Paths containing property references other than ${basedir} cannot be resolved without the project model and are skipped
+	 */
+	@Nullable
+	static String resolvePath(@Nullable String baseDir, @Nullable String path)
+	{
+		if(path == null || baseDir == null)
+		{
+			return null;
+		}
+		path = FileUtil.toSystemIndependentName(path.trim());
+		if(path.startsWith("${basedir}"))
+		{
+			path = path.substring("${basedir}".length());
+			if(path.startsWith("/"))
+			{
+				path = path.substring(1);
+			}
+		}
+		if(path.length() == 0 || path.contains("${"))
+		{
+			return null;
+		}
+		if(!FileUtil.isAbsolute(path))
+		{
+			path = baseDir + "/" + path;
+		}
+		return FileUtil.toCanonicalPath(path);
+	}
+
+	/**
+	 * @return a number that changes whenever the imports of some file may have been reindexed
+	 */
+	public static long getModificationCount()
+	{
+		return ourIndexingCount.get();
+	}
+
+	/**
+	 * @return true if the file may be read by an xmlproperty, typedef or taskdef of some thermit file, either by its path
+	 *         or as a classpath resource; when indices are not available the answer is true
+	 */
+	public static boolean isLoadedByThermitFiles(@NotNull Project project, @NotNull VirtualFile file)
+	{
+		if(DumbService.isDumb(project))
+		{
+			return true;
+		}
+		final FileBasedIndex index = FileBasedIndex.getInstance();
+		final GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+		final String path = file.getPath();
+		if(!index.getContainingFiles(INDEX_NAME, LOADED_FILE_PREFIX + path, scope).isEmpty())
+		{
+			return true;
+		}
+		// the classpath root is not known, so every tail of the path is a candidate resource name
+		for(int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1))
+		{
+			if(!index.getContainingFiles(INDEX_NAME, LOADED_RESOURCE_PREFIX + path.substring(i + 1), scope).isEmpty())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return thermit files directly importing or including the given file
+	 */
+	@NotNull
+	public static Collection<VirtualFile> getImportingFiles(@NotNull Project project, @NotNull VirtualFile file, @NotNull GlobalSearchScope scope)
+	{
+		if(DumbService.isDumb(project))
+		{
+			return Collections.emptyList();
+		}
+		return FileBasedIndex.getInstance().getContainingFiles(INDEX_NAME, file.getPath(), scope);
+	}
+
+	/**
+	 * @return thermit files importing or including the given file either directly or through other imported files; the file itself is not included
+	 */
+	@NotNull
+	public static Set<VirtualFile> getAllImportingFiles(@NotNull Project project, @NotNull VirtualFile file, @NotNull GlobalSearchScope scope)
+	{
+		final Set<VirtualFile> result = new LinkedHashSet<VirtualFile>();
+		final Deque<VirtualFile> toProcess = new ArrayDeque<VirtualFile>();
+		toProcess.add(file);
+		while(!toProcess.isEmpty())
+		{
+			for(VirtualFile importing : getImportingFiles(project, toProcess.removeFirst(), scope))
+			{
+				if(!importing.equals(file) && result.add(importing))
+				{
+					toProcess.addLast(importing);
+				}
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public int getVersion()
 	{
@@ -114,22 +276,22 @@ public class AntImportsIndex extends ScalarIndexExtension<Integer>
 
 	@Override
 	@NotNull
-	public ID<Integer, Void> getName()
+	public ID<String, Void> getName()
 	{
 		return INDEX_NAME;
 	}
 
 	@Override
 	@NotNull
-	public DataIndexer<Integer, Void, FileContent> getIndexer()
+	public DataIndexer<String, Void, FileContent> getIndexer()
 	{
 		return DATA_INDEXER;
 	}
 
 	@Override
-	public KeyDescriptor<Integer> getKeyDescriptor()
+	public KeyDescriptor<String> getKeyDescriptor()
 	{
-		return EnumeratorIntegerDescriptor.INSTANCE;
+		return new EnumeratorStringDescriptor();
 	}
 
 	@Override
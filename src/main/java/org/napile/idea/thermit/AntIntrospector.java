@@ -15,9 +15,12 @@
  */
 package org.napile.idea.thermit;
 
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -25,155 +28,211 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.util.Alarm;
 
 /**
+ * Introspection data is obtained from the thermit IntrospectionHelper once per introspected class
+ * and kept as an immutable snapshot. Snapshots are stored per class loader with weak keys and refer
+ * to other classes only weakly, so they go away together with the loader that defined the class.
+ *
  * @author Eugene Zhuravlev
  *         Date: Mar 22, 2007
  */
 public final class AntIntrospector
 {
 	private static final Logger LOG = Logger.getInstance(AntIntrospector.class);
-	private final Object myHelper;
-	//private static final ObjectCache<String, SoftReference<Object>> ourCache = new ObjectCache<String, SoftReference<Object>>(300);
-	private static final HashMap<Class, Object> ourCache = new HashMap<Class, Object>();
-	private static final Object ourNullObject = new Object();
-	private static final Alarm ourCacheCleaner = new Alarm(Alarm.ThreadToUse.SHARED_THREAD);
-	private static final int CACHE_CLEAN_TIMEOUT = 10000; // 10 seconds
-	private final Class myTypeClass;
+	private static final Map<ClassLoader, Map<Class, ClassDescriptor>> ourCache = new WeakHashMap<ClassLoader, Map<Class, ClassDescriptor>>();
+	private static final Map<Class, SoftReference<HelperMethods>> ourHelperMethods = new WeakHashMap<Class, SoftReference<HelperMethods>>();
+	private static final ClassDescriptor ourNullDescriptor = new ClassDescriptor();
+	private final ClassDescriptor myDescriptor;
 
-	public AntIntrospector(final Class aClass)
+	private AntIntrospector(@NotNull ClassDescriptor descriptor)
 	{
-		myTypeClass = aClass;
-		myHelper = getHelper(aClass);
+		myDescriptor = descriptor;
 	}
 
 	@Nullable
 	public static AntIntrospector getInstance(Class c)
 	{
-		final AntIntrospector antIntrospector = new AntIntrospector(c);
-		return antIntrospector.myHelper == null ? null : antIntrospector;
+		final ClassDescriptor descriptor = getDescriptor(c);
+		return descriptor == ourNullDescriptor ? null : new AntIntrospector(descriptor);
 	}
 
-	private <T> T invokeMethod(@NonNls String methodName, final boolean ignoreErrors, Object... params)
+	public Set<String> getExtensionPointTypes()
 	{
-		final Class helperClass = myHelper.getClass();
-		final Class[] types = new Class[params.length];
-		try
-		{
-			for(int idx = 0; idx < params.length; idx++)
-			{
-				types[idx] = params[idx].getClass();
-			}
-			final Method method = helperClass.getMethod(methodName, types);
-			return (T) method.invoke(myHelper, params);
-		}
-		catch(IllegalAccessException e)
+		return Collections.unmodifiableSet(myDescriptor.myExtensionPointTypes);
+	}
+
+	public Enumeration<String> getNestedElements()
+	{
+		return Collections.enumeration(myDescriptor.myNestedElements);
+	}
+
+	@Nullable
+	public Class getElementType(String name)
+	{
+		return dereference(myDescriptor.myNestedElementTypes.get(name));
+	}
+
+	public Enumeration<String> getAttributes()
+	{
+		return Collections.enumeration(myDescriptor.myAttributes);
+	}
+
+	@Nullable
+	public Class getAttributeType(final String attr)
+	{
+		return dereference(myDescriptor.myAttributeTypes.get(attr));
+	}
+
+	public boolean isContainer()
+	{
+		return myDescriptor.myIsContainer;
+	}
+
+	@Nullable
+	private static Class dereference(@Nullable WeakReference<Class> ref)
+	{
+		return ref == null ? null : ref.get();
+	}
+
+	@NotNull
+	private static ClassDescriptor getDescriptor(final Class aClass)
+	{
+		final ClassLoader loader = aClass.getClassLoader();
+		if(loader == null)
 		{
-			if(!ignoreErrors)
-			{
-				LOG.error(e);
-			}
+			return ourNullDescriptor;
 		}
-		catch(NoSuchMethodException e)
+		synchronized(ourCache)
 		{
-			if(!ignoreErrors)
+			final Map<Class, ClassDescriptor> loaderCache = ourCache.get(loader);
+			final ClassDescriptor descriptor = loaderCache != null ? loaderCache.get(aClass) : null;
+			if(descriptor != null)
 			{
-				LOG.error(e);
+				return descriptor;
 			}
 		}
-		catch(InvocationTargetException e)
+
+		final ClassDescriptor descriptor = createDescriptor(aClass, loader);
+
+		synchronized(ourCache)
 		{
-			final Throwable cause = e.getCause();
-			if(cause instanceof RuntimeException)
+			Map<Class, ClassDescriptor> loaderCache = ourCache.get(loader);
+			if(loaderCache == null)
 			{
-				throw (RuntimeException) cause;
-			}
-			if(cause instanceof Error)
-			{
-				throw (Error) cause;
-			}
-			if(!ignoreErrors)
-			{
-				LOG.error(e);
+				loaderCache = new WeakHashMap<Class, ClassDescriptor>();
+				ourCache.put(loader, loaderCache);
 			}
+			loaderCache.put(aClass, descriptor);
 		}
-		return null;
+		return descriptor;
 	}
 
-	public Set<String> getExtensionPointTypes()
+	@NotNull
+	private static ClassDescriptor createDescriptor(final Class aClass, final ClassLoader loader)
 	{
-		final List<Method> methods = invokeMethod("getExtensionPoints", true);
-		if(methods == null || methods.size() == 0)
+		final Class<?> helperClass;
+		try
 		{
-			return Collections.emptySet();
+			helperClass = loader.loadClass(ThermitClasses.IntrospectionHelper);
 		}
-		final Set<String> types = new HashSet<String>();
-		for(Method method : methods)
+		catch(ClassNotFoundException e)
 		{
-			final Class<?>[] paramTypes = method.getParameterTypes();
-			for(Class<?> paramType : paramTypes)
-			{
-				types.add(paramType.getName());
-			}
+			LOG.info(e);
+			return ourNullDescriptor;
 		}
-		return types;
-	}
-
-	public Enumeration<String> getNestedElements()
-	{
-		return invokeMethod("getNestedElements", false);
-	}
-
-	@Nullable
-	public Class getElementType(String name)
-	{
+		final HelperMethods methods = getHelperMethods(helperClass);
+		if(methods == null)
+		{
+			return ourNullDescriptor;
+		}
+		final Object helper;
 		try
 		{
-			return invokeMethod("getElementType", false, name);
+			helper = methods.myGetHelper.invoke(null, aClass);
 		}
-		catch(RuntimeException e)
+		catch(IllegalAccessException e)
 		{
-			return null;
+			LOG.info(e);
+			return ourNullDescriptor;
+		}
+		catch(InvocationTargetException ignored)
+		{
+			return ourNullDescriptor;
+		}
+		finally
+		{
+			clearAntStaticCache(helperClass);
+		}
+		if(helper == null)
+		{
+			return ourNullDescriptor;
 		}
-	}
 
-	public Enumeration<String> getAttributes()
-	{
-		return invokeMethod("getAttributes", false);
-	}
+		final ClassDescriptor descriptor = new ClassDescriptor();
 
-	@Nullable
-	public Class getAttributeType(final String attr)
-	{
-		try
+		final Enumeration<String> attributes = invoke(methods.myGetAttributes, helper, false);
+		if(attributes != null)
 		{
-			return invokeMethod("getAttributeType", false, attr);
+			while(attributes.hasMoreElements())
+			{
+				final String name = attributes.nextElement();
+				descriptor.myAttributes.add(name);
+				descriptor.myAttributeTypes.put(name, reference(invokeQuietly(methods.myGetAttributeType, helper, name)));
+			}
 		}
-		catch(RuntimeException e)
+
+		final Enumeration<String> nested = invoke(methods.myGetNestedElements, helper, false);
+		if(nested != null)
 		{
-			return null;
+			while(nested.hasMoreElements())
+			{
+				final String name = nested.nextElement();
+				descriptor.myNestedElements.add(name);
+				descriptor.myNestedElementTypes.put(name, reference(invokeQuietly(methods.myGetElementType, helper, name)));
+			}
 		}
+
+		if(methods.myGetExtensionPoints != null)
+		{
+			final List<Method> extensionPoints = invoke(methods.myGetExtensionPoints, helper, true);
+			if(extensionPoints != null)
+			{
+				for(Method method : extensionPoints)
+				{
+					for(Class<?> paramType : method.getParameterTypes())
+					{
+						descriptor.myExtensionPointTypes.add(paramType.getName());
+					}
+				}
+			}
+		}
+
+		descriptor.myIsContainer = isContainer(aClass, loader, methods, helper);
+		return descriptor;
 	}
 
-	public boolean isContainer()
+	private static boolean isContainer(Class aClass, ClassLoader loader, HelperMethods methods, Object helper)
 	{
 		try
 		{
-			final Object isContainer = invokeMethod("isContainer", true);
-			if(isContainer != null)
+			if(methods.myIsContainer != null)
 			{
-				return Boolean.TRUE.equals(isContainer);
+				final Object isContainer = invoke(methods.myIsContainer, helper, true);
+				if(isContainer != null)
+				{
+					return Boolean.TRUE.equals(isContainer);
+				}
 			}
-			final ClassLoader loader = myTypeClass.getClassLoader();
 			try
 			{
-				final Class<?> containerClass = loader != null ? loader.loadClass(ThermitClasses.TaskContainer) : null;
-				return containerClass.isAssignableFrom(myTypeClass);
+				return loader.loadClass(ThermitClasses.TaskContainer).isAssignableFrom(aClass);
 			}
 			catch(ClassNotFoundException ignored)
 			{
@@ -186,90 +245,101 @@ public final class AntIntrospector
 		return false;
 	}
 
-	// for debug purposes
-	//private static int ourAttempts = 0;
-	//private static int ourHits = 0;
 	@Nullable
-	private static Object getHelper(final Class aClass)
+	private static WeakReference<Class> reference(@Nullable Class aClass)
 	{
-		final ClassLoader loader = aClass.getClassLoader();
-		//final String key;
-		//final StringBuilder builder = StringBuilderSpinAllocator.alloc();
-		//try {
-		//  builder.append(aClass.getName());
-		//  if (loader != null) {
-		//    builder.append("_");
-		//    builder.append(loader.hashCode());
-		//  }
-		//  key = builder.toString();
-		//}
-		//finally {
-		//  StringBuilderSpinAllocator.dispose(builder);
-		//}
-
-		Object result = null;
+		return aClass == null ? null : new WeakReference<Class>(aClass);
+	}
 
-		synchronized(ourCache)
+	@Nullable
+	private static Class invokeQuietly(Method method, Object helper, String name)
+	{
+		try
+		{
+			return invoke(method, helper, false, name);
+		}
+		catch(RuntimeException e)
 		{
-			result = ourCache.get(aClass);
-			//final SoftReference<Object> ref = ourCache.get(aClass);
-			//result = (ref == null) ? null : ref.get();
-			//if (result == null && ref != null) {
-			//  ourCache.remove(aClass);
-			//}
+			return null;
 		}
+	}
 
-		if(result == null)
+	private static <T> T invoke(Method method, Object helper, final boolean ignoreErrors, Object... params)
+	{
+		try
 		{
-			result = ourNullObject;
-			Class<?> helperClass = null;
-			try
-			{
-				helperClass = loader != null ? loader.loadClass(ThermitClasses.IntrospectionHelper) : null;
-				final Method getHelperMethod = helperClass.getMethod("getHelper", Class.class);
-				result = getHelperMethod.invoke(null, aClass);
-			}
-			catch(ClassNotFoundException e)
+			return (T) method.invoke(helper, params);
+		}
+		catch(IllegalAccessException e)
+		{
+			if(!ignoreErrors)
 			{
-				LOG.info(e);
+				LOG.error(e);
 			}
-			catch(NoSuchMethodException e)
+		}
+		catch(InvocationTargetException e)
+		{
+			final Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)
 			{
-				LOG.info(e);
+				throw (RuntimeException) cause;
 			}
-			catch(IllegalAccessException e)
+			if(cause instanceof Error)
 			{
-				LOG.info(e);
+				throw (Error) cause;
 			}
-			catch(InvocationTargetException ignored)
+			if(!ignoreErrors)
 			{
+				LOG.error(e);
 			}
+		}
+		return null;
+	}
 
-			synchronized(ourCache)
+	@Nullable
+	private static HelperMethods getHelperMethods(final Class<?> helperClass)
+	{
+		synchronized(ourHelperMethods)
+		{
+			final SoftReference<HelperMethods> ref = ourHelperMethods.get(helperClass);
+			final HelperMethods methods = ref != null ? ref.get() : null;
+			if(methods != null)
 			{
-				if(helperClass != null)
-				{
-					clearAntStaticCache(helperClass);
-				}
-				//ourCache.put(aClass, new SoftReference<Object>(result));
-				ourCache.put(aClass, result);
+				return methods;
 			}
 		}
-		scheduleCacheCleaning();
-		return result == ourNullObject ? null : result;
+		final HelperMethods methods;
+		try
+		{
+			methods = new HelperMethods(helperClass);
+		}
+		catch(NoSuchMethodException e)
+		{
+			LOG.info(e);
+			return null;
+		}
+		synchronized(ourHelperMethods)
+		{
+			ourHelperMethods.put(helperClass, new SoftReference<HelperMethods>(methods));
+		}
+		return methods;
 	}
 
-	//private static int ourClearAttemptCount = 0;
+	@Nullable
+	private static Method findOptionalMethod(Class<?> helperClass, @NonNls String name)
+	{
+		try
+		{
+			return helperClass.getMethod(name);
+		}
+		catch(NoSuchMethodException ignored)
+		{
+			return null;
+		}
+	}
 
 	private static void clearAntStaticCache(final Class helperClass)
 	{
-		//if (++ourClearAttemptCount > 1000) { // allow not more than 1000 helpers cached inside thermit
-		//  ourClearAttemptCount = 0;
-		//}
-		//else {
-		//  return;
-		//}
-
 		// for thermit 1.7, there is a dedicated method for cache clearing
 		try
 		{
@@ -292,19 +362,43 @@ public final class AntIntrospector
 		}
 	}
 
-	private static void scheduleCacheCleaning()
+	/**
+	 * IntrospectionHelper methods resolved once per helper class
+	 */
+	private static final class HelperMethods
 	{
-		ourCacheCleaner.cancelAllRequests();
-		ourCacheCleaner.addRequest(new Runnable()
+		private final Method myGetHelper;
+		private final Method myGetAttributes;
+		private final Method myGetAttributeType;
+		private final Method myGetNestedElements;
+		private final Method myGetElementType;
+		@Nullable
+		private final Method myGetExtensionPoints;
+		@Nullable
+		private final Method myIsContainer;
+
+		private HelperMethods(Class<?> helperClass) throws NoSuchMethodException
 		{
-			public void run()
-			{
-				synchronized(ourCache)
-				{
-					ourCache.clear();
-				}
-			}
-		}, CACHE_CLEAN_TIMEOUT);
+			myGetHelper = helperClass.getMethod("getHelper", Class.class);
+			myGetAttributes = helperClass.getMethod("getAttributes");
+			myGetAttributeType = helperClass.getMethod("getAttributeType", String.class);
+			myGetNestedElements = helperClass.getMethod("getNestedElements");
+			myGetElementType = helperClass.getMethod("getElementType", String.class);
+			myGetExtensionPoints = findOptionalMethod(helperClass, "getExtensionPoints");
+			myIsContainer = findOptionalMethod(helperClass, "isContainer");
+		}
 	}
 
+	/**
+	 * Immutable once published: filled in by {@link #createDescriptor(Class, ClassLoader)} only
+	 */
+	private static final class ClassDescriptor
+	{
+		private final List<String> myAttributes = new ArrayList<String>();
+		private final Map<String, WeakReference<Class>> myAttributeTypes = new HashMap<String, WeakReference<Class>>();
+		private final List<String> myNestedElements = new ArrayList<String>();
+		private final Map<String, WeakReference<Class>> myNestedElementTypes = new HashMap<String, WeakReference<Class>>();
+		private final Set<String> myExtensionPointTypes = new HashSet<String>();
+		private boolean myIsContainer;
+	}
 }
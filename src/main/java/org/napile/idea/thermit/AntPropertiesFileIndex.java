@@ -0,0 +1,354 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+
+/**
+ * Keys, values and offsets of all properties in a .properties file, so that files loaded with &lt;property file="..."/&gt;
+ * are served without building PSI. The data is stored under the file name; the index is kept up-to-date on file changes by the platform.
+ * Per property it stores two strings and an offset, whereas PSI keeps an AST with several nodes per property in addition to the file text.
+ */
+public class AntPropertiesFileIndex extends FileBasedIndexExtension<String, AntPropertiesFileIndex.PropertiesFileData>
+{
+	public static final ID<String, PropertiesFileData> INDEX_NAME = ID.create("thermit-properties-files");
+	private static final int VERSION = 1;
+
+	private static final DataIndexer<String, PropertiesFileData, FileContent> DATA_INDEXER = new DataIndexer<String, PropertiesFileData, FileContent>()
+	{
+		@Override
+		@NotNull
+		public Map<String, PropertiesFileData> map(final FileContent inputData)
+		{
+			return Collections.singletonMap(inputData.getFileName(), parse(inputData.getContentAsText()));
+		}
+	};
+
+	private static final DataExternalizer<PropertiesFileData> VALUE_EXTERNALIZER = new DataExternalizer<PropertiesFileData>()
+	{
+		public void save(DataOutput out, PropertiesFileData value) throws IOException
+		{
+			out.writeInt(value.myValues.size());
+			for(Map.Entry<String, String> entry : value.myValues.entrySet())
+			{
+				IOUtil.writeUTF(out, entry.getKey());
+				IOUtil.writeUTF(out, entry.getValue());
+				out.writeInt(value.myOffsets.get(entry.getKey()));
+			}
+		}
+
+		public PropertiesFileData read(DataInput in) throws IOException
+		{
+			final int size = in.readInt();
+			final Map<String, String> values = new LinkedHashMap<String, String>(size * 4 / 3 + 1);
+			final Map<String, Integer> offsets = new HashMap<String, Integer>(size * 4 / 3 + 1);
+			for(int i = 0; i < size; i++)
+			{
+				final String key = IOUtil.readUTF(in);
+				values.put(key, IOUtil.readUTF(in));
+				offsets.put(key, in.readInt());
+			}
+			return new PropertiesFileData(values, offsets);
+		}
+	};
+
+	private static final FileBasedIndex.InputFilter INPUT_FILTER = new FileBasedIndex.InputFilter()
+	{
+		@Override
+		public boolean acceptInput(final VirtualFile file)
+		{
+			return file.getFileType() == StdFileTypes.PROPERTIES;
+		}
+	};
+
+	/**
+	 * @return properties of the file or null if the file is not indexed or indices are not available
+	 */
+	@Nullable
+	public static PropertiesFileData getData(@NotNull Project project, @NotNull VirtualFile file)
+	{
+		if(DumbService.isDumb(project))
+		{
+			return null;
+		}
+		final List<PropertiesFileData> values = FileBasedIndex.getInstance().getValues(INDEX_NAME, file.getName(), GlobalSearchScope.fileScope(project, file));
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * Parses properties the way java.util.Properties does: logical lines with continuations, comments and unicode escapes.
+	 * When a key is defined several times, the last definition wins.
+	 */
+	@NotNull
+	public static PropertiesFileData parse(@NotNull CharSequence text)
+	{
+		final Map<String, String> values = new LinkedHashMap<String, String>();
+		final Map<String, Integer> offsets = new HashMap<String, Integer>();
+		final StringBuilder line = new StringBuilder();
+		final int length = text.length();
+		int offset = 0;
+		while(offset < length)
+		{
+			final char c = text.charAt(offset);
+			if(isWhitespace(c) || c == '\n' || c == '\r')
+			{
+				offset++;
+				continue;
+			}
+			if(c == '#' || c == '!')
+			{
+				while(offset < length && text.charAt(offset) != '\n' && text.charAt(offset) != '\r')
+				{
+					offset++;
+				}
+				continue;
+			}
+			final int start = offset;
+			line.setLength(0);
+			offset = readLogicalLine(text, offset, line);
+			addProperty(line, start, values, offsets);
+		}
+		return new PropertiesFileData(values, offsets);
+	}
+
+	private static int readLogicalLine(CharSequence text, int offset, StringBuilder line)
+	{
+		final int length = text.length();
+		while(offset < length)
+		{
+			final char c = text.charAt(offset);
+			if(c == '\n' || c == '\r')
+			{
+				break;
+			}
+			if(c == '\\')
+			{
+				if(offset + 1 >= length)
+				{
+					// a trailing backslash at the end of the file is dropped
+					offset++;
+					continue;
+				}
+				final char next = text.charAt(offset + 1);
+				if(next == '\n' || next == '\r')
+				{
+					// line continuation: skip the line terminator and the leading whitespace of the next line
+					offset += 2;
+					if(next == '\r' && offset < length && text.charAt(offset) == '\n')
+					{
+						offset++;
+					}
+					while(offset < length && isWhitespace(text.charAt(offset)))
+					{
+						offset++;
+					}
+					continue;
+				}
+				// escapes are kept as is until the line is split into key and value
+				line.append(c).append(next);
+				offset += 2;
+				continue;
+			}
+			line.append(c);
+			offset++;
+		}
+		return offset;
+	}
+
+	private static void addProperty(CharSequence line, int offset, Map<String, String> values, Map<String, Integer> offsets)
+	{
+		final int length = line.length();
+		int keyEnd = 0;
+		while(keyEnd < length)
+		{
+			final char c = line.charAt(keyEnd);
+			if(c == '\\')
+			{
+				keyEnd += 2;
+				continue;
+			}
+			if(c == '=' || c == ':' || isWhitespace(c))
+			{
+				break;
+			}
+			keyEnd++;
+		}
+		keyEnd = Math.min(keyEnd, length);
+		int valueStart = keyEnd;
+		while(valueStart < length && isWhitespace(line.charAt(valueStart)))
+		{
+			valueStart++;
+		}
+		if(valueStart < length && (line.charAt(valueStart) == '=' || line.charAt(valueStart) == ':'))
+		{
+			valueStart++;
+			while(valueStart < length && isWhitespace(line.charAt(valueStart)))
+			{
+				valueStart++;
+			}
+		}
+		final String key = unescape(line, 0, keyEnd);
+		values.put(key, unescape(line, valueStart, length));
+		offsets.put(key, offset);
+	}
+
+	private static String unescape(CharSequence line, int start, int end)
+	{
+		final StringBuilder builder = new StringBuilder(end - start);
+		int i = start;
+		while(i < end)
+		{
+			char c = line.charAt(i++);
+			if(c == '\\' && i < end)
+			{
+				c = line.charAt(i++);
+				if(c == 'u' && i + 4 <= end)
+				{
+					try
+					{
+						c = (char) Integer.parseInt(line.subSequence(i, i + 4).toString(), 16);
+						i += 4;
+					}
+					catch(NumberFormatException e)
+					{
+						// malformed escape, keep the 'u'
+					}
+				}
+				else if(c == 't')
+				{
+					c = '\t';
+				}
+				else if(c == 'n')
+				{
+					c = '\n';
+				}
+				else if(c == 'r')
+				{
+					c = '\r';
+				}
+				else if(c == 'f')
+				{
+					c = '\f';
+				}
+			}
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	@Override
+	@NotNull
+	public ID<String, PropertiesFileData> getName()
+	{
+		return INDEX_NAME;
+	}
+
+	@Override
+	@NotNull
+	public DataIndexer<String, PropertiesFileData, FileContent> getIndexer()
+	{
+		return DATA_INDEXER;
+	}
+
+	@Override
+	public KeyDescriptor<String> getKeyDescriptor()
+	{
+		return new EnumeratorStringDescriptor();
+	}
+
+	@Override
+	public DataExternalizer<PropertiesFileData> getValueExternalizer()
+	{
+		return VALUE_EXTERNALIZER;
+	}
+
+	@Override
+	public FileBasedIndex.InputFilter getInputFilter()
+	{
+		return INPUT_FILTER;
+	}
+
+	@Override
+	public boolean dependsOnFileContent()
+	{
+		return true;
+	}
+
+	@Override
+	public int getVersion()
+	{
+		return VERSION;
+	}
+
+	public static final class PropertiesFileData
+	{
+		private final Map<String, String> myValues;
+		private final Map<String, Integer> myOffsets;
+
+		private PropertiesFileData(Map<String, String> values, Map<String, Integer> offsets)
+		{
+			myValues = Collections.unmodifiableMap(values);
+			myOffsets = offsets;
+		}
+
+		/**
+		 * @return unescaped keys to unescaped values, in the order of the file
+		 */
+		@NotNull
+		public Map<String, String> getValues()
+		{
+			return myValues;
+		}
+
+		/**
+		 * @return offset of the line defining the key or -1 if there is no such key
+		 */
+		public int getOffset(String key)
+		{
+			final Integer offset = myOffsets.get(key);
+			return offset != null ? offset : -1;
+		}
+	}
+}
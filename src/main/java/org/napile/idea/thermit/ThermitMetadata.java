@@ -0,0 +1,704 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.WeakValueHashMap;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.lang.UrlClassLoader;
+
+/**
+ * Class-free description of the tasks and types known to a thermit installation: definitions, attributes and
+ * nested elements of every reachable type, container and assignability information and predefined properties.
+ * <p/>
+ * The metadata is built once by loading the classes through {@link ReflectedProject} and {@link AntIntrospector} and
+ * is persisted under the IDE system directory, keyed by the installation classpath and a content hash of its jars.
+ * On a warm start it is read back without loading any thermit classes. Data derived from the metadata, such as
+ * the DOM extension templates, is kept in its user data and goes away with it.
+ */
+public final class ThermitMetadata extends UserDataHolderBase
+{
+	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.ThermitMetadata");
+	private static final int FORMAT_VERSION = 2;
+	@NonNls
+	private static final String CACHE_DIR = "thermit" + File.separator + "metadata";
+
+	private static final Map<ClassLoader, ThermitMetadata> ourLoaderCache = new WeakHashMap<ClassLoader, ThermitMetadata>();
+	// values are held by the loader cache only, so the metadata of installations no longer in use is collected
+	private static final Map<String, ThermitMetadata> ourKeyCache = new WeakValueHashMap<String, ThermitMetadata>();
+	private static final Map<String, Pair<Long, String>> ourJarDigests = new HashMap<String, Pair<Long, String>>();
+	private static final ThermitMetadata ourNullMetadata = new ThermitMetadata();
+
+	private final Map<String, String> myTaskDefinitions = new LinkedHashMap<String, String>();
+	private final Map<String, String> myDataTypeDefinitions = new LinkedHashMap<String, String>();
+	private final Map<String, TypeMetadata> myTypes = new HashMap<String, TypeMetadata>();
+	private final Map<String, String> myProperties = new HashMap<String, String>();
+	private String myProjectClassName;
+	private String myTargetClassName;
+
+	private ThermitMetadata()
+	{
+	}
+
+	/**
+	 * @return metadata for the installation the loader belongs to or null if thermit project cannot be instantiated with this loader
+	 */
+	@Nullable
+	public static ThermitMetadata getInstance(@NotNull ClassLoader loader)
+	{
+		synchronized(ourLoaderCache)
+		{
+			final ThermitMetadata metadata = ourLoaderCache.get(loader);
+			if(metadata != null)
+			{
+				return metadata == ourNullMetadata ? null : metadata;
+			}
+		}
+
+		final String key = computeKey(loader);
+		ThermitMetadata metadata = null;
+		if(key != null)
+		{
+			synchronized(ourKeyCache)
+			{
+				metadata = ourKeyCache.get(key);
+			}
+			if(metadata == null)
+			{
+				metadata = load(key);
+			}
+		}
+		if(metadata == null)
+		{
+			metadata = build(loader);
+			if(metadata != null && key != null)
+			{
+				save(key, metadata);
+			}
+		}
+		if(metadata != null && key != null)
+		{
+			synchronized(ourKeyCache)
+			{
+				ourKeyCache.put(key, metadata);
+			}
+		}
+
+		synchronized(ourLoaderCache)
+		{
+			ourLoaderCache.put(loader, metadata == null ? ourNullMetadata : metadata);
+		}
+		return metadata;
+	}
+
+	@NotNull
+	public Map<String, String> getTaskDefinitions()
+	{
+		return Collections.unmodifiableMap(myTaskDefinitions);
+	}
+
+	@NotNull
+	public Map<String, String> getDataTypeDefinitions()
+	{
+		return Collections.unmodifiableMap(myDataTypeDefinitions);
+	}
+
+	@NotNull
+	public Map<String, String> getProperties()
+	{
+		return Collections.unmodifiableMap(myProperties);
+	}
+
+	public String getProjectClassName()
+	{
+		return myProjectClassName;
+	}
+
+	public String getTargetClassName()
+	{
+		return myTargetClassName;
+	}
+
+	@Nullable
+	public TypeMetadata getType(@Nullable String className)
+	{
+		return className != null ? myTypes.get(className) : null;
+	}
+
+	public boolean isAssignableFrom(@NotNull String baseClassName, @Nullable String className)
+	{
+		final TypeMetadata type = getType(className);
+		return type != null && type.mySuperTypes.contains(baseClassName);
+	}
+
+	/**
+	 * File subclasses are reported as java.io.File, since that is the only thing the DOM layer is interested in
+	 */
+	@NotNull
+	public static String getAttributeTypeName(@NotNull Class attributeType)
+	{
+		return File.class.isAssignableFrom(attributeType) ? File.class.getName() : attributeType.getName();
+	}
+
+	// ----------------------------------------------------------------------------------------------------------------
+
+	@Nullable
+	private static ThermitMetadata build(ClassLoader loader)
+	{
+		final ReflectedProject reflected = ReflectedProject.getProject(loader);
+		final Object project = reflected.getProject();
+		if(project == null)
+		{
+			return null;
+		}
+		final ThermitMetadata metadata = new ThermitMetadata();
+		final LinkedList<Class> toVisit = new LinkedList<Class>();
+
+		metadata.myProjectClassName = project.getClass().getName();
+		toVisit.add(project.getClass());
+		final Class targetClass = reflected.getTargetClass();
+		if(targetClass != null)
+		{
+			metadata.myTargetClassName = targetClass.getName();
+			toVisit.add(targetClass);
+		}
+		copyDefinitions(reflected.getTaskDefinitions(), metadata.myTaskDefinitions, toVisit);
+		copyDefinitions(reflected.getDataTypeDefinitions(), metadata.myDataTypeDefinitions, toVisit);
+
+		while(!toVisit.isEmpty())
+		{
+			final Class aClass = toVisit.removeFirst();
+			if(!metadata.myTypes.containsKey(aClass.getName()))
+			{
+				metadata.myTypes.put(aClass.getName(), TypeMetadata.create(aClass, toVisit));
+			}
+		}
+
+		final Hashtable properties = reflected.getProperties();
+		if(properties != null)
+		{
+			final Properties systemProperties = System.getProperties();
+			for(Enumeration keys = properties.keys(); keys.hasMoreElements(); )
+			{
+				final Object name = keys.nextElement();
+				final Object value = properties.get(name);
+				// system properties are merged in when the metadata is loaded, so only installation-specific ones are kept
+				if(name instanceof String && value instanceof String && !value.equals(systemProperties.getProperty((String) name)))
+				{
+					metadata.myProperties.put((String) name, (String) value);
+				}
+			}
+			metadata.mergeSystemProperties();
+		}
+		return metadata;
+	}
+
+	private static void copyDefinitions(@Nullable Hashtable<String, Class> definitions, Map<String, String> to, List<Class> toVisit)
+	{
+		if(definitions != null)
+		{
+			for(Map.Entry<String, Class> entry : definitions.entrySet())
+			{
+				final Class type = entry.getValue();
+				if(type != null)
+				{
+					to.put(entry.getKey(), type.getName());
+					toVisit.add(type);
+				}
+			}
+		}
+	}
+
+	private void mergeSystemProperties()
+	{
+		final Properties systemProperties = System.getProperties();
+		for(Enumeration names = systemProperties.propertyNames(); names.hasMoreElements(); )
+		{
+			final String name = (String) names.nextElement();
+			if(!myProperties.containsKey(name))
+			{
+				myProperties.put(name, systemProperties.getProperty(name));
+			}
+		}
+	}
+
+	// ----------------------------------------------------------------------------------------------------------------
+
+	@Nullable
+	private static String computeKey(ClassLoader loader)
+	{
+		final List<URL> urls = new ArrayList<URL>();
+		for(ClassLoader current = loader; current instanceof UrlClassLoader; current = current.getParent())
+		{
+			urls.addAll(((UrlClassLoader) current).getUrls());
+		}
+		if(urls.isEmpty())
+		{
+			return null;
+		}
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			for(URL url : urls)
+			{
+				digest.update(url.toExternalForm().getBytes("UTF-8"));
+				if("file".equals(url.getProtocol()))
+				{
+					final File file = toFile(url);
+					if(file.isFile())
+					{
+						digest.update(getContentDigest(file).getBytes("UTF-8"));
+					}
+				}
+			}
+			return toHex(digest.digest());
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			LOG.info(e);
+		}
+		catch(IOException e)
+		{
+			LOG.info(e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the file of a "file:" url, with the escapes of the url decoded
+	 */
+	@NotNull
+	public static File toFile(@NotNull URL url)
+	{
+		try
+		{
+			return new File(url.toURI());
+		}
+		catch(URISyntaxException e)
+		{
+			return new File(url.getFile());
+		}
+		catch(IllegalArgumentException e)
+		{
+			return new File(url.getFile());
+		}
+	}
+
+	private static String getContentDigest(File file) throws IOException, NoSuchAlgorithmException
+	{
+		final String path = file.getPath();
+		final long stamp = file.lastModified() ^ (file.length() << 32);
+		synchronized(ourJarDigests)
+		{
+			final Pair<Long, String> cached = ourJarDigests.get(path);
+			if(cached != null && cached.getFirst().longValue() == stamp)
+			{
+				return cached.getSecond();
+			}
+		}
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		final InputStream stream = new FileInputStream(file);
+		try
+		{
+			final byte[] buffer = new byte[64 * 1024];
+			int read;
+			while((read = stream.read(buffer)) > 0)
+			{
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+		final String result = toHex(digest.digest());
+		synchronized(ourJarDigests)
+		{
+			ourJarDigests.put(path, new Pair<Long, String>(stamp, result));
+		}
+		return result;
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		final StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes)
+		{
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+	private static File getCacheFile(String key)
+	{
+		return new File(PathManager.getSystemPath() + File.separator + CACHE_DIR, key + ".dat");
+	}
+
+	@Nullable
+	private static ThermitMetadata load(String key)
+	{
+		final File file = getCacheFile(key);
+		if(!file.exists())
+		{
+			return null;
+		}
+		try
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != FORMAT_VERSION)
+				{
+					return null;
+				}
+				final ThermitMetadata metadata = new ThermitMetadata();
+				metadata.myProjectClassName = readString(in);
+				metadata.myTargetClassName = readNullableString(in);
+				readMap(in, metadata.myTaskDefinitions);
+				readMap(in, metadata.myDataTypeDefinitions);
+				readMap(in, metadata.myProperties);
+				final int typeCount = in.readInt();
+				for(int i = 0; i < typeCount; i++)
+				{
+					final TypeMetadata type = TypeMetadata.read(in);
+					metadata.myTypes.put(type.myClassName, type);
+				}
+				metadata.mergeSystemProperties();
+				return metadata;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(ProcessCanceledException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			// corrupted or incompatible cache file, will be rebuilt
+			LOG.info(e);
+			FileUtil.delete(file);
+			return null;
+		}
+	}
+
+	private static void save(String key, ThermitMetadata metadata)
+	{
+		final File file = getCacheFile(key);
+		final File tempFile = new File(file.getPath() + ".tmp");
+		try
+		{
+			FileUtil.createParentDirs(tempFile);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try
+			{
+				out.writeInt(FORMAT_VERSION);
+				writeString(out, metadata.myProjectClassName);
+				writeNullableString(out, metadata.myTargetClassName);
+				writeMap(out, metadata.myTaskDefinitions);
+				writeMap(out, metadata.myDataTypeDefinitions);
+				final Properties systemProperties = System.getProperties();
+				final Map<String, String> properties = new HashMap<String, String>();
+				for(Map.Entry<String, String> entry : metadata.myProperties.entrySet())
+				{
+					if(!entry.getValue().equals(systemProperties.getProperty(entry.getKey())))
+					{
+						properties.put(entry.getKey(), entry.getValue());
+					}
+				}
+				writeMap(out, properties);
+				out.writeInt(metadata.myTypes.size());
+				for(TypeMetadata type : metadata.myTypes.values())
+				{
+					type.write(out);
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			FileUtil.rename(tempFile, file);
+		}
+		catch(IOException e)
+		{
+			LOG.info(e);
+			FileUtil.delete(tempFile);
+		}
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException
+	{
+		IOUtil.writeUTF(out, value);
+	}
+
+	private static String readString(DataInput in) throws IOException
+	{
+		return IOUtil.readUTF(in);
+	}
+
+	private static void writeNullableString(DataOutput out, @Nullable String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if(value != null)
+		{
+			writeString(out, value);
+		}
+	}
+
+	@Nullable
+	private static String readNullableString(DataInput in) throws IOException
+	{
+		return in.readBoolean() ? readString(in) : null;
+	}
+
+	private static void writeMap(DataOutput out, Map<String, String> map) throws IOException
+	{
+		out.writeInt(map.size());
+		for(Map.Entry<String, String> entry : map.entrySet())
+		{
+			writeString(out, entry.getKey());
+			writeNullableString(out, entry.getValue());
+		}
+	}
+
+	private static void readMap(DataInput in, Map<String, String> map) throws IOException
+	{
+		final int size = in.readInt();
+		for(int i = 0; i < size; i++)
+		{
+			final String key = readString(in);
+			map.put(key, readNullableString(in));
+		}
+	}
+
+	private static void writeList(DataOutput out, List<String> list) throws IOException
+	{
+		out.writeInt(list.size());
+		for(String s : list)
+		{
+			writeString(out, s);
+		}
+	}
+
+	private static void readList(DataInput in, List<String> list) throws IOException
+	{
+		final int size = in.readInt();
+		for(int i = 0; i < size; i++)
+		{
+			list.add(readString(in));
+		}
+	}
+
+	/**
+	 * Introspection data of a single task or type class; all types are referred to by class name
+	 */
+	public static final class TypeMetadata
+	{
+		private final String myClassName;
+		private final Set<String> mySuperTypes = new HashSet<String>();
+		private final List<String> myAttributes = new ArrayList<String>();
+		private final Map<String, String> myAttributeTypes = new HashMap<String, String>();
+		private final List<String> myNestedElements = new ArrayList<String>();
+		private final Map<String, String> myNestedElementTypes = new HashMap<String, String>();
+		private final List<String> myExtensionPointTypes = new ArrayList<String>();
+		private boolean myIntrospectable;
+		private boolean myContainer;
+
+		private TypeMetadata(String className)
+		{
+			myClassName = className;
+		}
+
+		public String getClassName()
+		{
+			return myClassName;
+		}
+
+		/**
+		 * @return false if thermit could not introspect the class; only assignability information is available then
+		 */
+		public boolean isIntrospectable()
+		{
+			return myIntrospectable;
+		}
+
+		public boolean isContainer()
+		{
+			return myContainer;
+		}
+
+		@NotNull
+		public List<String> getAttributes()
+		{
+			return Collections.unmodifiableList(myAttributes);
+		}
+
+		@Nullable
+		public String getAttributeType(String attribute)
+		{
+			return myAttributeTypes.get(attribute);
+		}
+
+		@NotNull
+		public List<String> getNestedElements()
+		{
+			return Collections.unmodifiableList(myNestedElements);
+		}
+
+		@Nullable
+		public String getNestedElementType(String elementName)
+		{
+			return myNestedElementTypes.get(elementName);
+		}
+
+		@NotNull
+		public List<String> getExtensionPointTypes()
+		{
+			return Collections.unmodifiableList(myExtensionPointTypes);
+		}
+
+		private static TypeMetadata create(Class aClass, List<Class> toVisit)
+		{
+			final TypeMetadata type = new TypeMetadata(aClass.getName());
+			collectSuperTypes(aClass, type.mySuperTypes);
+
+			final AntIntrospector introspector;
+			try
+			{
+				introspector = AntIntrospector.getInstance(aClass);
+			}
+			catch(ProcessCanceledException e)
+			{
+				throw e;
+			}
+			catch(Throwable e)
+			{
+				LOG.info(e);
+				return type;
+			}
+			if(introspector == null)
+			{
+				return type;
+			}
+			type.myIntrospectable = true;
+			type.myContainer = introspector.isContainer();
+			type.myExtensionPointTypes.addAll(introspector.getExtensionPointTypes());
+			for(Enumeration<String> attributes = introspector.getAttributes(); attributes.hasMoreElements(); )
+			{
+				final String name = attributes.nextElement();
+				type.myAttributes.add(name);
+				final Class attributeType = introspector.getAttributeType(name);
+				if(attributeType != null)
+				{
+					type.myAttributeTypes.put(name, getAttributeTypeName(attributeType));
+				}
+			}
+			for(Enumeration<String> nested = introspector.getNestedElements(); nested.hasMoreElements(); )
+			{
+				final String name = nested.nextElement();
+				type.myNestedElements.add(name);
+				final Class elementType = introspector.getElementType(name);
+				if(elementType != null)
+				{
+					type.myNestedElementTypes.put(name, elementType.getName());
+					toVisit.add(elementType);
+				}
+			}
+			return type;
+		}
+
+		private static void collectSuperTypes(@Nullable Class aClass, Set<String> result)
+		{
+			if(aClass == null || !result.add(aClass.getName()))
+			{
+				return;
+			}
+			collectSuperTypes(aClass.getSuperclass(), result);
+			for(Class anInterface : aClass.getInterfaces())
+			{
+				collectSuperTypes(anInterface, result);
+			}
+		}
+
+		private void write(DataOutput out) throws IOException
+		{
+			writeString(out, myClassName);
+			out.writeBoolean(myIntrospectable);
+			out.writeBoolean(myContainer);
+			writeList(out, new ArrayList<String>(mySuperTypes));
+			writeList(out, myAttributes);
+			writeMap(out, myAttributeTypes);
+			writeList(out, myNestedElements);
+			writeMap(out, myNestedElementTypes);
+			writeList(out, myExtensionPointTypes);
+		}
+
+		private static TypeMetadata read(DataInput in) throws IOException
+		{
+			final TypeMetadata type = new TypeMetadata(readString(in));
+			type.myIntrospectable = in.readBoolean();
+			type.myContainer = in.readBoolean();
+			final List<String> superTypes = new ArrayList<String>();
+			readList(in, superTypes);
+			type.mySuperTypes.addAll(superTypes);
+			readList(in, type.myAttributes);
+			readMap(in, type.myAttributeTypes);
+			readList(in, type.myNestedElements);
+			readMap(in, type.myNestedElementTypes);
+			readList(in, type.myExtensionPointTypes);
+			return type;
+		}
+	}
+}
@@ -32,4 +32,9 @@ public interface AntBuildModelBase extends AntBuildModel
 	AntDomProject getAntProject();
 
 	boolean hasTargetWithActionId(final String id);
+
+	/**
+	 * @return a number that changes whenever the list of targets is recomputed
+	 */
+	long getModificationCount();
 }
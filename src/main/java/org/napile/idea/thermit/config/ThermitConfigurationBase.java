@@ -59,6 +59,11 @@ public abstract class ThermitConfigurationBase extends ThermitConfiguration
 
 	public abstract AntInstallation getProjectDefaultAnt();
 
+	/**
+	 * @return counter incremented every time build files, their settings or context mappings change
+	 */
+	public abstract long getModificationCount();
+
 	public ExternalizablePropertyContainer getProperties()
 	{
 		return myProperties;
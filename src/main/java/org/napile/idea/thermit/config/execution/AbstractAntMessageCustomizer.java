@@ -0,0 +1,52 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Base for customizers that only handle some of the output lines. The conditions are read once per build and
+ * compiled into a dispatch table, so {@link #createCustomizedMessage(String, int)} is only called for lines
+ * satisfying all of them. Customizers implementing {@link AntMessageCustomizer} directly see every line.
+ */
+public abstract class AbstractAntMessageCustomizer implements AntMessageCustomizer
+{
+	/**
+	 * @return literal prefixes of the lines to handle, or null to handle lines regardless of their start
+	 */
+	@Nullable
+	public String[] getPrefixes()
+	{
+		return null;
+	}
+
+	/**
+	 * @return names of the tasks whose output to handle, or null to handle the output of any task
+	 */
+	@Nullable
+	public String[] getTaskNames()
+	{
+		return null;
+	}
+
+	/**
+	 * @return the least important priority of the lines to handle, see {@link AntBuildMessageView#PRIORITY_VERBOSE}
+	 */
+	public int getPriorityThreshold()
+	{
+		return Integer.MAX_VALUE;
+	}
+}
@@ -85,6 +85,8 @@ import com.intellij.ui.content.ContentManagerAdapter;
 import com.intellij.ui.content.ContentManagerEvent;
 import com.intellij.ui.content.MessageView;
 import com.intellij.util.Alarm;
+import com.intellij.util.Consumer;
+import com.intellij.util.concurrency.QueueProcessor;
 import com.intellij.util.text.DateFormatUtil;
 
 public final class AntBuildMessageView extends JPanel implements DataProvider, OccurenceNavigator
@@ -120,15 +122,29 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 
 	private AntOutputView myCurrentView;
 
+	private final HyperlinkResolver myHyperlinkResolver;
 	private final PlainTextView myPlainTextView;
 	private final TreeView myTreeView;
 
+	private final BuildLogIndex myLogIndex = new BuildLogIndex();
+	private volatile BuildTextStore myTextStore = new BuildTextStore();
+	private final BuildLogSearchBar mySearchBar;
+
 	private final java.util.List<LogCommand> myLog = Collections.synchronizedList(new ArrayList<LogCommand>(1024));
 	private volatile int myCommandsProcessedCount = 0;
 
 	private JPanel myProgressPanel;
 
-	private final AntMessageCustomizer[] myMessageCustomizers = AntMessageCustomizer.EP_NAME.getExtensions();
+	private final AntMessageCustomizerTable myMessageCustomizers = new AntMessageCustomizerTable(AntMessageCustomizer.EP_NAME.getExtensions());
+	@Nullable
+	private final QueueProcessor<Runnable> myIngestQueue = myMessageCustomizers.isEmpty() ? null : new QueueProcessor<Runnable>(new Consumer<Runnable>()
+	{
+		public void consume(Runnable event)
+		{
+			event.run();
+		}
+	});
+	private String myCurrentTaskName;
 
 	private final Alarm myAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD);
 	private final Runnable myFlushLogRunnable = new Runnable()
@@ -181,18 +197,34 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 		myProject = project;
 		setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
 
-		myPlainTextView = new PlainTextView(project);
-		myTreeView = new TreeView(project, buildFile);
+		myHyperlinkResolver = new HyperlinkResolver(project);
+		myPlainTextView = new PlainTextView(project, myHyperlinkResolver);
+		myTreeView = new TreeView(project, buildFile, myHyperlinkResolver);
 
 		myMessagePanel = new JPanel(new BorderLayout());
 		myBuildFile = buildFile;
 		myTargets = targets;
+		mySearchBar = new BuildLogSearchBar(myLogIndex, new BuildLogSearchBar.Navigator()
+		{
+			public int getPriorityThreshold()
+			{
+				return myPriorityThreshold;
+			}
+
+			public void select(@NotNull BuildLogIndex.Match match)
+			{
+				selectMatch(match);
+			}
+		});
 
 		showAntView(AntBuildFileImpl.TREE_VIEW.value(buildFile.getAllOptions()));
 		setVerboseMode(AntBuildFileImpl.VERBOSE.value(buildFile.getAllOptions()));
 
+		final JPanel centerPanel = new JPanel(new BorderLayout());
+		centerPanel.add(mySearchBar, BorderLayout.NORTH);
+		centerPanel.add(myMessagePanel, BorderLayout.CENTER);
 		add(createToolbarPanel(), BorderLayout.WEST);
-		add(myMessagePanel, BorderLayout.CENTER);
+		add(centerPanel, BorderLayout.CENTER);
 	}
 
 	public void changeView()
@@ -266,6 +298,26 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 		repaint();
 	}
 
+	private void selectMatch(BuildLogIndex.Match match)
+	{
+		if(!myIsOutputPaused)
+		{
+			new OutputFlusher().doFlush();
+		}
+		final AntMessage message = match.getMessage();
+		if(isTreeView())
+		{
+			myTreeView.selectMessage(message);
+		}
+		else
+		{
+			// the console keeps no message boundaries, count the occurrences of the first line printed before the match
+			final String[] lines = message.getTextLines();
+			final String line = lines.length > 0 ? lines[0] : "";
+			myPlainTextView.selectText(line, myLogIndex.countOccurrencesBefore(match, line, myPriorityThreshold));
+		}
+	}
+
 	private AntOutputView getOutputView(boolean isText)
 	{
 		return isText ? myPlainTextView : myTreeView;
@@ -457,67 +509,111 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 		myAlarm.addRequest(myFlushLogRunnable, 100L);
 	}
 
-	public void startBuild(String buildName)
+	/**
+	 * Runs the handling of an event of the build. While customizers are registered, events are handled one by one on
+	 * a worker thread, so that customization does not hold up the output thread and the events keep their order.
+	 */
+	private void ingest(Runnable event)
 	{
-		addCommand(new StartBuildCommand(buildName));
+		if(myIngestQueue != null)
+		{
+			myIngestQueue.add(event);
+		}
+		else
+		{
+			event.run();
+		}
 	}
 
-	public void buildFailed(String buildName)
+	public void startBuild(final String buildName)
 	{
-		addCommand(new BuildFailedCommand(buildName));
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				addCommand(new StartBuildCommand(buildName));
+			}
+		});
 	}
 
-	public void startTarget(String targetName)
+	public void buildFailed(final String buildName)
 	{
-		addCommand(new StartTargetCommand(targetName));
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				addCommand(new BuildFailedCommand(buildName));
+			}
+		});
 	}
 
-	public void startTask(String taskName)
+	public void startTarget(final String targetName)
 	{
-		addCommand(new StartTaskCommand(taskName));
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				myLogIndex.startTarget(targetName);
+				addCommand(new StartTargetCommand(targetName));
+			}
+		});
 	}
 
-	public void outputMessage(final String text, final int priority)
+	public void startTask(final String taskName)
 	{
-		final AntMessage customizedMessage = getCustomizedMessage(text, priority);
-		final AntMessage message = customizedMessage != null ? customizedMessage : new AntMessage(MessageType.MESSAGE, priority, text, null, 0, 0);
-		updateErrorAndWarningCounters(message.getPriority());
-		addCommand(new AddMessageCommand(message));
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				myCurrentTaskName = taskName;
+				myLogIndex.startTask(taskName);
+				addCommand(new StartTaskCommand(taskName));
+			}
+		});
 	}
 
-	@Nullable
-	private AntMessage getCustomizedMessage(final String text, final int priority)
+	public void outputMessage(final String text, final int priority)
 	{
-		AntMessage customizedMessage = null;
-
-		for(AntMessageCustomizer customizer : myMessageCustomizers)
+		ingest(new Runnable()
 		{
-			customizedMessage = customizer.createCustomizedMessage(text, priority);
-			if(customizedMessage != null)
+			public void run()
 			{
-				break;
+				final AntMessage customizedMessage = myMessageCustomizers.customize(text, priority, myCurrentTaskName);
+				final AntMessage message = addToLog(customizedMessage != null ? customizedMessage : new AntMessage(MessageType.MESSAGE, priority, text, null, 0, 0));
+				updateErrorAndWarningCounters(message.getPriority());
+				addCommand(new AddMessageCommand(message));
 			}
-		}
-
-		return customizedMessage;
+		});
 	}
 
-	public void outputError(String error, int priority)
+	public void outputError(final String error, final int priority)
 	{
-		//updateErrorAndWarningCounters(priority);
-		AntMessage message = createErrorMessage(MessageType.ERROR, priority, error);
-		addMessage(MessageType.ERROR, priority, error, message.getFile(), message.getLine(), message.getColumn());
-		WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
-		wolf.queue(message.getFile());
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				//updateErrorAndWarningCounters(priority);
+				AntMessage message = createErrorMessage(MessageType.ERROR, priority, error);
+				addMessage(MessageType.ERROR, priority, error, message.getFile(), message.getLine(), message.getColumn());
+				WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
+				wolf.queue(message.getFile());
+			}
+		});
 	}
 
-	public void outputException(String exception)
+	public void outputException(final String exception)
 	{
-		updateErrorAndWarningCounters(PRIORITY_ERR);
-		AntMessage message = createErrorMessage(MessageType.ERROR, 0, exception);
-		addCommand(new AddExceptionCommand(message));
-		WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
-		wolf.queue(message.getFile());
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				updateErrorAndWarningCounters(PRIORITY_ERR);
+				AntMessage message = addToLog(createErrorMessage(MessageType.ERROR, 0, exception));
+				addCommand(new AddExceptionCommand(message));
+				WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
+				wolf.queue(message.getFile());
+			}
+		});
 	}
 
 
@@ -535,12 +631,27 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 
 	public void finishTarget()
 	{
-		addCommand(new FinishTargetCommand());
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				myLogIndex.finishTarget();
+				addCommand(new FinishTargetCommand());
+			}
+		});
 	}
 
 	public void finishTask()
 	{
-		addCommand(new FinishTaskCommand());
+		ingest(new Runnable()
+		{
+			public void run()
+			{
+				myCurrentTaskName = null;
+				myLogIndex.finishTask();
+				addCommand(new FinishTaskCommand());
+			}
+		});
 	}
 
 	public Object getData(String dataId)
@@ -605,21 +716,40 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 
 	private void addMessage(MessageType type, int priority, String text, VirtualFile file, int line, int column)
 	{
-		AntMessage message = new AntMessage(type, priority, text, file, line, column);
+		AntMessage message = addToLog(new AntMessage(type, priority, text, file, line, column));
 		addCommand(new AddMessageCommand(message));
 	}
 
-	public void outputJavacMessage(MessageType type, String[] text, VirtualFile file, String url, int line, int column)
+	/**
+	 * Moves the text of the message to the store of the build and indexes the message.
+	 *
+	 * @return the message to keep in the log
+	 */
+	private AntMessage addToLog(AntMessage message)
+	{
+		final String text = message.getText();
+		final AntMessage stored = message.storeText(myTextStore);
+		myLogIndex.add(stored, text);
+		return stored;
+	}
+
+	public void outputJavacMessage(final MessageType type, final String[] text, final VirtualFile file, final String url, final int line, final int column)
 	{
-		int priority = type == MessageType.ERROR ? PRIORITY_ERR : PRIORITY_VERBOSE;
-		updateErrorAndWarningCounters(priority);
-		AntMessage message = new AntMessage(type, priority, text, file, line, column);
-		addCommand(new AddJavacMessageCommand(message, url));
-		if(type == MessageType.ERROR)
+		ingest(new Runnable()
 		{
-			WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
-			wolf.queue(file);
-		}
+			public void run()
+			{
+				int priority = type == MessageType.ERROR ? PRIORITY_ERR : PRIORITY_VERBOSE;
+				updateErrorAndWarningCounters(priority);
+				AntMessage message = addToLog(new AntMessage(type, priority, text, file, line, column));
+				addCommand(new AddJavacMessageCommand(message, url));
+				if(type == MessageType.ERROR)
+				{
+					WolfTheProblemSolver wolf = WolfTheProblemSolver.getInstance(myProject);
+					wolf.queue(file);
+				}
+			}
+		});
 	}
 
 	private JComponent getComponent()
@@ -630,6 +760,10 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 	public void emptyAll()
 	{
 		myLog.clear();
+		myLogIndex.clear();
+		myTextStore = new BuildTextStore();
+		mySearchBar.reset();
+		myHyperlinkResolver.reset();
 		myCommandsProcessedCount = 0;
 		myErrorCount = 0;
 		myWarningCount = 0;
@@ -678,6 +812,7 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 				myContent = null;
 				buildMessageView.myBuildFile = null;
 				buildMessageView.myPlainTextView.dispose();
+				buildMessageView.myTreeView.dispose();
 			}
 		}
 
@@ -945,6 +1080,18 @@ public final class AntBuildMessageView extends JPanel implements DataProvider, O
 
 	void buildFinished(boolean isProgressAborted, long buildTimeInMilliseconds, @NotNull final AntBuildListener antBuildListener, OutputPacketProcessor dispatcher)
 	{
+		if(myIngestQueue != null)
+		{
+			// the events still queued belong to the build
+			myIngestQueue.waitFor();
+			if(LOG.isDebugEnabled())
+			{
+				for(AntMessageCustomizerTable.Statistics statistics : myMessageCustomizers.getStatistics())
+				{
+					LOG.debug(statistics.getCustomizer().getClass().getName() + ": " + statistics.getCallCount() + " calls, " + statistics.getHitCount() + " messages, " + statistics.getTimeNanos() / 1000000 + " ms");
+				}
+			}
+		}
 		final boolean aborted = isProgressAborted || myIsAborted;
 		final String message = getFinishStatusText(aborted, buildTimeInMilliseconds);
 
@@ -18,45 +18,69 @@ package org.napile.idea.thermit.config.execution;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 
+import org.jetbrains.annotations.NotNull;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.StringBuilderSpinAllocator;
 
+/**
+ * A build message. Its text is kept as a string until the message is ingested, then in the {@link BuildTextStore} of
+ * the build; lines are split on demand. Type, priority and whether blank lines are kept share one field.
+ */
 public final class AntMessage
 {
-	private final AntBuildMessageView.MessageType myType;
-	private final int myPriority;
-	private final String myText;
-	private final String[] myTextLines;
+	private static final AntBuildMessageView.MessageType[] TYPES = AntBuildMessageView.MessageType.values();
+	private static final int TYPE_MASK = 0x7F;
+	private static final int KEEPS_BLANK_LINES = 0x80;
+	private static final int PRIORITY_SHIFT = 8;
+
+	/**
+	 * The text itself, or the store holding it in {@link #myTextLength} bytes at {@link #myTextOffset}.
+	 */
+	private final Object myText;
+	private final int myTextOffset;
+	private final int myTextLength;
 	private final VirtualFile myFile;
 	private final int myLine;
 	private final int myColumn;
+	private final int myFlags;
 
 	public AntMessage(AntBuildMessageView.MessageType type, int priority, String text, VirtualFile file, int line, int column)
 	{
-		myType = type;
-		myPriority = priority;
-		myFile = file;
-		myLine = line;
-		myColumn = column;
-		myText = text;
-		ArrayList<String> lines = new ArrayList<String>();
-		StringTokenizer tokenizer = new StringTokenizer(myText, "\r\n");
-		while(tokenizer.hasMoreTokens())
-		{
-			lines.add(tokenizer.nextToken());
-		}
-		myTextLines = ArrayUtil.toStringArray(lines);
+		this(getFlags(type, priority, false), text, file, line, column);
 	}
 
+	/**
+	 * Creates a message of the lines, blank ones included.
+	 */
 	public AntMessage(AntBuildMessageView.MessageType type, int priority, String[] lines, VirtualFile file, int line, int column)
 	{
-		myType = type;
-		myPriority = priority;
+		this(getFlags(type, priority, true), join(lines), file, line, column);
+	}
+
+	private AntMessage(int flags, String text, VirtualFile file, int line, int column)
+	{
+		this(flags, text, 0, 0, file, line, column);
+	}
+
+	private AntMessage(int flags, Object text, int textOffset, int textLength, VirtualFile file, int line, int column)
+	{
+		myFlags = flags;
+		myText = text;
+		myTextOffset = textOffset;
+		myTextLength = textLength;
 		myFile = file;
 		myLine = line;
 		myColumn = column;
-		myTextLines = lines;
+	}
+
+	private static int getFlags(AntBuildMessageView.MessageType type, int priority, boolean keepsBlankLines)
+	{
+		return type.ordinal() | (keepsBlankLines ? KEEPS_BLANK_LINES : 0) | (priority << PRIORITY_SHIFT);
+	}
+
+	private static String join(String[] lines)
+	{
 		final StringBuilder builder = StringBuilderSpinAllocator.alloc();
 		try
 		{
@@ -65,7 +89,7 @@ public final class AntMessage
 				builder.append(aLine);
 				builder.append('\n');
 			}
-			myText = builder.toString();
+			return builder.toString();
 		}
 		finally
 		{
@@ -73,24 +97,75 @@ public final class AntMessage
 		}
 	}
 
+	/**
+	 * @return the message with its text moved to the store, or this message if the text is stored already or the store
+	 * is full
+	 */
+	@NotNull
+	AntMessage storeText(@NotNull BuildTextStore store)
+	{
+		if(!(myText instanceof String))
+		{
+			return this;
+		}
+		final byte[] bytes = BuildTextStore.encode((String) myText);
+		final int offset = store.append(bytes);
+		return offset < 0 ? this : new AntMessage(myFlags, store, offset, bytes.length, myFile, myLine, myColumn);
+	}
+
 	public AntBuildMessageView.MessageType getType()
 	{
-		return myType;
+		return TYPES[myFlags & TYPE_MASK];
 	}
 
 	public int getPriority()
 	{
-		return myPriority;
+		return myFlags >> PRIORITY_SHIFT;
 	}
 
+	/**
+	 * @return the text, a new string on each call once the text is stored
+	 */
 	public String getText()
 	{
-		return myText;
+		return myText instanceof String ? (String) myText : ((BuildTextStore) myText).getText(myTextOffset, myTextLength);
 	}
 
+	/**
+	 * @return lines of the text, without the blank ones unless the message was created of lines; a new array is
+	 * created on each call
+	 */
 	public String[] getTextLines()
 	{
-		return myTextLines;
+		final String text = getText();
+		if(text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+		{
+			return text.length() == 0 ? ArrayUtil.EMPTY_STRING_ARRAY : new String[]{text};
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		if((myFlags & KEEPS_BLANK_LINES) != 0)
+		{
+			// every line is followed by '\n', see join()
+			int start = 0;
+			for(int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start))
+			{
+				lines.add(text.substring(start, end));
+				start = end + 1;
+			}
+			if(start < text.length())
+			{
+				lines.add(text.substring(start));
+			}
+		}
+		else
+		{
+			StringTokenizer tokenizer = new StringTokenizer(text, "\r\n");
+			while(tokenizer.hasMoreTokens())
+			{
+				lines.add(tokenizer.nextToken());
+			}
+		}
+		return ArrayUtil.toStringArray(lines);
 	}
 
 	public VirtualFile getFile()
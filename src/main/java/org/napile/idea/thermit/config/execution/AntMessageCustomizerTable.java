@@ -0,0 +1,236 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Dispatch table of the message customizers of a build. Customizers declaring prefixes are filed under the first
+ * character of each prefix, so a line is only offered to the customizers whose prefix can match it and to those
+ * without prefixes, still in the order of registration. The first customized message wins.
+ */
+final class AntMessageCustomizerTable
+{
+	private final List<Entry> myEntries = new ArrayList<Entry>();
+	private final Entry[] myUnconditional;
+	private final Map<Character, Entry[]> myByFirstChar = new HashMap<Character, Entry[]>();
+
+	AntMessageCustomizerTable(@NotNull AntMessageCustomizer[] customizers)
+	{
+		final List<Entry> unconditional = new ArrayList<Entry>();
+		final Map<Character, List<Entry>> byFirstChar = new HashMap<Character, List<Entry>>();
+		for(AntMessageCustomizer customizer : customizers)
+		{
+			final Entry entry = new Entry(customizer, myEntries.size());
+			myEntries.add(entry);
+			if(entry.myPrefixes == null)
+			{
+				unconditional.add(entry);
+				continue;
+			}
+			for(String prefix : entry.myPrefixes)
+			{
+				List<Entry> entries = byFirstChar.get(prefix.charAt(0));
+				if(entries == null)
+				{
+					entries = new ArrayList<Entry>();
+					byFirstChar.put(prefix.charAt(0), entries);
+				}
+				if(!entries.contains(entry))
+				{
+					entries.add(entry);
+				}
+			}
+		}
+		myUnconditional = unconditional.toArray(new Entry[unconditional.size()]);
+		for(Map.Entry<Character, List<Entry>> mapEntry : byFirstChar.entrySet())
+		{
+			final List<Entry> entries = mapEntry.getValue();
+			entries.addAll(unconditional);
+			// keep the order of registration
+			Collections.sort(entries, new Comparator<Entry>()
+			{
+				public int compare(Entry e1, Entry e2)
+				{
+					return e1.myOrder - e2.myOrder;
+				}
+			});
+			myByFirstChar.put(mapEntry.getKey(), entries.toArray(new Entry[entries.size()]));
+		}
+	}
+
+	boolean isEmpty()
+	{
+		return myEntries.isEmpty();
+	}
+
+	@Nullable
+	AntMessage customize(@NotNull String text, int priority, @Nullable String taskName)
+	{
+		Entry[] candidates = text.length() > 0 ? myByFirstChar.get(text.charAt(0)) : null;
+		if(candidates == null)
+		{
+			candidates = myUnconditional;
+		}
+		for(Entry entry : candidates)
+		{
+			if(!entry.matches(text, priority, taskName))
+			{
+				continue;
+			}
+			final long start = System.nanoTime();
+			final AntMessage message = entry.myCustomizer.createCustomizedMessage(text, priority);
+			entry.myTime += System.nanoTime() - start;
+			entry.myCallCount++;
+			if(message != null)
+			{
+				entry.myHitCount++;
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return time spent in each customizer, in the order of registration
+	 */
+	@NotNull
+	List<Statistics> getStatistics()
+	{
+		return Collections.<Statistics>unmodifiableList(myEntries);
+	}
+
+	interface Statistics
+	{
+		@NotNull
+		AntMessageCustomizer getCustomizer();
+
+		int getCallCount();
+
+		int getHitCount();
+
+		long getTimeNanos();
+	}
+
+	private static final class Entry implements Statistics
+	{
+		private final AntMessageCustomizer myCustomizer;
+		private final int myOrder;
+		@Nullable
+		private final String[] myPrefixes;
+		@Nullable
+		private final Set<String> myTaskNames;
+		private final int myPriorityThreshold;
+		private int myCallCount;
+		private int myHitCount;
+		private long myTime;
+
+		private Entry(AntMessageCustomizer customizer, int order)
+		{
+			myCustomizer = customizer;
+			myOrder = order;
+			if(customizer instanceof AbstractAntMessageCustomizer)
+			{
+				final AbstractAntMessageCustomizer matching = (AbstractAntMessageCustomizer) customizer;
+				myPrefixes = getPrefixes(matching);
+				final String[] taskNames = matching.getTaskNames();
+				myTaskNames = taskNames != null ? new HashSet<String>(Arrays.asList(taskNames)) : null;
+				myPriorityThreshold = matching.getPriorityThreshold();
+			}
+			else
+			{
+				myPrefixes = null;
+				myTaskNames = null;
+				myPriorityThreshold = Integer.MAX_VALUE;
+			}
+		}
+
+		@Nullable
+		private static String[] getPrefixes(AbstractAntMessageCustomizer customizer)
+		{
+			final String[] prefixes = customizer.getPrefixes();
+			if(prefixes == null)
+			{
+				return null;
+			}
+			for(String prefix : prefixes)
+			{
+				if(prefix.length() == 0)
+				{
+					// matches every line
+					return null;
+				}
+			}
+			return prefixes;
+		}
+
+		private boolean matches(String text, int priority, @Nullable String taskName)
+		{
+			if(priority > myPriorityThreshold)
+			{
+				return false;
+			}
+			if(myTaskNames != null && (taskName == null || !myTaskNames.contains(taskName)))
+			{
+				return false;
+			}
+			if(myPrefixes != null)
+			{
+				for(String prefix : myPrefixes)
+				{
+					if(text.startsWith(prefix))
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@NotNull
+		public AntMessageCustomizer getCustomizer()
+		{
+			return myCustomizer;
+		}
+
+		public int getCallCount()
+		{
+			return myCallCount;
+		}
+
+		public int getHitCount()
+		{
+			return myHitCount;
+		}
+
+		public long getTimeNanos()
+		{
+			return myTime;
+		}
+	}
+}
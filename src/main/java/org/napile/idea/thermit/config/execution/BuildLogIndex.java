@@ -0,0 +1,700 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Trigram index over the messages of a build, filled as the messages arrive. A search looks up the trigrams of the
+ * query (or of the longest literal of a regular expression), intersects their posting lists and checks only the
+ * remaining candidates, so its cost depends on the number of matches rather than on the size of the log.
+ * Matching is case-insensitive, with characters lowered one by one and independently of the default locale.
+ * <p/>
+ * A posting list holds every message containing the trigram once, as variable-length deltas of the ascending message
+ * ids, which takes a byte per id for the common trigrams. When all posting lists together exceed {@link #MAX_POSTINGS_SIZE}
+ * the index is dropped for the rest of the build and searches check all messages.
+ * The index is filled on the output thread and searched in the event dispatch thread.
+ */
+final class BuildLogIndex
+{
+	private static final int TRIGRAM = 3;
+	static final int MAX_POSTINGS_SIZE = 32 * 1024 * 1024;
+	// the posting object, its array and its slot in the map
+	private static final int POSTING_OVERHEAD = 64;
+
+	private final List<Entry> myEntries = new ArrayList<Entry>();
+	private final TLongObjectHashMap<Posting> myPostings = new TLongObjectHashMap<Posting>();
+	private final int myMaxPostingsSize;
+	private int myPostingsSize;
+	private boolean myIndexDropped;
+	@Nullable
+	private String myCurrentTarget;
+	@Nullable
+	private String myCurrentTask;
+
+	BuildLogIndex()
+	{
+		this(MAX_POSTINGS_SIZE);
+	}
+
+	BuildLogIndex(int maxPostingsSize)
+	{
+		myMaxPostingsSize = maxPostingsSize;
+	}
+
+	synchronized void startTarget(String name)
+	{
+		myCurrentTarget = name;
+		myCurrentTask = null;
+	}
+
+	synchronized void finishTarget()
+	{
+		myCurrentTarget = null;
+		myCurrentTask = null;
+	}
+
+	synchronized void startTask(String name)
+	{
+		myCurrentTask = name;
+	}
+
+	synchronized void finishTask()
+	{
+		myCurrentTask = null;
+	}
+
+	/**
+	 * @param text text of the message, passed in so that a message keeping its text in the store does not copy it again
+	 */
+	synchronized void add(@NotNull AntMessage message, @NotNull String text)
+	{
+		final int id = myEntries.size();
+		myEntries.add(new Entry(message, myCurrentTarget, myCurrentTask));
+		if(myIndexDropped)
+		{
+			return;
+		}
+		final int length = text.length();
+		for(int i = 0; i + TRIGRAM <= length; i++)
+		{
+			final long trigram = trigram(text, i);
+			Posting posting = myPostings.get(trigram);
+			if(posting == null)
+			{
+				posting = new Posting();
+				myPostings.put(trigram, posting);
+				myPostingsSize += POSTING_OVERHEAD;
+			}
+			// a trigram repeated in the message is recorded once
+			myPostingsSize += posting.add(id);
+		}
+		if(myPostingsSize > myMaxPostingsSize)
+		{
+			myIndexDropped = true;
+			myPostings.clear();
+			myPostingsSize = 0;
+		}
+	}
+
+	synchronized void clear()
+	{
+		myEntries.clear();
+		myPostings.clear();
+		myPostingsSize = 0;
+		myIndexDropped = false;
+		myCurrentTarget = null;
+		myCurrentTask = null;
+	}
+
+	/**
+	 * @return false if the log grew too large and searches check all messages
+	 */
+	synchronized boolean isIndexed()
+	{
+		return !myIndexDropped;
+	}
+
+	synchronized int size()
+	{
+		return myEntries.size();
+	}
+
+	/**
+	 * @return matching messages in the order they were reported
+	 */
+	@NotNull
+	synchronized List<Match> search(@NotNull Query query)
+	{
+		final String literal = query.getLiteral();
+		final TIntArrayList candidates = literal.length() >= TRIGRAM ? intersect(literal) : null;
+		final int count = candidates != null ? candidates.size() : myEntries.size();
+		final List<Match> result = new ArrayList<Match>();
+		for(int i = 0; i < count; i++)
+		{
+			final int id = candidates != null ? candidates.get(i) : i;
+			final Entry entry = myEntries.get(id);
+			if(entry.myMessage.getPriority() > query.myPriorityThreshold)
+			{
+				continue;
+			}
+			if(query.myTarget != null && !query.myTarget.equalsIgnoreCase(entry.myTarget))
+			{
+				continue;
+			}
+			if(query.myTask != null && !query.myTask.equalsIgnoreCase(entry.myTask))
+			{
+				continue;
+			}
+			if(query.matches(entry.myMessage.getText()))
+			{
+				result.add(new Match(entry.myMessage, id));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many times the text occurs in the messages reported before the match and shown at the priority threshold
+	 */
+	synchronized int countOccurrencesBefore(@NotNull Match match, @NotNull String text, int priorityThreshold)
+	{
+		final TIntArrayList candidates = text.length() >= TRIGRAM ? intersect(text) : null;
+		final int count = candidates != null ? candidates.size() : match.myId;
+		int result = 0;
+		for(int i = 0; i < count; i++)
+		{
+			final int id = candidates != null ? candidates.get(i) : i;
+			if(id >= match.myId)
+			{
+				break;
+			}
+			final AntMessage message = myEntries.get(id).myMessage;
+			if(message.getPriority() > priorityThreshold)
+			{
+				continue;
+			}
+			final String messageText = message.getText();
+			for(int index = messageText.indexOf(text); index >= 0; index = messageText.indexOf(text, index + text.length()))
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return ids of the messages containing all trigrams of the literal, in ascending order, or null if the index was
+	 *         dropped and all messages are candidates
+	 */
+	@Nullable
+	TIntArrayList intersect(String literal)
+	{
+		if(myIndexDropped)
+		{
+			return null;
+		}
+		final List<Posting> postings = new ArrayList<Posting>();
+		for(int i = 0; i + TRIGRAM <= literal.length(); i++)
+		{
+			final Posting posting = myPostings.get(trigram(literal, i));
+			if(posting == null)
+			{
+				return new TIntArrayList(0);
+			}
+			postings.add(posting);
+		}
+		// the shortest list bounds the result, the others are only walked along it
+		Posting shortest = postings.get(0);
+		for(Posting posting : postings)
+		{
+			if(posting.myCount < shortest.myCount)
+			{
+				shortest = posting;
+			}
+		}
+		TIntArrayList result = shortest.toList();
+		for(Posting posting : postings)
+		{
+			if(posting != shortest)
+			{
+				result = posting.intersect(result);
+				if(result.isEmpty())
+				{
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static long trigram(String text, int offset)
+	{
+		long result = 0;
+		for(int i = offset; i < offset + TRIGRAM; i++)
+		{
+			result = (result << 16) | Character.toLowerCase(text.charAt(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Lowers the characters one by one, the way trigrams are built, so that the result neither depends on the default
+	 * locale nor changes its length
+	 */
+	@NotNull
+	static String toLowerCase(@NotNull String text)
+	{
+		final char[] chars = text.toCharArray();
+		for(int i = 0; i < chars.length; i++)
+		{
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Ascending message ids, each stored as the variable-length difference to the previous one
+	 */
+	private static final class Posting
+	{
+		private byte[] myData = new byte[2];
+		private int mySize;
+		private int myCount;
+		private int myLastId = -1;
+
+		/**
+		 * @return number of bytes the posting grew by
+		 */
+		private int add(int id)
+		{
+			if(id == myLastId)
+			{
+				return 0;
+			}
+			int delta = id - myLastId;
+			myLastId = id;
+			myCount++;
+			final int oldCapacity = myData.length;
+			if(mySize + 5 > oldCapacity)
+			{
+				final byte[] data = new byte[Math.max(oldCapacity * 2, mySize + 5)];
+				System.arraycopy(myData, 0, data, 0, mySize);
+				myData = data;
+			}
+			while(delta >= 0x80)
+			{
+				myData[mySize++] = (byte) (delta & 0x7F | 0x80);
+				delta >>>= 7;
+			}
+			myData[mySize++] = (byte) delta;
+			return myData.length - oldCapacity;
+		}
+
+		private TIntArrayList toList()
+		{
+			final TIntArrayList result = new TIntArrayList(myCount);
+			int id = -1;
+			int offset = 0;
+			while(offset < mySize)
+			{
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do
+				{
+					b = myData[offset++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				}
+				while(b < 0);
+				id += delta;
+				result.add(id);
+			}
+			return result;
+		}
+
+		/**
+		 * @return the ids of the sorted list which the posting contains as well
+		 */
+		private TIntArrayList intersect(TIntArrayList ids)
+		{
+			final TIntArrayList result = new TIntArrayList(ids.size());
+			int id = -1;
+			int offset = 0;
+			for(int i = 0; i < ids.size(); i++)
+			{
+				final int wanted = ids.get(i);
+				while(id < wanted && offset < mySize)
+				{
+					int delta = 0;
+					int shift = 0;
+					byte b;
+					do
+					{
+						b = myData[offset++];
+						delta |= (b & 0x7F) << shift;
+						shift += 7;
+					}
+					while(b < 0);
+					id += delta;
+				}
+				if(id == wanted)
+				{
+					result.add(wanted);
+				}
+				else if(id < wanted)
+				{
+					break;
+				}
+			}
+			return result;
+		}
+	}
+
+	private static final class Entry
+	{
+		private final AntMessage myMessage;
+		@Nullable
+		private final String myTarget;
+		@Nullable
+		private final String myTask;
+
+		private Entry(AntMessage message, @Nullable String target, @Nullable String task)
+		{
+			myMessage = message;
+			myTarget = target;
+			myTask = task;
+		}
+	}
+
+	static final class Match
+	{
+		private final AntMessage myMessage;
+		private final int myId;
+
+		private Match(AntMessage message, int id)
+		{
+			myMessage = message;
+			myId = id;
+		}
+
+		@NotNull
+		AntMessage getMessage()
+		{
+			return myMessage;
+		}
+	}
+
+	/**
+	 * Search text with optional <code>target:name</code> and <code>task:name</code> filters.
+	 */
+	static final class Query
+	{
+		private static final String TARGET_PREFIX = "target:";
+		private static final String TASK_PREFIX = "task:";
+
+		private final String myText;
+		private final String myLowerCaseText;
+		@Nullable
+		private final Pattern myPattern;
+		private final int myPriorityThreshold;
+		@Nullable
+		private final String myTarget;
+		@Nullable
+		private final String myTask;
+
+		private Query(String text, @Nullable Pattern pattern, int priorityThreshold, @Nullable String target, @Nullable String task)
+		{
+			myText = text;
+			myLowerCaseText = toLowerCase(text);
+			myPattern = pattern;
+			myPriorityThreshold = priorityThreshold;
+			myTarget = target;
+			myTask = task;
+		}
+
+		/**
+		 * @throws java.util.regex.PatternSyntaxException if the text is not a valid regular expression
+		 */
+		@NotNull
+		static Query parse(@NotNull String query, boolean regex, int priorityThreshold)
+		{
+			String target = null;
+			String task = null;
+			final StringBuilder text = new StringBuilder();
+			for(String token : query.trim().split("\\s+"))
+			{
+				if(token.startsWith(TARGET_PREFIX) && token.length() > TARGET_PREFIX.length())
+				{
+					target = token.substring(TARGET_PREFIX.length());
+				}
+				else if(token.startsWith(TASK_PREFIX) && token.length() > TASK_PREFIX.length())
+				{
+					task = token.substring(TASK_PREFIX.length());
+				}
+				else if(token.length() > 0)
+				{
+					if(text.length() > 0)
+					{
+						text.append(' ');
+					}
+					text.append(token);
+				}
+			}
+			final String string = text.toString();
+			final Pattern pattern = regex ? Pattern.compile(string, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : null;
+			return new Query(string, pattern, priorityThreshold, target, task);
+		}
+
+		boolean isEmpty()
+		{
+			return myText.length() == 0 && myTarget == null && myTask == null;
+		}
+
+		private boolean matches(String text)
+		{
+			if(myPattern != null)
+			{
+				return myPattern.matcher(text).find();
+			}
+			return myText.length() == 0 || toLowerCase(text).contains(myLowerCaseText);
+		}
+
+		/**
+		 * @return text every match contains: the query itself or the longest literal run of the regular expression
+		 */
+		private String getLiteral()
+		{
+			return myPattern != null ? getLongestLiteral(myText) : myText;
+		}
+
+		/**
+		 * @return the longest run of plain characters outside groups which every match contains, or an empty string if
+		 * there is none or the expression uses a construct not handled here, in which case all messages are checked
+		 */
+		@NotNull
+		static String getLongestLiteral(String regex)
+		{
+			String longest = "";
+			final StringBuilder current = new StringBuilder();
+			int depth = 0;
+			int i = 0;
+			while(i < regex.length())
+			{
+				final char c = regex.charAt(i);
+				if(c == '*' || c == '?' || c == '{' || c == '+')
+				{
+					if(c != '+' && current.length() > 0)
+					{
+						// the quantified character may be absent, only the one under '+' is required
+						current.setLength(current.length() - 1);
+					}
+					longest = getLonger(longest, current);
+					if(c == '{')
+					{
+						i = regex.indexOf('}', i);
+						if(i < 0)
+						{
+							return "";
+						}
+					}
+					i++;
+				}
+				else if(c == '\\')
+				{
+					longest = getLonger(longest, current);
+					i = skipEscape(regex, i);
+					if(i < 0)
+					{
+						return "";
+					}
+				}
+				else if(c == '[')
+				{
+					longest = getLonger(longest, current);
+					i = skipCharacterClass(regex, i);
+					if(i < 0)
+					{
+						return "";
+					}
+				}
+				else if(c == '(')
+				{
+					longest = getLonger(longest, current);
+					if(regex.startsWith("(?", i) && hasCommentsFlag(regex, i + 2))
+					{
+						// whitespace is not matched literally then
+						return "";
+					}
+					depth++;
+					i++;
+				}
+				else if(c == ')')
+				{
+					longest = getLonger(longest, current);
+					depth--;
+					i++;
+				}
+				else if(c == '|' && depth == 0)
+				{
+					// no text is required by all alternatives
+					return "";
+				}
+				else if(depth > 0 || c == '.' || c == '^' || c == '$')
+				{
+					// text inside a group may be optional or repeated as a whole
+					longest = getLonger(longest, current);
+					i++;
+				}
+				else
+				{
+					current.append(c);
+					i++;
+				}
+			}
+			return getLonger(longest, current);
+		}
+
+		/**
+		 * Ends the run of plain characters.
+		 */
+		private static String getLonger(String longest, StringBuilder current)
+		{
+			final String result = current.length() > longest.length() ? current.toString() : longest;
+			current.setLength(0);
+			return result;
+		}
+
+		/**
+		 * @return index after the escape sequence starting at the index, -1 if it is not handled
+		 */
+		private static int skipEscape(String regex, int i)
+		{
+			if(i + 1 >= regex.length())
+			{
+				return -1;
+			}
+			int end = i + 2;
+			switch(regex.charAt(i + 1))
+			{
+				case 'Q':
+					return -1;
+				case 'u':
+					end = i + 6;
+					break;
+				case 'x':
+					end = regex.startsWith("{", i + 2) ? regex.indexOf('}', i) + 1 : i + 4;
+					break;
+				case 'c':
+					end = i + 3;
+					break;
+				case 'p':
+				case 'P':
+					end = regex.startsWith("{", i + 2) ? regex.indexOf('}', i) + 1 : i + 3;
+					break;
+				case 'k':
+					end = regex.indexOf('>', i) + 1;
+					break;
+				case '0':
+					while(end < regex.length() && end < i + 5 && regex.charAt(end) >= '0' && regex.charAt(end) <= '7')
+					{
+						end++;
+					}
+					break;
+				default:
+					if(Character.isDigit(regex.charAt(i + 1)))
+					{
+						// a back reference
+						while(end < regex.length() && Character.isDigit(regex.charAt(end)))
+						{
+							end++;
+						}
+					}
+			}
+			return end > i && end <= regex.length() ? end : -1;
+		}
+
+		/**
+		 * @return index after the character class starting at the index, -1 if it is not terminated
+		 */
+		private static int skipCharacterClass(String regex, int i)
+		{
+			int j = i + 1;
+			if(regex.startsWith("^", j))
+			{
+				j++;
+			}
+			if(regex.startsWith("]", j))
+			{
+				// a leading bracket is a member of the class
+				j++;
+			}
+			int nesting = 1;
+			while(j < regex.length())
+			{
+				final char c = regex.charAt(j);
+				if(c == '\\')
+				{
+					if(regex.startsWith("Q", j + 1))
+					{
+						return -1;
+					}
+					j += 2;
+					continue;
+				}
+				if(c == '[')
+				{
+					nesting++;
+				}
+				else if(c == ']' && --nesting == 0)
+				{
+					return j + 1;
+				}
+				j++;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return true if the inline flags starting at the index turn on the comments mode
+		 */
+		private static boolean hasCommentsFlag(String regex, int i)
+		{
+			for(int j = i; j < regex.length(); j++)
+			{
+				final char c = regex.charAt(j);
+				if(c == 'x')
+				{
+					return true;
+				}
+				if(c != '-' && !Character.isLetter(c))
+				{
+					return false;
+				}
+			}
+			return false;
+		}
+	}
+}
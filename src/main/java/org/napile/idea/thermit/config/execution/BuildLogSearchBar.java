@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.event.DocumentEvent;
+
+import org.jetbrains.annotations.NotNull;
+import org.napile.idea.thermit.ThermitBundle;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
+
+/**
+ * Search field over the build log. Enter moves to the next match, Shift+Enter to the previous one. The search is
+ * repeated only when the query changes or new messages have been indexed since the last one.
+ */
+final class BuildLogSearchBar extends JPanel
+{
+	interface Navigator
+	{
+		int getPriorityThreshold();
+
+		void select(@NotNull BuildLogIndex.Match match);
+	}
+
+	private final BuildLogIndex myIndex;
+	private final Navigator myNavigator;
+	private final SearchTextField myField = new SearchTextField();
+	private final JCheckBox myRegexCheckBox = new JCheckBox(ThermitBundle.message("ant.build.search.regex.checkbox"));
+	private final JLabel myStatusLabel = new JLabel();
+
+	private List<BuildLogIndex.Match> myMatches = Collections.emptyList();
+	private int myCurrent = -1;
+	private boolean myUpToDate;
+	private int myIndexedCount;
+	private int myPriorityThreshold;
+
+	BuildLogSearchBar(@NotNull BuildLogIndex index, @NotNull Navigator navigator)
+	{
+		super(new BorderLayout(4, 0));
+		myIndex = index;
+		myNavigator = navigator;
+		setBorder(BorderFactory.createEmptyBorder(0, 0, 2, 0));
+
+		myField.addDocumentListener(new DocumentAdapter()
+		{
+			protected void textChanged(DocumentEvent e)
+			{
+				reset();
+			}
+		});
+		myField.getTextEditor().addKeyListener(new KeyAdapter()
+		{
+			public void keyPressed(KeyEvent e)
+			{
+				if(e.getKeyCode() == KeyEvent.VK_ENTER)
+				{
+					e.consume();
+					go(!e.isShiftDown());
+				}
+			}
+		});
+		myRegexCheckBox.setFocusable(false);
+		myRegexCheckBox.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				reset();
+			}
+		});
+
+		final JPanel eastPanel = new JPanel(new BorderLayout(4, 0));
+		eastPanel.add(myRegexCheckBox, BorderLayout.WEST);
+		eastPanel.add(myStatusLabel, BorderLayout.CENTER);
+		add(myField, BorderLayout.CENTER);
+		add(eastPanel, BorderLayout.EAST);
+	}
+
+	/**
+	 * Forgets the results, called when the query or the log is replaced.
+	 */
+	void reset()
+	{
+		myMatches = Collections.emptyList();
+		myCurrent = -1;
+		myUpToDate = false;
+		myStatusLabel.setText("");
+	}
+
+	private void go(boolean forward)
+	{
+		if(!search())
+		{
+			return;
+		}
+		if(myMatches.isEmpty())
+		{
+			myStatusLabel.setText(ThermitBundle.message("ant.build.search.no.matches"));
+			return;
+		}
+		final int count = myMatches.size();
+		if(myCurrent < 0)
+		{
+			myCurrent = forward ? 0 : count - 1;
+		}
+		else
+		{
+			myCurrent = (myCurrent + (forward ? 1 : count - 1)) % count;
+		}
+		myStatusLabel.setText(ThermitBundle.message("ant.build.search.status", myCurrent + 1, count));
+		myNavigator.select(myMatches.get(myCurrent));
+	}
+
+	/**
+	 * @return false if the query is empty or invalid
+	 */
+	private boolean search()
+	{
+		final int priorityThreshold = myNavigator.getPriorityThreshold();
+		final int indexedCount = myIndex.size();
+		if(myUpToDate && myIndexedCount == indexedCount && myPriorityThreshold == priorityThreshold)
+		{
+			return true;
+		}
+		final BuildLogIndex.Query query;
+		try
+		{
+			query = BuildLogIndex.Query.parse(myField.getText(), myRegexCheckBox.isSelected(), priorityThreshold);
+		}
+		catch(PatternSyntaxException e)
+		{
+			myStatusLabel.setText(ThermitBundle.message("ant.build.search.invalid.regex"));
+			return false;
+		}
+		if(query.isEmpty())
+		{
+			reset();
+			return false;
+		}
+		final BuildLogIndex.Match current = myCurrent >= 0 && myCurrent < myMatches.size() ? myMatches.get(myCurrent) : null;
+		myMatches = myIndex.search(query);
+		// keep the position when the log has grown
+		myCurrent = current != null ? indexOf(current) : -1;
+		myUpToDate = true;
+		myIndexedCount = indexedCount;
+		myPriorityThreshold = priorityThreshold;
+		return true;
+	}
+
+	private int indexOf(BuildLogIndex.Match match)
+	{
+		for(int i = 0; i < myMatches.size(); i++)
+		{
+			if(myMatches.get(i).getMessage() == match.getMessage())
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+}
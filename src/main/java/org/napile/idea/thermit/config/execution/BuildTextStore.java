@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import org.jetbrains.annotations.NotNull;
+import com.intellij.openapi.vfs.CharsetToolkit;
+
+/**
+ * Text of the messages of one build, appended in UTF-8 to chunks of bytes. A message refers to its text by offset and
+ * length, so build output, which is mostly ASCII, takes about a byte per char and no objects per message. The store
+ * only grows; a new build gets a new one. Text is appended on the ingestion thread and read in the event dispatch
+ * thread.
+ */
+final class BuildTextStore
+{
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private byte[][] myChunks = new byte[16][];
+	private int mySize;
+
+	@NotNull
+	static byte[] encode(@NotNull String text)
+	{
+		return text.getBytes(CharsetToolkit.UTF8_CHARSET);
+	}
+
+	/**
+	 * @param bytes text encoded by {@link #encode(String)}
+	 * @return offset of the appended bytes, -1 if the store cannot address more
+	 */
+	synchronized int append(@NotNull byte[] bytes)
+	{
+		final int length = bytes.length;
+		if(length > Integer.MAX_VALUE - mySize)
+		{
+			return -1;
+		}
+		final int offset = mySize;
+		int from = 0;
+		while(from < length)
+		{
+			final int chunkIndex = mySize >>> CHUNK_SHIFT;
+			if(chunkIndex == myChunks.length)
+			{
+				final byte[][] chunks = new byte[chunkIndex * 2][];
+				System.arraycopy(myChunks, 0, chunks, 0, chunkIndex);
+				myChunks = chunks;
+			}
+			if(myChunks[chunkIndex] == null)
+			{
+				myChunks[chunkIndex] = new byte[CHUNK_SIZE];
+			}
+			final int start = mySize & CHUNK_MASK;
+			final int count = Math.min(CHUNK_SIZE - start, length - from);
+			System.arraycopy(bytes, from, myChunks[chunkIndex], start, count);
+			from += count;
+			mySize += count;
+		}
+		return offset;
+	}
+
+	@NotNull
+	synchronized String getText(int offset, int length)
+	{
+		if(length == 0)
+		{
+			return "";
+		}
+		final int start = offset & CHUNK_MASK;
+		if(start + length <= CHUNK_SIZE)
+		{
+			return new String(myChunks[offset >>> CHUNK_SHIFT], start, length, CharsetToolkit.UTF8_CHARSET);
+		}
+		// a text across chunks is decoded as a whole, so that a char is never split
+		final byte[] bytes = new byte[length];
+		int copied = 0;
+		while(copied < length)
+		{
+			final int position = offset + copied;
+			final int count = Math.min(CHUNK_SIZE - (position & CHUNK_MASK), length - copied);
+			System.arraycopy(myChunks[position >>> CHUNK_SHIFT], position & CHUNK_MASK, bytes, copied, count);
+			copied += count;
+		}
+		return new String(bytes, CharsetToolkit.UTF8_CHARSET);
+	}
+
+	/**
+	 * @return number of bytes appended so far
+	 */
+	synchronized int size()
+	{
+		return mySize;
+	}
+}
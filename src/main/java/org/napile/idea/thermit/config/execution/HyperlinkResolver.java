@@ -0,0 +1,317 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+
+/**
+ * Resolves class names and paths found in the build output to files. Results, including misses, are cached for
+ * the build. Names can be queued for resolution on a pooled thread, which processes them in batches, one short read
+ * action per batch, so that printing the output never waits for the class index. The listeners are told which names
+ * have been resolved. Classes are not looked up in dumb mode; they are queued again when the indices are ready.
+ */
+final class HyperlinkResolver
+{
+	private static final int BATCH_SIZE = 64;
+
+	private final Project myProject;
+	private final Map<String, VirtualFile> myClassFiles = new HashMap<String, VirtualFile>();
+	private final Map<String, VirtualFile> myFiles = new HashMap<String, VirtualFile>();
+	private final Set<String> myPendingClassNames = new LinkedHashSet<String>();
+	private final Set<String> myPendingPaths = new LinkedHashSet<String>();
+	private boolean myWorkerScheduled;
+	private int myGeneration;
+	private final List<Listener> myListeners = new CopyOnWriteArrayList<Listener>();
+
+	private final Runnable myWorker = new Runnable()
+	{
+		public void run()
+		{
+			while(true)
+			{
+				final List<String> classNames;
+				final List<String> paths;
+				final int generation;
+				synchronized(HyperlinkResolver.this)
+				{
+					classNames = poll(myPendingClassNames);
+					paths = poll(myPendingPaths);
+					if((classNames.isEmpty() && paths.isEmpty()) || myProject.isDisposed())
+					{
+						myWorkerScheduled = false;
+						return;
+					}
+					generation = myGeneration;
+				}
+				resolveBatch(classNames, paths, generation);
+			}
+		}
+	};
+
+	HyperlinkResolver(@NotNull Project project)
+	{
+		myProject = project;
+	}
+
+	/**
+	 * @return file of the top level class, resolved now if it is not known yet
+	 */
+	@Nullable
+	VirtualFile findClassFile(@NotNull String className)
+	{
+		final int generation;
+		synchronized(this)
+		{
+			if(myClassFiles.containsKey(className))
+			{
+				return myClassFiles.get(className);
+			}
+			generation = myGeneration;
+		}
+		return resolveBatch(Collections.singletonList(className), Collections.<String>emptyList(), generation).get(className);
+	}
+
+	/**
+	 * @return true if the class has been looked up, {@link #findClassFile(String)} returns the result without a lookup then
+	 */
+	synchronized boolean isClassResolved(@NotNull String className)
+	{
+		return myClassFiles.containsKey(className);
+	}
+
+	/**
+	 * @return true if the path has been looked up, {@link #findFile(String)} returns the result without a lookup then
+	 */
+	synchronized boolean isPathResolved(@NotNull String path)
+	{
+		return myFiles.containsKey(path);
+	}
+
+	void addListener(@NotNull Listener listener)
+	{
+		myListeners.add(listener);
+	}
+
+	void removeListener(@NotNull Listener listener)
+	{
+		myListeners.remove(listener);
+	}
+
+	@Nullable
+	VirtualFile findFile(@NotNull String path)
+	{
+		synchronized(this)
+		{
+			if(myFiles.containsKey(path))
+			{
+				return myFiles.get(path);
+			}
+		}
+		final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path.replace(File.separatorChar, '/'));
+		synchronized(this)
+		{
+			myFiles.put(path, file);
+		}
+		return file;
+	}
+
+	synchronized void scheduleClass(@NotNull String className)
+	{
+		if(!myClassFiles.containsKey(className) && myPendingClassNames.add(className))
+		{
+			scheduleWorker();
+		}
+	}
+
+	synchronized void schedulePath(@NotNull String path)
+	{
+		if(!myFiles.containsKey(path) && myPendingPaths.add(path))
+		{
+			scheduleWorker();
+		}
+	}
+
+	/**
+	 * Drops the queued names. Resolutions in progress finish but are not cached.
+	 */
+	synchronized void cancel()
+	{
+		myPendingClassNames.clear();
+		myPendingPaths.clear();
+		myGeneration++;
+	}
+
+	/**
+	 * Cancels the queued resolutions and forgets the results, called when a new build starts.
+	 */
+	synchronized void reset()
+	{
+		cancel();
+		myClassFiles.clear();
+		myFiles.clear();
+	}
+
+	private void scheduleWorker()
+	{
+		if(!myWorkerScheduled)
+		{
+			myWorkerScheduled = true;
+			ApplicationManager.getApplication().executeOnPooledThread(myWorker);
+		}
+	}
+
+	/**
+	 * @return files of the classes
+	 */
+	private Map<String, VirtualFile> resolveBatch(final List<String> classNames, List<String> paths, int generation)
+	{
+		final Map<String, VirtualFile> files = new HashMap<String, VirtualFile>();
+		for(String path : paths)
+		{
+			files.put(path, LocalFileSystem.getInstance().findFileByPath(path.replace(File.separatorChar, '/')));
+		}
+		Map<String, VirtualFile> classFiles = classNames.isEmpty() ? Collections.<String, VirtualFile>emptyMap() : ApplicationManager.getApplication().runReadAction(new Computable<Map<String, VirtualFile>>()
+		{
+			@Nullable
+			public Map<String, VirtualFile> compute()
+			{
+				if(myProject.isDisposed() || DumbService.isDumb(myProject))
+				{
+					return null;
+				}
+				final Map<String, VirtualFile> result = new HashMap<String, VirtualFile>();
+				try
+				{
+					final JavaPsiFacade facade = JavaPsiFacade.getInstance(myProject);
+					final GlobalSearchScope scope = GlobalSearchScope.allScope(myProject);
+					for(String className : classNames)
+					{
+						result.put(className, getTopLevelClassFile(facade.findClass(className, scope)));
+					}
+				}
+				catch(IndexNotReadyException e)
+				{
+					return null;
+				}
+				return result;
+			}
+		});
+		if(classFiles == null)
+		{
+			// not cached, the names are looked up again once the indices are ready
+			scheduleWhenSmart(classNames, generation);
+			classFiles = Collections.emptyMap();
+		}
+		final boolean cached;
+		synchronized(this)
+		{
+			cached = generation == myGeneration;
+			if(cached)
+			{
+				myClassFiles.putAll(classFiles);
+				myFiles.putAll(files);
+			}
+		}
+		if(cached && (!classFiles.isEmpty() || !files.isEmpty()))
+		{
+			for(Listener listener : myListeners)
+			{
+				listener.resolved(classFiles.keySet(), files.keySet());
+			}
+		}
+		return classFiles;
+	}
+
+	private void scheduleWhenSmart(final List<String> classNames, final int generation)
+	{
+		if(myProject.isDisposed())
+		{
+			return;
+		}
+		DumbService.getInstance(myProject).runWhenSmart(new Runnable()
+		{
+			public void run()
+			{
+				synchronized(HyperlinkResolver.this)
+				{
+					if(generation != myGeneration || myProject.isDisposed())
+					{
+						return;
+					}
+					for(String className : classNames)
+					{
+						scheduleClass(className);
+					}
+				}
+			}
+		});
+	}
+
+	@Nullable
+	private static VirtualFile getTopLevelClassFile(@Nullable PsiClass aClass)
+	{
+		if(aClass == null)
+		{
+			return null;
+		}
+		final PsiElement parent = aClass.getParent();
+		return parent instanceof PsiFile ? ((PsiFile) parent).getVirtualFile() : null;
+	}
+
+	interface Listener
+	{
+		/**
+		 * Called on the thread which resolved the names, after the results are cached.
+		 */
+		void resolved(@NotNull Collection<String> classNames, @NotNull Collection<String> paths);
+	}
+
+	private static List<String> poll(Set<String> pending)
+	{
+		final List<String> result = new ArrayList<String>(Math.min(pending.size(), BATCH_SIZE));
+		for(Iterator<String> iterator = pending.iterator(); iterator.hasNext() && result.size() < BATCH_SIZE; )
+		{
+			result.add(iterator.next());
+			iterator.remove();
+		}
+		return result;
+	}
+}
@@ -18,16 +18,9 @@ package org.napile.idea.thermit.config.execution;
 import java.io.File;
 
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.JavaPsiFacade;
-import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiManager;
-import com.intellij.psi.search.GlobalSearchScope;
 
 final class HyperlinkUtil
 {
@@ -81,7 +74,70 @@ final class HyperlinkUtil
 		}
 	}
 
-	static PlaceInfo parseStackLine(Project project, String line)
+	/**
+	 * Class name and position found in a line of the output by the syntactic pass, before anything is resolved.
+	 */
+	static final class ClassReference
+	{
+		private final String myClassName;
+		@Nullable
+		private final String myFileName;
+		private final int myLine;
+		private final int myLinkStartIndex;
+		private final int myLinkEndIndex;
+
+		private ClassReference(String className, @Nullable String fileName, int line, int linkStartIndex, int linkEndIndex)
+		{
+			myClassName = className;
+			myFileName = fileName;
+			myLine = line;
+			myLinkStartIndex = linkStartIndex;
+			myLinkEndIndex = linkEndIndex;
+		}
+
+		public String getClassName()
+		{
+			return myClassName;
+		}
+
+		public int getLine()
+		{
+			return myLine;
+		}
+
+		public int getLinkStartIndex()
+		{
+			return myLinkStartIndex;
+		}
+
+		public int getLinkEndIndex()
+		{
+			return myLinkEndIndex;
+		}
+
+		/**
+		 * @return the place, or null if the class is not found or is not declared in the file named in the output
+		 */
+		@Nullable
+		PlaceInfo resolve(@NotNull HyperlinkResolver resolver)
+		{
+			final VirtualFile file = resolver.findClassFile(myClassName);
+			if(file == null)
+				return null;
+			if(myFileName != null)
+			{
+				String fileName = myFileName.replace(File.separatorChar, '/');
+				int slashIndex = fileName.lastIndexOf('/');
+				String shortFileName = slashIndex < 0 ? fileName : fileName.substring(slashIndex + 1);
+				if(!file.getName().equalsIgnoreCase(shortFileName))
+					return null;
+			}
+			return new PlaceInfo(file, myLine, 1, myLinkStartIndex, myLinkEndIndex);
+		}
+	}
+
+	@Nullable
+	static ClassReference parseStackReference(String line)
 	{
 		int atIndex = line.indexOf("\t" + AT_ATR + " ");
 		if(atIndex < 0)
@@ -117,35 +173,9 @@ final class HyperlinkUtil
 			return null;
 		}
 
-		return makePlaceInfo(className, file, lineNumber, project, lparenthIndex, rparenthIndex);
+		return new ClassReference(className, file, lineNumber, lparenthIndex, rparenthIndex);
 	}
 
-	private static PlaceInfo makePlaceInfo(final String className, final String fileName, final int line, final Project project, final int lparenthIndex, final int rparenthIndex)
-	{
-		final PlaceInfo[] info = new PlaceInfo[1];
-		ApplicationManager.getApplication().runReadAction(new Runnable()
-		{
-			public void run()
-			{
-				PsiClass aClass = JavaPsiFacade.getInstance(project).findClass(className, GlobalSearchScope.allScope(project));
-				if(aClass == null)
-					return;
-				PsiFile file = aClass.getContainingFile();
-				String fileName1 = fileName.replace(File.separatorChar, '/');
-				int slashIndex = fileName1.lastIndexOf('/');
-				String shortFileName = slashIndex < 0 ? fileName : fileName.substring(slashIndex + 1);
-				final String name = file.getName();
-				if(name == null)
-					return;
-				if(!name.equalsIgnoreCase(shortFileName))
-					return;
-				info[0] = new PlaceInfo(file.getVirtualFile(), line, 1, lparenthIndex, rparenthIndex);
-			}
-		});
-		return info[0];
-	}
-
-
 	@NonNls
 	private static final String RUNNING_SUBSTRING = "Running ";
 	@NonNls
@@ -156,7 +186,7 @@ final class HyperlinkUtil
 	private static final String FAILED_SUBSTRING_2 = " FAILED\n";
 
 	@Nullable
-	static PlaceInfo parseJUnitMessage(final Project project, String message)
+	static ClassReference parseJUnitReference(String message)
 	{
 		int startIndex;
 		int endIndex;
@@ -187,30 +217,6 @@ final class HyperlinkUtil
 		}
 		if(endIndex < startIndex)
 			return null;
-		final String possibleTestClassName = message.substring(startIndex, endIndex);
-
-		final PsiFile[] psiFile = new PsiFile[1];
-
-		final PsiManager psiManager = PsiManager.getInstance(project);
-		ApplicationManager.getApplication().runReadAction(new Runnable()
-		{
-			public void run()
-			{
-				PsiClass psiClass = JavaPsiFacade.getInstance(psiManager.getProject()).findClass(possibleTestClassName, GlobalSearchScope.allScope(project));
-				if(psiClass == null)
-					return;
-				PsiElement parent = psiClass.getParent();
-				if(parent instanceof PsiFile)
-				{
-					psiFile[0] = (PsiFile) parent;
-				}
-			}
-		});
-
-		if(psiFile[0] == null)
-			return null;
-		return new PlaceInfo(psiFile[0].getVirtualFile(), 1, 1, startIndex, endIndex - 1);
+		return new ClassReference(message.substring(startIndex, endIndex), null, 1, startIndex, endIndex - 1);
 	}
-
 }
-
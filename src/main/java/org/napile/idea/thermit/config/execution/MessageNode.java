@@ -15,64 +15,206 @@
  */
 package org.napile.idea.thermit.config.execution;
 
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.jetbrains.annotations.Nullable;
 import org.napile.idea.thermit.ThermitBundle;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.RangeMarker;
-import com.intellij.openapi.project.Project;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.PsiDocumentManager;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiManager;
 
-final class MessageNode extends DefaultMutableTreeNode
+/**
+ * Node of {@link MessageTreeModel}. Nodes of plain messages are created on demand and may be recreated any time,
+ * so nodes are equal when they stand at the same position of the same group.
+ * <p/>
+ * The source position is kept as the line and column of the message; the range marker following document changes is
+ * created only for the displayed rows, in batches by {@link #anchor(Collection)}, or when the offset is asked for. As
+ * with an eagerly created marker, the position is shown only while the node is anchored in a document.
+ */
+final class MessageNode
 {
+	private static final byte NOT_ANCHORED = 0;
+	private static final byte ANCHORED = 1;
+	private static final byte RELEASED = 2;
+
+	private final MessageTreeModel.Group myParentGroup;
+	private final int myIndex;
+	@Nullable
+	private final MessageTreeModel.Group myGroup;
+	private final AntMessage myMessage;
+	@Nullable
+	private final String myPrefix;
 	private String[] myText;
-	private AntMessage myMessage;
 	@Nullable
 	private RangeMarker myRangeMarker;
-	private Document myEditorDocument;
-	private boolean myAllowToShowPosition;
+	private final boolean myAllowToShowPosition;
+	private byte myAnchorState = NOT_ANCHORED;
+	// offset the marker had when the node was released, or -1 if the node has never been anchored
+	private int myReleasedOffset = -1;
+
+	MessageNode(AntMessage message, boolean allowToShowPosition, MessageTreeModel.Group parentGroup, int index)
+	{
+		this(message, allowToShowPosition, null, parentGroup, index, null);
+	}
+
+	/**
+	 * Creates a node whose first line is displayed with the prefix; the position is not shown separately then.
+	 */
+	MessageNode(AntMessage message, String prefix, MessageTreeModel.Group parentGroup, int index)
+	{
+		this(message, false, prefix, parentGroup, index, null);
+	}
 
-	public MessageNode(final AntMessage message, final Project project, final boolean allowToShowPosition)
+	MessageNode(AntMessage message, boolean allowToShowPosition, MessageTreeModel.Group group)
 	{
+		this(message, allowToShowPosition, null, group.getParent(), group.getIndex(), group);
+	}
+
+	private MessageNode(AntMessage message, boolean allowToShowPosition, @Nullable String prefix, MessageTreeModel.Group parentGroup, int index, @Nullable MessageTreeModel.Group group)
+	{
+		myParentGroup = parentGroup;
+		myIndex = index;
+		myGroup = group;
+		myMessage = message;
+		myPrefix = prefix;
+		myAllowToShowPosition = allowToShowPosition;
+	}
+
+	/**
+	 * @return true if the node refers to a place in a file and its range marker has not been created yet
+	 */
+	boolean needsAnchoring()
+	{
+		return myAnchorState == NOT_ANCHORED && myMessage.getFile() != null && myMessage.getLine() > 0;
+	}
+
+	/**
+	 * Creates range markers for the nodes in one read action, looking up the document of each file once.
+	 *
+	 * @return the nodes which got a range marker and show their position now
+	 */
+	static List<MessageNode> anchor(final Collection<MessageNode> nodes)
+	{
+		final Map<VirtualFile, List<MessageNode>> byFile = new LinkedHashMap<VirtualFile, List<MessageNode>>();
+		for(MessageNode node : nodes)
+		{
+			if(node.needsAnchoring())
+			{
+				final VirtualFile file = node.myMessage.getFile();
+				List<MessageNode> fileNodes = byFile.get(file);
+				if(fileNodes == null)
+				{
+					fileNodes = new ArrayList<MessageNode>();
+					byFile.put(file, fileNodes);
+				}
+				fileNodes.add(node);
+			}
+		}
+		if(byFile.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+		final List<MessageNode> anchored = new ArrayList<MessageNode>();
 		ApplicationManager.getApplication().runReadAction(new Runnable()
 		{
 			public void run()
 			{
-				myMessage = message;
-				myText = message.getTextLines();
-				if(myMessage.getFile() != null)
+				final FileDocumentManager documentManager = FileDocumentManager.getInstance();
+				for(Map.Entry<VirtualFile, List<MessageNode>> entry : byFile.entrySet())
 				{
-					PsiFile psiFile = PsiManager.getInstance(project).findFile(myMessage.getFile());
-					if(psiFile != null)
+					final VirtualFile file = entry.getKey();
+					final Document document = file.isValid() ? documentManager.getDocument(file) : null;
+					for(MessageNode node : entry.getValue())
 					{
-						myEditorDocument = PsiDocumentManager.getInstance(project).getDocument(psiFile);
-						if(myEditorDocument != null)
+						node.createRangeMarker(document);
+						if(node.myRangeMarker != null)
 						{
-							int line = myMessage.getLine();
-							int column = myMessage.getColumn();
-							if(line - 1 >= 0 && line < myEditorDocument.getLineCount())
-							{
-								int start = myEditorDocument.getLineStartOffset(line - 1) + column - 1;
-								if(start >= 0 && start < myEditorDocument.getTextLength())
-								{
-									myRangeMarker = myEditorDocument.createRangeMarker(start, start);
-								}
-							}
+							anchored.add(node);
 						}
 					}
 				}
-				myAllowToShowPosition = allowToShowPosition;
 			}
 		});
+		return anchored;
+	}
+
+	private void createRangeMarker(@Nullable Document document)
+	{
+		myAnchorState = ANCHORED;
+		if(document == null)
+		{
+			return;
+		}
+		if(myReleasedOffset >= 0)
+		{
+			// the place the marker had followed until it was released, not the line the message was reported at
+			if(myReleasedOffset <= document.getTextLength())
+			{
+				myRangeMarker = document.createRangeMarker(myReleasedOffset, myReleasedOffset);
+			}
+			return;
+		}
+		int line = myMessage.getLine();
+		int column = myMessage.getColumn();
+		if(line - 1 >= 0 && line < document.getLineCount())
+		{
+			int start = document.getLineStartOffset(line - 1) + column - 1;
+			if(start >= 0 && start < document.getTextLength())
+			{
+				myRangeMarker = document.createRangeMarker(start, start);
+			}
+		}
+	}
+
+	MessageTreeModel.Group getParentGroup()
+	{
+		return myParentGroup;
+	}
+
+	int getIndex()
+	{
+		return myIndex;
+	}
+
+	/**
+	 * @return children of the node if it is a build, target, task or exception node
+	 */
+	@Nullable
+	MessageTreeModel.Group getGroup()
+	{
+		return myGroup;
+	}
+
+	AntMessage getMessage()
+	{
+		return myMessage;
 	}
 
 	public String[] getText()
 	{
+		if(myText == null)
+		{
+			String[] text = myMessage.getTextLines();
+			if(myPrefix != null && myPrefix.length() > 0)
+			{
+				if(text.length == 0)
+				{
+					text = new String[]{myPrefix};
+				}
+				else
+				{
+					text[0] = myPrefix + text[0];
+				}
+			}
+			myText = text;
+		}
 		return myText;
 	}
 
@@ -83,6 +225,10 @@ final class MessageNode extends DefaultMutableTreeNode
 
 	public int getOffset()
 	{
+		if(needsAnchoring())
+		{
+			anchor(Collections.singletonList(this));
+		}
 		if(myRangeMarker == null)
 		{
 			return -1;
@@ -130,6 +276,7 @@ final class MessageNode extends DefaultMutableTreeNode
 
 	public void clearRangeMarker()
 	{
+		myAnchorState = RELEASED;
 		final RangeMarker rangeMarker = myRangeMarker;
 		if(rangeMarker != null)
 		{
@@ -137,5 +284,38 @@ final class MessageNode extends DefaultMutableTreeNode
 			rangeMarker.dispose();
 		}
 	}
-}
 
+	/**
+	 * Disposes the range marker of a node which is no longer displayed. Unlike {@link #clearRangeMarker()}, the node
+	 * remembers the offset the marker has reached and is anchored there again when it is displayed or navigated.
+	 */
+	void release()
+	{
+		final RangeMarker rangeMarker = myRangeMarker;
+		if(rangeMarker != null && rangeMarker.isValid())
+		{
+			myReleasedOffset = rangeMarker.getStartOffset();
+		}
+		clearRangeMarker();
+		myAnchorState = NOT_ANCHORED;
+	}
+
+	public boolean equals(Object o)
+	{
+		if(this == o)
+		{
+			return true;
+		}
+		if(!(o instanceof MessageNode))
+		{
+			return false;
+		}
+		final MessageNode node = (MessageNode) o;
+		return myIndex == node.myIndex && myParentGroup == node.myParentGroup;
+	}
+
+	public int hashCode()
+	{
+		return 31 * System.identityHashCode(myParentGroup) + myIndex;
+	}
+}
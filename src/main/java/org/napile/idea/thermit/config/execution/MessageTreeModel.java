@@ -0,0 +1,556 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Tree model of the build messages backed by plain per-group message lists. Only build, target, task and exception
+ * nodes exist permanently; nodes of the messages are created when the tree asks for them, that is when their group is
+ * expanded and the rows are laid out, and are released again when the group is collapsed. Range markers are kept for
+ * the displayed rows only. Nodes are equal by their position, so a released node is interchangeable with the one
+ * created for the same message later.
+ * <p/>
+ * Additions are not reported one by one: the model announces the children added to a group since the last
+ * {@link #flush()} with a single insertion event per group. Until then the new children are not visible to the tree.
+ * All methods must be called in the event dispatch thread.
+ */
+final class MessageTreeModel implements TreeModel
+{
+	static final Object ROOT = TreeView.ROOT_TREE_USER_OBJECT;
+
+	private final Group myRoot = new Group(null, -1);
+	private final EventListenerList myListeners = new EventListenerList();
+	private final List<Group> myDirtyGroups = new ArrayList<Group>();
+	private List<MessageNode> myLiveNodes = new ArrayList<MessageNode>();
+
+	@NotNull
+	Group getRootGroup()
+	{
+		return myRoot;
+	}
+
+	/**
+	 * Appends a message to the group.
+	 */
+	void addMessage(@NotNull Group parent, @NotNull AntMessage message, boolean allowToShowPosition)
+	{
+		if(!allowToShowPosition)
+		{
+			parent.myPositionHidden.set(parent.myChildren.size());
+		}
+		parent.myChildren.add(message);
+		markDirty(parent);
+	}
+
+	/**
+	 * Replaces the plain message at the index, like one whose file has been found since it was added.
+	 */
+	void replaceMessage(@NotNull Group parent, int index, @NotNull AntMessage message, boolean allowToShowPosition)
+	{
+		if(!(parent.myChildren.get(index) instanceof AntMessage))
+		{
+			return;
+		}
+		parent.myChildren.set(index, message);
+		parent.myPositionHidden.set(index, !allowToShowPosition);
+		final MessageNode node = parent.myNodes != null && index < parent.myNodes.length ? parent.myNodes[index] : null;
+		if(node == null)
+		{
+			return;
+		}
+		node.clearRangeMarker();
+		myLiveNodes.remove(node);
+		parent.myNodes[index] = null;
+		if(index < parent.myFlushedCount)
+		{
+			// the tree asks for the node again and gets a new one for the new message
+			final TreeModelEvent event = new TreeModelEvent(this, getPath(parent), new int[]{index}, new Object[]{parent.getNode(this, index)});
+			for(TreeModelListener listener : myListeners.getListeners(TreeModelListener.class))
+			{
+				listener.treeNodesChanged(event);
+			}
+		}
+	}
+
+	/**
+	 * Appends a javac message; its text is prefixed with the source position when displayed.
+	 */
+	void addJavacMessage(@NotNull Group parent, @NotNull AntMessage message, @Nullable String url)
+	{
+		parent.myPositionHidden.set(parent.myChildren.size());
+		parent.myChildren.add(new JavacMessage(message, url));
+		markDirty(parent);
+	}
+
+	/**
+	 * Appends a node which may have children of its own, like a target, a task or an exception.
+	 */
+	@NotNull
+	Group addGroup(@NotNull Group parent, @NotNull AntMessage message, boolean allowToShowPosition)
+	{
+		final Group group = new Group(parent, parent.myChildren.size());
+		group.myNode = new MessageNode(message, allowToShowPosition, group);
+		parent.myChildren.add(group);
+		markDirty(parent);
+		return group;
+	}
+
+	/**
+	 * Appends a plain text node, like the build status.
+	 */
+	@NotNull
+	Object addText(@NotNull Group parent, @NotNull String text)
+	{
+		final TextNode node = new TextNode(text, parent, parent.myChildren.size());
+		parent.myChildren.add(node);
+		markDirty(parent);
+		return node;
+	}
+
+	private void markDirty(Group group)
+	{
+		if(!group.myDirty)
+		{
+			group.myDirty = true;
+			myDirtyGroups.add(group);
+		}
+	}
+
+	/**
+	 * Makes all added children visible to the tree with one insertion event per group.
+	 */
+	void flush()
+	{
+		if(myDirtyGroups.isEmpty())
+		{
+			return;
+		}
+		final Group[] groups = myDirtyGroups.toArray(new Group[myDirtyGroups.size()]);
+		myDirtyGroups.clear();
+		// parents first, so that a path to a group is always announced before its children
+		for(Group group : groups)
+		{
+			group.myDirty = false;
+			final int from = group.myFlushedCount;
+			final int to = group.myChildren.size();
+			if(from == to)
+			{
+				continue;
+			}
+			group.myFlushedCount = to;
+			final int[] indices = new int[to - from];
+			for(int i = 0; i < indices.length; i++)
+			{
+				indices[i] = from + i;
+			}
+			// children are not passed in order not to create nodes for collapsed groups; the tree only needs the indices
+			fireTreeNodesInserted(new TreeModelEvent(this, getPath(group), indices, null));
+		}
+	}
+
+	/**
+	 * Announces everything added so far at once, without creating nodes.
+	 */
+	void reload()
+	{
+		for(Group group : myDirtyGroups)
+		{
+			group.myDirty = false;
+		}
+		myDirtyGroups.clear();
+		markFlushed(myRoot);
+		final TreeModelEvent event = new TreeModelEvent(this, new TreePath(ROOT));
+		for(TreeModelListener listener : myListeners.getListeners(TreeModelListener.class))
+		{
+			listener.treeStructureChanged(event);
+		}
+	}
+
+	private static void markFlushed(Group group)
+	{
+		group.myFlushedCount = group.myChildren.size();
+		for(Object child : group.myChildren)
+		{
+			if(child instanceof Group)
+			{
+				markFlushed((Group) child);
+			}
+		}
+	}
+
+	/**
+	 * Releases the message nodes created for the group and its subgroups. Called when the group is no longer displayed.
+	 */
+	void releaseNodes(@NotNull Group group)
+	{
+		final MessageNode[] nodes = group.myNodes;
+		group.myNodes = null;
+		if(nodes != null)
+		{
+			for(MessageNode node : nodes)
+			{
+				if(node != null)
+				{
+					node.clearRangeMarker();
+				}
+			}
+		}
+		for(Object child : group.myChildren)
+		{
+			if(child instanceof Group)
+			{
+				releaseNodes((Group) child);
+			}
+		}
+	}
+
+	/**
+	 * Releases the range markers of the message nodes which are not among the retained ones, like the nodes of the rows
+	 * scrolled out of view. The nodes themselves are kept: rows have variable heights, so the tree holds the node of
+	 * every row of an expanded group in its layout cache, and must get the same instance from the model.
+	 */
+	void retainNodes(@NotNull Set<MessageNode> retained)
+	{
+		for(MessageNode node : myLiveNodes)
+		{
+			if(!retained.contains(node))
+			{
+				node.release();
+			}
+		}
+		myLiveNodes = new ArrayList<MessageNode>(retained);
+	}
+
+	/**
+	 * Releases the nodes of a collapsed group and lets the tree drop its layout state for them as well.
+	 */
+	void recycleNodes(@NotNull Group group)
+	{
+		releaseNodes(group);
+		final TreeModelEvent event = new TreeModelEvent(this, getPath(group));
+		for(TreeModelListener listener : myListeners.getListeners(TreeModelListener.class))
+		{
+			listener.treeStructureChanged(event);
+		}
+	}
+
+	void dispose()
+	{
+		myLiveNodes.clear();
+		releaseNodes(myRoot);
+		disposeGroupNodes(myRoot);
+	}
+
+	private static void disposeGroupNodes(Group group)
+	{
+		for(Object child : group.myChildren)
+		{
+			if(child instanceof Group)
+			{
+				final Group childGroup = (Group) child;
+				childGroup.myNode.clearRangeMarker();
+				disposeGroupNodes(childGroup);
+			}
+		}
+	}
+
+	@NotNull
+	TreePath getPath(@NotNull Group group)
+	{
+		return group.myParent == null ? new TreePath(ROOT) : getPath(group.myParent).pathByAddingChild(group.myNode);
+	}
+
+	/**
+	 * @return path to the child, creating its node if needed
+	 */
+	@NotNull
+	TreePath getPath(@NotNull Group parent, int index)
+	{
+		return getPath(parent).pathByAddingChild(parent.getNode(this, index));
+	}
+
+	@Nullable
+	static Group getGroup(Object node)
+	{
+		if(node == ROOT)
+		{
+			return null;
+		}
+		return node instanceof MessageNode ? ((MessageNode) node).getGroup() : null;
+	}
+
+	@NotNull
+	private Group toGroup(Object node)
+	{
+		if(node == ROOT)
+		{
+			return myRoot;
+		}
+		final Group group = getGroup(node);
+		return group != null ? group : Group.EMPTY;
+	}
+
+	public Object getRoot()
+	{
+		return ROOT;
+	}
+
+	public Object getChild(Object parent, int index)
+	{
+		return toGroup(parent).getNode(this, index);
+	}
+
+	public int getChildCount(Object parent)
+	{
+		return toGroup(parent).myFlushedCount;
+	}
+
+	public boolean isLeaf(Object node)
+	{
+		return getChildCount(node) == 0;
+	}
+
+	public void valueForPathChanged(TreePath path, Object newValue)
+	{
+	}
+
+	public int getIndexOfChild(Object parent, Object child)
+	{
+		final Group group = toGroup(parent);
+		if(child instanceof MessageNode)
+		{
+			final MessageNode node = (MessageNode) child;
+			return node.getParentGroup() == group ? node.getIndex() : -1;
+		}
+		if(child instanceof TextNode)
+		{
+			final TextNode node = (TextNode) child;
+			return node.myParent == group ? node.myIndex : -1;
+		}
+		return -1;
+	}
+
+	public void addTreeModelListener(TreeModelListener l)
+	{
+		myListeners.add(TreeModelListener.class, l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l)
+	{
+		myListeners.remove(TreeModelListener.class, l);
+	}
+
+	/**
+	 * Lets the tree lay out the rows of the nodes again
+	 */
+	void nodesChanged(@NotNull List<MessageNode> nodes)
+	{
+		if(nodes.isEmpty())
+		{
+			return;
+		}
+		final TreeModelListener[] listeners = myListeners.getListeners(TreeModelListener.class);
+		for(MessageNode node : nodes)
+		{
+			final Group parent = node.getParentGroup();
+			final TreeModelEvent event = new TreeModelEvent(this, getPath(parent), new int[]{node.getIndex()}, new Object[]{node});
+			for(TreeModelListener listener : listeners)
+			{
+				listener.treeNodesChanged(event);
+			}
+		}
+	}
+
+	private void fireTreeNodesInserted(TreeModelEvent event)
+	{
+		for(TreeModelListener listener : myListeners.getListeners(TreeModelListener.class))
+		{
+			listener.treeNodesInserted(event);
+		}
+	}
+
+	/**
+	 * Children of a build, target, task or exception node: messages are kept as is, nested groups as {@link Group}s.
+	 */
+	static final class Group
+	{
+		private static final Group EMPTY = new Group(null, -1);
+
+		@Nullable
+		private final Group myParent;
+		private final int myIndex;
+		private final List<Object> myChildren = new ArrayList<Object>();
+		private final BitSet myPositionHidden = new BitSet();
+		private MessageNode myNode;
+		private MessageNode[] myNodes;
+		private int myFlushedCount;
+		private boolean myDirty;
+
+		private Group(@Nullable Group parent, int index)
+		{
+			myParent = parent;
+			myIndex = index;
+		}
+
+		@Nullable
+		Group getParent()
+		{
+			return myParent;
+		}
+
+		int getIndex()
+		{
+			return myIndex;
+		}
+
+		/**
+		 * @return node of the group itself, null for the root
+		 */
+		MessageNode getNode()
+		{
+			return myNode;
+		}
+
+		int getChildCount()
+		{
+			return myChildren.size();
+		}
+
+		/**
+		 * @return the message, the group or the text node at the index
+		 */
+		Object getChild(int index)
+		{
+			return myChildren.get(index);
+		}
+
+		@Nullable
+		AntMessage getMessage(int index)
+		{
+			final Object child = myChildren.get(index);
+			if(child instanceof AntMessage)
+			{
+				return (AntMessage) child;
+			}
+			if(child instanceof JavacMessage)
+			{
+				return ((JavacMessage) child).myMessage;
+			}
+			return child instanceof Group ? ((Group) child).myNode.getMessage() : null;
+		}
+
+		private Object getNode(MessageTreeModel model, int index)
+		{
+			final Object child = myChildren.get(index);
+			if(child instanceof Group)
+			{
+				return ((Group) child).myNode;
+			}
+			if(child instanceof TextNode)
+			{
+				return child;
+			}
+			if(myNodes == null || myNodes.length <= index)
+			{
+				final MessageNode[] nodes = new MessageNode[Math.max(myChildren.size(), 16)];
+				if(myNodes != null)
+				{
+					System.arraycopy(myNodes, 0, nodes, 0, myNodes.length);
+				}
+				myNodes = nodes;
+			}
+			MessageNode node = myNodes[index];
+			if(node == null)
+			{
+				node = child instanceof JavacMessage
+						? new MessageNode(((JavacMessage) child).myMessage, ((JavacMessage) child).getPrefix(), this, index)
+						: new MessageNode((AntMessage) child, !myPositionHidden.get(index), this, index);
+				myNodes[index] = node;
+				model.myLiveNodes.add(node);
+			}
+			return node;
+		}
+	}
+
+	static final class TextNode
+	{
+		private final String myText;
+		private final Group myParent;
+		private final int myIndex;
+
+		private TextNode(String text, Group parent, int index)
+		{
+			myText = text;
+			myParent = parent;
+			myIndex = index;
+		}
+
+		public String toString()
+		{
+			return myText;
+		}
+	}
+
+	/**
+	 * A javac message as reported, together with the url to show when the file is not found.
+	 */
+	private static final class JavacMessage
+	{
+		private final AntMessage myMessage;
+		@Nullable
+		private final String myUrl;
+
+		private JavacMessage(AntMessage message, @Nullable String url)
+		{
+			myMessage = message;
+			myUrl = url;
+		}
+
+		private String getPrefix()
+		{
+			if(myMessage.getLine() <= 0)
+			{
+				return "";
+			}
+			final StringBuilder builder = new StringBuilder();
+			final VirtualFile file = myMessage.getFile();
+			if(file != null)
+			{
+				builder.append(file.getPresentableUrl()).append(' ');
+			}
+			else if(myUrl != null)
+			{
+				builder.append(myUrl).append(' ');
+			}
+			builder.append('(').append(myMessage.getLine()).append(':').append(myMessage.getColumn()).append(") ");
+			return builder.toString();
+		}
+	}
+}
@@ -15,46 +15,86 @@
  */
 package org.napile.idea.thermit.config.execution;
 
-import java.io.File;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.ThermitBundle;
 import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.HyperlinkInfo;
 import com.intellij.execution.filters.OpenFileHyperlinkInfo;
 import com.intellij.execution.filters.TextConsoleBuilder;
 import com.intellij.execution.filters.TextConsoleBuilderFactory;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.execution.impl.ConsoleViewImpl;
+import com.intellij.execution.impl.EditorHyperlinkSupport;
 import com.intellij.execution.ui.ConsoleView;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.RangeMarker;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
-import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.WindowManager;
 import com.intellij.util.StringBuilderSpinAllocator;
+import com.intellij.util.text.CharArrayUtil;
 
+/**
+ * Console with the build output. Class names and paths in the output become links only once they are resolved; until
+ * then they are remembered as pending links, keyed by the name, and anchored to the console text by range markers.
+ */
 public final class PlainTextView implements AntOutputView
 {
 
 	private final ConsoleView myConsole;
 	private final Project myProject;
+	private final HyperlinkResolver myResolver;
 	private String myCommandLine;
 	private final LightProcessHandler myProcessHandler = new LightProcessHandler();
+	private final Map<String, List<PendingLink>> myPendingClassLinks = new HashMap<String, List<PendingLink>>();
+	private final Map<String, List<PendingLink>> myPendingPathLinks = new HashMap<String, List<PendingLink>>();
+	private final HyperlinkResolver.Listener myResolverListener = new HyperlinkResolver.Listener()
+	{
+		public void resolved(@NotNull final Collection<String> classNames, @NotNull final Collection<String> paths)
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					addResolvedLinks(myPendingClassLinks, classNames);
+					addResolvedLinks(myPendingPathLinks, paths);
+				}
+			});
+		}
+	};
 
-	public PlainTextView(Project project)
+	public PlainTextView(Project project, HyperlinkResolver resolver)
 	{
 		myProject = project;
+		myResolver = resolver;
 		TextConsoleBuilder builder = TextConsoleBuilderFactory.getInstance().createBuilder(project);
 		builder.addFilter(new AntMessageFilter());
 		builder.addFilter(new JUnitFilter());
 		myConsole = builder.getConsole();
 		myConsole.attachToProcess(myProcessHandler);
+		myResolver.addListener(myResolverListener);
 	}
 
 	public void dispose()
 	{
+		myResolver.removeListener(myResolverListener);
+		myResolver.cancel();
+		clearPendingLinks();
 		myConsole.dispose();
 	}
 
@@ -140,9 +180,120 @@ public final class PlainTextView implements AntOutputView
 
 	public void clearAllMessages()
 	{
+		myResolver.cancel();
+		clearPendingLinks();
 		myConsole.clear();
 	}
 
+	/**
+	 * @return the link if its target is known to exist, null otherwise; a link to a target not resolved yet is added
+	 * to the console when the target is found
+	 */
+	@Nullable
+	private Filter.Result createLink(@NotNull Map<String, List<PendingLink>> pendingLinks, @NotNull String name, @NotNull ResolvableHyperlinkInfo info, int startOffset, int endOffset)
+	{
+		// a name resolved in the meantime is not queued again
+		info.schedule();
+		if(info.isResolved())
+		{
+			return info.exists() ? new Filter.Result(startOffset, endOffset, info) : null;
+		}
+		final Editor editor = myConsole instanceof ConsoleViewImpl ? ((ConsoleViewImpl) myConsole).getEditor() : null;
+		if(editor == null)
+		{
+			// the link reports the missing target when followed
+			return new Filter.Result(startOffset, endOffset, info);
+		}
+		List<PendingLink> links = pendingLinks.get(name);
+		if(links == null)
+		{
+			links = new ArrayList<PendingLink>(1);
+			pendingLinks.put(name, links);
+		}
+		links.add(new PendingLink(info, editor.getDocument().createRangeMarker(startOffset, endOffset)));
+		return null;
+	}
+
+	private void addResolvedLinks(Map<String, List<PendingLink>> pendingLinks, Collection<String> names)
+	{
+		final EditorHyperlinkSupport hyperlinks = myConsole instanceof ConsoleViewImpl ? ((ConsoleViewImpl) myConsole).getHyperlinks() : null;
+		for(String name : names)
+		{
+			final List<PendingLink> links = pendingLinks.remove(name);
+			if(links == null)
+			{
+				continue;
+			}
+			for(PendingLink link : links)
+			{
+				final RangeMarker marker = link.myMarker;
+				if(hyperlinks != null && marker.isValid() && link.myInfo.exists())
+				{
+					hyperlinks.addHyperlink(marker.getStartOffset(), marker.getEndOffset(), null, link.myInfo);
+				}
+				marker.dispose();
+			}
+		}
+	}
+
+	private void clearPendingLinks()
+	{
+		clearPendingLinks(myPendingClassLinks);
+		clearPendingLinks(myPendingPathLinks);
+	}
+
+	private static void clearPendingLinks(Map<String, List<PendingLink>> pendingLinks)
+	{
+		for(List<PendingLink> links : pendingLinks.values())
+		{
+			for(PendingLink link : links)
+			{
+				link.myMarker.dispose();
+			}
+		}
+		pendingLinks.clear();
+	}
+
+	private static void reportNotFound(Project project, String message)
+	{
+		final StatusBar statusBar = WindowManager.getInstance().getStatusBar(project);
+		if(statusBar != null)
+		{
+			statusBar.setInfo(message);
+		}
+	}
+
+	/**
+	 * Selects an occurrence of the text in the printed output.
+	 *
+	 * @param occurrence number of occurrences of the text to skip
+	 */
+	boolean selectText(@NotNull String text, int occurrence)
+	{
+		if(text.length() == 0 || !(myConsole instanceof ConsoleViewImpl))
+		{
+			return false;
+		}
+		final Editor editor = ((ConsoleViewImpl) myConsole).getEditor();
+		if(editor == null)
+		{
+			return false;
+		}
+		final CharSequence chars = editor.getDocument().getCharsSequence();
+		int offset = -1;
+		for(int i = 0; i <= occurrence; i++)
+		{
+			offset = CharArrayUtil.indexOf(chars, text, offset + 1);
+			if(offset < 0)
+			{
+				return false;
+			}
+		}
+		editor.getSelectionModel().setSelection(offset, offset + text.length());
+		myConsole.scrollTo(offset);
+		return true;
+	}
+
 	public void startBuild(AntMessage message)
 	{
 		print(myCommandLine + "\n", ProcessOutputTypes.SYSTEM);
@@ -194,23 +345,22 @@ public final class PlainTextView implements AntOutputView
 		@Nullable
 		public Result applyFilter(String line, int entireLength)
 		{
-			HyperlinkUtil.PlaceInfo placeInfo = HyperlinkUtil.parseJUnitMessage(myProject, line);
-			if(placeInfo == null)
+			final HyperlinkUtil.ClassReference reference = HyperlinkUtil.parseJUnitReference(line);
+			if(reference == null)
 			{
 				return null;
 			}
-
 			int textStartOffset = entireLength - line.length();
-			int highlightStartOffset = textStartOffset + placeInfo.getLinkStartIndex();
-			int highlightEndOffset = textStartOffset + placeInfo.getLinkEndIndex() + 1;
+			int highlightStartOffset = textStartOffset + reference.getLinkStartIndex();
+			int highlightEndOffset = textStartOffset + reference.getLinkEndIndex() + 1;
 
-			OpenFileHyperlinkInfo info = new OpenFileHyperlinkInfo(myProject, placeInfo.getFile(), placeInfo.getLine(), placeInfo.getColumn());
-			return new Result(highlightStartOffset, highlightEndOffset, info);
+			return createLink(myPendingClassLinks, reference.getClassName(), new ClassHyperlinkInfo(reference), highlightStartOffset, highlightEndOffset);
 		}
 	}
 
 	private final class AntMessageFilter implements Filter
 	{
+		@Nullable
 		public Result applyFilter(String line, int entireLength)
 		{
 			int afterLineNumberIndex = line.indexOf(": "); // end of file_name_and_line_number sequence
@@ -239,17 +389,118 @@ public final class PlainTextView implements AntOutputView
 				return null;
 			}
 
-			final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(fileName.replace(File.separatorChar, '/'));
-			if(file == null)
+			int textStartOffset = entireLength - line.length();
+			int highlightEndOffset = textStartOffset + afterLineNumberIndex;
+
+			return createLink(myPendingPathLinks, fileName, new FileHyperlinkInfo(fileName, lineNumber - 1), textStartOffset, highlightEndOffset);
+		}
+	}
+
+	/**
+	 * Link whose target is looked up by {@link HyperlinkResolver}.
+	 */
+	private interface ResolvableHyperlinkInfo extends HyperlinkInfo
+	{
+		void schedule();
+
+		boolean isResolved();
+
+		/**
+		 * @return true if the target is found, looking it up now if it is not resolved yet
+		 */
+		boolean exists();
+	}
+
+	private static final class PendingLink
+	{
+		private final ResolvableHyperlinkInfo myInfo;
+		private final RangeMarker myMarker;
+
+		private PendingLink(ResolvableHyperlinkInfo info, RangeMarker marker)
+		{
+			myInfo = info;
+			myMarker = marker;
+		}
+	}
+
+	/**
+	 * Link to a class found by the syntactic pass.
+	 */
+	private final class ClassHyperlinkInfo implements ResolvableHyperlinkInfo
+	{
+		private final HyperlinkUtil.ClassReference myReference;
+
+		private ClassHyperlinkInfo(HyperlinkUtil.ClassReference reference)
+		{
+			myReference = reference;
+		}
+
+		public void schedule()
+		{
+			myResolver.scheduleClass(myReference.getClassName());
+		}
+
+		public boolean isResolved()
+		{
+			return myResolver.isClassResolved(myReference.getClassName());
+		}
+
+		public boolean exists()
+		{
+			return myReference.resolve(myResolver) != null;
+		}
+
+		public void navigate(Project project)
+		{
+			final HyperlinkUtil.PlaceInfo placeInfo = myReference.resolve(myResolver);
+			if(placeInfo != null)
 			{
-				return null;
+				new OpenFileHyperlinkInfo(project, placeInfo.getFile(), placeInfo.getLine(), placeInfo.getColumn()).navigate(project);
+			}
+			else
+			{
+				reportNotFound(project, ThermitBundle.message("ant.build.link.class.not.found", myReference.getClassName()));
 			}
+		}
+	}
 
-			int textStartOffset = entireLength - line.length();
-			int highlightEndOffset = textStartOffset + afterLineNumberIndex;
+	private final class FileHyperlinkInfo implements ResolvableHyperlinkInfo
+	{
+		private final String myFileName;
+		private final int myLine;
+
+		private FileHyperlinkInfo(String fileName, int line)
+		{
+			myFileName = fileName;
+			myLine = line;
+		}
 
-			OpenFileHyperlinkInfo info = new OpenFileHyperlinkInfo(myProject, file, lineNumber - 1);
-			return new Result(textStartOffset, highlightEndOffset, info);
+		public void schedule()
+		{
+			myResolver.schedulePath(myFileName);
+		}
+
+		public boolean isResolved()
+		{
+			return myResolver.isPathResolved(myFileName);
+		}
+
+		public boolean exists()
+		{
+			return myResolver.findFile(myFileName) != null;
+		}
+
+		public void navigate(Project project)
+		{
+			final VirtualFile file = myResolver.findFile(myFileName);
+			if(file != null && file.isValid())
+			{
+				new OpenFileHyperlinkInfo(project, file, myLine).navigate(project);
+			}
+			else
+			{
+				reportNotFound(project, ThermitBundle.message("ant.build.link.file.not.found", myFileName));
+			}
 		}
 	}
 
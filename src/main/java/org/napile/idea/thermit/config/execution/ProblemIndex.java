@@ -0,0 +1,268 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Positions of the messages pointing to a file, in tree order, grouped by file as well. Messages are only ever
+ * appended below the last open group, so the order of addition is the tree order and a position can be located
+ * by binary search. The positions refer to the store of the tree model and need no tree nodes.
+ * <p/>
+ * The first error of the build is kept apart from the problems, whether it points to a file or not.
+ */
+final class ProblemIndex
+{
+	private final List<Problem> myProblems = new ArrayList<Problem>();
+	private final Map<VirtualFile, FileProblems> myFiles = new LinkedHashMap<VirtualFile, FileProblems>();
+	@Nullable
+	private Problem myFirstError;
+	private int myModificationCount;
+
+	void add(@NotNull MessageTreeModel.Group group, int index, @NotNull AntMessage message)
+	{
+		addError(group, index, message);
+		final AntBuildMessageView.MessageType type = message.getType();
+		final VirtualFile file = message.getFile();
+		if(file == null || (type != AntBuildMessageView.MessageType.MESSAGE && type != AntBuildMessageView.MessageType.ERROR))
+		{
+			return;
+		}
+		final boolean error = type == AntBuildMessageView.MessageType.ERROR || message.getPriority() == AntBuildMessageView.PRIORITY_ERR;
+		final int ordinal = myProblems.size();
+		myProblems.add(new Problem(group, index, file, error));
+		FileProblems fileProblems = myFiles.get(file);
+		if(fileProblems == null)
+		{
+			fileProblems = new FileProblems(file);
+			myFiles.put(file, fileProblems);
+		}
+		fileProblems.add(ordinal, error);
+		myModificationCount++;
+	}
+
+	/**
+	 * Records the message only if it is the first error, for messages which are not problems otherwise
+	 */
+	void addError(@NotNull MessageTreeModel.Group group, int index, @NotNull AntMessage message)
+	{
+		if(myFirstError == null && message.getType() == AntBuildMessageView.MessageType.ERROR)
+		{
+			myFirstError = new Problem(group, index, message.getFile(), true);
+		}
+	}
+
+	void clear()
+	{
+		myProblems.clear();
+		myFiles.clear();
+		myFirstError = null;
+		myModificationCount++;
+	}
+
+	int getModificationCount()
+	{
+		return myModificationCount;
+	}
+
+	int size()
+	{
+		return myProblems.size();
+	}
+
+	@NotNull
+	Problem get(int ordinal)
+	{
+		return myProblems.get(ordinal);
+	}
+
+	/**
+	 * @return the first message of the error type, with or without a file
+	 */
+	@Nullable
+	Problem getFirstError()
+	{
+		return myFirstError;
+	}
+
+	/**
+	 * @return files in the order of their first problem
+	 */
+	@NotNull
+	Collection<FileProblems> getFiles()
+	{
+		return myFiles.values();
+	}
+
+	/**
+	 * @return ordinal of the problem at the position, or <code>-(insertion point) - 1</code> if there is none
+	 */
+	int find(@NotNull MessageTreeModel.Group group, int index)
+	{
+		final int[] path = getIndexPath(group, index);
+		int low = 0;
+		int high = myProblems.size() - 1;
+		while(low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final Problem problem = myProblems.get(middle);
+			final int result = compare(getIndexPath(problem.myGroup, problem.myIndex), path);
+			if(result < 0)
+			{
+				low = middle + 1;
+			}
+			else if(result > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int[] getIndexPath(MessageTreeModel.Group group, int index)
+	{
+		int depth = 1;
+		for(MessageTreeModel.Group g = group; g.getParent() != null; g = g.getParent())
+		{
+			depth++;
+		}
+		final int[] path = new int[depth];
+		path[depth - 1] = index;
+		int i = depth - 2;
+		for(MessageTreeModel.Group g = group; g.getParent() != null; g = g.getParent())
+		{
+			path[i--] = g.getIndex();
+		}
+		return path;
+	}
+
+	/**
+	 * Compares positions in tree order, a group coming before its children.
+	 */
+	private static int compare(int[] path1, int[] path2)
+	{
+		final int length = Math.min(path1.length, path2.length);
+		for(int i = 0; i < length; i++)
+		{
+			if(path1[i] != path2[i])
+			{
+				return path1[i] < path2[i] ? -1 : 1;
+			}
+		}
+		return path1.length - path2.length;
+	}
+
+	static final class Problem
+	{
+		private final MessageTreeModel.Group myGroup;
+		private final int myIndex;
+		@Nullable
+		private final VirtualFile myFile;
+		private final boolean myError;
+
+		private Problem(MessageTreeModel.Group group, int index, @Nullable VirtualFile file, boolean error)
+		{
+			myGroup = group;
+			myIndex = index;
+			myFile = file;
+			myError = error;
+		}
+
+		MessageTreeModel.Group getGroup()
+		{
+			return myGroup;
+		}
+
+		int getIndex()
+		{
+			return myIndex;
+		}
+
+		/**
+		 * @return the file, null only for a first error without one
+		 */
+		@Nullable
+		VirtualFile getFile()
+		{
+			return myFile;
+		}
+
+		boolean isError()
+		{
+			return myError;
+		}
+	}
+
+	static final class FileProblems
+	{
+		private final VirtualFile myFile;
+		private final TIntArrayList myOrdinals = new TIntArrayList(2);
+		private int myErrorCount;
+
+		private FileProblems(VirtualFile file)
+		{
+			myFile = file;
+		}
+
+		private void add(int ordinal, boolean error)
+		{
+			myOrdinals.add(ordinal);
+			if(error)
+			{
+				myErrorCount++;
+			}
+		}
+
+		VirtualFile getFile()
+		{
+			return myFile;
+		}
+
+		int getErrorCount()
+		{
+			return myErrorCount;
+		}
+
+		int getWarningCount()
+		{
+			return myOrdinals.size() - myErrorCount;
+		}
+
+		/**
+		 * @return ordinal of the first problem of the file after the given one, wrapping around
+		 */
+		int getNextOrdinal(int ordinal)
+		{
+			final int index = myOrdinals.binarySearch(ordinal + 1);
+			final int next = index >= 0 ? index : -index - 1;
+			return myOrdinals.get(next < myOrdinals.size() ? next : 0);
+		}
+	}
+}
@@ -17,20 +17,33 @@ package org.napile.idea.thermit.config.execution;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.Rectangle;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
+import javax.swing.AbstractListModel;
 import javax.swing.JComponent;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.MutableTreeNode;
-import javax.swing.tree.TreeNode;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.tree.TreePath;
 
 import org.jetbrains.annotations.NonNls;
@@ -45,7 +58,6 @@ import org.napile.idea.thermit.config.impl.BuildTask;
 import com.intellij.ide.CopyProvider;
 import com.intellij.ide.DataManager;
 import com.intellij.ide.OccurenceNavigator;
-import com.intellij.ide.OccurenceNavigatorSupport;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.ActionPlaces;
 import com.intellij.openapi.actionSystem.ActionPopupMenu;
@@ -59,42 +71,85 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.openapi.ide.CopyPasteManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Splitter;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.pom.Navigatable;
 import com.intellij.ui.AutoScrollToSourceHandler;
+import com.intellij.ui.ColoredListCellRenderer;
 import com.intellij.ui.PopupHandler;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBList;
 import com.intellij.ui.treeStructure.Tree;
 import com.intellij.util.EditSourceOnDoubleClickHandler;
 import com.intellij.util.OpenSourceUtil;
-import com.intellij.util.StringBuilderSpinAllocator;
 import com.intellij.util.ui.tree.TreeUtil;
 
 public final class TreeView implements AntOutputView, OccurenceNavigator
 {
 	private Tree myTree;
-	private DefaultTreeModel myTreeModel;
-	private TreePath myParentPath = null;
-	private final ArrayList<MessageNode> myMessageItems = new ArrayList<MessageNode>();
+	private MessageTreeModel myTreeModel;
+	private MessageTreeModel.Group myParentGroup = null;
+	private final ProblemIndex myProblems = new ProblemIndex();
+	private int myCurrentProblem = -1;
+	private final Map<AntMessage, MessageTreeModel.Group> myExceptionGroups = new IdentityHashMap<AntMessage, MessageTreeModel.Group>();
+	private final Map<String, List<PendingLink>> myPendingLinks = new HashMap<String, List<PendingLink>>();
+	private final HyperlinkResolver.Listener myResolverListener = new HyperlinkResolver.Listener()
+	{
+		public void resolved(@NotNull final Collection<String> classNames, @NotNull Collection<String> paths)
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					addResolvedLinks(classNames);
+				}
+			});
+		}
+	};
+	private boolean myFlushScheduled;
+	private final Runnable myFlushRunnable = new Runnable()
+	{
+		public void run()
+		{
+			myFlushScheduled = false;
+			myTreeModel.flush();
+			updateProblemFiles();
+		}
+	};
+	private boolean myVisibleNodesUpdateScheduled;
+	private final Runnable myVisibleNodesUpdateRunnable = new Runnable()
+	{
+		public void run()
+		{
+			myVisibleNodesUpdateScheduled = false;
+			updateVisibleNodes();
+		}
+	};
 	private final JPanel myPanel;
+	private Splitter mySplitter;
+	private JComponent myProblemFilesComponent;
+	private JBList myProblemFilesList;
+	private final ProblemFilesModel myProblemFilesModel = new ProblemFilesModel();
 	private boolean myActionsEnabled = true;
 	private String myCurrentTaskName;
 
 	private final Project myProject;
+	private final HyperlinkResolver myResolver;
 	private final AntBuildFile myBuildFile;
-	private DefaultMutableTreeNode myStatusNode;
+	private Object myStatusNode;
 	private final AutoScrollToSourceHandler myAutoScrollToSourceHandler;
-	private OccurenceNavigatorSupport myOccurenceNavigatorSupport;
 	@NonNls
 	public static final String ROOT_TREE_USER_OBJECT = "root";
 	@NonNls
 	public static final String JUNIT_TASK_NAME = "junit";
 
-	public TreeView(final Project project, final AntBuildFile buildFile)
+	public TreeView(final Project project, final AntBuildFile buildFile, final HyperlinkResolver resolver)
 	{
 		myProject = project;
+		myResolver = resolver;
 		myBuildFile = buildFile;
 		myAutoScrollToSourceHandler = new AutoScrollToSourceHandler()
 		{
@@ -109,6 +164,13 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 			}
 		};
 		myPanel = createPanel();
+		myResolver.addListener(myResolverListener);
+	}
+
+	public void dispose()
+	{
+		myResolver.removeListener(myResolverListener);
+		myPendingLinks.clear();
 	}
 
 	public JComponent getComponent()
@@ -149,55 +211,112 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 
 		myAutoScrollToSourceHandler.install(myTree);
 
-		myOccurenceNavigatorSupport = new OccurenceNavigatorSupport(myTree)
+		myTree.addTreeExpansionListener(new TreeExpansionListener()
 		{
-			protected Navigatable createDescriptorForNode(DefaultMutableTreeNode node)
+			public void treeExpanded(TreeExpansionEvent event)
 			{
-				if(!(node instanceof MessageNode))
-				{
-					return null;
-				}
-				MessageNode messageNode = (MessageNode) node;
-				AntBuildMessageView.MessageType type = messageNode.getType();
+			}
 
-				if(type != AntBuildMessageView.MessageType.MESSAGE && type != AntBuildMessageView.MessageType.ERROR)
+			public void treeCollapsed(TreeExpansionEvent event)
+			{
+				final MessageTreeModel.Group group = MessageTreeModel.getGroup(event.getPath().getLastPathComponent());
+				if(group != null)
 				{
-					return null;
+					myTreeModel.recycleNodes(group);
 				}
+			}
+		});
 
-				if(!isValid(messageNode.getFile()))
-				{
-					return null;
-				}
+		JPanel panel = new JPanel(new BorderLayout());
 
-				return new OpenFileDescriptor(myProject, messageNode.getFile(), messageNode.getOffset());
+		JScrollPane scrollPane = MessageTreeRenderer.install(myTree);
+		scrollPane.getViewport().addChangeListener(new ChangeListener()
+		{
+			public void stateChanged(ChangeEvent e)
+			{
+				scheduleVisibleNodesUpdate();
 			}
+		});
+		mySplitter = new Splitter(false, 0.75f);
+		mySplitter.setFirstComponent(scrollPane);
+		myProblemFilesComponent = createProblemFilesComponent();
+		panel.add(mySplitter, BorderLayout.CENTER);
+		return panel;
+	}
 
-			@Nullable
-			public String getNextOccurenceActionName()
+	private JComponent createProblemFilesComponent()
+	{
+		myProblemFilesList = new JBList(myProblemFilesModel);
+		myProblemFilesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		myProblemFilesList.setCellRenderer(new ColoredListCellRenderer()
+		{
+			protected void customizeCellRenderer(JList list, Object value, int index, boolean selected, boolean hasFocus)
 			{
-				return ThermitBundle.message("ant.execution.next.error.warning.action.name");
+				final ProblemIndex.FileProblems fileProblems = (ProblemIndex.FileProblems) value;
+				final VirtualFile file = fileProblems.getFile();
+				setIcon(file.getFileType().getIcon());
+				append(file.getName(), fileProblems.getErrorCount() > 0 ? SimpleTextAttributes.ERROR_ATTRIBUTES : SimpleTextAttributes.REGULAR_ATTRIBUTES);
+				append(" " + ThermitBundle.message("ant.build.problems.file.summary", fileProblems.getErrorCount(), fileProblems.getWarningCount()), SimpleTextAttributes.GRAYED_ATTRIBUTES);
 			}
-
-			@Nullable
-			public String getPreviousOccurenceActionName()
+		});
+		myProblemFilesList.addMouseListener(new MouseAdapter()
+		{
+			public void mouseClicked(MouseEvent e)
 			{
-				return ThermitBundle.message("ant.execution.previous.error.warning.action.name");
+				selectNextProblemInFile();
 			}
-		};
+		});
+		myProblemFilesList.addKeyListener(new KeyAdapter()
+		{
+			public void keyPressed(KeyEvent e)
+			{
+				if(e.getKeyCode() == KeyEvent.VK_ENTER)
+				{
+					selectNextProblemInFile();
+				}
+			}
+		});
+		return ScrollPaneFactory.createScrollPane(myProblemFilesList);
+	}
 
-		JPanel panel = new JPanel(new BorderLayout());
+	/**
+	 * Repeated activation of a file walks through its problems.
+	 */
+	private void selectNextProblemInFile()
+	{
+		final ProblemIndex.FileProblems fileProblems = (ProblemIndex.FileProblems) myProblemFilesList.getSelectedValue();
+		if(fileProblems != null)
+		{
+			selectProblem(fileProblems.getNextOrdinal(myCurrentProblem));
+		}
+	}
 
-		JScrollPane scrollPane = MessageTreeRenderer.install(myTree);
-		panel.add(scrollPane, BorderLayout.CENTER);
-		return panel;
+	private void updateProblemFiles()
+	{
+		myProblemFilesModel.update();
+		final boolean hasProblems = myProblemFilesModel.getSize() > 0;
+		if(hasProblems != (mySplitter.getSecondComponent() != null))
+		{
+			mySplitter.setSecondComponent(hasProblems ? myProblemFilesComponent : null);
+		}
 	}
 
 	private void createModel()
 	{
-		DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(ROOT_TREE_USER_OBJECT);
-		myTreeModel = new DefaultTreeModel(rootNode);
-		myParentPath = new TreePath(rootNode);
+		myTreeModel = new MessageTreeModel();
+		myParentGroup = myTreeModel.getRootGroup();
+	}
+
+	/**
+	 * Additions are announced to the tree in batches, either when the tree state is needed or on the next event.
+	 */
+	private void scheduleFlush()
+	{
+		if(!myFlushScheduled)
+		{
+			myFlushScheduled = true;
+			SwingUtilities.invokeLater(myFlushRunnable);
+		}
 	}
 
 	public void setActionsEnabled(boolean actionsEnabled)
@@ -211,62 +330,77 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 
 	public Object addMessage(AntMessage message)
 	{
-		MessageNode messageNode = createMessageNode(message);
-
-		MutableTreeNode parentNode = (MutableTreeNode) myParentPath.getLastPathComponent();
-		myTreeModel.insertNodeInto(messageNode, parentNode, parentNode.getChildCount());
-		myMessageItems.add(messageNode);
-
+		final AntMessage added = addMessageImpl(message);
 		handleExpansion();
-		return messageNode;
+		return added;
 	}
 
 	public void addMessages(AntMessage[] messages)
 	{
-		DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode) myParentPath.getLastPathComponent();
-		int[] indices = new int[messages.length];
-		for(int i = 0; i < messages.length; i++)
+		for(AntMessage message : messages)
 		{
-			AntMessage message = messages[i];
-			MessageNode messageNode = createMessageNode(message);
-			indices[i] = parentNode.getChildCount();
-			parentNode.insert(messageNode, indices[i]);
-			myMessageItems.add(messageNode);
+			addMessageImpl(message);
 		}
-		myTreeModel.nodesWereInserted(parentNode, indices);
 		handleExpansion();
 	}
 
-	private MessageNode createMessageNode(AntMessage message)
+	private AntMessage addMessageImpl(AntMessage message)
 	{
-		String text = message.getText();
-
 		boolean allowToShowPosition = true;
 		if(JUNIT_TASK_NAME.equals(myCurrentTaskName))
 		{
-			HyperlinkUtil.PlaceInfo info = HyperlinkUtil.parseJUnitMessage(myProject, text);
+			final HyperlinkUtil.ClassReference reference = HyperlinkUtil.parseJUnitReference(message.getText());
+			final HyperlinkUtil.PlaceInfo info = reference != null ? resolveLink(reference, myParentGroup, myParentGroup.getChildCount()) : null;
 			if(info != null)
 			{
-				message = new AntMessage(message.getType(), message.getPriority(), text, info.getFile(), 1, 1);
+				message = new AntMessage(message.getType(), message.getPriority(), message.getText(), info.getFile(), 1, 1);
 				allowToShowPosition = false;
 			}
 		}
+		myTreeModel.addMessage(myParentGroup, message, allowToShowPosition);
+		if(allowToShowPosition)
+		{
+			indexMessage(myParentGroup, myParentGroup.getChildCount() - 1, message);
+		}
+		else
+		{
+			// junit output linked to test classes is not a problem, but may still be the first error
+			myProblems.addError(myParentGroup, myParentGroup.getChildCount() - 1, message);
+		}
+		return message;
+	}
+
+	private void indexMessage(MessageTreeModel.Group group, int index, AntMessage message)
+	{
+		myProblems.add(group, index, message);
+	}
 
-		return new MessageNode(message, myProject, allowToShowPosition);
+	private MessageTreeModel.Group addGroup(AntMessage message)
+	{
+		final MessageTreeModel.Group group = myTreeModel.addGroup(myParentGroup, message, true);
+		handleExpansion();
+		return group;
 	}
 
 	private void handleExpansion()
 	{
-		if(myActionsEnabled && !myTree.hasBeenExpanded(myParentPath))
+		if(myActionsEnabled)
 		{
-			myTree.expandPath(myParentPath);
+			final TreePath parentPath = myTreeModel.getPath(myParentGroup);
+			if(!myTree.hasBeenExpanded(parentPath))
+			{
+				myTreeModel.flush();
+				myTree.expandPath(parentPath);
+			}
 		}
+		scheduleFlush();
 	}
 
 	void scrollToLastMessage()
 	{
 		if(myTree == null)
 			return;
+		myTreeModel.flush();
 		int count = myTree.getRowCount();
 		if(count > 0)
 		{
@@ -277,67 +411,24 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 
 	public void addJavacMessage(AntMessage message, String url)
 	{
-		final StringBuilder builder = StringBuilderSpinAllocator.alloc();
-		try
-		{
-			final VirtualFile file = message.getFile();
-			if(message.getLine() > 0)
-			{
-				if(file != null)
-				{
-					ApplicationManager.getApplication().runReadAction(new Runnable()
-					{
-						public void run()
-						{
-							String presentableUrl = file.getPresentableUrl();
-							builder.append(presentableUrl);
-							builder.append(' ');
-						}
-					});
-				}
-				else if(url != null)
-				{
-					builder.append(url);
-					builder.append(' ');
-				}
-				builder.append('(');
-				builder.append(message.getLine());
-				builder.append(':');
-				builder.append(message.getColumn());
-				builder.append(") ");
-			}
-			addJavacMessageImpl(new AntMessage(message.getType(), message.getPriority(), builder.toString() + message.getText(), message.getFile(), message.getLine(), message.getColumn()));
-		}
-		finally
-		{
-			StringBuilderSpinAllocator.dispose(builder);
-		}
-	}
-
-	private void addJavacMessageImpl(AntMessage message)
-	{
-		MutableTreeNode parentNode = (MutableTreeNode) myParentPath.getLastPathComponent();
-		MessageNode messageNode = new MessageNode(message, myProject, false);
-
-		myTreeModel.insertNodeInto(messageNode, parentNode, parentNode.getChildCount());
-		myMessageItems.add(messageNode);
-
+		myTreeModel.addJavacMessage(myParentGroup, message, url);
+		indexMessage(myParentGroup, myParentGroup.getChildCount() - 1, message);
 		handleExpansion();
 	}
 
 	public void addException(AntMessage exception, boolean showFullTrace)
 	{
-		MessageNode exceptionRootNode = null;
+		MessageTreeModel.Group exceptionGroup = null;
 
 		StringTokenizer tokenizer = new StringTokenizer(exception.getText(), "\r\n");
 		while(tokenizer.hasMoreElements())
 		{
 			String line = (String) tokenizer.nextElement();
-			if(exceptionRootNode == null)
+			if(exceptionGroup == null)
 			{
 				AntMessage newMessage = new AntMessage(exception.getType(), exception.getPriority(), line, exception.getFile(), exception.getLine(), exception.getColumn());
-				exceptionRootNode = new MessageNode(newMessage, myProject, true);
-				myMessageItems.add(exceptionRootNode);
+				exceptionGroup = myTreeModel.addGroup(myParentGroup, newMessage, true);
+				indexMessage(myParentGroup, exceptionGroup.getIndex(), newMessage);
 			}
 			else if(showFullTrace)
 			{
@@ -346,40 +437,87 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 					line = line.substring(1);
 				}
 
-				HyperlinkUtil.PlaceInfo info = HyperlinkUtil.parseStackLine(myProject, '\t' + line);
+				HyperlinkUtil.ClassReference reference = HyperlinkUtil.parseStackReference('\t' + line);
+				HyperlinkUtil.PlaceInfo info = reference != null ? resolveLink(reference, exceptionGroup, exceptionGroup.getChildCount()) : null;
 				VirtualFile file = info != null ? info.getFile() : null;
 				int lineNumber = info != null ? info.getLine() : 0;
 				int column = info != null ? info.getColumn() : 1;
 				AntMessage newMessage = new AntMessage(exception.getType(), exception.getPriority(), line, file, lineNumber, column);
-				MessageNode child = new MessageNode(newMessage, myProject, false);
-				exceptionRootNode.add(child);
-				myMessageItems.add(child);
+				myTreeModel.addMessage(exceptionGroup, newMessage, false);
 			}
 		}
-		if(exceptionRootNode == null)
+		if(exceptionGroup == null)
 			return;
 
-		MutableTreeNode parentNode = (MutableTreeNode) myParentPath.getLastPathComponent();
-		myTreeModel.insertNodeInto(exceptionRootNode, parentNode, parentNode.getChildCount());
-
+		myExceptionGroups.put(exception, exceptionGroup);
 		handleExpansion();
 	}
 
+	/**
+	 * @return the place of a class looked up already; otherwise the class is queued and the message at the index gets
+	 *         its file when the class is resolved, so that adding messages never waits for the class index
+	 */
+	@Nullable
+	private HyperlinkUtil.PlaceInfo resolveLink(@NotNull HyperlinkUtil.ClassReference reference, @NotNull MessageTreeModel.Group group, int index)
+	{
+		final String className = reference.getClassName();
+		if(myResolver.isClassResolved(className))
+		{
+			return reference.resolve(myResolver);
+		}
+		List<PendingLink> links = myPendingLinks.get(className);
+		if(links == null)
+		{
+			links = new ArrayList<PendingLink>(1);
+			myPendingLinks.put(className, links);
+		}
+		links.add(new PendingLink(reference, group, index));
+		myResolver.scheduleClass(className);
+		return null;
+	}
+
+	private void addResolvedLinks(Collection<String> classNames)
+	{
+		boolean replaced = false;
+		for(String className : classNames)
+		{
+			final List<PendingLink> links = myPendingLinks.remove(className);
+			if(links == null || !myResolver.isClassResolved(className))
+			{
+				continue;
+			}
+			for(PendingLink link : links)
+			{
+				final HyperlinkUtil.PlaceInfo info = link.myReference.resolve(myResolver);
+				final AntMessage message = link.myGroup.getMessage(link.myIndex);
+				if(info == null || message == null)
+				{
+					continue;
+				}
+				// junit messages linked to test classes and stack frames do not show the position, as when resolved at once
+				myTreeModel.replaceMessage(link.myGroup, link.myIndex, new AntMessage(message.getType(), message.getPriority(), message.getText(), info.getFile(), info.getLine(), info.getColumn()), false);
+				replaced = true;
+			}
+		}
+		if(replaced)
+		{
+			scheduleVisibleNodesUpdate();
+		}
+	}
+
 	public void collapseAll()
 	{
+		myTreeModel.flush();
 		TreeUtil.collapseAll(myTree, 2);
 	}
 
 	public void expandAll()
 	{
+		myTreeModel.flush();
 		TreePath[] selectionPaths = myTree.getSelectionPaths();
 		TreePath leadSelectionPath = myTree.getLeadSelectionPath();
-		int row = 0;
-		while(row < myTree.getRowCount())
-		{
-			myTree.expandRow(row);
-			row++;
-		}
+		// only groups are expanded, so no nodes are created for the rows of messages
+		expandGroups(myTreeModel.getRootGroup());
 
 		if(selectionPaths != null)
 		{
@@ -393,16 +531,89 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 		}
 	}
 
-	public void clearAllMessages()
+	private void expandGroups(MessageTreeModel.Group group)
 	{
-		for(MessageNode messageItem : myMessageItems)
+		for(int i = 0; i < group.getChildCount(); i++)
 		{
-			messageItem.clearRangeMarker();
+			final Object child = group.getChild(i);
+			if(child instanceof MessageTreeModel.Group && ((MessageTreeModel.Group) child).getChildCount() > 0)
+			{
+				final MessageTreeModel.Group childGroup = (MessageTreeModel.Group) child;
+				myTree.expandPath(myTreeModel.getPath(childGroup));
+				expandGroups(childGroup);
+			}
 		}
-		myMessageItems.clear();
+	}
+
+	private void scheduleVisibleNodesUpdate()
+	{
+		if(!myVisibleNodesUpdateScheduled)
+		{
+			myVisibleNodesUpdateScheduled = true;
+			SwingUtilities.invokeLater(myVisibleNodesUpdateRunnable);
+		}
+	}
+
+	/**
+	 * Creates the range markers of the displayed rows in one batch. Keeps the markers of the displayed rows, of a screen
+	 * above and below them and of the selection; the others are released.
+	 */
+	private void updateVisibleNodes()
+	{
+		if(myTree == null)
+		{
+			return;
+		}
+		final Set<MessageNode> retained = new HashSet<MessageNode>();
+		final List<MessageNode> displayed = new ArrayList<MessageNode>();
+		final Rectangle visibleRect = myTree.getVisibleRect();
+		final int first = myTree.getClosestRowForLocation(visibleRect.x, visibleRect.y);
+		final int last = myTree.getClosestRowForLocation(visibleRect.x, visibleRect.y + visibleRect.height);
+		if(first >= 0)
+		{
+			final int screen = last - first + 1;
+			final int to = Math.min(last + screen, myTree.getRowCount() - 1);
+			for(int row = Math.max(first - screen, 0); row <= to; row++)
+			{
+				final TreePath path = myTree.getPathForRow(row);
+				if(path != null && path.getLastPathComponent() instanceof MessageNode)
+				{
+					final MessageNode node = (MessageNode) path.getLastPathComponent();
+					retained.add(node);
+					if(row >= first && row <= last)
+					{
+						displayed.add(node);
+					}
+				}
+			}
+		}
+		final TreePath[] selectionPaths = myTree.getSelectionPaths();
+		if(selectionPaths != null)
+		{
+			for(TreePath path : selectionPaths)
+			{
+				if(path.getLastPathComponent() instanceof MessageNode)
+				{
+					retained.add((MessageNode) path.getLastPathComponent());
+				}
+			}
+		}
+		myTreeModel.retainNodes(retained);
+		// positions are shown for anchored nodes only, so their rows change
+		myTreeModel.nodesChanged(MessageNode.anchor(displayed));
+	}
+
+	public void clearAllMessages()
+	{
+		myTreeModel.dispose();
+		myExceptionGroups.clear();
+		myPendingLinks.clear();
+		myProblems.clear();
+		myCurrentProblem = -1;
 		myStatusNode = null;
 		createModel();
 		myTree.setModel(myTreeModel);
+		updateProblemFiles();
 	}
 
 	public void startBuild(AntMessage message)
@@ -417,25 +628,27 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 	public void startTarget(AntMessage message)
 	{
 		collapseTargets();
-		MessageNode targetNode = (MessageNode) addMessage(message);
-		myParentPath = myParentPath.pathByAddingChild(targetNode);
+		myParentGroup = addGroup(message);
 	}
 
 	private void collapseTargets()
 	{
-		DefaultMutableTreeNode root = (DefaultMutableTreeNode) myTreeModel.getRoot();
+		myTreeModel.flush();
+		final MessageTreeModel.Group root = myTreeModel.getRootGroup();
 		for(int i = 0; i < root.getChildCount(); i++)
 		{
-			DefaultMutableTreeNode node = (DefaultMutableTreeNode) root.getChildAt(i);
-			myTree.collapsePath(new TreePath(node.getPath()));
+			final Object child = root.getChild(i);
+			if(child instanceof MessageTreeModel.Group)
+			{
+				myTree.collapsePath(myTreeModel.getPath((MessageTreeModel.Group) child));
+			}
 		}
 	}
 
 	public void startTask(AntMessage message)
 	{
 		myCurrentTaskName = message.getText();
-		MessageNode taskNode = (MessageNode) addMessage(message);
-		myParentPath = myParentPath.pathByAddingChild(taskNode);
+		myParentGroup = addGroup(message);
 	}
 
 	private void popupInvoked(Component component, int x, int y)
@@ -512,10 +725,9 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 		if(text == null || text.length == 0)
 			return null;
 		final String taskName = text[0];
-		final TreeNode parentNode = node.getParent();
-		if(!(parentNode instanceof MessageNode))
+		final MessageNode messageNode = node.getParentGroup().getNode();
+		if(messageNode == null)
 			return null;
-		final MessageNode messageNode = (MessageNode) parentNode;
 		if(messageNode.getType() != AntBuildMessageView.MessageType.TARGET)
 			return null;
 		final BuildTask task = ((AntBuildModelBase) myBuildFile.getModel()).findTask(messageNode.getText()[0], taskName);
@@ -536,75 +748,94 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 	public void finishBuild(String messageText)
 	{
 		collapseTargets();
-		DefaultMutableTreeNode root = (DefaultMutableTreeNode) myTreeModel.getRoot();
-		myStatusNode = new DefaultMutableTreeNode(messageText);
-		myTreeModel.insertNodeInto(myStatusNode, root, root.getChildCount());
+		myStatusNode = myTreeModel.addText(myTreeModel.getRootGroup(), messageText);
+		scheduleFlush();
 	}
 
 	public void scrollToStatus()
 	{
 		if(myStatusNode != null)
 		{
-			TreeUtil.selectPath(myTree, new TreePath(myStatusNode.getPath()));
+			myTreeModel.flush();
+			TreeUtil.selectPath(myTree, new TreePath(new Object[]{
+					myTreeModel.getRoot(),
+					myStatusNode
+			}));
 		}
 	}
 
 	public void finishTarget()
 	{
-		final TreePath parentPath = myParentPath.getParentPath();
-		if(parentPath != null)
+		final MessageTreeModel.Group parentGroup = myParentGroup.getParent();
+		if(parentGroup != null)
 		{
-			myParentPath = parentPath;
+			myParentGroup = parentGroup;
 		}
 	}
 
 	public void finishTask()
 	{
 		myCurrentTaskName = null;
-		final TreePath parentPath = myParentPath.getParentPath();
-		if(parentPath != null)
+		final MessageTreeModel.Group parentGroup = myParentGroup.getParent();
+		if(parentGroup != null)
 		{
-			myParentPath = parentPath;
+			myParentGroup = parentGroup;
 		}
 	}
 
-	@Nullable
-	private static TreePath getFirstErrorPath(TreePath treePath)
+	public void scrollToFirstError()
 	{
-		TreeNode treeNode = (TreeNode) treePath.getLastPathComponent();
-		if(treeNode instanceof MessageNode)
+		final ProblemIndex.Problem problem = myProblems.getFirstError();
+		if(problem != null)
 		{
-			AntBuildMessageView.MessageType type = ((MessageNode) treeNode).getType();
-			if(type == AntBuildMessageView.MessageType.ERROR)
-			{
-				return treePath;
-			}
+			myTreeModel.flush();
+			TreeUtil.selectPath(myTree, myTreeModel.getPath(problem.getGroup(), problem.getIndex()));
 		}
+	}
 
-		if(treeNode.getChildCount() == 0)
-		{
-			return null;
-		}
-		for(int i = 0; i < treeNode.getChildCount(); i++)
+	/**
+	 * Selects the node showing the message, if the message is shown at the current detalization level.
+	 */
+	boolean selectMessage(@NotNull AntMessage message)
+	{
+		myTreeModel.flush();
+		final MessageTreeModel.Group exceptionGroup = myExceptionGroups.get(message);
+		final TreePath path = exceptionGroup != null ? myTreeModel.getPath(exceptionGroup) : getMessagePath(myTreeModel.getRootGroup(), message);
+		if(path == null)
+			return false;
+		TreeUtil.selectPath(myTree, path);
+		return true;
+	}
+
+	@Nullable
+	private TreePath getMessagePath(MessageTreeModel.Group group, AntMessage target)
+	{
+		for(int i = 0; i < group.getChildCount(); i++)
 		{
-			TreeNode childNode = treeNode.getChildAt(i);
-			TreePath childPath = treePath.pathByAddingChild(childNode);
-			TreePath usagePath = getFirstErrorPath(childPath);
-			if(usagePath != null)
+			final AntMessage message = group.getMessage(i);
+			if(message != null && (message == target || isRewrittenFrom(message, target)))
 			{
-				return usagePath;
+				return myTreeModel.getPath(group, i);
+			}
+			final Object child = group.getChild(i);
+			if(child instanceof MessageTreeModel.Group)
+			{
+				final TreePath path = getMessagePath((MessageTreeModel.Group) child, target);
+				if(path != null)
+				{
+					return path;
+				}
 			}
 		}
 		return null;
 	}
 
-	public void scrollToFirstError()
+	/**
+	 * Messages of junit output are rewritten when added, with the file of the test class and the text of the original
+	 */
+	private static boolean isRewrittenFrom(@NotNull AntMessage message, @NotNull AntMessage original)
 	{
-		TreePath path = getFirstErrorPath(new TreePath(myTreeModel.getRoot()));
-		if(path != null)
-		{
-			TreeUtil.selectPath(myTree, path);
-		}
+		return original.getFile() == null && message.getFile() != null && message.getType() == original.getType() && message.getPriority() == original.getPriority() && message.getText().equals(original.getText());
 	}
 
 	public static final class TreeSelection
@@ -652,42 +883,43 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 		if(treeSelection.isEmpty())
 			return false;
 
-		DefaultMutableTreeNode root = (DefaultMutableTreeNode) myTreeModel.getRoot();
+		myTreeModel.flush();
+		final MessageTreeModel.Group root = myTreeModel.getRootGroup();
 		for(int i = 0; i < root.getChildCount(); i++)
 		{
-			TreeNode node = root.getChildAt(i);
-			if(node instanceof MessageNode)
+			final Object child = root.getChild(i);
+			if(!(child instanceof MessageTreeModel.Group))
+				continue;
+			final MessageTreeModel.Group targetGroup = (MessageTreeModel.Group) child;
+			if(Comparing.equal(treeSelection.mySelectedTarget, getFirstLine(targetGroup.getNode().getMessage())))
 			{
-				MessageNode messageNode = (MessageNode) node;
-				String[] text = messageNode.getText();
-				if(text.length == 0)
-					continue;
-				if(Comparing.equal(treeSelection.mySelectedTarget, text[0]))
+				TreePath pathToSelect = myTreeModel.getPath(targetGroup);
+				for(int j = 0; j < targetGroup.getChildCount(); j++)
 				{
-					TreePath pathToSelect = new TreePath(messageNode.getPath());
-					for(Enumeration enumeration = messageNode.children(); enumeration.hasMoreElements(); )
+					if(targetGroup.getChild(j) instanceof MessageTreeModel.Group && Comparing.equal(treeSelection.mySelectedTask, getFirstLine(targetGroup.getMessage(j))))
 					{
-						Object o = enumeration.nextElement();
-						if(o instanceof MessageNode)
-						{
-							messageNode = (MessageNode) o;
-							if(Comparing.equal(treeSelection.mySelectedTask, text[0]))
-							{
-								pathToSelect = new TreePath(messageNode.getPath());
-								break;
-							}
-						}
+						pathToSelect = myTreeModel.getPath(targetGroup, j);
+						break;
 					}
-					TreeUtil.selectPath(myTree, pathToSelect);
-					myTree.expandPath(pathToSelect);
-					return true;
 				}
+				TreeUtil.selectPath(myTree, pathToSelect);
+				myTree.expandPath(pathToSelect);
+				return true;
 			}
 		}
 
 		return false;
 	}
 
+	@Nullable
+	private static String getFirstLine(@Nullable AntMessage message)
+	{
+		if(message == null)
+			return null;
+		final String[] lines = message.getTextLines();
+		return lines.length > 0 ? lines[0] : null;
+	}
+
 	ToggleAction createToggleAutoscrollAction()
 	{
 		return myAutoScrollToSourceHandler.createToggleAction();
@@ -695,32 +927,181 @@ public final class TreeView implements AntOutputView, OccurenceNavigator
 
 	public String getNextOccurenceActionName()
 	{
-		return myOccurenceNavigatorSupport.getNextOccurenceActionName();
+		return ThermitBundle.message("ant.execution.next.error.warning.action.name");
 	}
 
 	public String getPreviousOccurenceActionName()
 	{
-		return myOccurenceNavigatorSupport.getPreviousOccurenceActionName();
+		return ThermitBundle.message("ant.execution.previous.error.warning.action.name");
 	}
 
 	public OccurenceNavigator.OccurenceInfo goNextOccurence()
 	{
-		return myOccurenceNavigatorSupport.goNextOccurence();
+		return goOccurence(true);
 	}
 
 	public OccurenceNavigator.OccurenceInfo goPreviousOccurence()
 	{
-		return myOccurenceNavigatorSupport.goPreviousOccurence();
+		return goOccurence(false);
 	}
 
 	public boolean hasNextOccurence()
 	{
-		return myOccurenceNavigatorSupport.hasNextOccurence();
+		return findOccurence(true) >= 0;
 	}
 
 	public boolean hasPreviousOccurence()
 	{
-		return myOccurenceNavigatorSupport.hasPreviousOccurence();
+		return findOccurence(false) >= 0;
+	}
+
+	@Nullable
+	private OccurenceNavigator.OccurenceInfo goOccurence(boolean forward)
+	{
+		final int ordinal = findOccurence(forward);
+		if(ordinal < 0)
+			return null;
+		final MessageNode node = (MessageNode) selectProblem(ordinal).getLastPathComponent();
+		return new OccurenceNavigator.OccurenceInfo(new OpenFileDescriptor(myProject, node.getFile(), node.getOffset()), ordinal + 1, myProblems.size());
+	}
+
+	private TreePath selectProblem(int ordinal)
+	{
+		final ProblemIndex.Problem problem = myProblems.get(ordinal);
+		myTreeModel.flush();
+		final TreePath path = myTreeModel.getPath(problem.getGroup(), problem.getIndex());
+		TreeUtil.selectPath(myTree, path);
+		myCurrentProblem = ordinal;
+		return path;
+	}
+
+	/**
+	 * @return ordinal of the next problem from the selection, or -1
+	 */
+	private int findOccurence(boolean forward)
+	{
+		final Position position = getSelectedPosition();
+		int ordinal;
+		if(position == null)
+		{
+			ordinal = forward ? 0 : myProblems.size() - 1;
+		}
+		else
+		{
+			int current = myCurrentProblem;
+			if(current < 0 || current >= myProblems.size() || !isAt(myProblems.get(current), position))
+			{
+				// the selection was moved by the user
+				current = myProblems.find(position.myGroup, position.myIndex);
+			}
+			if(current >= 0)
+			{
+				ordinal = forward ? current + 1 : current - 1;
+			}
+			else
+			{
+				final int insertionPoint = -current - 1;
+				ordinal = forward ? insertionPoint : insertionPoint - 1;
+			}
+		}
+		while(ordinal >= 0 && ordinal < myProblems.size())
+		{
+			if(isValid(myProblems.get(ordinal).getFile()))
+			{
+				return ordinal;
+			}
+			ordinal += forward ? 1 : -1;
+		}
+		return -1;
+	}
+
+	private static boolean isAt(ProblemIndex.Problem problem, Position position)
+	{
+		return problem.getGroup() == position.myGroup && problem.getIndex() == position.myIndex;
+	}
+
+	@Nullable
+	private Position getSelectedPosition()
+	{
+		final TreePath path = myTree.getSelectionPath();
+		if(path == null)
+			return null;
+		final Object node = path.getLastPathComponent();
+		if(node instanceof MessageNode)
+		{
+			final MessageNode messageNode = (MessageNode) node;
+			return new Position(messageNode.getParentGroup(), messageNode.getIndex());
+		}
+		final int index = myTreeModel.getIndexOfChild(myTreeModel.getRoot(), node);
+		return index >= 0 ? new Position(myTreeModel.getRootGroup(), index) : null;
+	}
+
+	private final class ProblemFilesModel extends AbstractListModel
+	{
+		private final List<ProblemIndex.FileProblems> myFiles = new ArrayList<ProblemIndex.FileProblems>();
+		private int myModificationCount = -1;
+
+		void update()
+		{
+			if(myModificationCount == myProblems.getModificationCount())
+				return;
+			myModificationCount = myProblems.getModificationCount();
+			final int oldSize = myFiles.size();
+			myFiles.clear();
+			myFiles.addAll(myProblems.getFiles());
+			final int newSize = myFiles.size();
+			if(newSize < oldSize)
+			{
+				fireIntervalRemoved(this, newSize, oldSize - 1);
+			}
+			else if(newSize > oldSize)
+			{
+				fireIntervalAdded(this, oldSize, newSize - 1);
+			}
+			if(Math.min(oldSize, newSize) > 0)
+			{
+				fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+			}
+		}
+
+		public int getSize()
+		{
+			return myFiles.size();
+		}
+
+		public Object getElementAt(int index)
+		{
+			return myFiles.get(index);
+		}
+	}
+
+	private static final class Position
+	{
+		private final MessageTreeModel.Group myGroup;
+		private final int myIndex;
+
+		private Position(MessageTreeModel.Group group, int index)
+		{
+			myGroup = group;
+			myIndex = index;
+		}
+	}
+
+	/**
+	 * Message whose class is being looked up, to be linked to the class file when it is found.
+	 */
+	private static final class PendingLink
+	{
+		private final HyperlinkUtil.ClassReference myReference;
+		private final MessageTreeModel.Group myGroup;
+		private final int myIndex;
+
+		private PendingLink(HyperlinkUtil.ClassReference reference, MessageTreeModel.Group group, int index)
+		{
+			myReference = reference;
+			myGroup = group;
+			myIndex = index;
+		}
 	}
 
 	private class MyTree extends Tree implements DataProvider
@@ -21,8 +21,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.JPanel;
@@ -35,6 +40,7 @@ import javax.swing.tree.TreePath;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntImportsIndex;
 import org.napile.idea.thermit.ThermitBundle;
 import org.napile.idea.thermit.config.AntBuildFile;
 import org.napile.idea.thermit.config.AntBuildFileBase;
@@ -73,12 +79,15 @@ import com.intellij.openapi.keymap.Keymap;
 import com.intellij.openapi.keymap.KeymapManagerListener;
 import com.intellij.openapi.keymap.ex.KeymapManagerEx;
 import com.intellij.openapi.keymap.impl.ui.EditKeymapsDialog;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.ui.SimpleToolWindowPanel;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.xml.XmlFile;
 import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.DoubleClickListener;
 import com.intellij.ui.PopupHandler;
@@ -92,6 +101,7 @@ import com.intellij.util.StringBuilderSpinAllocator;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.ui.tree.TreeUtil;
 import com.intellij.util.xml.DomEventListener;
+import com.intellij.util.xml.DomUtil;
 import com.intellij.util.xml.DomManager;
 import com.intellij.util.xml.events.DomEvent;
 
@@ -183,7 +193,15 @@ public class AntExplorer extends SimpleToolWindowPanel implements DataProvider,
 		{
 			public void eventOccured(DomEvent event)
 			{
-				myBuilder.queueUpdate();
+				final Collection<AntBuildFile> buildFiles = getAffectedBuildFiles(event);
+				if(buildFiles == null)
+				{
+					myBuilder.queueUpdate();
+				}
+				else if(!buildFiles.isEmpty())
+				{
+					myBuilder.queueUpdateFrom(buildFiles);
+				}
 			}
 		}, this);
 		RunManagerEx.getInstanceEx(myProject).addRunManagerListener(new RunManagerAdapter()
@@ -226,6 +244,48 @@ public class AntExplorer extends SimpleToolWindowPanel implements DataProvider,
 		myConfig = null;
 	}
 
+	/**
+	 * Changes in files that are neither registered build files nor imported by them, directly or indirectly, do not affect the tree
+	 *
+	 * @return the registered build files that are changed or import the changed file, or null if they cannot be determined
+	 */
+	@Nullable
+	private Collection<AntBuildFile> getAffectedBuildFiles(DomEvent event)
+	{
+		final ThermitConfiguration config = myConfig;
+		final Project project = myProject;
+		if(config == null || project == null || DumbService.isDumb(project))
+		{
+			return null;
+		}
+		final XmlFile xmlFile = DomUtil.getFile(event.getElement());
+		final VirtualFile vFile = xmlFile != null ? xmlFile.getOriginalFile().getVirtualFile() : null;
+		if(vFile == null)
+		{
+			return null;
+		}
+		final Map<VirtualFile, AntBuildFile> buildFiles = new HashMap<VirtualFile, AntBuildFile>();
+		for(AntBuildFile buildFile : config.getBuildFiles())
+		{
+			buildFiles.put(buildFile.getVirtualFile(), buildFile);
+		}
+		final Set<AntBuildFile> affected = new HashSet<AntBuildFile>();
+		final AntBuildFile changed = buildFiles.get(vFile);
+		if(changed != null)
+		{
+			affected.add(changed);
+		}
+		for(VirtualFile importing : AntImportsIndex.getAllImportingFiles(project, vFile, GlobalSearchScope.projectScope(project)))
+		{
+			final AntBuildFile buildFile = buildFiles.get(importing);
+			if(buildFile != null)
+			{
+				affected.add(buildFile);
+			}
+		}
+		return affected;
+	}
+
 	private JPanel createToolbarPanel()
 	{
 		final DefaultActionGroup group = new DefaultActionGroup();
@@ -16,6 +16,7 @@
 package org.napile.idea.thermit.config.explorer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.swing.JTree;
@@ -92,6 +93,18 @@ final class AntExplorerTreeBuilder extends AbstractTreeBuilder
 		return ((AntNodeDescriptor) nodeDescriptor).isAutoExpand();
 	}
 
+	/**
+	 * Updates the subtrees of the build files only. Target nodes are matched by target equality, so only added,
+	 * removed and renamed targets change the tree.
+	 */
+	void queueUpdateFrom(Collection<AntBuildFile> buildFiles)
+	{
+		for(AntBuildFile buildFile : buildFiles)
+		{
+			queueUpdateFrom(buildFile, false);
+		}
+	}
+
 	public void setTargetsFiltered(boolean value)
 	{
 		((AntExplorerTreeStructure) getTreeStructure()).setFilteredTargets(value);
@@ -118,6 +131,7 @@ final class AntExplorerTreeBuilder extends AbstractTreeBuilder
 
 		public void buildFileChanged(AntBuildFile buildFile)
 		{
+			((AntExplorerTreeStructure) getTreeStructure()).invalidate(buildFile);
 			queueUpdateFrom(buildFile, false);
 		}
 
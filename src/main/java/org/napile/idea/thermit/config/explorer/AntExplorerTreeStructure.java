@@ -20,7 +20,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,6 +30,7 @@ import org.napile.idea.thermit.ThermitBundle;
 import org.napile.idea.thermit.config.AntBuildFile;
 import org.napile.idea.thermit.config.AntBuildFileBase;
 import org.napile.idea.thermit.config.AntBuildModel;
+import org.napile.idea.thermit.config.AntBuildModelBase;
 import org.napile.idea.thermit.config.AntBuildTarget;
 import org.napile.idea.thermit.config.AntBuildTargetBase;
 import org.napile.idea.thermit.config.ThermitConfiguration;
@@ -45,7 +48,8 @@ final class AntExplorerTreeStructure extends AbstractTreeStructure
 	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.config.explorer.AntExplorerTreeStructure");
 	private final Project myProject;
 	private final Object myRoot = new Object();
-	private boolean myFilteredTargets = false;
+	private volatile boolean myFilteredTargets = false;
+	private final Map<AntBuildFile, SortedTargets> mySortedTargets = new HashMap<AntBuildFile, SortedTargets>();
 	private static final Comparator<AntBuildTarget> ourTargetComparator = new Comparator<AntBuildTarget>()
 	{
 		@Override
@@ -111,16 +115,15 @@ final class AntExplorerTreeStructure extends AbstractTreeStructure
 				return new Object[]{ThermitBundle.message("loading.ant.config.progress")};
 			}
 			final AntBuildFile[] buildFiles = configuration.getBuildFiles();
+			retainSortedTargets(buildFiles);
 			return buildFiles.length != 0 ? buildFiles : new Object[]{ThermitBundle.message("ant.tree.structure.no.build.files.message")};
 		}
 
 		if(element instanceof AntBuildFile)
 		{
 			final AntBuildFile buildFile = (AntBuildFile) element;
-			final AntBuildModel model = buildFile.getModel();
 
-			final List<AntBuildTarget> targets = new ArrayList<AntBuildTarget>(Arrays.asList(myFilteredTargets ? model.getFilteredTargets() : model.getTargets()));
-			Collections.sort(targets, ourTargetComparator);
+			final List<AntBuildTarget> targets = new ArrayList<AntBuildTarget>(Arrays.asList(getSortedTargets(buildFile)));
 
 			final List<AntBuildTarget> metaTargets = Arrays.asList(configuration.getMetaTargets(buildFile));
 			Collections.sort(metaTargets, ourTargetComparator);
@@ -132,6 +135,51 @@ final class AntExplorerTreeStructure extends AbstractTreeStructure
 		return ArrayUtil.EMPTY_OBJECT_ARRAY;
 	}
 
+	/**
+	 * The targets of the model sorted by name, recomputed only when the model or the settings of the explorer change
+	 */
+	private AntBuildTarget[] getSortedTargets(AntBuildFile buildFile)
+	{
+		final AntBuildModel model = buildFile.getModel();
+		final long modificationCount = model instanceof AntBuildModelBase ? ((AntBuildModelBase) model).getModificationCount() : -1L;
+		final boolean filtered = myFilteredTargets;
+		synchronized(mySortedTargets)
+		{
+			final SortedTargets cached = mySortedTargets.get(buildFile);
+			if(cached != null && modificationCount >= 0 && cached.myModificationCount == modificationCount && cached.myFiltered == filtered)
+			{
+				return cached.myTargets;
+			}
+		}
+		final AntBuildTarget[] targets = filtered ? model.getFilteredTargets() : model.getTargets();
+		final AntBuildTarget[] sorted = targets.clone();
+		Arrays.sort(sorted, ourTargetComparator);
+		synchronized(mySortedTargets)
+		{
+			mySortedTargets.put(buildFile, new SortedTargets(modificationCount, filtered, sorted));
+		}
+		return sorted;
+	}
+
+	private void retainSortedTargets(AntBuildFile[] buildFiles)
+	{
+		synchronized(mySortedTargets)
+		{
+			mySortedTargets.keySet().retainAll(Arrays.asList(buildFiles));
+		}
+	}
+
+	/**
+	 * Forgets the sorted targets of the build file, called when its settings change
+	 */
+	public void invalidate(AntBuildFile buildFile)
+	{
+		synchronized(mySortedTargets)
+		{
+			mySortedTargets.remove(buildFile);
+		}
+	}
+
 	@Override
 	@Nullable
 	public Object getParentElement(Object element)
@@ -183,6 +231,20 @@ final class AntExplorerTreeStructure extends AbstractTreeStructure
 		myFilteredTargets = value;
 	}
 
+	private static final class SortedTargets
+	{
+		private final long myModificationCount;
+		private final boolean myFiltered;
+		private final AntBuildTarget[] myTargets;
+
+		private SortedTargets(long modificationCount, boolean filtered, AntBuildTarget[] targets)
+		{
+			myModificationCount = modificationCount;
+			myFiltered = filtered;
+			myTargets = targets;
+		}
+	}
+
 	private final class RootNodeDescriptor extends AntNodeDescriptor
 	{
 		public RootNodeDescriptor(Project project, NodeDescriptor parentDescriptor)
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.config.AntBuildModelBase;
+import org.napile.idea.thermit.config.AntBuildTargetBase;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+
+/**
+ * What the explorer, the target actions and the before-run tasks need to know about the targets of a build file. It is
+ * kept in the workspace, so that the targets are available at project open before the DOM of the file is built.
+ */
+final class AntBuildFileSnapshot
+{
+	@NonNls
+	private static final String TIME_STAMP = "timeStamp";
+	@NonNls
+	private static final String PROJECT_NAME = "projectName";
+	@NonNls
+	private static final String DEFAULT_TARGET = "defaultTarget";
+	@NonNls
+	private static final String TARGET = "target";
+	@NonNls
+	private static final String NAME = "name";
+	@NonNls
+	private static final String DISPLAY_NAME = "displayName";
+	@NonNls
+	private static final String DESCRIPTION = "description";
+	@NonNls
+	private static final String IS_DEFAULT = "isDefault";
+	@NonNls
+	private static final String URL = "url";
+	@NonNls
+	private static final String OFFSET = "offset";
+	@NonNls
+	private static final String LINE = "line";
+
+	private final long myTimeStamp;
+	@Nullable
+	private final String myProjectName;
+	@Nullable
+	private final String myDefaultTargetName;
+	private final List<Target> myTargets;
+
+	private AntBuildFileSnapshot(long timeStamp, @Nullable String projectName, @Nullable String defaultTargetName, List<Target> targets)
+	{
+		myTimeStamp = timeStamp;
+		myProjectName = projectName;
+		myDefaultTargetName = defaultTargetName;
+		myTargets = targets;
+	}
+
+	@NotNull
+	static AntBuildFileSnapshot create(@NotNull VirtualFile buildFile, @Nullable String projectName, @Nullable String defaultTargetName, @NotNull List<AntBuildTargetBase> targets)
+	{
+		final List<Target> list = new ArrayList<Target>(targets.size());
+		for(AntBuildTargetBase target : targets)
+		{
+			final String name = target.getName();
+			if(name == null || !(target instanceof AntBuildTargetImpl))
+			{
+				continue;
+			}
+			final AntBuildTargetImpl targetImpl = (AntBuildTargetImpl) target;
+			final VirtualFile file = targetImpl.getContainingFile();
+			list.add(new Target(name, targetImpl.getDisplayName(), targetImpl.getNotEmptyDescription(), targetImpl.isDefault(), file != null ? file.getUrl() : null, targetImpl.getTextOffset(), targetImpl.getLine()));
+		}
+		return new AntBuildFileSnapshot(buildFile.getTimeStamp(), projectName, defaultTargetName, Collections.unmodifiableList(list));
+	}
+
+	/**
+	 * @return the snapshot, or null if it was taken of another version of the build file
+	 */
+	@Nullable
+	static AntBuildFileSnapshot readExternal(@NotNull Element element, @NotNull VirtualFile buildFile)
+	{
+		final long timeStamp = parseLong(element.getAttributeValue(TIME_STAMP), -1L);
+		if(timeStamp != buildFile.getTimeStamp())
+		{
+			return null;
+		}
+		final List<Target> targets = new ArrayList<Target>();
+		for(Object o : element.getChildren(TARGET))
+		{
+			final Element targetElement = (Element) o;
+			final String name = targetElement.getAttributeValue(NAME);
+			if(name == null)
+			{
+				continue;
+			}
+			targets.add(new Target(name, targetElement.getAttributeValue(DISPLAY_NAME), targetElement.getAttributeValue(DESCRIPTION), Boolean.valueOf(targetElement.getAttributeValue(IS_DEFAULT)), targetElement.getAttributeValue(URL), (int) parseLong(targetElement.getAttributeValue(OFFSET), -1L), (int) parseLong(targetElement.getAttributeValue(LINE), -1L)));
+		}
+		return new AntBuildFileSnapshot(timeStamp, element.getAttributeValue(PROJECT_NAME), element.getAttributeValue(DEFAULT_TARGET), Collections.unmodifiableList(targets));
+	}
+
+	void writeExternal(@NotNull Element element)
+	{
+		element.setAttribute(TIME_STAMP, Long.toString(myTimeStamp));
+		setAttribute(element, PROJECT_NAME, myProjectName);
+		setAttribute(element, DEFAULT_TARGET, myDefaultTargetName);
+		for(Target target : myTargets)
+		{
+			final Element targetElement = new Element(TARGET);
+			targetElement.setAttribute(NAME, target.myName);
+			setAttribute(targetElement, DISPLAY_NAME, target.myDisplayName);
+			setAttribute(targetElement, DESCRIPTION, target.myDescription);
+			if(target.myDefault)
+			{
+				targetElement.setAttribute(IS_DEFAULT, Boolean.TRUE.toString());
+			}
+			setAttribute(targetElement, URL, target.myUrl);
+			if(target.myTextOffset >= 0)
+			{
+				targetElement.setAttribute(OFFSET, Integer.toString(target.myTextOffset));
+			}
+			if(target.myLine >= 0)
+			{
+				targetElement.setAttribute(LINE, Integer.toString(target.myLine));
+			}
+			element.addContent(targetElement);
+		}
+	}
+
+	@Nullable
+	String getProjectName()
+	{
+		return myProjectName;
+	}
+
+	@Nullable
+	String getDefaultTargetName()
+	{
+		return myDefaultTargetName;
+	}
+
+	/**
+	 * @return targets of the model as they were when the snapshot was taken, they need no PSI until navigated to
+	 */
+	@NotNull
+	List<AntBuildTargetBase> createTargets(@NotNull AntBuildModelBase model)
+	{
+		final VirtualFileManager fileManager = VirtualFileManager.getInstance();
+		final List<AntBuildTargetBase> targets = new ArrayList<AntBuildTargetBase>(myTargets.size());
+		for(Target target : myTargets)
+		{
+			final VirtualFile file = target.myUrl != null ? fileManager.findFileByUrl(target.myUrl) : null;
+			targets.add(new AntBuildTargetImpl(target.myName, target.myDisplayName, target.myDescription, target.myDefault, model, file, target.myTextOffset, target.myLine));
+		}
+		return targets;
+	}
+
+	/**
+	 * @return true if the snapshots describe the same targets, no matter where they are declared
+	 */
+	boolean isEquivalent(@NotNull AntBuildFileSnapshot snapshot)
+	{
+		if(!Comparing.equal(myProjectName, snapshot.myProjectName) || !Comparing.equal(myDefaultTargetName, snapshot.myDefaultTargetName) || myTargets.size() != snapshot.myTargets.size())
+		{
+			return false;
+		}
+		for(int i = 0; i < myTargets.size(); i++)
+		{
+			if(!myTargets.get(i).isEquivalent(snapshot.myTargets.get(i)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void setAttribute(Element element, String name, @Nullable String value)
+	{
+		if(value != null)
+		{
+			element.setAttribute(name, value);
+		}
+	}
+
+	private static long parseLong(@Nullable String value, long defaultValue)
+	{
+		if(StringUtil.isEmpty(value))
+		{
+			return defaultValue;
+		}
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch(NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
+
+	private static final class Target
+	{
+		private final String myName;
+		@Nullable
+		private final String myDisplayName;
+		@Nullable
+		private final String myDescription;
+		private final boolean myDefault;
+		@Nullable
+		private final String myUrl;
+		private final int myTextOffset;
+		private final int myLine;
+
+		private Target(String name, @Nullable String displayName, @Nullable String description, boolean isDefault, @Nullable String url, int textOffset, int line)
+		{
+			myName = name;
+			myDisplayName = displayName;
+			myDescription = description;
+			myDefault = isDefault;
+			myUrl = url;
+			myTextOffset = textOffset;
+			myLine = line;
+		}
+
+		private boolean isEquivalent(Target target)
+		{
+			return myName.equals(target.myName) && Comparing.equal(myDisplayName, target.myDisplayName) && Comparing.equal(myDescription, target.myDescription) && myDefault == target.myDefault && Comparing.equal(myUrl, target.myUrl);
+		}
+	}
+}
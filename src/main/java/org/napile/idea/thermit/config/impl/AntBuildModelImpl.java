@@ -16,12 +16,14 @@
 package org.napile.idea.thermit.config.impl;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntFileStub;
+import org.napile.idea.thermit.AntFileStubIndex;
 import org.napile.idea.thermit.ThermitSupport;
 import org.napile.idea.thermit.config.AntBuildFile;
 import org.napile.idea.thermit.config.AntBuildFileBase;
@@ -29,6 +31,7 @@ import org.napile.idea.thermit.config.AntBuildModelBase;
 import org.napile.idea.thermit.config.AntBuildTarget;
 import org.napile.idea.thermit.config.AntBuildTargetBase;
 import org.napile.idea.thermit.config.ThermitConfiguration;
+import org.napile.idea.thermit.dom.AntChangeTracker;
 import org.napile.idea.thermit.dom.AntDomImport;
 import org.napile.idea.thermit.dom.AntDomInclude;
 import org.napile.idea.thermit.dom.AntDomIncludingDirective;
@@ -40,6 +43,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileSystemItem;
@@ -47,8 +51,6 @@ import com.intellij.psi.PsiManager;
 import com.intellij.psi.impl.PsiCachedValueImpl;
 import com.intellij.psi.util.CachedValue;
 import com.intellij.psi.util.CachedValueProvider;
-import com.intellij.psi.util.PsiUtilCore;
-import com.intellij.psi.xml.XmlFile;
 import com.intellij.util.containers.ContainerUtil;
 
 public class AntBuildModelImpl implements AntBuildModelBase
@@ -56,6 +58,11 @@ public class AntBuildModelImpl implements AntBuildModelBase
 
 	private final AntBuildFile myFile;
 	private final CachedValue<List<AntBuildTargetBase>> myTargets;
+	private List<AntBuildTargetBase> myCountedTargets;
+	private long myModificationCount;
+	// targets of the last snapshot, served until the targets are computed from the DOM
+	private volatile List<AntBuildTargetBase> myRestoredTargets;
+	private volatile AntBuildFileSnapshot mySnapshot;
 
 	public AntBuildModelImpl(final AntBuildFile buildFile)
 	{
@@ -66,15 +73,28 @@ public class AntBuildModelImpl implements AntBuildModelBase
 		{
 			public Result<List<AntBuildTargetBase>> compute()
 			{
-				final Pair<List<AntBuildTargetBase>, Collection<PsiFile>> result = getTargetListImpl(AntBuildModelImpl.this);
-				final Collection<PsiFile> deps = result.getSecond();
-				return Result.create(result.getFirst(), PsiUtilCore.toPsiFileArray(deps));
+				// import paths may refer to properties
+				final AntChangeTracker tracker = AntChangeTracker.getInstance(project);
+				final List<AntBuildTargetBase> targets = getTargetListImpl(AntBuildModelImpl.this);
+				takeSnapshot(targets);
+				return Result.create(targets, tracker.getTargetsTracker(), tracker.getPropertiesTracker());
 			}
 		});
 	}
 
 	@Nullable
 	public String getDefaultTargetName()
+	{
+		final AntBuildFileSnapshot snapshot = getRestoredSnapshot();
+		if(snapshot != null)
+		{
+			return snapshot.getDefaultTargetName();
+		}
+		return getDefaultTargetNameImpl();
+	}
+
+	@Nullable
+	private String getDefaultTargetNameImpl()
 	{
 		final AntDomProject antDomProject = getAntProject();
 		if(antDomProject != null)
@@ -86,6 +106,17 @@ public class AntBuildModelImpl implements AntBuildModelBase
 
 	@Nullable
 	public String getName()
+	{
+		final AntBuildFileSnapshot snapshot = getRestoredSnapshot();
+		if(snapshot != null)
+		{
+			return snapshot.getProjectName();
+		}
+		return getNameImpl();
+	}
+
+	@Nullable
+	private String getNameImpl()
 	{
 		final AntDomProject project = getAntProject();
 		return project != null ? project.getName().getRawText() : null;
@@ -134,6 +165,11 @@ public class AntBuildModelImpl implements AntBuildModelBase
 	@Nullable
 	public AntBuildTargetBase findTarget(final String name)
 	{
+		final List<AntBuildTargetBase> restored = myRestoredTargets;
+		if(restored != null)
+		{
+			return findTarget(restored, name);
+		}
 		return ApplicationManager.getApplication().runReadAction(new Computable<AntBuildTargetBase>()
 		{
 			@Nullable
@@ -167,8 +203,86 @@ public class AntBuildModelImpl implements AntBuildModelBase
 		return false;
 	}
 
+	public long getModificationCount()
+	{
+		final List<AntBuildTargetBase> targets = getTargetsList();
+		synchronized(this)
+		{
+			if(targets != myCountedTargets)
+			{
+				myCountedTargets = targets;
+				myModificationCount++;
+			}
+			return myModificationCount;
+		}
+	}
+
+	/**
+	 * Serves the targets from the snapshot until {@link #validate()} is called, so that the DOM of the file is not built
+	 * at project open.
+	 */
+	void restoreSnapshot(@NotNull AntBuildFileSnapshot snapshot)
+	{
+		mySnapshot = snapshot;
+		myRestoredTargets = snapshot.createTargets(this);
+	}
+
+	boolean isRestored()
+	{
+		return myRestoredTargets != null;
+	}
+
+	/**
+	 * Computes the targets from the DOM and stops serving the restored ones.
+	 *
+	 * @return true if the targets differ from the restored ones
+	 */
+	boolean validate()
+	{
+		final AntBuildFileSnapshot restored = getRestoredSnapshot();
+		ApplicationManager.getApplication().runReadAction(new Runnable()
+		{
+			public void run()
+			{
+				myTargets.getValue();
+			}
+		});
+		myRestoredTargets = null;
+		final AntBuildFileSnapshot snapshot = mySnapshot;
+		return restored != null && (snapshot == null || !restored.isEquivalent(snapshot));
+	}
+
+	/**
+	 * @return snapshot of the targets last computed or restored, to be kept in the workspace
+	 */
+	@Nullable
+	AntBuildFileSnapshot getSnapshot()
+	{
+		return mySnapshot;
+	}
+
+	@Nullable
+	private AntBuildFileSnapshot getRestoredSnapshot()
+	{
+		return myRestoredTargets != null ? mySnapshot : null;
+	}
+
+	private void takeSnapshot(List<AntBuildTargetBase> targets)
+	{
+		final VirtualFile file = myFile.getVirtualFile();
+		if(file != null)
+		{
+			mySnapshot = AntBuildFileSnapshot.create(file, getNameImpl(), getDefaultTargetNameImpl(), targets);
+		}
+	}
+
 	private List<AntBuildTargetBase> getTargetsList()
 	{
+		final List<AntBuildTargetBase> restored = myRestoredTargets;
+		if(restored != null)
+		{
+			return restored;
+		}
 		return ApplicationManager.getApplication().runReadAction(new Computable<List<AntBuildTargetBase>>()
 		{
 			public List<AntBuildTargetBase> compute()
@@ -181,8 +295,13 @@ public class AntBuildModelImpl implements AntBuildModelBase
 	@Nullable
 	private static AntBuildTargetBase findTargetImpl(final String name, final AntBuildModelImpl model)
 	{
-		final List<AntBuildTargetBase> buildTargetBases = model.myTargets.getValue();
-		for(AntBuildTargetBase targetBase : buildTargetBases)
+		return findTarget(model.myTargets.getValue(), name);
+	}
+
+	@Nullable
+	private static AntBuildTargetBase findTarget(final List<AntBuildTargetBase> targets, final String name)
+	{
+		for(AntBuildTargetBase targetBase : targets)
 		{
 			if(Comparing.strEqual(targetBase.getName(), name))
 			{
@@ -192,21 +311,14 @@ public class AntBuildModelImpl implements AntBuildModelBase
 		return null;
 	}
 
-	// todo: return list of dependent psi files as well
-	private static Pair<List<AntBuildTargetBase>, Collection<PsiFile>> getTargetListImpl(final AntBuildModelBase model)
+	private static List<AntBuildTargetBase> getTargetListImpl(final AntBuildModelBase model)
 	{
 		final List<AntBuildTargetBase> list = new ArrayList<AntBuildTargetBase>();
-		final Set<PsiFile> dependencies = new HashSet<PsiFile>();
 
 		final AntDomProject project = model.getAntProject();
 		if(project != null)
 		{
 			final AntBuildFile buildFile = model.getBuildFile();
-			final XmlFile xmlFile = buildFile.getAntFile();
-			if(xmlFile != null)
-			{
-				dependencies.add(xmlFile);
-			}
 			final VirtualFile sourceFile = buildFile.getVirtualFile();
 			new Object()
 			{
@@ -243,21 +355,51 @@ public class AntBuildModelImpl implements AntBuildModelBase
 						final PsiFileSystemItem includedFile = incl.getFile().getValue();
 						if(includedFile instanceof PsiFile)
 						{
-							final AntDomProject includedProject = ThermitSupport.getAntDomProject((PsiFile) includedFile);
-							if(includedProject != null)
-							{
-								final PsiFile included = includedFile.getContainingFile().getOriginalFile();
-								dependencies.add(included);
-								fillTargets(list, model, includedProject, included.getVirtualFile());
-							}
+							final PsiFile included = includedFile.getContainingFile().getOriginalFile();
+							fillImportedTargets(list, model, included);
 						}
 
 					}
 
 				}
+
+				// imported files are served from stubs, so that their AST is not loaded unless the file is opened
+				private void fillImportedTargets(List<AntBuildTargetBase> list, AntBuildModelBase model, PsiFile included)
+				{
+					final VirtualFile includedFile = included.getVirtualFile();
+					if(includedFile == null || myProcessed.contains(includedFile))
+					{
+						return;
+					}
+					final AntFileStub stub = AntFileStubIndex.getStub(included.getProject(), includedFile);
+					if(stub == null || !stub.areImportsResolved())
+					{
+						final AntDomProject includedProject = ThermitSupport.getAntDomProject(included);
+						if(includedProject != null)
+						{
+							fillTargets(list, model, includedProject, includedFile);
+						}
+						return;
+					}
+					myProcessed.add(includedFile);
+					for(AntFileStub.Target target : stub.getTargets())
+					{
+						list.add(new AntBuildTargetImpl(target, stub.getProjectName(), model, includedFile));
+					}
+					final PsiManager psiManager = included.getManager();
+					for(AntFileStub.Import anImport : stub.getImports())
+					{
+						final VirtualFile importedFile = LocalFileSystem.getInstance().findFileByPath(anImport.getResolvedPath());
+						final PsiFile imported = importedFile != null ? psiManager.findFile(importedFile) : null;
+						if(imported != null)
+						{
+							fillImportedTargets(list, model, imported);
+						}
+					}
+				}
 			}.fillTargets(list, model, project, sourceFile);
 		}
-		return new Pair<List<AntBuildTargetBase>, Collection<PsiFile>>(list, dependencies);
+		return list;
 	}
 
 }
@@ -18,6 +18,7 @@ package org.napile.idea.thermit.config.impl;
 import java.util.List;
 
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntFileStub;
 import org.napile.idea.thermit.ThermitSupport;
 import org.napile.idea.thermit.config.AntBuildFile;
 import org.napile.idea.thermit.config.AntBuildFileBase;
@@ -55,14 +56,16 @@ public class AntBuildTargetImpl implements AntBuildTargetBase
 	private final String myDescription;
 	private final Project myProject;
 	private final int myTextOffset;
+	// used for targets built from stubs, when the text offset is not known
+	private final int myLine;
 
 	public AntBuildTargetImpl(final AntDomTarget target, final AntBuildModelBase buildModel, final VirtualFile sourceFile, final boolean isImported, final boolean isDefault)
 	{
 		myModel = buildModel;
 		myFile = sourceFile;
 		myIsDefault = isDefault;
-		myHashCode = target.hashCode();
 		myName = target.getName().getRawText();
+		myHashCode = getHashCode(myName, sourceFile);
 		String name = target.getName().getRawText();
 		if(isImported)
 		{
@@ -71,20 +74,61 @@ public class AntBuildTargetImpl implements AntBuildTargetBase
 		}
 		myDisplayName = name;
 		myProject = target.getManager().getProject();
-		final DomTarget domTarget = DomTarget.getTarget(target);
-		if(domTarget != null)
-		{
-			myTextOffset = domTarget.getTextOffset();
-		}
-		else
-		{
-			myTextOffset = target.getXmlTag().getTextOffset();
-		}
+		myTextOffset = getTextOffset(target);
+
+		myLine = -1;
 
 		final String desc = target.getDescription().getRawText();
 		myDescription = (desc != null && desc.trim().length() > 0) ? desc : null;
 	}
 
+	/**
+	 * Creates an imported target from the stub of the imported file without loading its AST
+	 */
+	public AntBuildTargetImpl(final AntFileStub.Target target, @Nullable final String projectName, final AntBuildModelBase buildModel, final VirtualFile sourceFile)
+	{
+		myModel = buildModel;
+		myFile = sourceFile;
+		myIsDefault = false;
+		myName = target.getName();
+		myHashCode = getHashCode(myName, sourceFile);
+		myDisplayName = projectName + "." + myName;
+		myProject = buildModel.getBuildFile().getProject();
+		myTextOffset = -1;
+		myLine = target.getLine();
+
+		final String desc = target.getDescription();
+		myDescription = (desc != null && desc.trim().length() > 0) ? desc : null;
+	}
+
+	/**
+	 * Creates a target restored from the snapshot kept in the workspace
+	 */
+	AntBuildTargetImpl(final String name, @Nullable final String displayName, @Nullable final String description, final boolean isDefault, final AntBuildModelBase buildModel, @Nullable final VirtualFile sourceFile, final int textOffset, final int line)
+	{
+		myModel = buildModel;
+		myFile = sourceFile;
+		myIsDefault = isDefault;
+		myName = name;
+		myHashCode = getHashCode(myName, sourceFile);
+		myDisplayName = displayName != null ? displayName : name;
+		myProject = buildModel.getBuildFile().getProject();
+		myTextOffset = textOffset;
+		myLine = textOffset < 0 ? line : -1;
+		myDescription = description;
+	}
+
+	private static int getHashCode(@Nullable String name, @Nullable VirtualFile file)
+	{
+		return 31 * (name != null ? name.hashCode() : 0) + (file != null ? file.hashCode() : 0);
+	}
+
+	private static int getTextOffset(AntDomTarget target)
+	{
+		final DomTarget domTarget = DomTarget.getTarget(target);
+		return domTarget != null ? domTarget.getTextOffset() : target.getXmlTag().getTextOffset();
+	}
+
 	public int hashCode()
 	{
 		return myHashCode;
@@ -138,6 +182,16 @@ public class AntBuildTargetImpl implements AntBuildTargetBase
 		return myModel;
 	}
 
+	int getTextOffset()
+	{
+		return myTextOffset;
+	}
+
+	int getLine()
+	{
+		return myLine;
+	}
+
 	@Nullable
 	public String getActionId()
 	{
@@ -163,37 +217,44 @@ public class AntBuildTargetImpl implements AntBuildTargetBase
 	}
 
 	@Nullable
-	public BuildTask findTask(final String taskName)
+	private AntDomTarget findDomTarget()
 	{
+		if(myFile == null || !myFile.isValid())
+		{
+			return null;
+		}
 		final PsiFile psiFile = PsiManager.getInstance(myProject).findFile(myFile);
 		final AntDomProject domProject = ThermitSupport.getAntDomProject(psiFile);
-		if(domProject != null)
+		return domProject != null ? domProject.findDeclaredTarget(myName) : null;
+	}
+
+	@Nullable
+	public BuildTask findTask(final String taskName)
+	{
+		final AntDomTarget antTarget = findDomTarget();
+		if(antTarget != null)
 		{
-			final AntDomTarget antTarget = domProject.findDeclaredTarget(myName);
-			if(antTarget != null)
+			final Ref<AntDomElement> result = new Ref<AntDomElement>(null);
+			antTarget.accept(new AntDomRecursiveVisitor()
 			{
-				final Ref<AntDomElement> result = new Ref<AntDomElement>(null);
-				antTarget.accept(new AntDomRecursiveVisitor()
+				public void visitAntDomElement(AntDomElement element)
 				{
-					public void visitAntDomElement(AntDomElement element)
+					if(result.get() != null)
 					{
-						if(result.get() != null)
-						{
-							return;
-						}
-						if(element.isTask() && taskName.equals(element.getXmlElementName()))
-						{
-							result.set(element);
-							return;
-						}
-						super.visitAntDomElement(element);
+						return;
 					}
-				});
-				final AntDomElement task = result.get();
-				if(task != null)
-				{
-					return new BuildTask(this, task);
+					if(element.isTask() && taskName.equals(element.getXmlElementName()))
+					{
+						result.set(element);
+						return;
+					}
+					super.visitAntDomElement(element);
 				}
+			});
+			final AntDomElement task = result.get();
+			if(task != null)
+			{
+				return new BuildTask(this, task);
 			}
 		}
 		return null;
@@ -201,7 +262,17 @@ public class AntBuildTargetImpl implements AntBuildTargetBase
 
 	public OpenFileDescriptor getOpenFileDescriptor()
 	{
-		return (myFile == null) ? null : new OpenFileDescriptor(myProject, myFile, myTextOffset);
+		if(myFile == null)
+		{
+			return null;
+		}
+		if(myTextOffset < 0)
+		{
+			return new OpenFileDescriptor(myProject, myFile, myLine, 0);
+		}
+		// targets survive edits that do not touch target declarations, so the offset is looked up again
+		final AntDomTarget antTarget = findDomTarget();
+		return new OpenFileDescriptor(myProject, myFile, antTarget != null ? getTextOffset(antTarget) : myTextOffset);
 	}
 
 	public void run(DataContext dataContext, List<BuildFileProperty> additionalProperties, AntBuildListener buildListener)
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.ThermitMetadata;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+
+/**
+ * Project-level pool of classloaders created for typedef, taskdef and similar classpaths.
+ * Loaders are shared between all owners requesting the same classpath; a loader stays in the pool
+ * as long as at least one of its owners (normally the context XmlFile of the requesting project) is alive.
+ * When a jar of a classpath is rebuilt, the owner asking for the new loader gives up the loader of the old jar.
+ */
+public class AntClassLoaderPool
+{
+	private final Map<LoaderKey, Entry> myEntries = new HashMap<LoaderKey, Entry>();
+
+	public static AntClassLoaderPool getInstance(Project project)
+	{
+		return ServiceManager.getService(project, AntClassLoaderPool.class);
+	}
+
+	@NotNull
+	public ClassLoader getClassLoader(@NotNull List<URL> urls, @Nullable ClassLoader parentLoader, @NotNull Object owner)
+	{
+		final LoaderKey key = new LoaderKey(urls, parentLoader);
+		synchronized(myEntries)
+		{
+			Entry entry = myEntries.get(key);
+			if(entry == null)
+			{
+				releaseOutdated(key, owner);
+				entry = new Entry(new AntResourcesClassLoader(urls, parentLoader, false, false));
+				myEntries.put(key, entry);
+			}
+			entry.myOwners.put(owner, Boolean.TRUE);
+			removeUnreferenced();
+			return entry.myLoader;
+		}
+	}
+
+	/**
+	 * Drops the owner from the loaders of the same classpath built of other versions of its jars.
+	 */
+	private void releaseOutdated(LoaderKey key, Object owner)
+	{
+		for(Map.Entry<LoaderKey, Entry> entry : myEntries.entrySet())
+		{
+			if(entry.getKey().hasSameClasspath(key))
+			{
+				entry.getValue().myOwners.remove(owner);
+			}
+		}
+	}
+
+	private void removeUnreferenced()
+	{
+		for(Iterator<Entry> it = myEntries.values().iterator(); it.hasNext(); )
+		{
+			if(it.next().myOwners.isEmpty())
+			{
+				it.remove();
+			}
+		}
+	}
+
+	private static final class Entry
+	{
+		private final ClassLoader myLoader;
+		// weak set of owners, acts as a reference counter that is decremented when an owner is collected
+		private final Map<Object, Boolean> myOwners = new WeakHashMap<Object, Boolean>();
+
+		private Entry(ClassLoader loader)
+		{
+			myLoader = loader;
+		}
+	}
+
+	/**
+	 * Ordered classpath together with modification stamps and sizes of its elements,
+	 * so that a rebuilt jar gets a fresh loader
+	 */
+	private static final class LoaderKey
+	{
+		private final String[] myUrls;
+		private final long[] myStamps;
+		@Nullable
+		private final ClassLoader myParent;
+		private final int myHashCode;
+
+		private LoaderKey(List<URL> urls, @Nullable ClassLoader parent)
+		{
+			myParent = parent;
+			myUrls = new String[urls.size()];
+			myStamps = new long[urls.size() * 2];
+			for(int i = 0; i < myUrls.length; i++)
+			{
+				final URL url = urls.get(i);
+				myUrls[i] = url.toExternalForm();
+				if("file".equals(url.getProtocol()))
+				{
+					final File file = ThermitMetadata.toFile(url);
+					myStamps[2 * i] = file.lastModified();
+					myStamps[2 * i + 1] = file.length();
+				}
+			}
+			int result = Arrays.hashCode(myUrls);
+			result = 31 * result + Arrays.hashCode(myStamps);
+			result = 31 * result + (parent != null ? System.identityHashCode(parent) : 0);
+			myHashCode = result;
+		}
+
+		private boolean hasSameClasspath(LoaderKey key)
+		{
+			return myParent == key.myParent && Arrays.equals(myUrls, key.myUrls);
+		}
+
+		public boolean equals(Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(!(o instanceof LoaderKey))
+			{
+				return false;
+			}
+			final LoaderKey key = (LoaderKey) o;
+			return myParent == key.myParent && Arrays.equals(myUrls, key.myUrls) && Arrays.equals(myStamps, key.myStamps);
+		}
+
+		public int hashCode()
+		{
+			return myHashCode;
+		}
+	}
+}
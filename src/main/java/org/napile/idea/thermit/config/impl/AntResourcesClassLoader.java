@@ -16,9 +16,10 @@
 package org.napile.idea.thermit.config.impl;
 
 import java.net.URL;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.util.lang.UrlClassLoader;
@@ -29,7 +30,7 @@ import com.intellij.util.lang.UrlClassLoader;
  */
 public class AntResourcesClassLoader extends UrlClassLoader
 {
-	private final Set<String> myMisses = new HashSet<String>();
+	private final Set<String> myMisses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	public AntResourcesClassLoader(final List<URL> urls, final ClassLoader parentLoader, final boolean canLockJars, final boolean canUseCache)
 	{
@@ -24,6 +24,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.napile.idea.thermit.ThermitBundle;
 import org.napile.idea.thermit.config.ThermitConfigurationBase;
+import org.napile.idea.thermit.doc.AntHelpIndex;
 import com.intellij.ide.macro.MacroManager;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
@@ -180,11 +181,13 @@ public class GlobalThermitConfiguration implements ApplicationComponent, JDOMExt
 			LOG.error("Duplicate name: " + ant.getName());
 		}
 		ANTS.getModifiableList(getProperties()).add(ant);
+		AntHelpIndex.invalidate(ant.getHomeDir());
 	}
 
 	public void removeConfiguration(final AntInstallation ant)
 	{
 		ANTS.getModifiableList(getProperties()).remove(ant);
+		AntHelpIndex.invalidate(ant.getHomeDir());
 	}
 
 	public static Sdk findJdk(final String jdkName)
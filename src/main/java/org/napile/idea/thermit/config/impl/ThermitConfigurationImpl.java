@@ -16,13 +16,17 @@
 package org.napile.idea.thermit.config.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.SwingUtilities;
 
@@ -30,10 +34,12 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntImportsIndex;
 import org.napile.idea.thermit.ThermitBundle;
 import org.napile.idea.thermit.ThermitSupport;
 import org.napile.idea.thermit.config.*;
 import org.napile.idea.thermit.config.actions.TargetAction;
+import org.napile.idea.thermit.dom.AntChangeTracker;
 import org.napile.idea.thermit.dom.AntDomFileDescription;
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.execution.RunManagerEx;
@@ -61,6 +67,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.startup.StartupManager;
 import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.openapi.util.Pair;
@@ -73,10 +80,10 @@ import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.util.ActionRunner;
 import com.intellij.util.EventDispatcher;
-import com.intellij.util.StringSetSpinAllocator;
 import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.config.AbstractProperty;
 import com.intellij.util.config.ValueProperty;
@@ -142,8 +149,20 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	private final Map<ExecutionEvent, Pair<AntBuildFile, String>> myEventToTargetMap = new HashMap<ExecutionEvent, Pair<AntBuildFile, String>>();
 	private final List<AntBuildFileBase> myBuildFiles = new ArrayList<AntBuildFileBase>();
 	private volatile AntBuildFileBase[] myBuildFilesArray = null; // cached result of call to myBuildFiles.toArray()
+	/**
+	 * Target actions registered in the action manager by id, guarded by this
+	 */
+	private final Map<String, TargetActionInfo> myRegisteredActions = new HashMap<String, TargetActionInfo>();
+	/**
+	 * Ids of target actions left out because another build file took them first, guarded by this
+	 */
+	private final Set<String> myShadowedActionIds = new HashSet<String>();
 	private final Map<AntBuildFile, AntBuildModelBase> myModelToBuildFileMap = new HashMap<AntBuildFile, AntBuildModelBase>();
-	private final Map<VirtualFile, VirtualFile> myAntFileToContextFileMap = new java.util.HashMap<VirtualFile, VirtualFile>();
+	private final Map<VirtualFile, AntBuildFileBase> myVirtualFileToBuildFileMap = new ConcurrentHashMap<VirtualFile, AntBuildFileBase>();
+	private final Map<VirtualFile, VirtualFile> myAntFileToContextFileMap = new ConcurrentHashMap<VirtualFile, VirtualFile>();
+	// effective context chain resolution results, valid for the PSI modification count and context mapping stamp they were computed at
+	private final Map<VirtualFile, ContextCacheEntry> myEffectiveContextCache = new ConcurrentHashMap<VirtualFile, ContextCacheEntry>();
+	private final AtomicLong myContextMappingStamp = new AtomicLong(0L);
 	private final EventDispatcher<AntConfigurationListener> myEventDispatcher = EventDispatcher.create(AntConfigurationListener.class);
 	private final ThermitWorkspaceConfiguration myAntWorkspaceConfiguration;
 	private final StartupManager myStartupManager;
@@ -206,13 +225,10 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 			{
 				final VirtualFile vFile = event.getFile();
 				// cleanup
-				for(AntBuildFile file : getBuildFiles())
+				final AntBuildFileBase buildFile = myVirtualFileToBuildFileMap.get(vFile);
+				if(buildFile != null)
 				{
-					if(vFile.equals(file.getVirtualFile()))
-					{
-						removeBuildFile(file);
-						break;
-					}
+					removeBuildFile(buildFile);
 				}
 				for(Iterator<Map.Entry<VirtualFile, VirtualFile>> it = myAntFileToContextFileMap.entrySet().iterator(); it.hasNext(); )
 				{
@@ -220,6 +236,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 					if(vFile.equals(entry.getKey()) || vFile.equals(entry.getValue()))
 					{
 						it.remove();
+						contextMappingChanged();
 					}
 				}
 			}
@@ -307,7 +324,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 							try
 							{
 								result[0] = addBuildFileImpl(file);
-								updateRegisteredActions();
+								updateRegisteredActions(result[0]);
 							}
 							catch(AntNoFileException e)
 							{
@@ -343,7 +360,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	{
 		myModificationCount++;
 		removeBuildFileImpl(file);
-		updateRegisteredActions();
+		updateRegisteredActions(file);
 	}
 
 	public void addAntConfigurationListener(final AntConfigurationListener listener)
@@ -415,12 +432,9 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 			return null;
 		}
 		final AntBuildFileBase buildFile = (AntBuildFileBase) pair.first;
-		synchronized(myBuildFiles)
+		if(!isRegistered(buildFile))
 		{
-			if(!myBuildFiles.contains(buildFile))
-			{
-				return null; // file was removed
-			}
+			return null; // file was removed
 		}
 		final String targetName = pair.second;
 
@@ -480,7 +494,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	{
 		myModificationCount++;
 		myEventDispatcher.getMulticaster().buildFileChanged(buildFile);
-		updateRegisteredActions();
+		updateRegisteredActions(buildFile);
 	}
 
 	public boolean isAutoScrollToSource()
@@ -501,16 +515,26 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	@Nullable
 	public AntBuildModel getModelIfRegistered(final AntBuildFile buildFile)
 	{
-		synchronized(myBuildFiles)
+		if(!isRegistered(buildFile))
 		{
-			if(!myBuildFiles.contains(buildFile))
-			{
-				return null;
-			}
+			return null;
 		}
 		return getModel(buildFile);
 	}
 
+	private boolean isRegistered(final AntBuildFile buildFile)
+	{
+		final VirtualFile vFile = buildFile.getVirtualFile();
+		if(vFile != null)
+		{
+			return myVirtualFileToBuildFileMap.get(vFile) == buildFile;
+		}
+		synchronized(myBuildFiles)
+		{
+			return myBuildFiles.contains(buildFile);
+		}
+	}
+
 	public long getModificationCount()
 	{
 		return myModificationCount;
@@ -661,6 +685,14 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	@Nullable
 	public AntBuildFile findBuildFileByActionId(final String id)
 	{
+		synchronized(this)
+		{
+			final TargetActionInfo info = myRegisteredActions.get(id);
+			if(info != null && isRegistered(info.myBuildFile))
+			{
+				return info.myBuildFile;
+			}
+		}
 		for(AntBuildFile buildFile : getBuildFiles())
 		{
 			AntBuildModelBase model = (AntBuildModelBase) buildFile.getModel();
@@ -701,73 +733,180 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 		{
 			myBuildFilesArray = null;
 			myBuildFiles.add(buildFile);
+			final VirtualFile vFile = buildFile.getVirtualFile();
+			if(vFile != null)
+			{
+				myVirtualFileToBuildFileMap.put(vFile, buildFile);
+			}
 		}
 		return buildFile;
 	}
 
 	private void updateRegisteredActions()
+	{
+		updateRegisteredActions(null);
+	}
+
+	/**
+	 * Brings the registered target actions in line with the targets, touching only the actions that were added, removed
+	 * or changed.
+	 *
+	 * @param changedFile the build file whose targets may have changed, or null to check all build files and to drop
+	 *                    stale actions registered with the prefix of the project
+	 */
+	private void updateRegisteredActions(@Nullable final AntBuildFile changedFile)
 	{
 		final Project project = getProject();
 		if(project.isDisposed())
 		{
 			return;
 		}
-		final List<Pair<String, AnAction>> actionList = new ArrayList<Pair<String, AnAction>>();
-		for(final AntBuildFile buildFile : getBuildFiles())
+		final Map<String, TargetActionInfo> actions = new LinkedHashMap<String, TargetActionInfo>();
+		final Set<String> shadowedIds = new HashSet<String>();
+		final AntBuildFile[] buildFiles = changedFile == null ? getBuildFiles() : isRegistered(changedFile) ? new AntBuildFile[]{changedFile} : new AntBuildFile[0];
+		for(final AntBuildFile buildFile : buildFiles)
 		{
 			final AntBuildModelBase model = (AntBuildModelBase) buildFile.getModel();
 			String defaultTargetActionId = model.getDefaultTargetActionId();
 			if(defaultTargetActionId != null)
 			{
-				final TargetAction action = new TargetAction(buildFile, TargetAction.DEFAULT_TARGET_NAME, new String[]{TargetAction.DEFAULT_TARGET_NAME}, null);
-				actionList.add(new Pair<String, AnAction>(defaultTargetActionId, action));
+				addTargetAction(actions, shadowedIds, new TargetActionInfo(defaultTargetActionId, buildFile, TargetAction.DEFAULT_TARGET_NAME, null));
 			}
 
-			collectTargetActions(model.getFilteredTargets(), actionList, buildFile);
-			collectTargetActions(getMetaTargets(buildFile), actionList, buildFile);
+			collectTargetActions(model.getFilteredTargets(), actions, shadowedIds, buildFile);
+			collectTargetActions(getMetaTargets(buildFile), actions, shadowedIds, buildFile);
 		}
 
+		boolean updateAll = false;
 		synchronized(this)
 		{
-			// unregister Ant actions
-			ActionManagerEx actionManager = ActionManagerEx.getInstanceEx();
-			final String[] oldIds = actionManager.getActionIds(ThermitConfiguration.getActionIdPrefix(project));
-			for(String oldId : oldIds)
+			final ActionManagerEx actionManager = ActionManagerEx.getInstanceEx();
+			if(changedFile == null)
 			{
-				actionManager.unregisterAction(oldId);
+				myShadowedActionIds.clear();
+				myShadowedActionIds.addAll(shadowedIds);
+				for(String id : actionManager.getActionIds(ThermitConfiguration.getActionIdPrefix(project)))
+				{
+					if(!actions.containsKey(id))
+					{
+						actionManager.unregisterAction(id);
+						myRegisteredActions.remove(id);
+					}
+				}
 			}
-			final Set<String> registeredIds = StringSetSpinAllocator.alloc();
-			try
+			else
 			{
-				for(Pair<String, AnAction> pair : actionList)
+				for(Iterator<Map.Entry<String, TargetActionInfo>> iterator = myRegisteredActions.entrySet().iterator(); iterator.hasNext(); )
 				{
-					if(!registeredIds.contains(pair.first))
+					final Map.Entry<String, TargetActionInfo> entry = iterator.next();
+					if(entry.getValue().myBuildFile == changedFile && !actions.containsKey(entry.getKey()))
 					{
-						registeredIds.add(pair.first);
-						actionManager.registerAction(pair.first, pair.second);
+						actionManager.unregisterAction(entry.getKey());
+						iterator.remove();
+						// a target of another build file may take the id now
+						updateAll |= myShadowedActionIds.contains(entry.getKey());
 					}
 				}
 			}
-			finally
+			for(TargetActionInfo info : actions.values())
 			{
-				StringSetSpinAllocator.dispose(registeredIds);
+				final TargetActionInfo registered = myRegisteredActions.get(info.myId);
+				if(registered != null && registered.myBuildFile != info.myBuildFile && changedFile != null && isRegistered(registered.myBuildFile))
+				{
+					// the id is taken by a target of another build file
+					myShadowedActionIds.add(info.myId);
+					continue;
+				}
+				if(info.equals(registered))
+				{
+					continue;
+				}
+				if(actionManager.getActionOrStub(info.myId) != null)
+				{
+					actionManager.unregisterAction(info.myId);
+				}
+				actionManager.registerAction(info.myId, info.createAction());
+				myRegisteredActions.put(info.myId, info);
 			}
 		}
+		if(updateAll)
+		{
+			updateRegisteredActions(null);
+		}
 	}
 
-	private static void collectTargetActions(final AntBuildTarget[] targets, final List<Pair<String, AnAction>> actionList, final AntBuildFile buildFile)
+	private static void collectTargetActions(final AntBuildTarget[] targets, final Map<String, TargetActionInfo> actions, final Set<String> shadowedIds, final AntBuildFile buildFile)
 	{
 		for(final AntBuildTarget target : targets)
 		{
 			final String actionId = ((AntBuildTargetBase) target).getActionId();
 			if(actionId != null)
 			{
-				final TargetAction action = new TargetAction(buildFile, target.getName(), new String[]{target.getName()}, target.getNotEmptyDescription());
-				actionList.add(new Pair<String, AnAction>(actionId, action));
+				addTargetAction(actions, shadowedIds, new TargetActionInfo(actionId, buildFile, target.getName(), target.getNotEmptyDescription()));
 			}
 		}
 	}
 
+	private static void addTargetAction(Map<String, TargetActionInfo> actions, Set<String> shadowedIds, TargetActionInfo info)
+	{
+		// the first target wins
+		final TargetActionInfo existing = actions.get(info.myId);
+		if(existing == null)
+		{
+			actions.put(info.myId, info);
+		}
+		else if(existing.myBuildFile != info.myBuildFile)
+		{
+			shadowedIds.add(info.myId);
+		}
+	}
+
+	/**
+	 * What a target action is created from, equal infos give equal actions
+	 */
+	private static final class TargetActionInfo
+	{
+		private final String myId;
+		private final AntBuildFile myBuildFile;
+		private final String myBuildName;
+		private final String myTargetName;
+		@Nullable
+		private final String myDescription;
+
+		private TargetActionInfo(String id, AntBuildFile buildFile, String targetName, @Nullable String description)
+		{
+			myId = id;
+			myBuildFile = buildFile;
+			myBuildName = buildFile.getPresentableName();
+			myTargetName = targetName;
+			myDescription = description;
+		}
+
+		private AnAction createAction()
+		{
+			return new TargetAction(myBuildFile, myTargetName, new String[]{myTargetName}, myDescription);
+		}
+
+		public boolean equals(Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(!(o instanceof TargetActionInfo))
+			{
+				return false;
+			}
+			final TargetActionInfo that = (TargetActionInfo) o;
+			return myId.equals(that.myId) && myBuildFile == that.myBuildFile && Comparing.equal(myBuildName, that.myBuildName) && Comparing.equal(myTargetName, that.myTargetName) && Comparing.equal(myDescription, that.myDescription);
+		}
+
+		public int hashCode()
+		{
+			return myId.hashCode();
+		}
+	}
+
 	private void removeBuildFileImpl(AntBuildFile buildFile)
 	{
 		final XmlFile antFile = buildFile.getAntFile();
@@ -779,6 +918,11 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 		{
 			myBuildFilesArray = null;
 			myBuildFiles.remove(buildFile);
+			final VirtualFile vFile = buildFile.getVirtualFile();
+			if(vFile != null && myVirtualFileToBuildFileMap.get(vFile) == buildFile)
+			{
+				myVirtualFileToBuildFileMap.remove(vFile);
+			}
 		}
 		myModelToBuildFileMap.remove(buildFile);
 		myEventDispatcher.getMulticaster().buildFileRemoved(buildFile);
@@ -887,6 +1031,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 
 		// contexts
 		myAntFileToContextFileMap.clear();
+		contextMappingChanged();
 		for(final Object o : parentNode.getChildren(CONTEXT_MAPPING))
 		{
 			final Element element = (Element) o;
@@ -900,6 +1045,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 			}
 		}
 
+		final List<AntBuildFileBase> restoredFiles = new ArrayList<AntBuildFileBase>();
 		final String title = ThermitBundle.message("loading.ant.config.progress");
 		queueLater(new Task.Backgroundable(getProject(), title, false)
 		{
@@ -947,11 +1093,27 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 										LOG.error(e);
 									}
 								}
+								// restores the targets kept in the workspace along with the filters
+								try
+								{
+									ThermitWorkspaceConfiguration.getInstance(getProject()).loadFileProperties();
+								}
+								catch(InvalidDataException e)
+								{
+									LOG.error(e);
+								}
 								// updating properties separately to avoid  unnecesary building of PSI after clearing caches
 								for(Pair<Element, AntBuildFileBase> pair : buildFiles)
 								{
 									final AntBuildFileBase buildFile = pair.getSecond();
-									buildFile.updateProperties();
+									if(isRestored(buildFile))
+									{
+										restoredFiles.add(buildFile);
+									}
+									else
+									{
+										buildFile.updateProperties();
+									}
 									final VirtualFile vFile = buildFile.getVirtualFile();
 									final String buildFileUrl = vFile != null ? vFile.getUrl() : null;
 
@@ -1008,11 +1170,6 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 										}
 									}
 								}
-								ThermitWorkspaceConfiguration.getInstance(getProject()).loadFileProperties();
-							}
-							catch(InvalidDataException e)
-							{
-								LOG.error(e);
 							}
 							finally
 							{
@@ -1026,6 +1183,7 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 										myEventDispatcher.getMulticaster().configurationLoaded();
 									}
 								});
+								validateRestoredFiles(restoredFiles);
 							}
 						}
 					});
@@ -1038,6 +1196,67 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 		});
 	}
 
+	private boolean isRestored(final AntBuildFileBase buildFile)
+	{
+		final AntBuildModelBase model = buildFile.getModelIfRegistered();
+		return model instanceof AntBuildModelImpl && ((AntBuildModelImpl) model).isRestored();
+	}
+
+	/**
+	 * Computes the targets of the build files restored from the workspace and reports those that changed since the
+	 * snapshot was taken. Each file is validated in its own read action.
+	 */
+	private void validateRestoredFiles(final List<AntBuildFileBase> buildFiles)
+	{
+		if(buildFiles.isEmpty())
+		{
+			return;
+		}
+		final String title = ThermitBundle.message("validating.ant.config.progress");
+		queueLater(new Task.Backgroundable(getProject(), title, false)
+		{
+			public void run(@NotNull final ProgressIndicator indicator)
+			{
+				indicator.setIndeterminate(true);
+				indicator.setText(title);
+				for(final AntBuildFileBase buildFile : buildFiles)
+				{
+					if(getProject().isDisposed())
+					{
+						return;
+					}
+					final boolean changed = ApplicationManager.getApplication().runReadAction(new Computable<Boolean>()
+					{
+						public Boolean compute()
+						{
+							final AntBuildModelBase model = buildFile.getModelIfRegistered();
+							if(!(model instanceof AntBuildModelImpl) || !((AntBuildModelImpl) model).isRestored())
+							{
+								return Boolean.FALSE;
+							}
+							final boolean differs = ((AntBuildModelImpl) model).validate();
+							buildFile.updateProperties();
+							return differs;
+						}
+					});
+					if(changed)
+					{
+						ApplicationManager.getApplication().invokeLater(new Runnable()
+						{
+							public void run()
+							{
+								if(!getProject().isDisposed() && isRegistered(buildFile))
+								{
+									updateBuildFile(buildFile);
+								}
+							}
+						});
+					}
+				}
+			}
+		});
+	}
+
 	private static void convertToBeforeRunTask(Project project, String buildFileUrl, String targetName, String configType, String configName)
 	{
 		if(buildFileUrl == null || targetName == null || configType == null)
@@ -1113,6 +1332,14 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 		{
 			myAntFileToContextFileMap.remove(file.getVirtualFile());
 		}
+		contextMappingChanged();
+	}
+
+	private void contextMappingChanged()
+	{
+		myContextMappingStamp.incrementAndGet();
+		myEffectiveContextCache.clear();
+		myModificationCount++;
 	}
 
 	@Nullable
@@ -1140,21 +1367,45 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 	public AntBuildFileBase getAntBuildFile(@NotNull PsiFile file)
 	{
 		final VirtualFile vFile = file.getVirtualFile();
-		if(vFile != null)
+		return vFile != null ? myVirtualFileToBuildFileMap.get(vFile) : null;
+	}
+
+	@Nullable
+	public XmlFile getEffectiveContextFile(final XmlFile file)
+	{
+		final VirtualFile vFile = file != null ? file.getVirtualFile() : null;
+		if(vFile == null)
+		{
+			return findEffectiveContextFile(file);
+		}
+		final PsiManager psiManager = PsiManager.getInstance(getProject());
+		// the context depends on the mappings and on the imports, which change the targets tracker when edited
+		final long importsStamp = AntImportsIndex.getModificationCount() + AntChangeTracker.getInstance(getProject()).getTargetsTracker().getModificationCount();
+		final long mappingStamp = myContextMappingStamp.get();
+		final ContextCacheEntry cached = myEffectiveContextCache.get(vFile);
+		if(cached != null && cached.myImportsStamp == importsStamp && cached.myMappingStamp == mappingStamp)
 		{
-			for(AntBuildFileBase bFile : getBuildFiles())
+			if(vFile.equals(cached.myContextFile))
 			{
-				if(vFile.equals(bFile.getVirtualFile()))
-				{
-					return bFile;
-				}
+				return file;
+			}
+			final PsiFile psiFile = cached.myContextFile.isValid() ? psiManager.findFile(cached.myContextFile) : null;
+			if(psiFile instanceof XmlFile)
+			{
+				return (XmlFile) psiFile;
 			}
 		}
-		return null;
+		final XmlFile contextFile = findEffectiveContextFile(file);
+		final VirtualFile contextVFile = contextFile != null ? contextFile.getVirtualFile() : null;
+		if(contextVFile != null)
+		{
+			myEffectiveContextCache.put(vFile, new ContextCacheEntry(contextVFile, importsStamp, mappingStamp));
+		}
+		return contextFile;
 	}
 
 	@Nullable
-	public XmlFile getEffectiveContextFile(final XmlFile file)
+	private XmlFile findEffectiveContextFile(final XmlFile file)
 	{
 		return new Object()
 		{
@@ -1164,7 +1415,11 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 				if(file != null)
 				{
 					processed.add(file);
-					final XmlFile contextFile = getContextFile(file);
+					XmlFile contextFile = getContextFile(file);
+					if(contextFile == null)
+					{
+						contextFile = findImportingFile(file);
+					}
 					return (contextFile == null || processed.contains(contextFile)) ? file : findContext(contextFile, processed);
 				}
 				return null;
@@ -1172,6 +1427,41 @@ public class ThermitConfigurationImpl extends ThermitConfigurationBase implement
 		}.findContext(file, new HashSet<PsiElement>());
 	}
 
+	/**
+	 * A file without explicitly configured context is considered to be a part of the build file importing it,
+	 * provided there is exactly one such file in the project
+	 */
+	@Nullable
+	private XmlFile findImportingFile(@NotNull XmlFile file)
+	{
+		final VirtualFile vFile = file.getOriginalFile().getVirtualFile();
+		if(vFile == null)
+		{
+			return null;
+		}
+		final Collection<VirtualFile> importing = AntImportsIndex.getImportingFiles(getProject(), vFile, GlobalSearchScope.projectScope(getProject()));
+		if(importing.size() != 1)
+		{
+			return null;
+		}
+		final PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(importing.iterator().next());
+		return psiFile instanceof XmlFile && AntDomFileDescription.isAntFile((XmlFile) psiFile) ? (XmlFile) psiFile : null;
+	}
+
+	private static final class ContextCacheEntry
+	{
+		private final VirtualFile myContextFile;
+		private final long myImportsStamp;
+		private final long myMappingStamp;
+
+		private ContextCacheEntry(VirtualFile contextFile, long importsStamp, long mappingStamp)
+		{
+			myContextFile = contextFile;
+			myImportsStamp = importsStamp;
+			myMappingStamp = mappingStamp;
+		}
+	}
+
 	private static class EventElementComparator implements Comparator<Element>
 	{
 		static final Comparator<? super Element> INSTANCE = new EventElementComparator();
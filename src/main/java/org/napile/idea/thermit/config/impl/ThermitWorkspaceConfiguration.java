@@ -23,6 +23,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.napile.idea.thermit.config.AntBuildFile;
 import org.napile.idea.thermit.config.AntBuildFileBase;
+import org.napile.idea.thermit.config.AntBuildModelBase;
 import org.napile.idea.thermit.config.ThermitConfiguration;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.ServiceManager;
@@ -35,6 +36,7 @@ import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.DefaultJDOMExternalizer;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.openapi.vfs.VirtualFile;
 
 @State(
 		name = "thermitWorkspaceConfiguration",
@@ -52,6 +54,8 @@ public class ThermitWorkspaceConfiguration implements PersistentStateComponent<E
 	private static final String BUILD_FILE = "buildFile";
 	@NonNls
 	private static final String URL = "url";
+	@NonNls
+	private static final String SNAPSHOT = "snapshot";
 	private final AtomicReference<Element> myProperties = new AtomicReference<Element>(null);
 
 	public boolean IS_AUTOSCROLL_TO_SOURCE;
@@ -107,6 +111,7 @@ public class ThermitWorkspaceConfiguration implements PersistentStateComponent<E
 			Element element = new Element(BUILD_FILE);
 			element.setAttribute(URL, buildFile.getVirtualFile().getUrl());
 			((AntBuildFileBase) buildFile).writeWorkspaceProperties(element);
+			writeSnapshot(element, buildFile);
 			parentNode.addContent(element);
 		}
 	}
@@ -131,6 +136,35 @@ public class ThermitWorkspaceConfiguration implements PersistentStateComponent<E
 				continue;
 			}
 			((AntBuildFileBase) buildFile).readWorkspaceProperties(fileElement);
+			readSnapshot(fileElement, buildFile);
+		}
+	}
+
+	private static void writeSnapshot(Element element, AntBuildFile buildFile)
+	{
+		final AntBuildModelBase model = ((AntBuildFileBase) buildFile).getModelIfRegistered();
+		final AntBuildFileSnapshot snapshot = model instanceof AntBuildModelImpl ? ((AntBuildModelImpl) model).getSnapshot() : null;
+		if(snapshot != null)
+		{
+			final Element snapshotElement = new Element(SNAPSHOT);
+			snapshot.writeExternal(snapshotElement);
+			element.addContent(snapshotElement);
+		}
+	}
+
+	private static void readSnapshot(Element element, AntBuildFile buildFile)
+	{
+		final Element snapshotElement = element.getChild(SNAPSHOT);
+		final VirtualFile file = buildFile.getVirtualFile();
+		final AntBuildModelBase model = ((AntBuildFileBase) buildFile).getModelIfRegistered();
+		if(snapshotElement == null || file == null || !(model instanceof AntBuildModelImpl))
+		{
+			return;
+		}
+		final AntBuildFileSnapshot snapshot = AntBuildFileSnapshot.readExternal(snapshotElement, file);
+		if(snapshot != null)
+		{
+			((AntBuildModelImpl) model).restoreSnapshot(snapshot);
 		}
 	}
 
@@ -16,7 +16,6 @@
 package org.napile.idea.thermit.doc;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.Collections;
 import java.util.HashSet;
@@ -32,12 +31,8 @@ import org.napile.idea.thermit.dom.AntDomProject;
 import org.napile.idea.thermit.dom.AntDomTarget;
 import com.intellij.lang.documentation.DocumentationProvider;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.LocalFileSystem;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.pom.PomTarget;
 import com.intellij.pom.PomTargetPsiElement;
 import com.intellij.psi.PsiElement;
@@ -87,17 +82,7 @@ public class AntDomDocumentationProvider implements DocumentationProvider
 	private static String getMainDocumentation(PsiElement elem)
 	{
 		final VirtualFile helpFile = getHelpFile(elem);
-		if(helpFile != null)
-		{
-			try
-			{
-				return VfsUtil.loadText(helpFile);
-			}
-			catch(IOException ignored)
-			{
-			}
-		}
-		return null;
+		return helpFile != null ? AntHelpIndex.loadText(helpFile) : null;
 	}
 
 	@Nullable
@@ -173,32 +158,12 @@ public class AntDomDocumentationProvider implements DocumentationProvider
 			return null;
 		}
 
-		@NonNls String path = antHomeDir + "/docs/manual";
-		String url;
-		if(new File(path).exists())
-		{
-			url = VirtualFileManager.constructUrl(LocalFileSystem.PROTOCOL, FileUtil.toSystemIndependentName(path));
-		}
-		else
-		{
-			path = antHomeDir + "/docs.zip";
-			if(new File(path).exists())
-			{
-				url = VirtualFileManager.constructUrl(JarFileSystem.PROTOCOL, FileUtil.toSystemIndependentName(path) + JarFileSystem.JAR_SEPARATOR + "docs/manual");
-			}
-			else
-			{
-				return null;
-			}
-		}
-
-		final VirtualFile documentationRoot = VirtualFileManager.getInstance().findFileByUrl(url);
-		if(documentationRoot == null)
+		final AntHelpIndex index = AntHelpIndex.getInstance(antHomeDir);
+		if(index == null)
 		{
 			return null;
 		}
-
-		return getHelpFile(antElement, documentationRoot);
+		return index.findHelpFile(xmlTag.getName(), antElement instanceof AntDomTarget || antElement instanceof AntDomProject);
 	}
 
 	public static final String[] DOC_FOLDER_NAMES = new String[]{
@@ -210,37 +175,6 @@ public class AntDomDocumentationProvider implements DocumentationProvider
 			"OptionalTypes"
 	};
 
-	@Nullable
-	private static VirtualFile getHelpFile(AntDomElement antElement, final VirtualFile documentationRoot)
-	{
-		final XmlTag xmlTag = antElement.getXmlTag();
-		if(xmlTag == null)
-		{
-			return null;
-		}
-		@NonNls final String helpFileShortName = "/" + xmlTag.getName() + ".html";
-
-		for(String folderName : DOC_FOLDER_NAMES)
-		{
-			final VirtualFile candidateHelpFile = documentationRoot.findFileByRelativePath(folderName + helpFileShortName);
-			if(candidateHelpFile != null)
-			{
-				return candidateHelpFile;
-			}
-		}
-
-		if(antElement instanceof AntDomTarget || antElement instanceof AntDomProject)
-		{
-			final VirtualFile candidateHelpFile = documentationRoot.findFileByRelativePath("using.html");
-			if(candidateHelpFile != null)
-			{
-				return candidateHelpFile;
-			}
-		}
-
-		return null;
-	}
-
 	@Nullable
 	public String getQuickNavigateInfo(PsiElement element, PsiElement originalElement)
 	{  // todo!
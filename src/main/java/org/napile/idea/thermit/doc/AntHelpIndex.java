@@ -0,0 +1,346 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.doc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.io.IOUtil;
+
+/**
+ * Tag name to help file mapping of the manual of a thermit installation. The manual folders are scanned once per
+ * installation and the result is persisted under the IDE system directory, keyed by the installation home and
+ * validated against the time stamps of the manual folders (or of the docs archive), so a lookup needs neither file system probes nor folder scans.
+ * Loaded help pages are kept in a small LRU cache.
+ */
+public final class AntHelpIndex
+{
+	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.doc.AntHelpIndex");
+
+	private static final int FORMAT_VERSION = 2;
+	private static final int MAX_PAGES = 32;
+	@NonNls
+	private static final String CACHE_DIR = "thermit" + File.separator + "help";
+	@NonNls
+	private static final String USING_PAGE = "using.html";
+	@NonNls
+	private static final String HTML_EXTENSION = ".html";
+
+	private static final Map<String, AntHelpIndex> ourIndices = new HashMap<String, AntHelpIndex>();
+	private static final AntHelpIndex ourNullIndex = new AntHelpIndex(null, 0L, new HashMap<String, String>());
+
+	private static final Map<String, Pair<Long, String>> ourPages = new LinkedHashMap<String, Pair<Long, String>>(16, 0.75f, true)
+	{
+		protected boolean removeEldestEntry(Map.Entry<String, Pair<Long, String>> eldest)
+		{
+			return size() > MAX_PAGES;
+		}
+	};
+
+	@Nullable
+	private final String myRootUrl;
+	private final long myStamp;
+	private final Map<String, String> myHelpFiles;
+	private volatile VirtualFile myRoot;
+
+	private AntHelpIndex(@Nullable String rootUrl, long stamp, Map<String, String> helpFiles)
+	{
+		myRootUrl = rootUrl;
+		myStamp = stamp;
+		myHelpFiles = helpFiles;
+	}
+
+	/**
+	 * @return index of the manual of the installation with the given home, or null if the installation has no manual
+	 */
+	@Nullable
+	static AntHelpIndex getInstance(@NotNull String antHomeDir)
+	{
+		AntHelpIndex index;
+		synchronized(ourIndices)
+		{
+			index = ourIndices.get(antHomeDir);
+		}
+		if(index == null)
+		{
+			index = loadOrBuild(antHomeDir);
+			synchronized(ourIndices)
+			{
+				ourIndices.put(antHomeDir, index);
+			}
+		}
+		return index != ourNullIndex ? index : null;
+	}
+
+	/**
+	 * Forgets the index of the installation, so that the manual is looked up again on next access.
+	 */
+	public static void invalidate(@NotNull String antHomeDir)
+	{
+		synchronized(ourIndices)
+		{
+			ourIndices.remove(antHomeDir);
+		}
+	}
+
+	@Nullable
+	VirtualFile findHelpFile(@NotNull String tagName, boolean isProjectOrTarget)
+	{
+		String relativePath = myHelpFiles.get(tagName);
+		if(relativePath == null)
+		{
+			if(!isProjectOrTarget || !myHelpFiles.containsKey(USING_PAGE))
+			{
+				return null;
+			}
+			relativePath = USING_PAGE;
+		}
+		final VirtualFile root = getRoot();
+		return root != null ? root.findFileByRelativePath(relativePath) : null;
+	}
+
+	@Nullable
+	private VirtualFile getRoot()
+	{
+		VirtualFile root = myRoot;
+		if(root == null || !root.isValid())
+		{
+			root = myRootUrl != null ? VirtualFileManager.getInstance().findFileByUrl(myRootUrl) : null;
+			myRoot = root;
+		}
+		return root;
+	}
+
+	@Nullable
+	static String loadText(@NotNull VirtualFile helpFile)
+	{
+		final String url = helpFile.getUrl();
+		final long stamp = helpFile.getModificationStamp();
+		synchronized(ourPages)
+		{
+			final Pair<Long, String> cached = ourPages.get(url);
+			if(cached != null && cached.getFirst().longValue() == stamp)
+			{
+				return cached.getSecond();
+			}
+		}
+		final String text;
+		try
+		{
+			text = VfsUtil.loadText(helpFile);
+		}
+		catch(IOException ignored)
+		{
+			return null;
+		}
+		synchronized(ourPages)
+		{
+			ourPages.put(url, new Pair<Long, String>(stamp, text));
+		}
+		return text;
+	}
+
+	private static AntHelpIndex loadOrBuild(String antHomeDir)
+	{
+		@NonNls String path = antHomeDir + "/docs/manual";
+		File rootFile = new File(path);
+		String url;
+		if(rootFile.exists())
+		{
+			url = VirtualFileManager.constructUrl(LocalFileSystem.PROTOCOL, FileUtil.toSystemIndependentName(path));
+		}
+		else
+		{
+			path = antHomeDir + "/docs.zip";
+			rootFile = new File(path);
+			if(!rootFile.exists())
+			{
+				return ourNullIndex;
+			}
+			url = VirtualFileManager.constructUrl(JarFileSystem.PROTOCOL, FileUtil.toSystemIndependentName(path) + JarFileSystem.JAR_SEPARATOR + "docs/manual");
+		}
+		final long stamp = getStamp(rootFile);
+
+		final File cacheFile = getCacheFile(antHomeDir);
+		final AntHelpIndex loaded = load(cacheFile);
+		if(loaded != null && loaded.myStamp == stamp && url.equals(loaded.myRootUrl))
+		{
+			return loaded;
+		}
+
+		final VirtualFile root = VirtualFileManager.getInstance().findFileByUrl(url);
+		if(root == null)
+		{
+			return ourNullIndex;
+		}
+		final AntHelpIndex index = new AntHelpIndex(url, stamp, scan(root));
+		index.myRoot = root;
+		save(cacheFile, index);
+		return index;
+	}
+
+	/**
+	 * Adding or removing a page changes the time stamp of its folder only, so the stamps of all folders scanned are
+	 * combined; an archive is rewritten as a whole.
+	 */
+	private static long getStamp(File root)
+	{
+		long stamp = root.lastModified();
+		if(root.isDirectory())
+		{
+			for(String folderName : AntDomDocumentationProvider.DOC_FOLDER_NAMES)
+			{
+				stamp = 31 * stamp + new File(root, folderName).lastModified();
+			}
+		}
+		else
+		{
+			stamp = 31 * stamp + root.length();
+		}
+		return stamp;
+	}
+
+	private static Map<String, String> scan(VirtualFile root)
+	{
+		final Map<String, String> helpFiles = new HashMap<String, String>();
+		for(String folderName : AntDomDocumentationProvider.DOC_FOLDER_NAMES)
+		{
+			final VirtualFile folder = root.findChild(folderName);
+			if(folder == null || !folder.isDirectory())
+			{
+				continue;
+			}
+			for(VirtualFile child : folder.getChildren())
+			{
+				final String name = child.getName();
+				if(!child.isDirectory() && name.endsWith(HTML_EXTENSION))
+				{
+					final String tagName = name.substring(0, name.length() - HTML_EXTENSION.length());
+					// folders are listed by priority, the first one defining the page wins
+					if(!helpFiles.containsKey(tagName))
+					{
+						helpFiles.put(tagName, folderName + "/" + name);
+					}
+				}
+			}
+		}
+		final VirtualFile using = root.findChild(USING_PAGE);
+		if(using != null && !using.isDirectory())
+		{
+			helpFiles.put(USING_PAGE, USING_PAGE);
+		}
+		return helpFiles;
+	}
+
+	private static File getCacheFile(String antHomeDir)
+	{
+		final String name = FileUtil.sanitizeFileName(new File(antHomeDir).getName()) + "_" + Integer.toHexString(FileUtil.toSystemIndependentName(antHomeDir).hashCode());
+		return new File(PathManager.getSystemPath() + File.separator + CACHE_DIR, name + ".dat");
+	}
+
+	@Nullable
+	private static AntHelpIndex load(File file)
+	{
+		if(!file.exists())
+		{
+			return null;
+		}
+		try
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != FORMAT_VERSION)
+				{
+					return null;
+				}
+				final String rootUrl = IOUtil.readUTF(in);
+				final long stamp = in.readLong();
+				final int size = in.readInt();
+				final Map<String, String> helpFiles = new HashMap<String, String>(size * 4 / 3 + 1);
+				for(int i = 0; i < size; i++)
+				{
+					helpFiles.put(IOUtil.readUTF(in), IOUtil.readUTF(in));
+				}
+				return new AntHelpIndex(rootUrl, stamp, helpFiles);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			// corrupted or incompatible cache file, will be rebuilt
+			LOG.info(e);
+			FileUtil.delete(file);
+			return null;
+		}
+	}
+
+	private static void save(File file, AntHelpIndex index)
+	{
+		final File tempFile = new File(file.getPath() + ".tmp");
+		try
+		{
+			FileUtil.createParentDirs(tempFile);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try
+			{
+				out.writeInt(FORMAT_VERSION);
+				IOUtil.writeUTF(out, index.myRootUrl);
+				out.writeLong(index.myStamp);
+				out.writeInt(index.myHelpFiles.size());
+				for(Map.Entry<String, String> entry : index.myHelpFiles.entrySet())
+				{
+					IOUtil.writeUTF(out, entry.getKey());
+					IOUtil.writeUTF(out, entry.getValue());
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			FileUtil.rename(tempFile, file);
+		}
+		catch(IOException e)
+		{
+			LOG.info(e);
+			FileUtil.delete(tempFile);
+		}
+	}
+}
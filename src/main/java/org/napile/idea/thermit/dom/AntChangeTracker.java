@@ -0,0 +1,360 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntImportsIndex;
+import org.napile.idea.thermit.config.ThermitConfigurationBase;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+
+/**
+ * Classifies PSI changes in thermit files by the kind of declarations they may affect: targets, property providers
+ * and custom type definitions. A separate modification tracker is kept for each kind, so cached resolution results
+ * depend only on the declarations they were computed from; e.g. editing the body of an ordinary task invalidates nothing.
+ * Counters of invalidations per kind are kept for diagnostics, every edit is also logged on debug level.
+ */
+public class AntChangeTracker
+{
+	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.dom.AntChangeTracker");
+
+	public static final int TARGETS = 1;
+	public static final int PROPERTIES = 2;
+	public static final int DEFINITIONS = 4;
+	private static final int ALL = TARGETS | PROPERTIES | DEFINITIONS;
+
+	private final Project myProject;
+	private final AtomicLong myTargetsCount = new AtomicLong(0L);
+	private final AtomicLong myPropertiesCount = new AtomicLong(0L);
+	private final AtomicLong myDefinitionsCount = new AtomicLong(0L);
+	private final AtomicLong myEditsCount = new AtomicLong(0L);
+	private final AtomicLong myIgnoredEditsCount = new AtomicLong(0L);
+
+	private final ModificationTracker myTargetsTracker = new ModificationTracker()
+	{
+		public long getModificationCount()
+		{
+			return myTargetsCount.get();
+		}
+	};
+	private final ModificationTracker myPropertiesTracker = new ModificationTracker()
+	{
+		public long getModificationCount()
+		{
+			// context mappings and build file settings take part in property resolution as well
+			return myPropertiesCount.get() + ThermitConfigurationBase.getInstance(myProject).getModificationCount();
+		}
+	};
+	private final ModificationTracker myDefinitionsTracker = new ModificationTracker()
+	{
+		public long getModificationCount()
+		{
+			return myDefinitionsCount.get() + ThermitConfigurationBase.getInstance(myProject).getModificationCount();
+		}
+	};
+
+	public AntChangeTracker(Project project)
+	{
+		myProject = project;
+		PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter()
+		{
+			public void childAdded(PsiTreeChangeEvent event)
+			{
+				changed(event.getFile(), event.getParent(), event.getChild(), null);
+			}
+
+			public void childRemoved(PsiTreeChangeEvent event)
+			{
+				changed(event.getFile(), event.getParent(), event.getChild(), null);
+			}
+
+			public void childReplaced(PsiTreeChangeEvent event)
+			{
+				changed(event.getFile(), event.getParent(), event.getOldChild(), event.getNewChild());
+			}
+
+			public void childMoved(PsiTreeChangeEvent event)
+			{
+				changed(event.getFile(), event.getOldParent(), event.getChild(), null);
+				changed(event.getFile(), event.getNewParent(), event.getChild(), null);
+			}
+
+			public void childrenChanged(PsiTreeChangeEvent event)
+			{
+				changed(event.getFile(), event.getParent(), null, null);
+			}
+
+			public void propertyChanged(PsiTreeChangeEvent event)
+			{
+				// file renames and moves change resolved paths
+				if(event.getElement() instanceof PsiFileSystemItem)
+				{
+					invalidate(ALL, null);
+				}
+			}
+		}, project);
+		// property files loaded by thermit files are read from an index, so their PSI and PSI events may not exist
+		VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileAdapter()
+		{
+			public void contentsChanged(VirtualFileEvent event)
+			{
+				if(event.getFile().getFileType() == StdFileTypes.PROPERTIES)
+				{
+					invalidate(PROPERTIES, null);
+				}
+			}
+		}, project);
+	}
+
+	public static AntChangeTracker getInstance(Project project)
+	{
+		return ServiceManager.getService(project, AntChangeTracker.class);
+	}
+
+	/**
+	 * Changes to target names, dependencies and descriptions, imports and the project element
+	 */
+	@NotNull
+	public ModificationTracker getTargetsTracker()
+	{
+		return myTargetsTracker;
+	}
+
+	/**
+	 * Changes to any element providing properties, including the targets they belong to and property files
+	 */
+	@NotNull
+	public ModificationTracker getPropertiesTracker()
+	{
+		return myPropertiesTracker;
+	}
+
+	/**
+	 * Changes to typedefs, taskdefs, macrodefs, presetdefs, scriptdefs and the paths they may refer to
+	 */
+	@NotNull
+	public ModificationTracker getDefinitionsTracker()
+	{
+		return myDefinitionsTracker;
+	}
+
+	public String getStatistics()
+	{
+		return "edits: " + myEditsCount.get() + ", ignored: " + myIgnoredEditsCount.get() + ", invalidated targets: " + myTargetsCount.get() + ", properties: " + myPropertiesCount.get() + ", definitions: " + myDefinitionsCount.get();
+	}
+
+	private void changed(@Nullable PsiFile file, @Nullable PsiElement parent, @Nullable PsiElement child, @Nullable PsiElement newChild)
+	{
+		invalidate(classify(file, parent, child, newChild), file);
+	}
+
+	private void invalidate(int aspects, @Nullable PsiFile file)
+	{
+		myEditsCount.incrementAndGet();
+		if(aspects == 0)
+		{
+			myIgnoredEditsCount.incrementAndGet();
+		}
+		if((aspects & TARGETS) != 0)
+		{
+			myTargetsCount.incrementAndGet();
+		}
+		if((aspects & PROPERTIES) != 0)
+		{
+			myPropertiesCount.incrementAndGet();
+		}
+		if((aspects & DEFINITIONS) != 0)
+		{
+			myDefinitionsCount.incrementAndGet();
+		}
+		if(LOG.isDebugEnabled())
+		{
+			LOG.debug("Change in " + (file != null ? file.getName() : "<file system>") + " invalidated " + aspectsToString(aspects) + "; " + getStatistics());
+		}
+	}
+
+	private int classify(@Nullable PsiFile file, @Nullable PsiElement parent, @Nullable PsiElement child, @Nullable PsiElement newChild)
+	{
+		if(file == null)
+		{
+			// file system level change: files created, deleted or moved may be imported or loaded
+			return child instanceof PsiFileSystemItem || newChild instanceof PsiFileSystemItem || parent instanceof PsiDirectory ? ALL : 0;
+		}
+		if(!isThermitFile(file))
+		{
+			if(file.getFileType() == StdFileTypes.PROPERTIES)
+			{
+				return PROPERTIES;
+			}
+			// xml files may be loaded with xmlproperty or contain antlib definitions
+			return file instanceof XmlFile && isLoadedByThermitFiles(file) ? PROPERTIES | DEFINITIONS : 0;
+		}
+		final boolean isAttributeChange = child instanceof XmlAttribute || newChild instanceof XmlAttribute;
+		int aspects = getContextAspects(parent, child == null && newChild == null, isAttributeChange);
+		aspects |= getSubtreeAspects(child);
+		aspects |= getSubtreeAspects(newChild);
+		return aspects;
+	}
+
+	private boolean isLoadedByThermitFiles(PsiFile file)
+	{
+		final VirtualFile vFile = file.getOriginalFile().getVirtualFile();
+		return vFile != null && AntImportsIndex.isLoadedByThermitFiles(myProject, vFile);
+	}
+
+	private static boolean isThermitFile(PsiFile file)
+	{
+		if(!(file instanceof XmlFile))
+		{
+			return false;
+		}
+		final VirtualFile vFile = file.getOriginalFile().getVirtualFile();
+		return vFile != null && AntDomFileDescription.EXTENSION.equals(vFile.getExtension());
+	}
+
+	/**
+	 * @param isGenericChange the exact changed child is unknown, so the header of the innermost tag may have changed too
+	 */
+	private static int getContextAspects(@Nullable PsiElement parent, boolean isGenericChange, boolean isAttributeChange)
+	{
+		XmlTag tag = parent != null ? PsiTreeUtil.getParentOfType(parent, XmlTag.class, false) : null;
+		if(tag == null)
+		{
+			// the prolog or the whole document changed
+			return ALL;
+		}
+		final XmlAttribute attribute = PsiTreeUtil.getParentOfType(parent, XmlAttribute.class, false);
+		final boolean isHeaderChange = isGenericChange || isAttributeChange || attribute != null;
+		int aspects = 0;
+		for(boolean isInnermost = true; tag != null; tag = tag.getParentTag(), isInnermost = false)
+		{
+			if(tag.getParentTag() == null)
+			{
+				// the project element itself
+				return isInnermost && isHeaderChange ? ALL : aspects;
+			}
+			final String tagName = tag.getLocalName();
+			if(isInnermost && isHeaderChange)
+			{
+				if("target".equals(tagName))
+				{
+					// target names and dependencies define the order property providers are processed in
+					aspects |= TARGETS | PROPERTIES;
+				}
+				if(attribute != null && ("id".equals(attribute.getName()) || "refid".equals(attribute.getName())))
+				{
+					// referenced paths may be used as typedef classpaths
+					aspects |= DEFINITIONS;
+				}
+			}
+			aspects |= getTagAspects(tagName);
+			if(aspects == ALL)
+			{
+				return ALL;
+			}
+		}
+		return aspects;
+	}
+
+	private static int getSubtreeAspects(@Nullable PsiElement element)
+	{
+		if(!(element instanceof XmlTag))
+		{
+			return 0;
+		}
+		final XmlTag tag = (XmlTag) element;
+		final String tagName = tag.getLocalName();
+		int aspects = getTagAspects(tagName);
+		if("target".equals(tagName))
+		{
+			aspects |= TARGETS | PROPERTIES;
+		}
+		for(XmlTag subTag : tag.getSubTags())
+		{
+			if(aspects == ALL)
+			{
+				break;
+			}
+			aspects |= getSubtreeAspects(subTag);
+		}
+		return aspects;
+	}
+
+	private static int getTagAspects(String tagName)
+	{
+		if("import".equals(tagName) || "include".equals(tagName))
+		{
+			return ALL;
+		}
+		final Class<? extends AntDomElement> modelClass = AntDomExtender.getModelClass(tagName);
+		if(modelClass == null)
+		{
+			return 0;
+		}
+		if(PropertiesProvider.class.isAssignableFrom(modelClass) || AntDomAntCall.class.isAssignableFrom(modelClass) || AntDomAnt.class.isAssignableFrom(modelClass))
+		{
+			return PROPERTIES;
+		}
+		if(AntDomCustomClasspathComponent.class.isAssignableFrom(modelClass) || AntDomMacroDef.class.isAssignableFrom(modelClass) || AntDomPresetDef.class.isAssignableFrom(modelClass) || AntDomAntlib.class.isAssignableFrom(modelClass) || AntDomFilesProviderImpl.class.isAssignableFrom(modelClass))
+		{
+			return DEFINITIONS;
+		}
+		return 0;
+	}
+
+	private static String aspectsToString(int aspects)
+	{
+		if(aspects == 0)
+		{
+			return "nothing";
+		}
+		final StringBuilder builder = new StringBuilder();
+		if((aspects & TARGETS) != 0)
+		{
+			builder.append("targets");
+		}
+		if((aspects & PROPERTIES) != 0)
+		{
+			builder.append(builder.length() > 0 ? ", " : "").append("properties");
+		}
+		if((aspects & DEFINITIONS) != 0)
+		{
+			builder.append(builder.length() > 0 ? ", " : "").append("definitions");
+		}
+		return builder.toString();
+	}
+}
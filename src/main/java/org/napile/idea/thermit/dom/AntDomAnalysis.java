@@ -0,0 +1,396 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.ThermitBundle;
+import org.napile.idea.thermit.ThermitSupport;
+import com.intellij.lang.properties.psi.PropertiesFile;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.PsiPolyVariantReference;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.xml.XmlElement;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.xml.DomUtil;
+import com.intellij.util.xml.GenericDomValue;
+
+/**
+ * Results of the checks shared by all thermit inspections and the annotator: duplicate targets, unresolved references,
+ * typedef loading errors and missing property files. The analysis belongs to a context project and lives until the next PSI
+ * modification; every file resolved in that context is analyzed in a single pass on first request.
+ */
+public class AntDomAnalysis
+{
+	private static final Key<CachedValue<AntDomAnalysis>> ANALYSIS_KEY = Key.create("_ant_dom_analysis_");
+
+	private final AntDomProject myContextProject;
+	private final ConcurrentMap<XmlFile, FileProblems> myFileProblems = new ConcurrentHashMap<XmlFile, FileProblems>();
+	private volatile Map<XmlTag, List<String>> myDuplicateTargets;
+
+	private AntDomAnalysis(AntDomProject contextProject)
+	{
+		myContextProject = contextProject;
+	}
+
+	/**
+	 * @return problems of the file containing the element, analyzed in the context of its context project
+	 */
+	@NotNull
+	public static FileProblems getProblems(@NotNull AntDomElement element)
+	{
+		final AntDomProject antProject = element.getAntProject();
+		final AntDomProject contextProject = antProject.getContextAntProject();
+		final XmlFile contextFile = DomUtil.getFile(contextProject);
+		CachedValue<AntDomAnalysis> cachedValue = contextFile.getUserData(ANALYSIS_KEY);
+		if(cachedValue == null)
+		{
+			final Project project = contextFile.getProject();
+			cachedValue = CachedValuesManager.getManager(project).createCachedValue(new CachedValueProvider<AntDomAnalysis>()
+			{
+				public Result<AntDomAnalysis> compute()
+				{
+					final AntDomProject currentProject = ThermitSupport.getAntDomProject(contextFile);
+					final AntChangeTracker tracker = AntChangeTracker.getInstance(project);
+					// the properties tracker also reflects changes of context mappings and property files,
+					// the definitions tracker changes of custom element definitions and of the configured classpaths
+					return Result.create(new AntDomAnalysis(currentProject != null ? currentProject : contextProject), PsiModificationTracker.MODIFICATION_COUNT, tracker.getPropertiesTracker(), tracker.getDefinitionsTracker());
+				}
+			}, false);
+			contextFile.putUserData(ANALYSIS_KEY, cachedValue);
+		}
+		return cachedValue.getValue().getFileProblems(antProject);
+	}
+
+	@NotNull
+	private FileProblems getFileProblems(AntDomProject antProject)
+	{
+		final XmlFile file = DomUtil.getFile(antProject);
+		FileProblems problems = myFileProblems.get(file);
+		if(problems == null)
+		{
+			final FileProblems newProblems = new FileProblems(this);
+			newProblems.analyze(antProject);
+			final FileProblems existing = myFileProblems.putIfAbsent(file, newProblems);
+			problems = existing != null ? existing : newProblems;
+		}
+		return problems;
+	}
+
+	private Map<XmlTag, List<String>> getDuplicateTargets()
+	{
+		Map<XmlTag, List<String>> duplicates = myDuplicateTargets;
+		if(duplicates == null)
+		{
+			final Map<XmlTag, List<String>> result = new HashMap<XmlTag, List<String>>();
+			// targets of all files imported into the context are checked in one go
+			TargetResolver.validateDuplicateTargets(myContextProject, new TargetResolver.TargetSink()
+			{
+				public void duplicateTargetDetected(AntDomTarget existingTarget, AntDomTarget duplicatingTarget, String targetEffectiveName)
+				{
+					final AntDomProject existingTargetProj = existingTarget.getAntProject();
+					final AntDomProject duplicatingTargetProj = duplicatingTarget.getAntProject();
+					final boolean isFromDifferentFiles = !Comparing.equal(existingTargetProj, duplicatingTargetProj);
+					addDuplicate(result, existingTarget, isFromDifferentFiles ? ThermitBundle.message("target.is.duplicated.in.imported.file", targetEffectiveName, duplicatingTargetProj != null ? duplicatingTargetProj.getName() : "") : ThermitBundle.message("target.is.duplicated", targetEffectiveName));
+					addDuplicate(result, duplicatingTarget, isFromDifferentFiles ? ThermitBundle.message("target.is.duplicated.in.imported.file", targetEffectiveName, existingTargetProj != null ? existingTargetProj.getName() : "") : ThermitBundle.message("target.is.duplicated", targetEffectiveName));
+				}
+			});
+			myDuplicateTargets = duplicates = result;
+		}
+		return duplicates;
+	}
+
+	private static void addDuplicate(Map<XmlTag, List<String>> duplicates, AntDomTarget target, String message)
+	{
+		final XmlTag tag = target.getXmlTag();
+		if(tag == null)
+		{
+			return;
+		}
+		List<String> messages = duplicates.get(tag);
+		if(messages == null)
+		{
+			messages = new ArrayList<String>(1);
+			duplicates.put(tag, messages);
+		}
+		messages.add(message);
+	}
+
+	public static final class FileProblems
+	{
+		private final AntDomAnalysis myAnalysis;
+		// tags of all elements visited during the analysis, other elements are checked on request
+		private final Set<XmlTag> myAnalyzedTags = new HashSet<XmlTag>();
+		private final Map<XmlElement, List<UnresolvedReference>> myUnresolvedReferences = new HashMap<XmlElement, List<UnresolvedReference>>();
+		private final Map<XmlTag, ElementProblem> myElementProblems = new LinkedHashMap<XmlTag, ElementProblem>();
+		private final Set<XmlTag> myMissingPropertiesFiles = new HashSet<XmlTag>();
+
+		private FileProblems(AntDomAnalysis analysis)
+		{
+			myAnalysis = analysis;
+		}
+
+		private void analyze(AntDomProject antProject)
+		{
+			antProject.accept(new AntDomRecursiveVisitor()
+			{
+				public void visitAntDomElement(AntDomElement element)
+				{
+					final XmlTag tag = element.getXmlTag();
+					if(tag != null)
+					{
+						myAnalyzedTags.add(tag);
+					}
+					for(GenericDomValue value : DomUtil.getDefinedChildrenOfType(element, GenericDomValue.class, false, true))
+					{
+						final XmlElement valueElement = DomUtil.getValueElement(value);
+						if(valueElement != null)
+						{
+							final List<UnresolvedReference> unresolved = findUnresolvedReferences(valueElement);
+							if(!unresolved.isEmpty())
+							{
+								myUnresolvedReferences.put(value.getXmlElement(), unresolved);
+							}
+						}
+					}
+					super.visitAntDomElement(element);
+				}
+
+				public void visitTypeDef(AntDomTypeDef typedef)
+				{
+					final List<String> errors = typedef.getErrorDescriptions();
+					if(!errors.isEmpty())
+					{
+						final StringBuilder builder = new StringBuilder();
+						builder.append(ThermitBundle.message("failed.to.load.types")).append(":");
+						for(String error : errors)
+						{
+							builder.append("\n").append(error);
+						}
+						addElementProblem(typedef, builder.toString());
+					}
+					super.visitTypeDef(typedef);
+				}
+
+				public void visitAntDomCustomElement(AntDomCustomElement custom)
+				{
+					if(custom.getDefinitionClass() == null)
+					{
+						final AntDomNamedElement declaringElement = custom.getDeclaringElement();
+						if(declaringElement instanceof AntDomTypeDef)
+						{
+							String failedMessage = ThermitBundle.message("using.definition.which.type.failed.to.load");
+							final String error = custom.getLoadError();
+							if(error != null)
+							{
+								failedMessage = failedMessage + ": " + error;
+							}
+							addElementProblem(custom, failedMessage);
+						}
+					}
+					super.visitAntDomCustomElement(custom);
+				}
+
+				public void visitProperty(AntDomProperty property)
+				{
+					if(property.getFile().getStringValue() != null)
+					{
+						final PsiFileSystemItem file = property.getFile().getValue();
+						if(!(file instanceof PropertiesFile) && property.getXmlTag() != null)
+						{
+							myMissingPropertiesFiles.add(property.getXmlTag());
+						}
+					}
+					super.visitProperty(property);
+				}
+			});
+		}
+
+		private void addElementProblem(AntDomElement element, String message)
+		{
+			final XmlTag tag = element.getXmlTag();
+			if(tag != null)
+			{
+				myElementProblems.put(tag, new ElementProblem(element, message));
+			}
+		}
+
+		@NotNull
+		public List<String> getDuplicateTargetMessages(@NotNull AntDomTarget target)
+		{
+			final List<String> messages = myAnalysis.getDuplicateTargets().get(target.getXmlTag());
+			return messages != null ? messages : Collections.<String>emptyList();
+		}
+
+		/**
+		 * @return unresolved references of the value, computed on request if the value was not reached by the analysis
+		 */
+		@NotNull
+		public List<UnresolvedReference> getUnresolvedReferences(@NotNull GenericDomValue value)
+		{
+			final AntDomElement parent = value.getParentOfType(AntDomElement.class, true);
+			if(parent != null && myAnalyzedTags.contains(parent.getXmlTag()))
+			{
+				final List<UnresolvedReference> unresolved = myUnresolvedReferences.get(value.getXmlElement());
+				return unresolved != null ? unresolved : Collections.<UnresolvedReference>emptyList();
+			}
+			final XmlElement valueElement = DomUtil.getValueElement(value);
+			return valueElement != null ? findUnresolvedReferences(valueElement) : Collections.<UnresolvedReference>emptyList();
+		}
+
+		@Nullable
+		public ElementProblem getElementProblem(@NotNull AntDomElement element)
+		{
+			return myElementProblems.get(element.getXmlTag());
+		}
+
+		/**
+		 * @return typedef loading errors and custom elements whose definition failed to load, in document order
+		 */
+		@NotNull
+		public Collection<ElementProblem> getElementProblems()
+		{
+			return Collections.unmodifiableCollection(myElementProblems.values());
+		}
+
+		public boolean isPropertiesFileMissing(@NotNull AntDomProperty property)
+		{
+			return myMissingPropertiesFiles.contains(property.getXmlTag());
+		}
+	}
+
+	@NotNull
+	private static List<UnresolvedReference> findUnresolvedReferences(@NotNull XmlElement xmlElement)
+	{
+		List<UnresolvedReference> result = null;
+		Set<PsiReference> processed = null;
+		for(final PsiReference ref : xmlElement.getReferences())
+		{
+			if(!(ref instanceof AntDomReference))
+			{
+				continue;
+			}
+			final AntDomReference antDomRef = (AntDomReference) ref;
+			if(antDomRef.shouldBeSkippedByAnnotator())
+			{
+				continue;
+			}
+			if(processed != null && processed.contains(ref))
+			{
+				continue;
+			}
+			if(!isResolvable(ref))
+			{
+				if(result == null)
+				{
+					result = new ArrayList<UnresolvedReference>(1);
+				}
+				result.add(new UnresolvedReference(antDomRef.getUnresolvedMessagePattern(), ref.getRangeInElement()));
+
+				if(ref instanceof AntDomFileReference)
+				{
+					if(processed == null)
+					{
+						processed = new HashSet<PsiReference>();
+					}
+					ContainerUtil.addAll(processed, ((AntDomFileReference) ref).getFileReferenceSet().getAllReferences());
+				}
+			}
+		}
+		return result != null ? result : Collections.<UnresolvedReference>emptyList();
+	}
+
+	private static boolean isResolvable(PsiReference ref)
+	{
+		if(ref.resolve() != null)
+		{
+			return true;
+		}
+		if(ref instanceof PsiPolyVariantReference)
+		{
+			return ((PsiPolyVariantReference) ref).multiResolve(false).length > 0;
+		}
+		return false;
+	}
+
+	public static final class UnresolvedReference
+	{
+		private final String myMessagePattern;
+		private final TextRange myRangeInElement;
+
+		private UnresolvedReference(String messagePattern, TextRange rangeInElement)
+		{
+			myMessagePattern = messagePattern;
+			myRangeInElement = rangeInElement;
+		}
+
+		public String getMessagePattern()
+		{
+			return myMessagePattern;
+		}
+
+		public TextRange getRangeInElement()
+		{
+			return myRangeInElement;
+		}
+	}
+
+	public static final class ElementProblem
+	{
+		private final AntDomElement myElement;
+		private final String myMessage;
+
+		private ElementProblem(AntDomElement element, String message)
+		{
+			myElement = element;
+			myMessage = message;
+		}
+
+		@NotNull
+		public AntDomElement getElement()
+		{
+			return myElement;
+		}
+
+		@NotNull
+		public String getMessage()
+		{
+			return myMessage;
+		}
+	}
+}
@@ -25,7 +25,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.napile.idea.thermit.AntFilesProvider;
 import com.intellij.psi.PsiFileSystemItem;
-import com.intellij.util.StringBuilderSpinAllocator;
 import com.intellij.util.xml.Attribute;
 import com.intellij.util.xml.Convert;
 import com.intellij.util.xml.GenericAttributeValue;
@@ -61,7 +60,7 @@ public abstract class AntDomDirSet extends AntDomFilesProviderImpl
 				{
 					files.add(singleFile);
 				}
-				new FilesCollector().collectFiles(files, root, "", pattern);
+				files.addAll(AntFilesetCache.getInstance(getManager().getProject()).getFiles(root, pattern, true));
 				return files;
 			}
 		}
@@ -73,58 +72,4 @@ public abstract class AntDomDirSet extends AntDomFilesProviderImpl
 
 		return Collections.emptyList();
 	}
-
-
-	private static class FilesCollector
-	{
-		private static final int MAX_DIRS_TO_PROCESS = 100;
-		private int myDirsProcessed = 0;
-
-		public void collectFiles(List<File> container, File from, String relativePath, final AntDomPattern pattern)
-		{
-			if(myDirsProcessed > MAX_DIRS_TO_PROCESS)
-			{
-				return;
-			}
-			myDirsProcessed++;
-			final File[] children = from.listFiles();
-			if(children != null)
-			{
-				for(File child : children)
-				{
-					if(child.isDirectory())
-					{
-						final String childPath = makePath(relativePath, child.getName());
-						if(pattern.acceptPath(childPath))
-						{
-							container.add(child);
-						}
-						if(pattern.couldBeIncluded(childPath))
-						{
-							collectFiles(container, child, childPath, pattern);
-						}
-					}
-				}
-			}
-		}
-
-		private static String makePath(final String parentPath, final String name)
-		{
-			if(parentPath.length() == 0)
-			{
-				return name;
-			}
-			final StringBuilder builder = StringBuilderSpinAllocator.alloc();
-			try
-			{
-				return builder.append(parentPath).append("/").append(name).toString();
-			}
-			finally
-			{
-				StringBuilderSpinAllocator.dispose(builder);
-			}
-		}
-
-	}
-
 }
@@ -19,12 +19,14 @@ import java.io.File;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.napile.idea.thermit.AntIntrospector;
-import org.napile.idea.thermit.ReflectedProject;
 import org.napile.idea.thermit.ThermitClasses;
+import org.napile.idea.thermit.ThermitMetadata;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
@@ -58,8 +60,11 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.dom.AntDomExtender");
 
 	private static final Key<Class> ELEMENT_IMPL_CLASS_KEY = Key.create("_element_impl_class_");
+	private static final Key<String> ELEMENT_IMPL_CLASS_NAME_KEY = Key.create("_element_impl_class_name_");
 	private static final Key<Boolean> IS_TASK_CONTAINER = Key.create("_task_container_");
 	private static final Map<String, Class<? extends AntDomElement>> TAG_MAPPING = new HashMap<String, Class<? extends AntDomElement>>();
+	private static final Key<ExtensionTemplates> TEMPLATES_KEY = Key.create("_extension_templates_");
+	private static final Map<Class, Map<String, Pair<Type, Class>>> ourStaticAttributes = new WeakHashMap<Class, Map<String, Pair<Type, Class>>>();
 
 	static
 	{
@@ -111,24 +116,25 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			{
 				return;
 			}
-			final ReflectedProject reflected = ReflectedProject.getProject(antProject.getClassLoader());
-			if(reflected.getProject() == null)
+			final ThermitMetadata metadata = ThermitMetadata.getInstance(antProject.getClassLoader());
+			if(metadata == null)
 			{
 				return;
 			}
 
+			final ExtensionTemplates templates = getTemplates(metadata);
 			final DomGenericInfo genericInfo = antDomElement.getGenericInfo();
-			AntIntrospector classBasedIntrospector = null;
-			final Hashtable<String, Class> coreTaskDefs = reflected.getTaskDefinitions();
-			final Hashtable<String, Class> coreTypeDefs = reflected.getDataTypeDefinitions();
+			AbstractIntrospector parentIntrospector = null;
+			final Map<String, String> coreTaskDefs = metadata.getTaskDefinitions();
+			final Map<String, String> coreTypeDefs = metadata.getDataTypeDefinitions();
 			final boolean isCustom = antDomElement instanceof AntDomCustomElement;
 			if("project".equals(tagName))
 			{
-				classBasedIntrospector = getIntrospector(reflected.getProject().getClass());
+				parentIntrospector = getMetadataIntrospector(metadata, templates, metadata.getProjectClassName());
 			}
 			else if("target".equals(tagName))
 			{
-				classBasedIntrospector = getIntrospector(reflected.getTargetClass());
+				parentIntrospector = getMetadataIntrospector(metadata, templates, metadata.getTargetClassName());
 			}
 			else
 			{
@@ -138,42 +144,36 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 					final Class definitionClass = custom.getDefinitionClass();
 					if(definitionClass != null)
 					{
-						classBasedIntrospector = getIntrospector(definitionClass);
+						parentIntrospector = getClassIntrospector(definitionClass, metadata);
 					}
 				}
 				else
 				{
-					Class elemType = antDomElement.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_KEY);
-
-					if(elemType == null)
+					final Class elemClass = antDomElement.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_KEY);
+					if(elemClass != null)
+					{
+						parentIntrospector = getClassIntrospector(elemClass, metadata);
+					}
+					else
 					{
-						if(coreTaskDefs != null)
+						String elemType = antDomElement.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_NAME_KEY);
+						if(elemType == null)
 						{
 							elemType = coreTaskDefs.get(tagName);
 						}
-					}
-
-					if(elemType == null)
-					{
-						if(coreTypeDefs != null)
+						if(elemType == null)
 						{
 							elemType = coreTypeDefs.get(tagName);
 						}
-					}
-
-					if(elemType != null)
-					{
-						classBasedIntrospector = getIntrospector(elemType);
+						if(elemType != null)
+						{
+							parentIntrospector = getMetadataIntrospector(metadata, templates, elemType);
+						}
 					}
 				}
 			}
 
-			AbstractIntrospector parentIntrospector = null;
-			if(classBasedIntrospector != null)
-			{
-				parentIntrospector = new ClassIntrospectorAdapter(classBasedIntrospector, coreTaskDefs, coreTypeDefs);
-			}
-			else
+			if(parentIntrospector == null)
 			{
 				if(isCustom)
 				{
@@ -184,7 +184,7 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 					}
 					else if(declaringElement instanceof AntDomMacrodefElement)
 					{
-						parentIntrospector = new MacrodefElementOccurrenceIntrospectorAdapter((AntDomMacrodefElement) declaringElement)/*ContainerElementIntrospector.INSTANCE*/;
+						parentIntrospector = new MacrodefElementOccurrenceIntrospectorAdapter((AntDomMacrodefElement) declaringElement, metadata, templates)/*ContainerElementIntrospector.INSTANCE*/;
 					}
 					else if(declaringElement instanceof AntDomScriptDef)
 					{
@@ -196,93 +196,83 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			if(parentIntrospector != null)
 			{
 
-				defineAttributes(xmlTag, registrar, genericInfo, parentIntrospector);
+				defineAttributes(xmlTag, registrar, genericInfo, getStaticallyRegisteredAttributes(antDomElement, genericInfo), parentIntrospector);
 
 				if("project".equals(tagName) || parentIntrospector.isContainer())
 				{ // can contain any task or/and type definition
-					if(coreTaskDefs != null)
+					registerChildren(registrar, genericInfo, templates.myContainerChildren);
+				}
+				else
+				{
+					final List<ChildTemplate> children = parentIntrospector.getChildTemplates();
+					if(children != null)
 					{
-						for(Map.Entry<String, Class> entry : coreTaskDefs.entrySet())
-						{
-							final DomExtension extension = registerChild(registrar, genericInfo, entry.getKey());
-							if(extension != null)
-							{
-								final Class type = entry.getValue();
-								if(type != null)
-								{
-									extension.putUserData(ELEMENT_IMPL_CLASS_KEY, type);
-								}
-								extension.putUserData(AntDomElement.ROLE, AntDomElement.Role.TASK);
-							}
-						}
+						registerChildren(registrar, genericInfo, children);
 					}
-					if(coreTypeDefs != null)
+					else
 					{
-						for(Map.Entry<String, Class> entry : coreTypeDefs.entrySet())
+						final Iterator<String> nested = parentIntrospector.getNestedElementsIterator();
+						while(nested.hasNext())
 						{
-							final DomExtension extension = registerChild(registrar, genericInfo, entry.getKey());
+							final String nestedElementName = nested.next();
+							final DomExtension extension = registerChild(registrar, genericInfo, nestedElementName);
 							if(extension != null)
 							{
-								final Class type = entry.getValue();
-								if(type != null)
-								{
-									extension.putUserData(ELEMENT_IMPL_CLASS_KEY, type);
-								}
-								extension.putUserData(AntDomElement.ROLE, AntDomElement.Role.DATA_TYPE);
+								extension.putUserData(AntDomElement.ROLE, parentIntrospector.defineNestedElementType(extension, nestedElementName));
 							}
 						}
 					}
-					registrar.registerCustomChildrenExtension(AntDomCustomElement.class, new AntCustomTagNameDescriptor());
 				}
-				else
+				registrar.registerCustomChildrenExtension(AntDomCustomElement.class, new AntCustomTagNameDescriptor());
+			}
+		}
+	}
+
+	@Nullable
+	private static AbstractIntrospector getMetadataIntrospector(@NotNull ThermitMetadata metadata, @NotNull ExtensionTemplates templates, @Nullable String className)
+	{
+		final ThermitMetadata.TypeMetadata type = metadata.getType(className);
+		return type != null && type.isIntrospectable() ? new MetadataIntrospectorAdapter(type, metadata, templates) : null;
+	}
+
+	@NotNull
+	private static ExtensionTemplates getTemplates(@NotNull ThermitMetadata metadata)
+	{
+		final ExtensionTemplates templates = metadata.getUserData(TEMPLATES_KEY);
+		if(templates != null)
+		{
+			return templates;
+		}
+		return metadata.putUserDataIfAbsent(TEMPLATES_KEY, new ExtensionTemplates(metadata));
+	}
+
+	private static void registerChildren(DomExtensionsRegistrar registrar, DomGenericInfo genericInfo, List<ChildTemplate> children)
+	{
+		for(ChildTemplate child : children)
+		{
+			if(genericInfo.getCollectionChildDescription(child.myName) == null)
+			{ // register if not yet defined statically
+				final DomExtension extension = registrar.registerCollectionChildrenExtension(child.myXmlName, child.myModelClass);
+				if(child.myTypeName != null)
 				{
-					final Iterator<String> nested = parentIntrospector.getNestedElementsIterator();
-					while(nested.hasNext())
-					{
-						final String nestedElementName = nested.next();
-						final DomExtension extension = registerChild(registrar, genericInfo, nestedElementName);
-						if(extension != null)
-						{
-							Class type = parentIntrospector.getNestedElementType(nestedElementName);
-							if(type != null && CommonClassNames.JAVA_LANG_OBJECT.equals(type.getName()))
-							{
-								type = null; // hack to support badly written tasks
-							}
-							if(type == null)
-							{
-								if(coreTypeDefs != null)
-								{
-									type = coreTypeDefs.get(nestedElementName);
-								}
-							}
-							if(type != null)
-							{
-								extension.putUserData(ELEMENT_IMPL_CLASS_KEY, type);
-							}
-							AntDomElement.Role role = AntDomElement.Role.DATA_TYPE;
-							if(coreTaskDefs != null && coreTaskDefs.containsKey(nestedElementName))
-							{
-								role = AntDomElement.Role.TASK;
-							}
-							else if(type != null && isAssignableFrom(ThermitClasses.Task, type))
-							{
-								role = AntDomElement.Role.TASK;
-							}
-							if(role != null)
-							{
-								extension.putUserData(AntDomElement.ROLE, role);
-							}
-						}
-					}
-					registrar.registerCustomChildrenExtension(AntDomCustomElement.class, new AntCustomTagNameDescriptor());
+					extension.putUserData(ELEMENT_IMPL_CLASS_NAME_KEY, child.myTypeName);
 				}
+				extension.putUserData(AntDomElement.ROLE, child.myRole);
 			}
 		}
 	}
 
-	private static void defineAttributes(XmlTag xmlTag, DomExtensionsRegistrar registrar, DomGenericInfo genericInfo, AbstractIntrospector parentIntrospector)
+	@Nullable
+	private static AbstractIntrospector getClassIntrospector(@NotNull Class aClass, @NotNull ThermitMetadata metadata)
 	{
-		final Map<String, Pair<Type, Class>> registeredAttribs = getStaticallyRegisteredAttributes(genericInfo);
+		final AntIntrospector introspector = getIntrospector(aClass);
+		return introspector != null ? new ClassIntrospectorAdapter(introspector, metadata) : null;
+	}
+
+	private static void defineAttributes(XmlTag xmlTag, DomExtensionsRegistrar registrar, DomGenericInfo genericInfo, Map<String, Pair<Type, Class>> staticAttribs, AbstractIntrospector parentIntrospector)
+	{
+		// the static map is shared, so the attributes discovered by introspector are collected separately
+		final Map<String, Pair<Type, Class>> registeredAttribs = new HashMap<String, Pair<Type, Class>>();
 		// define attributes discovered by introspector and not yet defined statically
 		final Iterator<String> introspectedAttributes = parentIntrospector.getAttributesIterator();
 		while(introspectedAttributes.hasNext())
@@ -291,22 +281,22 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			if(genericInfo.getAttributeChildDescription(attribName) == null)
 			{ // if not defined yet
 				final String _attribName = attribName.toLowerCase(Locale.US);
-				final Pair<Type, Class> types = registeredAttribs.get(_attribName);
+				final Pair<Type, Class> types = getRegisteredAttribute(staticAttribs, registeredAttribs, _attribName);
 				Type type = types != null ? types.getFirst() : null;
 				Class converterClass = types != null ? types.getSecond() : null;
 				if(type == null)
 				{
 					type = String.class; // use String by default
-					final Class attributeType = parentIntrospector.getAttributeType(attribName);
+					final String attributeType = parentIntrospector.getAttributeType(attribName);
 					if(attributeType != null)
 					{
 						// handle well-known types
-						if(File.class.isAssignableFrom(attributeType))
+						if(File.class.getName().equals(attributeType))
 						{
 							type = PsiFileSystemItem.class;
 							converterClass = AntPathConverter.class;
 						}
-						else if(Boolean.class.isAssignableFrom(attributeType))
+						else if(Boolean.class.getName().equals(attributeType))
 						{
 							type = Boolean.class;
 							converterClass = AntBooleanConverter.class;
@@ -330,7 +320,7 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			final String existingAttribName = xmlAttribute.getName();
 			if(genericInfo.getAttributeChildDescription(existingAttribName) == null)
 			{
-				final Pair<Type, Class> pair = registeredAttribs.get(existingAttribName.toLowerCase(Locale.US));
+				final Pair<Type, Class> pair = getRegisteredAttribute(staticAttribs, registeredAttribs, existingAttribName.toLowerCase(Locale.US));
 				if(pair != null)
 				{ // if such attribute should actually be here
 					registerAttribute(registrar, existingAttribName, pair.getFirst(), pair.getSecond());
@@ -339,6 +329,13 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 		}
 	}
 
+	@Nullable
+	private static Pair<Type, Class> getRegisteredAttribute(Map<String, Pair<Type, Class>> staticAttribs, Map<String, Pair<Type, Class>> introspectedAttribs, String name)
+	{
+		final Pair<Type, Class> pair = staticAttribs.get(name);
+		return pair != null ? pair : introspectedAttribs.get(name);
+	}
+
 	private static void registerAttribute(DomExtensionsRegistrar registrar, String attribName, final @NotNull Type attributeType, final @Nullable Class converterType)
 	{
 		final DomExtension extension = registrar.registerGenericAttributeValueChildExtension(new XmlName(attribName), attributeType);
@@ -359,8 +356,21 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 		}
 	}
 
-	private static Map<String, Pair<Type, Class>> getStaticallyRegisteredAttributes(final DomGenericInfo genericInfo)
+	/**
+	 * Statically declared attributes depend on the DOM interface only, while the generic info is created anew for every element,
+	 * so the map is cached per element class
+	 */
+	private static Map<String, Pair<Type, Class>> getStaticallyRegisteredAttributes(final AntDomElement element, final DomGenericInfo genericInfo)
 	{
+		final Class elementClass = element.getClass();
+		synchronized(ourStaticAttributes)
+		{
+			final Map<String, Pair<Type, Class>> cached = ourStaticAttributes.get(elementClass);
+			if(cached != null)
+			{
+				return cached;
+			}
+		}
 		final Map<String, Pair<Type, Class>> map = new HashMap<String, Pair<Type, Class>>();
 		for(DomAttributeChildDescription description : genericInfo.getAttributeChildrenDescriptions())
 		{
@@ -382,7 +392,12 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 				}
 			}
 		}
-		return map;
+		final Map<String, Pair<Type, Class>> result = Collections.unmodifiableMap(map);
+		synchronized(ourStaticAttributes)
+		{
+			ourStaticAttributes.put(elementClass, result);
+		}
+		return result;
 	}
 
 	@Nullable
@@ -415,7 +430,7 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 	}
 
 	@Nullable
-	private static Class<? extends AntDomElement> getModelClass(@NotNull String tagName)
+	static Class<? extends AntDomElement> getModelClass(@NotNull String tagName)
 	{
 		return TAG_MAPPING.get(tagName.toLowerCase(Locale.US));
 	}
@@ -533,38 +548,140 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 
 		public abstract boolean isContainer();
 
+		/**
+		 * @return precomputed nested element extensions, or null if they have to be defined one by one with {@link #defineNestedElementType}
+		 */
 		@Nullable
-		public Class getAttributeType(String attribName)
+		public List<ChildTemplate> getChildTemplates()
 		{
 			return null;
 		}
 
+		/**
+		 * @return name of the attribute's class, java.io.File for any file attribute
+		 */
 		@Nullable
-		public Class getNestedElementType(String elementName)
+		public String getAttributeType(String attribName)
 		{
 			return null;
 		}
+
+		/**
+		 * Stores the type of the nested element in the extension so that the element itself can be introspected later
+		 *
+		 * @return the role of the nested element
+		 */
+		@NotNull
+		public AntDomElement.Role defineNestedElementType(DomExtension extension, String elementName)
+		{
+			return AntDomElement.Role.DATA_TYPE;
+		}
+	}
+
+	private static class MetadataIntrospectorAdapter extends AbstractIntrospector
+	{
+		private final ThermitMetadata.TypeMetadata myType;
+		private final ThermitMetadata myMetadata;
+		private final ExtensionTemplates myTemplates;
+
+		private MetadataIntrospectorAdapter(ThermitMetadata.TypeMetadata type, ThermitMetadata metadata, ExtensionTemplates templates)
+		{
+			myType = type;
+			myMetadata = metadata;
+			myTemplates = templates;
+		}
+
+		@NotNull
+		public Iterator<String> getAttributesIterator()
+		{
+			return myType.getAttributes().iterator();
+		}
+
+		public String getAttributeType(String attribName)
+		{
+			return myType.getAttributeType(attribName);
+		}
+
+		public boolean isContainer()
+		{
+			return myType.isContainer();
+		}
+
+		@NotNull
+		public Iterator<String> getNestedElementsIterator()
+		{
+			final List<ChildTemplate> children = getChildTemplates();
+			final List<String> names = new ArrayList<String>(children.size());
+			for(ChildTemplate child : children)
+			{
+				names.add(child.myName);
+			}
+			return names.iterator();
+		}
+
+		@NotNull
+		public AntDomElement.Role defineNestedElementType(DomExtension extension, String elementName)
+		{
+			for(ChildTemplate child : getChildTemplates())
+			{
+				if(child.myName.equals(elementName))
+				{
+					if(child.myTypeName != null)
+					{
+						extension.putUserData(ELEMENT_IMPL_CLASS_NAME_KEY, child.myTypeName);
+					}
+					return child.myRole;
+				}
+			}
+			return super.defineNestedElementType(extension, elementName);
+		}
+
+		@NotNull
+		public List<ChildTemplate> getChildTemplates()
+		{
+			final String className = myType.getClassName();
+			List<ChildTemplate> children = myTemplates.myNestedChildren.get(className);
+			if(children == null)
+			{
+				final List<String> names = new ArrayList<String>(myType.getNestedElements());
+				final Map<String, String> types = new HashMap<String, String>();
+				for(String elemName : names)
+				{
+					types.put(elemName, myType.getNestedElementType(elemName));
+				}
+				for(String extPoint : myType.getExtensionPointTypes())
+				{
+					collectExtensionPointEntries(extPoint, myMetadata, names, types);
+				}
+				final List<ChildTemplate> list = new ArrayList<ChildTemplate>(names.size());
+				for(String elemName : names)
+				{
+					list.add(createChildTemplate(elemName, types.get(elemName), myMetadata));
+				}
+				children = Collections.unmodifiableList(list);
+				final List<ChildTemplate> prev = myTemplates.myNestedChildren.putIfAbsent(className, children);
+				if(prev != null)
+				{
+					children = prev;
+				}
+			}
+			return children;
+		}
 	}
 
 	private static class ClassIntrospectorAdapter extends AbstractIntrospector
 	{
 
 		private final AntIntrospector myIntrospector;
-		private final Map<String, Class> myCoreTaskDefs;
-		private final Map<String, Class> myCoreTypeDefs;
+		private final ThermitMetadata myMetadata;
 		private List<String> myNestedElements;
 		private Map<String, Class> myNestedElementTypes;
+		private Map<String, String> myNestedElementTypeNames;
 
-		private ClassIntrospectorAdapter(AntIntrospector introspector)
-		{
-			this(introspector, null, null);
-		}
-
-		public ClassIntrospectorAdapter(AntIntrospector introspector, Map<String, Class> coreTaskDefs, Map<String, Class> coreTypeDefs)
+		public ClassIntrospectorAdapter(AntIntrospector introspector, ThermitMetadata metadata)
 		{
 			myIntrospector = introspector;
-			myCoreTaskDefs = coreTaskDefs != null ? coreTaskDefs : Collections.<String, Class>emptyMap();
-			myCoreTypeDefs = coreTypeDefs != null ? coreTypeDefs : Collections.<String, Class>emptyMap();
+			myMetadata = metadata;
 		}
 
 		@NotNull
@@ -573,9 +690,10 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			return new EnumerationToIteratorAdapter<String>(myIntrospector.getAttributes());
 		}
 
-		public Class getAttributeType(String attribName)
+		public String getAttributeType(String attribName)
 		{
-			return myIntrospector.getAttributeType(attribName);
+			final Class type = myIntrospector.getAttributeType(attribName);
+			return type != null ? ThermitMetadata.getAttributeTypeName(type) : null;
 		}
 
 		public boolean isContainer()
@@ -590,10 +708,25 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			return myNestedElements.iterator();
 		}
 
-		public Class getNestedElementType(String attribName)
+		@NotNull
+		public AntDomElement.Role defineNestedElementType(DomExtension extension, String elementName)
 		{
 			initNestedElements();
-			return myNestedElementTypes.get(attribName);
+			Class type = myNestedElementTypes.get(elementName);
+			if(type != null && CommonClassNames.JAVA_LANG_OBJECT.equals(type.getName()))
+			{
+				type = null; // hack to support badly written tasks
+			}
+			if(type == null)
+			{
+				return defineNestedElementTypeName(extension, elementName, myNestedElementTypeNames.get(elementName), myMetadata);
+			}
+			extension.putUserData(ELEMENT_IMPL_CLASS_KEY, type);
+			if(myMetadata.getTaskDefinitions().containsKey(elementName) || isAssignableFrom(ThermitClasses.Task, type))
+			{
+				return AntDomElement.Role.TASK;
+			}
+			return AntDomElement.Role.DATA_TYPE;
 		}
 
 		private void initNestedElements()
@@ -604,6 +737,7 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			}
 			myNestedElements = new ArrayList<String>();
 			myNestedElementTypes = new HashMap<String, Class>();
+			myNestedElementTypeNames = new HashMap<String, String>();
 			final Enumeration<String> nestedElements = myIntrospector.getNestedElements();
 			while(nestedElements.hasMoreElements())
 			{
@@ -615,22 +749,100 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			final Set<String> extensionPointTypes = myIntrospector.getExtensionPointTypes();
 			for(String extPoint : extensionPointTypes)
 			{
-				processEntries(extPoint, myCoreTaskDefs);
-				processEntries(extPoint, myCoreTypeDefs);
+				collectExtensionPointEntries(extPoint, myMetadata, myNestedElements, myNestedElementTypeNames);
 			}
 		}
+	}
+
+	@NotNull
+	private static AntDomElement.Role defineNestedElementTypeName(DomExtension extension, String elementName, @Nullable String typeName, ThermitMetadata metadata)
+	{
+		final ChildTemplate child = createChildTemplate(elementName, typeName, metadata);
+		if(child.myTypeName != null)
+		{
+			extension.putUserData(ELEMENT_IMPL_CLASS_NAME_KEY, child.myTypeName);
+		}
+		return child.myRole;
+	}
 
-		private void processEntries(String extPoint, final Map<String, Class> definitions)
+	@NotNull
+	private static ChildTemplate createChildTemplate(String elementName, @Nullable String typeName, ThermitMetadata metadata)
+	{
+		if(CommonClassNames.JAVA_LANG_OBJECT.equals(typeName))
 		{
-			for(Map.Entry<String, Class> entry : definitions.entrySet())
+			typeName = null; // hack to support badly written tasks
+		}
+		if(typeName == null)
+		{
+			typeName = metadata.getDataTypeDefinitions().get(elementName);
+		}
+		final boolean isTask = metadata.getTaskDefinitions().containsKey(elementName) || metadata.isAssignableFrom(ThermitClasses.Task, typeName);
+		return new ChildTemplate(elementName, typeName, isTask ? AntDomElement.Role.TASK : AntDomElement.Role.DATA_TYPE);
+	}
+
+	/**
+	 * Nested element extension computed once per thermit installation and applied to every DOM element of the corresponding type
+	 */
+	private static final class ChildTemplate
+	{
+		private final String myName;
+		private final XmlName myXmlName;
+		private final Class<? extends AntDomElement> myModelClass;
+		@Nullable
+		private final String myTypeName;
+		private final AntDomElement.Role myRole;
+
+		private ChildTemplate(String name, @Nullable String typeName, AntDomElement.Role role)
+		{
+			myName = name;
+			myXmlName = new XmlName(name);
+			final Class<? extends AntDomElement> modelClass = getModelClass(name);
+			myModelClass = modelClass != null ? modelClass : AntDomElement.class;
+			myTypeName = typeName;
+			myRole = role;
+		}
+	}
+
+	private static final class ExtensionTemplates
+	{
+		// children of project and any task container: all core task and type definitions
+		private final List<ChildTemplate> myContainerChildren;
+		// type class name -> nested element templates
+		private final ConcurrentMap<String, List<ChildTemplate>> myNestedChildren = new ConcurrentHashMap<String, List<ChildTemplate>>();
+
+		private ExtensionTemplates(ThermitMetadata metadata)
+		{
+			final Map<String, String> taskDefs = metadata.getTaskDefinitions();
+			final Map<String, String> typeDefs = metadata.getDataTypeDefinitions();
+			final List<ChildTemplate> children = new ArrayList<ChildTemplate>(taskDefs.size() + typeDefs.size());
+			for(Map.Entry<String, String> entry : taskDefs.entrySet())
 			{
-				final String elementName = entry.getKey();
-				final Class taskClass = entry.getValue();
-				if(isAssignableFrom(extPoint, taskClass))
-				{
-					myNestedElements.add(elementName);
-					myNestedElementTypes.put(elementName, taskClass);
-				}
+				children.add(new ChildTemplate(entry.getKey(), entry.getValue(), AntDomElement.Role.TASK));
+			}
+			for(Map.Entry<String, String> entry : typeDefs.entrySet())
+			{
+				children.add(new ChildTemplate(entry.getKey(), entry.getValue(), AntDomElement.Role.DATA_TYPE));
+			}
+			myContainerChildren = Collections.unmodifiableList(children);
+		}
+	}
+
+	private static void collectExtensionPointEntries(String extPoint, ThermitMetadata metadata, List<String> names, Map<String, String> types)
+	{
+		processEntries(extPoint, metadata, metadata.getTaskDefinitions(), names, types);
+		processEntries(extPoint, metadata, metadata.getDataTypeDefinitions(), names, types);
+	}
+
+	private static void processEntries(String extPoint, ThermitMetadata metadata, final Map<String, String> definitions, List<String> names, Map<String, String> types)
+	{
+		for(Map.Entry<String, String> entry : definitions.entrySet())
+		{
+			final String elementName = entry.getKey();
+			final String taskClass = entry.getValue();
+			if(metadata.isAssignableFrom(extPoint, taskClass))
+			{
+				names.add(elementName);
+				types.put(elementName, taskClass);
 			}
 		}
 	}
@@ -681,12 +893,16 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 	private static class MacrodefElementOccurrenceIntrospectorAdapter extends AbstractIntrospector
 	{
 		private final AntDomMacrodefElement myElement;
+		private final ThermitMetadata myMetadata;
+		private final ExtensionTemplates myTemplates;
 		private volatile List<AbstractIntrospector> myContexts;
-		private volatile Map<String, Class> myChildrenMap;
+		private volatile Map<String, AbstractIntrospector> myChildrenMap;
 
-		private MacrodefElementOccurrenceIntrospectorAdapter(AntDomMacrodefElement element)
+		private MacrodefElementOccurrenceIntrospectorAdapter(AntDomMacrodefElement element, ThermitMetadata metadata, ExtensionTemplates templates)
 		{
 			myElement = element;
+			myMetadata = metadata;
+			myTemplates = templates;
 		}
 
 		public boolean isContainer()
@@ -708,19 +924,21 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			return getNestedElementsMap().keySet().iterator();
 		}
 
-		public Class getNestedElementType(String elementName)
+		@NotNull
+		public AntDomElement.Role defineNestedElementType(DomExtension extension, String elementName)
 		{
-			return getNestedElementsMap().get(elementName);
+			final AbstractIntrospector context = getNestedElementsMap().get(elementName);
+			return context != null ? context.defineNestedElementType(extension, elementName) : super.defineNestedElementType(extension, elementName);
 		}
 
-		private Map<String, Class> getNestedElementsMap()
+		private Map<String, AbstractIntrospector> getNestedElementsMap()
 		{
 			if(myChildrenMap != null)
 			{
 				return myChildrenMap;
 			}
 			final List<AbstractIntrospector> contexts = getContexts();
-			Map<String, Class> names = null;
+			Map<String, AbstractIntrospector> names = null;
 			for(AbstractIntrospector context : contexts)
 			{
 				if(context.isContainer())
@@ -735,10 +953,10 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 				}
 				if(names == null)
 				{
-					names = new HashMap<String, Class>();
+					names = new HashMap<String, AbstractIntrospector>();
 					for(String s : set)
 					{
-						names.put(s, context.getNestedElementType(s));
+						names.put(s, context);
 					}
 				}
 				else
@@ -746,7 +964,7 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 					names.keySet().retainAll(set);
 				}
 			}
-			final Map<String, Class> result = names == null ? Collections.<String, Class>emptyMap() : names;
+			final Map<String, AbstractIntrospector> result = names == null ? Collections.<String, AbstractIntrospector>emptyMap() : names;
 			return myChildrenMap = result;
 		}
 
@@ -767,19 +985,15 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 					{
 						public void visitAntDomCustomElement(AntDomCustomElement custom)
 						{
-							if(myElement.equals(custom.getDeclaringElement()))
+							if(CustomAntElementsRegistry.isSameElement(myElement, custom.getDeclaringElement()))
 							{
 								final AntDomElement parent = custom.getParentOfType(AntDomElement.class, true);
 								if(parent != null)
 								{
-									final Class type = parent.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_KEY);
-									if(type != null)
+									final AbstractIntrospector context = getContextIntrospector(parent);
+									if(context != null)
 									{
-										final AntIntrospector antIntrospector = AntIntrospector.getInstance(type);
-										if(antIntrospector != null)
-										{
-											parents.add(new ClassIntrospectorAdapter(antIntrospector));
-										}
+										parents.add(context);
 									}
 								}
 							}
@@ -789,6 +1003,18 @@ public class AntDomExtender extends DomExtender<AntDomElement>
 			}
 			return myContexts = parents;
 		}
+
+		@Nullable
+		private AbstractIntrospector getContextIntrospector(AntDomElement parent)
+		{
+			final Class type = parent.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_KEY);
+			if(type != null)
+			{
+				return getClassIntrospector(type, myMetadata);
+			}
+			final String typeName = parent.getChildDescription().getUserData(ELEMENT_IMPL_CLASS_NAME_KEY);
+			return typeName != null ? getMetadataIntrospector(myMetadata, myTemplates, typeName) : null;
+		}
 	}
 
 	private static class ScriptdefIntrospectorAdapter extends AbstractIntrospector
@@ -35,7 +35,7 @@ import com.intellij.psi.xml.XmlTag;
 public class AntDomFileDescription extends AntFileDescription<AntDomProject>
 {
 	private static final String ROOT_TAG_NAME = "project";
-	private static final String EXTENSION = "txml";
+	public static final String EXTENSION = "txml";
 
 	public AntDomFileDescription()
 	{
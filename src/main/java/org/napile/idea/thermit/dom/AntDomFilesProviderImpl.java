@@ -25,6 +25,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.napile.idea.thermit.AntFilesProvider;
+import com.intellij.openapi.util.Pair;
 import com.intellij.util.PathUtil;
 import com.intellij.util.xml.Attribute;
 import com.intellij.util.xml.GenericAttributeValue;
@@ -35,7 +36,7 @@ import com.intellij.util.xml.GenericAttributeValue;
  */
 public abstract class AntDomFilesProviderImpl extends AntDomElement implements AntFilesProvider
 {
-	private volatile List<File> myCachedFiles;
+	private volatile Pair<Long, List<File>> myCachedFiles;
 
 	@Attribute("defaultexcludes")
 	public abstract GenericAttributeValue<String> getDefaultExcludes();
@@ -51,11 +52,15 @@ public abstract class AntDomFilesProviderImpl extends AntDomElement implements A
 		{
 			return Collections.emptyList();
 		}
-		List<File> result = myCachedFiles;
-		if(result == null)
+		// fileset results are shared project-wide and updated from VFS events, so the local copy is valid only while they stay unchanged
+		final long stamp = AntFilesetCache.getInstance(getManager().getProject()).getModificationCount();
+		final Pair<Long, List<File>> cached = myCachedFiles;
+		if(cached != null && cached.getFirst().longValue() == stamp)
 		{
-			myCachedFiles = result = getFilesImpl(processed);
+			return cached.getSecond();
 		}
+		final List<File> result = getFilesImpl(processed);
+		myCachedFiles = new Pair<Long, List<File>>(stamp, result);
 		return result;
 	}
 
@@ -27,7 +27,7 @@ import com.intellij.util.xml.GenericAttributeValue;
  */
 public abstract class AntDomIncludingDirective extends AntDomElement
 {
-	private static final String DEFAULT_SEPARATOR = ".";
+	static final String DEFAULT_SEPARATOR = ".";
 
 	@Attribute("file")
 	@Convert(value = AntPathRelativeToAntFileConverter.class)
@@ -46,6 +46,7 @@ public class AntDomPattern extends AntDomRecursiveVisitor
 	private final List<Pattern> myIncludePatterns = new ArrayList<Pattern>();
 	private final List<Pattern> myExcludePatterns = new ArrayList<Pattern>();
 	private final List<PrefixItem[]> myCouldBeIncludedPatterns = new ArrayList<PrefixItem[]>();
+	private final StringBuilder myPatternKey = new StringBuilder();
 
 	AntDomPattern(final boolean caseSensitive)
 	{
@@ -115,14 +116,24 @@ public class AntDomPattern extends AntDomRecursiveVisitor
 		return description.getDomAttributeValue(element).getStringValue();
 	}
 
+	/**
+	 * @return a string uniquely identifying the set of patterns collected so far, suitable as a cache key
+	 */
+	public String getPatternKey()
+	{
+		return (myCaseSensitive ? "cs:" : "ci:") + myPatternKey;
+	}
+
 	public final void addExcludePattern(final String antPattern)
 	{
 		myExcludePatterns.add(convertToRegexPattern(antPattern, myCaseSensitive));
+		myPatternKey.append("-").append(antPattern).append('\n');
 	}
 
 	public final void addIncludePattern(final String antPattern)
 	{
 		myIncludePatterns.add(convertToRegexPattern(antPattern, myCaseSensitive));
+		myPatternKey.append("+").append(antPattern).append('\n');
 		String normalizedPattern = antPattern.endsWith("/") || antPattern.endsWith(File.separator) ? antPattern.replace(File.separatorChar, '/') + "**" : antPattern.replace(File.separatorChar, '/');
 		if(normalizedPattern.startsWith("/") && normalizedPattern.length() > 1)
 		{
@@ -214,6 +225,7 @@ public class AntDomPattern extends AntDomRecursiveVisitor
 		if(honorDefaultExcludes)
 		{
 			antPattern.myExcludePatterns.addAll(caseSensitive ? ourDefaultExcludes : ourCaseInsensitiveDefaultExcludes);
+			antPattern.myPatternKey.append("-<default>\n");
 		}
 		return antPattern;
 	}
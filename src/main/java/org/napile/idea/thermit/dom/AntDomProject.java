@@ -18,16 +18,16 @@ package org.napile.idea.thermit.dom;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.napile.idea.thermit.ReflectedProject;
+import org.napile.idea.thermit.ThermitMetadata;
 import org.napile.idea.thermit.config.ThermitConfigurationBase;
 import org.napile.idea.thermit.config.impl.AntBuildFileImpl;
 import org.napile.idea.thermit.config.impl.AntInstallation;
@@ -37,6 +37,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.projectRoots.ProjectJdkTable;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -63,12 +64,13 @@ import com.intellij.util.xml.SubTagList;
 public abstract class AntDomProject extends AntDomNamedElement implements PropertiesProvider
 {
 	private static final Logger LOG = Logger.getInstance(AntDomProject.class);
+	private static final Key<ConcurrentMap<String, Map<String, String>>> INSTALLATION_PROPERTIES_KEY = Key.create("_installation_properties_");
 
 	@NonNls
 	public static final String DEFAULT_ENVIRONMENT_PREFIX = "env.";
 
 	private volatile ClassLoader myClassLoader;
-	private volatile Map<String, String> myProperties;
+	private volatile LayeredProperties myProperties;
 
 
 	@Attribute("default")
@@ -233,7 +235,7 @@ public abstract class AntDomProject extends AntDomNamedElement implements Proper
 	@NotNull
 	public Iterator<String> getNamesIterator()
 	{
-		return getProperties().keySet().iterator();
+		return getProperties().getNamesIterator();
 	}
 
 	@Nullable
@@ -255,13 +257,13 @@ public abstract class AntDomProject extends AntDomNamedElement implements Proper
 		return xmlElement != null ? xmlElement.getNavigationElement() : null;
 	}
 
-	private Map<String, String> getProperties()
+	private LayeredProperties getProperties()
 	{
-		Map<String, String> properties = myProperties;
+		LayeredProperties properties = myProperties;
 		if(properties == null)
 		{
-			final ReflectedProject reflected = ReflectedProject.getProject(getClassLoader());
-			Map<String, String> externals = Collections.emptyMap();
+			final ThermitMetadata metadata = ThermitMetadata.getInstance(getClassLoader());
+			Map<String, String> externals = null;
 			final PsiFile containingFile = getXmlTag().getContainingFile();
 			if(containingFile != null)
 			{
@@ -271,40 +273,70 @@ public abstract class AntDomProject extends AntDomNamedElement implements Proper
 					externals = buildFile.getExternalProperties();
 				}
 			}
-			myProperties = (properties = loadPredefinedProperties(reflected.getProperties(), externals));
+			properties = new LayeredProperties();
+			properties.addLayer(metadata != null ? metadata.getProperties() : null);
+			properties.addLayer(externals);
+			properties.addLayer(getInstallationProperties(metadata));
+			properties.addLayer(loadProjectProperties());
+			myProperties = properties;
 		}
 		return properties;
 	}
 
-	@SuppressWarnings({"UseOfObsoleteCollectionType"})
-	private Map<String, String> loadPredefinedProperties(final Hashtable properties, final Map<String, String> externalProps)
+	/**
+	 * Properties describing the installation and the JDK, shared by all projects using them
+	 */
+	private Map<String, String> getInstallationProperties(@Nullable ThermitMetadata metadata)
 	{
-		final Map<String, String> destination = new HashMap<String, String>();
-		if(properties != null)
+		final AntInstallation installation = getAntInstallation();
+		final String homeDir = installation.getHomeDir();
+		final Sdk jdkToRunWith = getTargetJdk();
+		final String jdkVersion = jdkToRunWith != null ? jdkToRunWith.getVersionString() : null;
+		final String javaVersion = jdkVersion != null ? jdkVersion : SystemInfo.JAVA_VERSION;
+		final String key = homeDir + "|" + installation.getVersion() + "|" + javaVersion;
+
+		final ConcurrentMap<String, Map<String, String>> cache = metadata != null ? getInstallationPropertiesCache(metadata) : null;
+		if(cache != null)
 		{
-			final Enumeration props = properties.keys();
-			while(props.hasMoreElements())
+			final Map<String, String> cached = cache.get(key);
+			if(cached != null)
 			{
-				final String name = (String) props.nextElement();
-				final String value = (String) properties.get(name);
-				appendProperty(destination, name, value);
+				return cached;
 			}
 		}
-		//final Map<String, String> envMap = System.getenv();
-		//for (final String name : envMap.keySet()) {
-		//  if (name.length() > 0) {
-		//    final String value = envMap.get(name);
-		//    appendProperty(destination, DEFAULT_ENVIRONMENT_PREFIX + name, value);
-		//  }
-		//}
-		if(externalProps != null)
+		final Map<String, String> properties = new HashMap<String, String>();
+		if(homeDir != null)
+		{
+			properties.put("thermit.home", FileUtil.toSystemIndependentName(homeDir));
+		}
+		properties.put("thermit.version", installation.getVersion());
+		properties.put("thermit.java.version", javaVersion);
+		final Map<String, String> result = Collections.unmodifiableMap(properties);
+		if(cache != null)
 		{
-			for(final String name : externalProps.keySet())
+			final Map<String, String> cached = cache.putIfAbsent(key, result);
+			if(cached != null)
 			{
-				final String value = externalProps.get(name);
-				appendProperty(destination, name, value);
+				return cached;
 			}
 		}
+		return result;
+	}
+
+	@NotNull
+	private static ConcurrentMap<String, Map<String, String>> getInstallationPropertiesCache(@NotNull ThermitMetadata metadata)
+	{
+		final ConcurrentMap<String, Map<String, String>> cache = metadata.getUserData(INSTALLATION_PROPERTIES_KEY);
+		if(cache != null)
+		{
+			return cache;
+		}
+		return metadata.putUserDataIfAbsent(INSTALLATION_PROPERTIES_KEY, new ConcurrentHashMap<String, Map<String, String>>());
+	}
+
+	private Map<String, String> loadProjectProperties()
+	{
+		final Map<String, String> destination = new HashMap<String, String>();
 
 		String basedir = getProjectBasedirPath();
 		if(basedir == null)
@@ -328,44 +360,23 @@ public abstract class AntDomProject extends AntDomNamedElement implements Proper
 		}
 		if(basedir != null)
 		{
-			appendProperty(destination, "basedir", FileUtil.toSystemIndependentName(basedir));
-		}
-
-		final AntInstallation installation = getAntInstallation();
-		final String homeDir = installation.getHomeDir();
-		if(homeDir != null)
-		{
-			appendProperty(destination, "thermit.home", FileUtil.toSystemIndependentName(homeDir));
+			destination.put("basedir", FileUtil.toSystemIndependentName(basedir));
 		}
-		appendProperty(destination, "thermit.version", installation.getVersion());
 
 		final String projectName = getName().getRawText();
-		appendProperty(destination, "thermit.project.name", (projectName == null) ? "" : projectName);
-
-		final Sdk jdkToRunWith = getTargetJdk();
-		final String version = jdkToRunWith != null ? jdkToRunWith.getVersionString() : null;
-		appendProperty(destination, "thermit.java.version", version != null ? version : SystemInfo.JAVA_VERSION);
+		destination.put("thermit.project.name", (projectName == null) ? "" : projectName);
 
 		final VirtualFile containingFile = getXmlTag().getContainingFile().getOriginalFile().getVirtualFile();
 		if(containingFile != null)
 		{
 			final String antFilePath = containingFile.getPath();
-			appendProperty(destination, "thermit.file", antFilePath);
+			destination.put("thermit.file", antFilePath);
 			if(projectName != null)
 			{
-				appendProperty(destination, "thermit.file." + projectName, antFilePath);
-				appendProperty(destination, "thermit.file.type." + projectName, "file");
+				destination.put("thermit.file." + projectName, antFilePath);
+				destination.put("thermit.file.type." + projectName, "file");
 			}
 		}
 		return destination;
 	}
-
-	private static void appendProperty(final Map<String, String> map, String name, String value)
-	{
-		final String previous = map.put(name, value);
-		if(previous != null)
-		{
-			map.put(name, previous);
-		}
-	}
 }
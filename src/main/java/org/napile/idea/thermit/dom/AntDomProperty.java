@@ -24,13 +24,18 @@ import java.util.Map;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntPropertiesFileIndex;
 import com.intellij.lang.properties.IProperty;
 import com.intellij.lang.properties.psi.PropertiesFile;
+import com.intellij.lang.properties.psi.Property;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.references.PomService;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.PathUtil;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.xml.Attribute;
@@ -45,6 +50,7 @@ import com.intellij.util.xml.GenericAttributeValue;
 public abstract class AntDomProperty extends AntDomClasspathComponent implements PropertiesProvider
 {
 	private volatile Map<String, String> myCachedProperties;
+	private volatile long myCachedPropertiesStamp;
 	private volatile ClassLoader myCachedLoader;
 
 
@@ -150,6 +156,17 @@ public abstract class AntDomProperty extends AntDomClasspathComponent implements
 			}
 			if(psiFile instanceof PropertiesFile)
 			{
+				final VirtualFile vFile = psiFile.getVirtualFile();
+				final AntPropertiesFileIndex.PropertiesFileData data = vFile != null ? AntPropertiesFileIndex.getData(psiFile.getProject(), vFile) : null;
+				final int offset = data != null ? data.getOffset(_propertyName) : -1;
+				if(offset >= 0)
+				{
+					final PsiElement property = PsiTreeUtil.getParentOfType(((PsiFile) psiFile).findElementAt(offset), Property.class, false);
+					if(property != null)
+					{
+						return property;
+					}
+				}
 				final IProperty property = ((PropertiesFile) psiFile).findPropertyByKey(_propertyName);
 				return property != null ? property.getPsiElement() : null;
 			}
@@ -174,8 +191,10 @@ public abstract class AntDomProperty extends AntDomClasspathComponent implements
 
 	private Map<String, String> buildProperties()
 	{
+		// property files may change without any change to the build file
+		final long stamp = AntChangeTracker.getInstance(getManager().getProject()).getPropertiesTracker().getModificationCount();
 		Map<String, String> result = myCachedProperties;
-		if(result != null)
+		if(result != null && myCachedPropertiesStamp == stamp)
 		{
 			return result;
 		}
@@ -217,7 +236,13 @@ public abstract class AntDomProperty extends AntDomClasspathComponent implements
 			final PsiFileSystemItem psiFile = getFile().getValue();
 			if(psiFile != null)
 			{
-				if(psiFile instanceof PropertiesFile)
+				final VirtualFile vFile = psiFile.getVirtualFile();
+				final AntPropertiesFileIndex.PropertiesFileData data = vFile != null ? AntPropertiesFileIndex.getData(psiFile.getProject(), vFile) : null;
+				if(data != null)
+				{
+					result = data.getValues();
+				}
+				else if(psiFile instanceof PropertiesFile)
 				{
 					result = new HashMap<String, String>();
 					for(final IProperty property : ((PropertiesFile) psiFile).getProperties())
@@ -254,11 +279,14 @@ public abstract class AntDomProperty extends AntDomClasspathComponent implements
 						{
 							try
 							{
-								final PropertiesFile propFile = (PropertiesFile) CustomAntElementsRegistry.loadContentAsFile(getXmlTag().getProject(), stream, StdFileTypes.PROPERTIES);
-								result = new HashMap<String, String>();
-								for(final IProperty property : propFile.getProperties())
+								try
+								{
+									final CharSequence text = CustomAntElementsRegistry.decodeContent(FileUtil.loadBytes(stream), StdFileTypes.PROPERTIES);
+									result = AntPropertiesFileIndex.parse(text).getValues();
+								}
+								finally
 								{
-									result.put(property.getUnescapedKey(), property.getValue());
+									stream.close();
 								}
 							}
 							catch(IOException ignored)
@@ -269,6 +297,7 @@ public abstract class AntDomProperty extends AntDomClasspathComponent implements
 				}
 			}
 		}
+		myCachedPropertiesStamp = stamp;
 		return (myCachedProperties = result);
 	}
 
@@ -26,16 +26,48 @@ import com.intellij.util.xml.DomElementVisitor;
  */
 public class AntDomRecursiveVisitor implements DomElementVisitor
 {
+	// position of the element being visited in the snapshot, lets the traversal go without index lookups
+	private AntDomTreeSnapshot mySnapshot;
+	private int myCursor = -1;
+
 	public void visitDomElement(DomElement element)
 	{
 	}
 
 	public void visitAntDomElement(AntDomElement element)
 	{
-		for(Iterator<AntDomElement> iterator = element.getAntChildrenIterator(); iterator.hasNext(); )
+		AntDomTreeSnapshot snapshot = mySnapshot;
+		int index = myCursor;
+		if(snapshot == null || index < 0 || snapshot.getElement(index) != element)
+		{
+			snapshot = AntDomTreeSnapshot.getInstance(element);
+			index = snapshot != null ? snapshot.indexOf(element) : -1;
+		}
+		if(index < 0)
+		{
+			for(Iterator<AntDomElement> iterator = element.getAntChildrenIterator(); iterator.hasNext(); )
+			{
+				AntDomElement child = iterator.next();
+				child.accept(this);
+			}
+			return;
+		}
+		final AntDomTreeSnapshot savedSnapshot = mySnapshot;
+		final int savedCursor = myCursor;
+		try
+		{
+			final int end = snapshot.getSubtreeEnd(index);
+			for(int child = index + 1; child < end; child = snapshot.getSubtreeEnd(child))
+			{
+				mySnapshot = snapshot;
+				myCursor = child;
+				snapshot.getElement(child).accept(this);
+			}
+		}
+		finally
 		{
-			AntDomElement child = iterator.next();
-			child.accept(this);
+			mySnapshot = savedSnapshot;
+			myCursor = savedCursor;
 		}
 	}
 
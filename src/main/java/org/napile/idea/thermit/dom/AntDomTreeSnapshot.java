@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.xml.DomUtil;
+
+/**
+ * Immutable pre-order projection of the thermit elements of a project, rebuilt on PSI changes of the file and on
+ * changes of imports and definitions, since nested elements of custom tags come from macrodefs of imported files.
+ * Children of the element at index i occupy the range (i, subtreeEnd(i)); the next sibling of i is at subtreeEnd(i).
+ * Null is returned while a snapshot is being built on the current thread, callers are expected to fall back to plain iteration then.
+ */
+final class AntDomTreeSnapshot
+{
+	private static final Key<CachedValue<AntDomTreeSnapshot>> SNAPSHOT_KEY = Key.create("_ant_dom_tree_snapshot_");
+	// computing children may define DOM extensions, which in turn run visitors over the same project
+	private static final ThreadLocal<Boolean> ourIsBuilding = new ThreadLocal<Boolean>()
+	{
+		protected Boolean initialValue()
+		{
+			return Boolean.FALSE;
+		}
+	};
+
+	private final AntDomElement[] myElements;
+	private final int[] mySubtreeEnds;
+	private final Map<AntDomElement, Integer> myIndices;
+
+	private AntDomTreeSnapshot(AntDomProject root)
+	{
+		final List<AntDomElement> elements = new ArrayList<AntDomElement>();
+		final List<Integer> ends = new ArrayList<Integer>();
+		collect(root, elements, ends);
+		final int size = elements.size();
+		myElements = elements.toArray(new AntDomElement[size]);
+		mySubtreeEnds = new int[size];
+		myIndices = new HashMap<AntDomElement, Integer>(size * 4 / 3 + 1);
+		for(int i = 0; i < size; i++)
+		{
+			mySubtreeEnds[i] = ends.get(i);
+			myIndices.put(myElements[i], i);
+		}
+	}
+
+	private static void collect(AntDomElement element, List<AntDomElement> elements, List<Integer> ends)
+	{
+		final int index = elements.size();
+		elements.add(element);
+		ends.add(index + 1);
+		for(Iterator<AntDomElement> it = element.getAntChildrenIterator(); it.hasNext(); )
+		{
+			collect(it.next(), elements, ends);
+		}
+		ends.set(index, elements.size());
+	}
+
+	@Nullable
+	static AntDomTreeSnapshot getInstance(@NotNull AntDomElement element)
+	{
+		final AntDomProject project = element.getAntProject();
+		if(project == null || ourIsBuilding.get())
+		{
+			return null;
+		}
+		final XmlFile xmlFile = DomUtil.getFile(project);
+		CachedValue<AntDomTreeSnapshot> cachedValue = project.getUserData(SNAPSHOT_KEY);
+		if(cachedValue == null)
+		{
+			cachedValue = CachedValuesManager.getManager(xmlFile.getProject()).createCachedValue(new CachedValueProvider<AntDomTreeSnapshot>()
+			{
+				public Result<AntDomTreeSnapshot> compute()
+				{
+					ourIsBuilding.set(Boolean.TRUE);
+					try
+					{
+						final AntChangeTracker tracker = AntChangeTracker.getInstance(xmlFile.getProject());
+						return Result.create(new AntDomTreeSnapshot(project), xmlFile, tracker.getTargetsTracker(), tracker.getDefinitionsTracker());
+					}
+					finally
+					{
+						ourIsBuilding.set(Boolean.FALSE);
+					}
+				}
+			}, false);
+			project.putUserData(SNAPSHOT_KEY, cachedValue);
+		}
+		return cachedValue.getValue();
+	}
+
+	/**
+	 * @return index of the element or -1 if the element does not belong to the snapshot
+	 */
+	int indexOf(@NotNull AntDomElement element)
+	{
+		final Integer index = myIndices.get(element);
+		return index != null ? index : -1;
+	}
+
+	@NotNull
+	AntDomElement getElement(int index)
+	{
+		return myElements[index];
+	}
+
+	int getSubtreeEnd(int index)
+	{
+		return mySubtreeEnds[index];
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntFileStub;
+import org.napile.idea.thermit.ThermitSupport;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.PathUtil;
+
+/**
+ * Properties of an imported file as listed by its {@link AntFileStub}.
+ * The DOM of the file is built only to find the navigation element of a property.
+ */
+class AntFileStubPropertiesProvider implements PropertiesProvider
+{
+	private final PsiFile myFile;
+	@Nullable
+	private final String myBasedir;
+	private final Map<String, String> myValues = new LinkedHashMap<String, String>();
+	private final Map<String, AntFileStub.Property> myProperties = new LinkedHashMap<String, AntFileStub.Property>();
+
+	/**
+	 * @param basedir the base directory of the context project, locations are relative to it
+	 */
+	AntFileStubPropertiesProvider(@NotNull PsiFile file, @Nullable String basedir)
+	{
+		myFile = file;
+		myBasedir = basedir;
+	}
+
+	/**
+	 * Adds the properties the imported project itself defines, the ones not shared with the importing project
+	 */
+	void addProjectProperties(@Nullable String projectName)
+	{
+		if(projectName != null && myFile.getVirtualFile() != null)
+		{
+			final String antFilePath = myFile.getVirtualFile().getPath();
+			putIfAbsent("thermit.file." + projectName, antFilePath);
+			putIfAbsent("thermit.file.type." + projectName, "file");
+		}
+	}
+
+	void addProperty(@NotNull AntFileStub.Property property)
+	{
+		final String name = property.getName();
+		String value = property.getValue();
+		if(value == null)
+		{
+			value = property.getLocation();
+			if(value == null)
+			{
+				return;
+			}
+			if(!new File(value).isAbsolute() && myBasedir != null)
+			{
+				value = PathUtil.getCanonicalPath(new File(myBasedir, value).getPath());
+			}
+			value = FileUtil.toSystemDependentName(value);
+		}
+		if(putIfAbsent(name, value))
+		{
+			myProperties.put(name, property);
+		}
+	}
+
+	boolean isEmpty()
+	{
+		return myValues.isEmpty();
+	}
+
+	private boolean putIfAbsent(String name, String value)
+	{
+		if(myValues.containsKey(name))
+		{
+			return false;
+		}
+		myValues.put(name, value);
+		return true;
+	}
+
+	@NotNull
+	public Iterator<String> getNamesIterator()
+	{
+		return myValues.keySet().iterator();
+	}
+
+	@Nullable
+	public String getPropertyValue(String propertyName)
+	{
+		return myValues.get(propertyName);
+	}
+
+	@Nullable
+	public PsiElement getNavigationElement(String propertyName)
+	{
+		if(!myValues.containsKey(propertyName))
+		{
+			return null;
+		}
+		final AntDomProject project = ThermitSupport.getAntDomProjectForceAntFile(myFile);
+		if(project == null)
+		{
+			return null;
+		}
+		if(!myProperties.containsKey(propertyName))
+		{
+			return project.getNavigationElement(propertyName);
+		}
+		for(Iterator<AntDomElement> it = project.getAntChildrenIterator(); it.hasNext(); )
+		{
+			final AntDomElement child = it.next();
+			if(child instanceof AntDomProperty && propertyName.equals(((AntDomProperty) child).getName().getRawText()))
+			{
+				return ((AntDomProperty) child).getNavigationElement(propertyName);
+			}
+		}
+		return null;
+	}
+}
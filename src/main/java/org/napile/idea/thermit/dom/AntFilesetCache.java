@@ -0,0 +1,340 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+
+/**
+ * Project-level storage for the results of fileset and dirset scanning.
+ * Results are keyed by root directory and pattern set and are kept up-to-date
+ * incrementally by applying VFS events to the affected entries only.
+ */
+public class AntFilesetCache implements ModificationTracker
+{
+	private static final int MAX_DIRS_TO_PROCESS = 100;
+	private static final int MAX_ENTRIES = 512;
+
+	private final Map<EntryKey, Entry> myEntries = new ConcurrentHashMap<EntryKey, Entry>();
+	private final AtomicLong myModificationCount = new AtomicLong(0L);
+
+	public AntFilesetCache(Project project)
+	{
+		VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileAdapter()
+		{
+			public void fileCreated(VirtualFileEvent event)
+			{
+				fileAppeared(event.getFile());
+			}
+
+			public void beforeFileDeletion(VirtualFileEvent event)
+			{
+				fileDisappeared(event.getFile().getPath());
+			}
+
+			public void beforeFileMovement(VirtualFileMoveEvent event)
+			{
+				fileDisappeared(event.getFile().getPath());
+			}
+
+			public void fileMoved(VirtualFileMoveEvent event)
+			{
+				fileAppeared(event.getFile());
+			}
+
+			public void beforePropertyChange(VirtualFilePropertyEvent event)
+			{
+				if(VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+				{
+					fileDisappeared(event.getFile().getPath());
+				}
+			}
+
+			public void propertyChanged(VirtualFilePropertyEvent event)
+			{
+				if(VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+				{
+					fileAppeared(event.getFile());
+				}
+			}
+		}, project);
+	}
+
+	public static AntFilesetCache getInstance(Project project)
+	{
+		return ServiceManager.getService(project, AntFilesetCache.class);
+	}
+
+	/**
+	 * Incremented every time any of the cached results changes, so that dependent caches can be validated cheaply
+	 */
+	public long getModificationCount()
+	{
+		return myModificationCount.get();
+	}
+
+	@NotNull
+	public List<File> getFiles(@NotNull File root, @NotNull AntDomPattern pattern, boolean directoriesOnly)
+	{
+		final VirtualFile vRoot = LocalFileSystem.getInstance().findFileByIoFile(root);
+		if(vRoot == null || !vRoot.isDirectory())
+		{
+			// no VFS events will be delivered for this root, so the result cannot be kept in sync
+			final List<File> files = new ArrayList<File>();
+			collectIoFiles(files, root, "", pattern, directoriesOnly, new int[1]);
+			return files;
+		}
+		final EntryKey key = new EntryKey(vRoot.getPath(), pattern.getPatternKey(), directoriesOnly);
+		Entry entry = myEntries.get(key);
+		if(entry == null)
+		{
+			final Entry newEntry = new Entry(key, pattern);
+			collectVirtualFiles(newEntry.myFiles, vRoot, "", pattern, directoriesOnly, new int[1]);
+			if(myEntries.size() >= MAX_ENTRIES)
+			{
+				myEntries.clear();
+			}
+			myEntries.put(key, newEntry);
+			entry = newEntry;
+		}
+		return entry.getFiles();
+	}
+
+	private void fileAppeared(VirtualFile file)
+	{
+		if(!file.isInLocalFileSystem())
+		{
+			return;
+		}
+		final String path = file.getPath();
+		for(Entry entry : myEntries.values())
+		{
+			final String relativePath = getRelativePath(entry.myKey.myRootPath, path);
+			if(relativePath != null && entry.add(file, relativePath))
+			{
+				myModificationCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void fileDisappeared(String path)
+	{
+		for(Entry entry : myEntries.values())
+		{
+			if(path.equals(entry.myKey.myRootPath))
+			{
+				myEntries.remove(entry.myKey);
+				myModificationCount.incrementAndGet();
+			}
+			else if(getRelativePath(entry.myKey.myRootPath, path) != null && entry.removeUnder(path))
+			{
+				myModificationCount.incrementAndGet();
+			}
+		}
+	}
+
+	@Nullable
+	private static String getRelativePath(String rootPath, String path)
+	{
+		if(path.length() > rootPath.length() + 1 && path.startsWith(rootPath) && path.charAt(rootPath.length()) == '/')
+		{
+			return path.substring(rootPath.length() + 1);
+		}
+		return null;
+	}
+
+	private static String makePath(final String parentPath, final String name)
+	{
+		return parentPath.length() == 0 ? name : parentPath + "/" + name;
+	}
+
+	private static void collectVirtualFiles(Set<File> container, VirtualFile from, String relativePath, AntDomPattern pattern, boolean directoriesOnly, int[] dirsProcessed)
+	{
+		if(dirsProcessed[0] > MAX_DIRS_TO_PROCESS)
+		{
+			return;
+		}
+		if(relativePath.length() > 0 && !pattern.couldBeIncluded(relativePath))
+		{
+			return;
+		}
+		dirsProcessed[0]++;
+		for(VirtualFile child : from.getChildren())
+		{
+			final boolean isDirectory = child.isDirectory();
+			if(directoriesOnly && !isDirectory)
+			{
+				continue;
+			}
+			final String childPath = makePath(relativePath, child.getName());
+			if(pattern.acceptPath(childPath))
+			{
+				container.add(new File(FileUtil.toSystemDependentName(child.getPath())));
+			}
+			if(isDirectory)
+			{
+				collectVirtualFiles(container, child, childPath, pattern, directoriesOnly, dirsProcessed);
+			}
+		}
+	}
+
+	private static void collectIoFiles(List<File> container, File from, String relativePath, AntDomPattern pattern, boolean directoriesOnly, int[] dirsProcessed)
+	{
+		if(dirsProcessed[0] > MAX_DIRS_TO_PROCESS)
+		{
+			return;
+		}
+		if(relativePath.length() > 0 && !pattern.couldBeIncluded(relativePath))
+		{
+			return;
+		}
+		final File[] children = from.listFiles();
+		if(children == null)
+		{
+			return;
+		}
+		dirsProcessed[0]++;
+		for(File child : children)
+		{
+			final boolean isDirectory = child.isDirectory();
+			if(directoriesOnly && !isDirectory)
+			{
+				continue;
+			}
+			final String childPath = makePath(relativePath, child.getName());
+			if(pattern.acceptPath(childPath))
+			{
+				container.add(child);
+			}
+			if(isDirectory)
+			{
+				collectIoFiles(container, child, childPath, pattern, directoriesOnly, dirsProcessed);
+			}
+		}
+	}
+
+	private static final class EntryKey
+	{
+		private final String myRootPath;
+		private final String myPatternKey;
+		private final boolean myDirectoriesOnly;
+
+		private EntryKey(String rootPath, String patternKey, boolean directoriesOnly)
+		{
+			myRootPath = rootPath;
+			myPatternKey = patternKey;
+			myDirectoriesOnly = directoriesOnly;
+		}
+
+		public boolean equals(Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(!(o instanceof EntryKey))
+			{
+				return false;
+			}
+			final EntryKey key = (EntryKey) o;
+			return myDirectoriesOnly == key.myDirectoriesOnly && myRootPath.equals(key.myRootPath) && myPatternKey.equals(key.myPatternKey);
+		}
+
+		public int hashCode()
+		{
+			int result = myRootPath.hashCode();
+			result = 31 * result + myPatternKey.hashCode();
+			result = 31 * result + (myDirectoriesOnly ? 1 : 0);
+			return result;
+		}
+	}
+
+	private static final class Entry
+	{
+		private final EntryKey myKey;
+		private final AntDomPattern myPattern;
+		private final Set<File> myFiles = new LinkedHashSet<File>();
+
+		private Entry(EntryKey key, AntDomPattern pattern)
+		{
+			myKey = key;
+			myPattern = pattern;
+		}
+
+		synchronized List<File> getFiles()
+		{
+			return new ArrayList<File>(myFiles);
+		}
+
+		synchronized boolean add(VirtualFile file, String relativePath)
+		{
+			final int slash = relativePath.lastIndexOf('/');
+			if(slash > 0 && !myPattern.couldBeIncluded(relativePath.substring(0, slash)))
+			{
+				return false;
+			}
+			final int sizeBefore = myFiles.size();
+			final boolean isDirectory = file.isDirectory();
+			if((isDirectory || !myKey.myDirectoriesOnly) && myPattern.acceptPath(relativePath))
+			{
+				myFiles.add(new File(FileUtil.toSystemDependentName(file.getPath())));
+			}
+			if(isDirectory)
+			{
+				// the directory may have been moved or copied together with its content
+				collectVirtualFiles(myFiles, file, relativePath, myPattern, myKey.myDirectoriesOnly, new int[1]);
+			}
+			return myFiles.size() != sizeBefore;
+		}
+
+		synchronized boolean removeUnder(String path)
+		{
+			final String prefix = path + "/";
+			boolean changed = false;
+			for(Iterator<File> it = myFiles.iterator(); it.hasNext(); )
+			{
+				final String filePath = FileUtil.toSystemIndependentName(it.next().getPath());
+				if(filePath.equals(path) || filePath.startsWith(prefix))
+				{
+					it.remove();
+					changed = true;
+				}
+			}
+			return changed;
+		}
+	}
+}
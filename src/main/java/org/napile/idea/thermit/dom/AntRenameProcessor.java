@@ -16,18 +16,29 @@
 package org.napile.idea.thermit.dom;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntImportsIndex;
+import org.napile.idea.thermit.ThermitSupport;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Trinity;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.PomTarget;
 import com.intellij.pom.PomTargetPsiElement;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.xml.XmlFile;
 import com.intellij.refactoring.rename.RenamePsiElementProcessor;
 import com.intellij.util.xml.DomElement;
 import com.intellij.util.xml.DomTarget;
+import com.intellij.util.xml.DomUtil;
 
 /**
  * @author Eugene Zhuravlev
@@ -51,10 +62,13 @@ public class AntRenameProcessor extends RenamePsiElementProcessor
 		if(propName != null)
 		{
 			final AntDomProject contextProject = antElement.getContextAntProject();
-			final List<PsiElement> additional = AntCallParamsFinder.resolve(contextProject, propName);
-			for(PsiElement psiElement : additional)
+			for(AntDomProject project : getAffectedProjects(antElement, contextProject))
 			{
-				allRenames.put(psiElement, newName);
+				final List<PsiElement> additional = AntCallParamsFinder.resolve(project, propName);
+				for(PsiElement psiElement : additional)
+				{
+					allRenames.put(psiElement, newName);
+				}
 			}
 			if(antElement instanceof AntDomAntCallParam)
 			{
@@ -77,6 +91,35 @@ public class AntRenameProcessor extends RenamePsiElementProcessor
 		return false;
 	}
 
+	/**
+	 * The context project and all projects importing the file where the element is declared
+	 */
+	private static Set<AntDomProject> getAffectedProjects(AntDomElement antElement, AntDomProject contextProject)
+	{
+		final Set<AntDomProject> projects = new LinkedHashSet<AntDomProject>();
+		projects.add(contextProject);
+		final XmlFile xmlFile = DomUtil.getFile(antElement);
+		final VirtualFile vFile = xmlFile.getOriginalFile().getVirtualFile();
+		if(vFile != null)
+		{
+			final Project project = xmlFile.getProject();
+			final PsiManager psiManager = PsiManager.getInstance(project);
+			for(VirtualFile importing : AntImportsIndex.getAllImportingFiles(project, vFile, GlobalSearchScope.projectScope(project)))
+			{
+				final PsiFile psiFile = psiManager.findFile(importing);
+				if(psiFile instanceof XmlFile)
+				{
+					final AntDomProject importingProject = ThermitSupport.getAntDomProject((XmlFile) psiFile);
+					if(importingProject != null)
+					{
+						projects.add(importingProject);
+					}
+				}
+			}
+		}
+		return projects;
+	}
+
 	@Nullable
 	private static AntDomElement convertToAntDomElement(PsiElement element)
 	{
@@ -15,22 +15,11 @@
  */
 package org.napile.idea.thermit.dom;
 
-import java.util.List;
-import java.util.Set;
-
-import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
-import org.napile.idea.thermit.ThermitBundle;
 import org.napile.idea.thermit.quickfix.AntChangeContextLocalFix;
 import org.napile.idea.thermit.validation.AntInspection;
 import com.intellij.codeInspection.ProblemHighlightType;
-import com.intellij.psi.PsiPolyVariantReference;
-import com.intellij.psi.PsiReference;
-import com.intellij.psi.xml.XmlElement;
-import com.intellij.util.containers.ContainerUtil;
-import com.intellij.util.containers.HashSet;
 import com.intellij.util.xml.DomElement;
-import com.intellij.util.xml.DomUtil;
 import com.intellij.util.xml.GenericDomValue;
 import com.intellij.util.xml.highlighting.DomElementAnnotationHolder;
 import com.intellij.util.xml.highlighting.DomHighlightingHelper;
@@ -56,96 +45,23 @@ public class AntResolveInspection extends AntInspection
 	{
 		if(element instanceof GenericDomValue)
 		{
-			final XmlElement valueElement = DomUtil.getValueElement(((GenericDomValue) element));
-			if(valueElement != null)
-			{
-				checkReferences(valueElement, holder, element);
-			}
-		}
-		else if(element instanceof AntDomTypeDef)
-		{
-			final AntDomTypeDef typeDef = (AntDomTypeDef) element;
-			final List<String> errors = typeDef.getErrorDescriptions();
-			if(!errors.isEmpty())
+			final AntDomElement antElement = element.getParentOfType(AntDomElement.class, true);
+			if(antElement != null)
 			{
-				final StringBuilder builder = new StringBuilder();
-				builder.append(ThermitBundle.message("failed.to.load.types")).append(":");
-				for(String error : errors)
+				for(AntDomAnalysis.UnresolvedReference ref : AntDomAnalysis.getProblems(antElement).getUnresolvedReferences((GenericDomValue) element))
 				{
-					builder.append("\n").append(error);
+					holder.createProblem(element, ProblemHighlightType.LIKE_UNKNOWN_SYMBOL, ref.getMessagePattern(), ref.getRangeInElement(), new AntChangeContextLocalFix());
 				}
-				holder.createProblem(typeDef, builder.toString());
 			}
 		}
-		else if(element instanceof AntDomCustomElement)
+		else if(element instanceof AntDomTypeDef || element instanceof AntDomCustomElement)
 		{
-			final AntDomCustomElement custom = (AntDomCustomElement) element;
-			if(custom.getDefinitionClass() == null)
+			final AntDomElement antElement = (AntDomElement) element;
+			final AntDomAnalysis.ElementProblem problem = AntDomAnalysis.getProblems(antElement).getElementProblem(antElement);
+			if(problem != null)
 			{
-				final AntDomNamedElement declaringElement = custom.getDeclaringElement();
-				if(declaringElement instanceof AntDomTypeDef)
-				{
-					String failedMessage = ThermitBundle.message("using.definition.which.type.failed.to.load");
-					final String error = custom.getLoadError();
-					if(error != null)
-					{
-						failedMessage = failedMessage + ": " + error;
-					}
-					holder.createProblem(custom, failedMessage);
-				}
+				holder.createProblem(element, problem.getMessage());
 			}
 		}
 	}
-
-	private static void checkReferences(final XmlElement xmlElement, final @NonNls DomElementAnnotationHolder holder, DomElement domElement)
-	{
-		if(xmlElement == null)
-		{
-			return;
-		}
-		Set<PsiReference> processed = null;
-		for(final PsiReference ref : xmlElement.getReferences())
-		{
-			if(!(ref instanceof AntDomReference))
-			{
-				continue;
-			}
-			final AntDomReference antDomRef = (AntDomReference) ref;
-			if(antDomRef.shouldBeSkippedByAnnotator())
-			{
-				continue;
-			}
-			if(processed != null && processed.contains(ref))
-			{
-				continue;
-			}
-			if(!isResolvable(ref))
-			{
-
-				holder.createProblem(domElement, ProblemHighlightType.LIKE_UNKNOWN_SYMBOL, antDomRef.getUnresolvedMessagePattern(), ref.getRangeInElement(), new AntChangeContextLocalFix());
-
-				if(ref instanceof AntDomFileReference)
-				{
-					if(processed == null)
-					{
-						processed = new HashSet<PsiReference>();
-					}
-					ContainerUtil.addAll(processed, ((AntDomFileReference) ref).getFileReferenceSet().getAllReferences());
-				}
-			}
-		}
-	}
-
-	private static boolean isResolvable(PsiReference ref)
-	{
-		if(ref.resolve() != null)
-		{
-			return true;
-		}
-		if(ref instanceof PsiPolyVariantReference)
-		{
-			return ((PsiPolyVariantReference) ref).multiResolve(false).length > 0;
-		}
-		return false;
-	}
 }
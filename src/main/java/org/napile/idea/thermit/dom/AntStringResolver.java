@@ -43,6 +43,12 @@ public class AntStringResolver extends PropertyProviderFinder
 	}
 
 
+	@Override
+	protected boolean isIncludedTargetsRequired()
+	{
+		return false;
+	}
+
 	public void visitAntDomCustomElement(AntDomCustomElement custom)
 	{
 		if(!mySkipCustomTags)
@@ -60,7 +66,7 @@ public class AntStringResolver extends PropertyProviderFinder
 			return valueString;
 		}
 
-		final Map<String, String> cached = context.getUserData(RESOLVED_STRINGS_MAP_KEY);
+		final Map<String, String> cached = getCacheMap(context, RESOLVED_STRINGS_MAP_KEY, false);
 		if(cached != null)
 		{
 			expander.acceptProvider(new CachedPropertiesProvider(cached));
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.ThermitMetadata;
+import org.napile.idea.thermit.ThermitSupport;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.xml.XmlFile;
+
+/**
+ * Project-level cache of typedef and taskdef declarations read from antlib and properties resources.
+ * Entries are keyed by the resource URL and validated against the time stamp and length of the file or jar
+ * containing the resource; only when those changed is the content loaded and compared by MD5, so a cache hit
+ * requires neither reading the content nor creating PSI for it.
+ */
+public class AntlibDefinitionCache
+{
+	private static final int MAX_ENTRIES = 128;
+
+	private final Project myProject;
+	private final Map<String, Entry> myEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+	{
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public AntlibDefinitionCache(Project project)
+	{
+		myProject = project;
+	}
+
+	public static AntlibDefinitionCache getInstance(Project project)
+	{
+		return ServiceManager.getService(project, AntlibDefinitionCache.class);
+	}
+
+	@Nullable
+	public Antlib getAntlib(@NotNull URL resourceUrl, boolean xmlFormat) throws IOException
+	{
+		final String key = (xmlFormat ? "xml:" : "properties:") + resourceUrl.toExternalForm();
+		final long[] stamp = getStamp(resourceUrl);
+		if(stamp != null)
+		{
+			synchronized(myEntries)
+			{
+				final Entry entry = myEntries.get(key);
+				if(entry != null && Arrays.equals(entry.myStamp, stamp))
+				{
+					return entry.myAntlib;
+				}
+			}
+		}
+		final byte[] content;
+		final InputStream stream = resourceUrl.openStream();
+		try
+		{
+			content = FileUtil.loadBytes(stream);
+		}
+		finally
+		{
+			stream.close();
+		}
+		final byte[] digest = digest(content);
+		synchronized(myEntries)
+		{
+			final Entry entry = myEntries.get(key);
+			if(entry != null && Arrays.equals(entry.myDigest, digest))
+			{
+				// touched but not changed
+				myEntries.put(key, new Entry(stamp, digest, entry.myAntlib));
+				return entry.myAntlib;
+			}
+		}
+		final Antlib antlib = xmlFormat ? parseXml(content) : parseProperties(content);
+		if(antlib != null)
+		{
+			synchronized(myEntries)
+			{
+				myEntries.put(key, new Entry(stamp, digest, antlib));
+			}
+		}
+		return antlib;
+	}
+
+	/**
+	 * @return time stamp and length of the local file or jar containing the resource, null if it is not local
+	 */
+	@Nullable
+	private static long[] getStamp(URL resourceUrl)
+	{
+		URL fileUrl = resourceUrl;
+		if("jar".equals(resourceUrl.getProtocol()))
+		{
+			final String path = resourceUrl.getPath();
+			final int separator = path.indexOf("!/");
+			try
+			{
+				fileUrl = new URL(separator >= 0 ? path.substring(0, separator) : path);
+			}
+			catch(MalformedURLException e)
+			{
+				return null;
+			}
+		}
+		if(!"file".equals(fileUrl.getProtocol()))
+		{
+			return null;
+		}
+		final File file = ThermitMetadata.toFile(fileUrl);
+		final long lastModified = file.lastModified();
+		return lastModified != 0L ? new long[]{lastModified, file.length()} : null;
+	}
+
+	@Nullable
+	private Antlib parseXml(byte[] content)
+	{
+		final CharSequence text = CustomAntElementsRegistry.decodeContent(content, StdFileTypes.XML);
+		final XmlFile xmlFile = (XmlFile) CustomAntElementsRegistry.createDummyFile("_ant_dummy__." + StdFileTypes.XML.getDefaultExtension(), StdFileTypes.XML, text, myProject);
+		return Antlib.create(xmlFile);
+	}
+
+	@NotNull
+	private static Antlib parseProperties(byte[] content) throws IOException
+	{
+		final Properties properties = new Properties();
+		properties.load(new ByteArrayInputStream(content));
+		final List<Definition> definitions = new ArrayList<Definition>(properties.size());
+		for(String name : properties.stringPropertyNames())
+		{
+			definitions.add(new Definition(definitions.size(), name, properties.getProperty(name)));
+		}
+		return new Antlib(null, definitions);
+	}
+
+	private static byte[] digest(byte[] content)
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5").digest(content);
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// should not happen, MD5 is always available; fall back to the content itself
+			return content;
+		}
+	}
+
+	private static final class Entry
+	{
+		@Nullable
+		private final long[] myStamp;
+		private final byte[] myDigest;
+		private final Antlib myAntlib;
+
+		private Entry(@Nullable long[] stamp, byte[] digest, Antlib antlib)
+		{
+			myStamp = stamp;
+			myDigest = digest;
+			myAntlib = antlib;
+		}
+	}
+
+	public static final class Definition
+	{
+		private final int myIndex;
+		@Nullable
+		private final String myName;
+		@Nullable
+		private final String myClassName;
+
+		private Definition(int index, @Nullable String name, @Nullable String className)
+		{
+			myIndex = index;
+			myName = name;
+			myClassName = className;
+		}
+
+		@Nullable
+		public String getName()
+		{
+			return myName;
+		}
+
+		@Nullable
+		public String getClassName()
+		{
+			return myClassName;
+		}
+	}
+
+	public static final class Antlib
+	{
+		// the (non-physical) antlib file, kept so that the declaring DOM elements stay available for navigation
+		@Nullable
+		private final XmlFile myFile;
+		private final List<Definition> myDefinitions;
+
+		private Antlib(@Nullable XmlFile file, List<Definition> definitions)
+		{
+			myFile = file;
+			myDefinitions = Collections.unmodifiableList(definitions);
+		}
+
+		@Nullable
+		public static Antlib create(XmlFile xmlFile)
+		{
+			final List<AntDomTypeDef> defs = getDeclarations(xmlFile);
+			if(defs == null)
+			{
+				return null;
+			}
+			final List<Definition> definitions = new ArrayList<Definition>(defs.size());
+			for(AntDomTypeDef def : defs)
+			{
+				definitions.add(new Definition(definitions.size(), def.getName().getStringValue(), def.getClassName().getStringValue()));
+			}
+			return new Antlib(xmlFile, definitions);
+		}
+
+		@NotNull
+		public List<Definition> getDefinitions()
+		{
+			return myDefinitions;
+		}
+
+		/**
+		 * @return the taskdef or typedef element the definition was read from, null for definitions read from properties
+		 */
+		@Nullable
+		public AntDomTypeDef getDeclaration(@NotNull Definition definition)
+		{
+			if(myFile == null)
+			{
+				return null;
+			}
+			final List<AntDomTypeDef> defs = getDeclarations(myFile);
+			return defs != null && definition.myIndex < defs.size() ? defs.get(definition.myIndex) : null;
+		}
+
+		@Nullable
+		private static List<AntDomTypeDef> getDeclarations(XmlFile xmlFile)
+		{
+			final AntDomAntlib antLib = ThermitSupport.getAntLib(xmlFile);
+			if(antLib == null)
+			{
+				return null;
+			}
+			final List<AntDomTypeDef> defs = new ArrayList<AntDomTypeDef>();
+			defs.addAll(antLib.getTaskdefs());
+			defs.addAll(antLib.getTypedefs());
+			return defs;
+		}
+	}
+}
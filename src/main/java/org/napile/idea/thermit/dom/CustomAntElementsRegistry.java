@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,14 +31,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntFileStub;
+import org.napile.idea.thermit.AntFileStubIndex;
 import org.napile.idea.thermit.AntFilesProvider;
 import org.napile.idea.thermit.ReflectedProject;
 import org.napile.idea.thermit.ThermitSupport;
-import org.napile.idea.thermit.config.impl.AntResourcesClassLoader;
+import org.napile.idea.thermit.config.impl.AntClassLoaderPool;
 import com.intellij.lang.properties.IProperty;
 import com.intellij.lang.properties.psi.PropertiesFile;
 import com.intellij.openapi.diagnostic.Logger;
@@ -47,14 +53,21 @@ import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileFactory;
 import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.xml.XmlElement;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.util.LocalTimeCounter;
+import com.intellij.util.xml.DomElement;
+import com.intellij.util.xml.DomUtil;
 import com.intellij.util.xml.XmlName;
 
 /**
@@ -75,11 +88,14 @@ public class CustomAntElementsRegistry
 		}
 	};
 	private static final Logger LOG = Logger.getInstance("#org.napile.idea.thermit.dom.CustomAntElementsRegistry");
-	private static final Key<CustomAntElementsRegistry> REGISTRY_KEY = Key.create("_custom_element_registry_");
+	private static final Key<CachedValue<CustomAntElementsRegistry>> REGISTRY_KEY = Key.create("_custom_element_registry_");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Pattern XML_ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*(['\"])([^'\"]+)\\1");
 
 	private final Map<XmlName, Class> myCustomElements = new HashMap<XmlName, Class>();
 	private final Map<XmlName, String> myErrors = new HashMap<XmlName, String>();
-	private final Map<AntDomNamedElement, String> myTypeDefErrors = new HashMap<AntDomNamedElement, String>();
+	// keyed by XML elements, DOM elements are recreated on every change while the registry survives unrelated edits
+	private final Map<XmlElement, String> myTypeDefErrors = new HashMap<XmlElement, String>();
 	private final Map<XmlName, AntDomNamedElement> myDeclarations = new HashMap<XmlName, AntDomNamedElement>();
 	private final Map<String, ClassLoader> myNamedLoaders = new HashMap<String, ClassLoader>();
 
@@ -88,15 +104,40 @@ public class CustomAntElementsRegistry
 		antProject.accept(new CustomTagDefinitionFinder(antProject));
 	}
 
+	/**
+	 * The registry is shared by all files resolved in the context of the same project and is rebuilt only
+	 * when custom definitions or properties they may use change, see {@link AntChangeTracker}
+	 */
 	public static CustomAntElementsRegistry getInstance(AntDomProject antProject)
 	{
-		CustomAntElementsRegistry registry = antProject.getContextAntProject().getUserData(REGISTRY_KEY);
-		if(registry == null)
+		final AntDomProject contextProject = antProject.getContextAntProject();
+		final XmlFile contextFile = DomUtil.getFile(contextProject);
+		CachedValue<CustomAntElementsRegistry> cachedValue = contextFile.getUserData(REGISTRY_KEY);
+		if(cachedValue == null)
 		{
-			registry = new CustomAntElementsRegistry(antProject);
-			antProject.putUserData(REGISTRY_KEY, registry);
+			final Project project = contextFile.getProject();
+			cachedValue = CachedValuesManager.getManager(project).createCachedValue(new CachedValueProvider<CustomAntElementsRegistry>()
+			{
+				public Result<CustomAntElementsRegistry> compute()
+				{
+					final AntDomProject currentProject = ThermitSupport.getAntDomProject(contextFile);
+					final AntChangeTracker tracker = AntChangeTracker.getInstance(project);
+					return Result.create(new CustomAntElementsRegistry(currentProject != null ? currentProject : contextProject), tracker.getDefinitionsTracker(), tracker.getPropertiesTracker());
+				}
+			}, false);
+			contextFile.putUserData(REGISTRY_KEY, cachedValue);
 		}
-		return registry;
+		return cachedValue.getValue();
+	}
+
+	static boolean isSameElement(@Nullable DomElement first, @Nullable DomElement second)
+	{
+		if(first == null || second == null)
+		{
+			return false;
+		}
+		final XmlElement xmlElement = first.getXmlElement();
+		return xmlElement != null && xmlElement.equals(second.getXmlElement());
 	}
 
 	@NotNull
@@ -119,14 +160,14 @@ public class CustomAntElementsRegistry
 			final AntDomNamedElement declaringElement = myDeclarations.get(xmlName);
 			if(declaringElement instanceof AntDomMacrodefElement)
 			{
-				if(restrictToMacroDef == null || !restrictToMacroDef.equals(declaringElement.getParentOfType(AntDomMacroDef.class, true)))
+				if(!isSameElement(restrictToMacroDef, declaringElement.getParentOfType(AntDomMacroDef.class, true)))
 				{
 					continue;
 				}
 			}
 			else if(declaringElement instanceof AntDomScriptdefElement)
 			{
-				if(restrictToScriptDef == null || !restrictToScriptDef.equals(declaringElement.getParentOfType(AntDomScriptDef.class, true)))
+				if(!isSameElement(restrictToScriptDef, declaringElement.getParentOfType(AntDomScriptDef.class, true)))
 				{
 					continue;
 				}
@@ -134,7 +175,7 @@ public class CustomAntElementsRegistry
 
 			if(declaringElement != null)
 			{
-				if(declaringElement.equals(restrictToMacroDef) || declaringElement.equals(restrictToScriptDef))
+				if(isSameElement(declaringElement, restrictToMacroDef) || isSameElement(declaringElement, restrictToScriptDef))
 				{
 					continue;
 				}
@@ -198,7 +239,7 @@ public class CustomAntElementsRegistry
 		{
 			final Pair<AntDomMacroDef, AntDomScriptDef> contextMacroOrScriptDef = getContextMacroOrScriptDef(parentElement);
 			final AntDomMacroDef macrodefUsed = contextMacroOrScriptDef != null ? contextMacroOrScriptDef.getFirst() : null;
-			if(macrodefUsed == null || !macrodefUsed.equals(declaration.getParentOfType(AntDomMacroDef.class, true)))
+			if(!isSameElement(macrodefUsed, declaration.getParentOfType(AntDomMacroDef.class, true)))
 			{
 				return null;
 			}
@@ -207,7 +248,7 @@ public class CustomAntElementsRegistry
 		{
 			final Pair<AntDomMacroDef, AntDomScriptDef> contextMacroOrScriptDef = getContextMacroOrScriptDef(parentElement);
 			final AntDomScriptDef scriptDefUsed = contextMacroOrScriptDef != null ? contextMacroOrScriptDef.getSecond() : null;
-			if(scriptDefUsed == null || !scriptDefUsed.equals(declaration.getParentOfType(AntDomScriptDef.class, true)))
+			if(!isSameElement(scriptDefUsed, declaration.getParentOfType(AntDomScriptDef.class, true)))
 			{
 				return null;
 			}
@@ -235,14 +276,14 @@ public class CustomAntElementsRegistry
 
 	public boolean hasTypeLoadingErrors(AntDomTypeDef typedef)
 	{
-		final String generalError = myTypeDefErrors.get(typedef);
+		final String generalError = myTypeDefErrors.get(typedef.getXmlElement());
 		if(generalError != null)
 		{
 			return true;
 		}
 		for(Map.Entry<XmlName, AntDomNamedElement> entry : myDeclarations.entrySet())
 		{
-			if(typedef.equals(entry.getValue()))
+			if(isSameElement(typedef, entry.getValue()))
 			{
 				if(myErrors.containsKey(entry.getKey()))
 				{
@@ -255,7 +296,7 @@ public class CustomAntElementsRegistry
 
 	public List<String> getTypeLoadingErrors(AntDomTypeDef typedef)
 	{
-		final String generalError = myTypeDefErrors.get(typedef);
+		final String generalError = myTypeDefErrors.get(typedef.getXmlElement());
 		if(generalError != null)
 		{
 			return Collections.singletonList(generalError);
@@ -263,7 +304,7 @@ public class CustomAntElementsRegistry
 		List<String> errors = null;
 		for(Map.Entry<XmlName, AntDomNamedElement> entry : myDeclarations.entrySet())
 		{
-			if(typedef.equals(entry.getValue()))
+			if(isSameElement(typedef, entry.getValue()))
 			{
 				final XmlName xmlName = entry.getKey();
 				if(myErrors.containsKey(xmlName))
@@ -327,21 +368,66 @@ public class CustomAntElementsRegistry
 
 	public static PsiFile loadContentAsFile(Project project, InputStream stream, LanguageFileType fileType) throws IOException
 	{
-		final StringBuilder builder = new StringBuilder();
+		final byte[] content;
 		try
 		{
-			int nextByte;
-			while((nextByte = stream.read()) >= 0)
-			{
-				builder.append((char) nextByte);
-			}
+			content = FileUtil.loadBytes(stream);
 		}
 		finally
 		{
 			stream.close();
 		}
-		final PsiFileFactory factory = PsiFileFactory.getInstance(project);
-		return factory.createFileFromText("_ant_dummy__." + fileType.getDefaultExtension(), fileType, builder, LocalTimeCounter.currentTime(), false, false);
+		return createDummyFile("_ant_dummy__." + fileType.getDefaultExtension(), fileType, decodeContent(content, fileType), project);
+	}
+
+	/**
+	 * Properties are always ISO-8859-1 encoded; xml content is decoded according to BOM or the encoding declared in the prolog, UTF-8 by default
+	 */
+	@NotNull
+	public static CharSequence decodeContent(byte[] content, LanguageFileType fileType)
+	{
+		Charset charset = CharsetToolkit.UTF8_CHARSET;
+		int offset = 0;
+		if(fileType == StdFileTypes.PROPERTIES)
+		{
+			charset = ISO_8859_1;
+		}
+		else if(CharsetToolkit.hasUTF8Bom(content))
+		{
+			offset = CharsetToolkit.UTF8_BOM.length;
+		}
+		else
+		{
+			final Charset declared = getXmlPrologCharset(content);
+			if(declared != null)
+			{
+				charset = declared;
+			}
+		}
+		return charset.decode(ByteBuffer.wrap(content, offset, content.length - offset));
+	}
+
+	@Nullable
+	private static Charset getXmlPrologCharset(byte[] content)
+	{
+		final String start = new String(content, 0, Math.min(content.length, 256), ISO_8859_1);
+		if(!start.startsWith("<?xml"))
+		{
+			return null;
+		}
+		final int prologEnd = start.indexOf("?>");
+		final Matcher matcher = XML_ENCODING_PATTERN.matcher(prologEnd > 0 ? start.substring(0, prologEnd) : start);
+		if(matcher.find())
+		{
+			try
+			{
+				return Charset.forName(matcher.group(2));
+			}
+			catch(IllegalArgumentException ignored)
+			{
+			}
+		}
+		return null;
 	}
 
 	private void registerElement(AntDomNamedElement declaringElement, String customTagName, String nsUri, String classname, ClassLoader loader)
@@ -393,7 +479,7 @@ public class CustomAntElementsRegistry
 		myDeclarations.put(xmlName, declaringTag);
 	}
 
-	private static PsiFile createDummyFile(@NonNls final String name, final LanguageFileType type, final CharSequence str, Project project)
+	static PsiFile createDummyFile(@NonNls final String name, final LanguageFileType type, final CharSequence str, Project project)
 	{
 		return PsiFileFactory.getInstance(project).createFileFromText(name, type, str, LocalTimeCounter.currentTime(), false, false);
 	}
@@ -416,7 +502,10 @@ public class CustomAntElementsRegistry
 		{
 			return parentLoader;
 		}
-		return new AntResourcesClassLoader(urls, parentLoader, false, false);
+		// owned by the context file: DOM elements are recreated on every change while the registry using the loader is kept
+		// in the user data of the file
+		final XmlFile contextFile = DomUtil.getFile(antProject.getContextAntProject());
+		return AntClassLoaderPool.getInstance(antProject.getManager().getProject()).getClassLoader(urls, parentLoader, contextFile);
 	}
 
 	public static List<URL> collectUrls(AntDomClasspathElement typedef)
@@ -546,15 +635,15 @@ public class CustomAntElementsRegistry
 								if(xmlElement != null)
 								{
 									final ClassLoader loader = myAntProject.getClassLoader();
-									final InputStream stream = loader.getResourceAsStream(antLibResource);
-									if(stream != null)
+									final URL resourceUrl = loader.getResource(antLibResource);
+									if(resourceUrl != null)
 									{
 										try
 										{
-											final XmlFile xmlFile = (XmlFile) loadContentAsFile(xmlElement.getProject(), stream, StdFileTypes.XML);
-											if(xmlFile != null)
+											final AntlibDefinitionCache.Antlib antlib = AntlibDefinitionCache.getInstance(xmlElement.getProject()).getAntlib(resourceUrl, true);
+											if(antlib != null)
 											{
-												loadDefinitionsFromAntlib(xmlFile, uri, loader, null, myAntProject);
+												registerAntlibDefinitions(antlib, uri, loader, null, myAntProject);
 											}
 										}
 										catch(IOException e)
@@ -679,7 +768,7 @@ public class CustomAntElementsRegistry
 		private void processInclude(AntDomIncludingDirective directive)
 		{
 			final PsiFileSystemItem item = directive.getFile().getValue();
-			if(item instanceof PsiFile)
+			if(item instanceof PsiFile && definesElements((PsiFile) item, new HashSet<VirtualFile>()))
 			{
 				final AntDomProject slaveProject = ThermitSupport.getAntDomProject((PsiFile) item);
 				if(slaveProject != null)
@@ -689,6 +778,38 @@ public class CustomAntElementsRegistry
 			}
 		}
 
+		/**
+		 * @return false only if the stubs of the file and of all the files it imports show no definitions,
+		 *         so that the DOM of the file is not built
+		 */
+		private boolean definesElements(PsiFile file, Set<VirtualFile> visited)
+		{
+			final VirtualFile vFile = file.getVirtualFile();
+			if(vFile == null)
+			{
+				return true;
+			}
+			if(!visited.add(vFile))
+			{
+				return false;
+			}
+			final AntFileStub stub = AntFileStubIndex.getStub(file.getProject(), vFile);
+			if(stub == null || !stub.areImportsResolved() || stub.usesNamespaces() || !stub.getMacrodefs().isEmpty() || !stub.getTypedefs().isEmpty())
+			{
+				return true;
+			}
+			for(AntFileStub.Import anImport : stub.getImports())
+			{
+				final VirtualFile importedFile = LocalFileSystem.getInstance().findFileByPath(anImport.getResolvedPath());
+				final PsiFile imported = importedFile != null ? file.getManager().findFile(importedFile) : null;
+				if(imported != null && definesElements(imported, visited))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
 		private void defineCustomElements(AntDomTypeDef typedef, final AntDomProject antProject)
 		{
 			final String uri = typedef.getUri().getStringValue();
@@ -713,7 +834,7 @@ public class CustomAntElementsRegistry
 			{
 				return;
 			}
-			XmlFile xmlFile = null;
+			AntlibDefinitionCache.Antlib antlib = null;
 			PropertiesFile propFile = null;
 
 			final String resource = typedef.getResource().getStringValue();
@@ -725,19 +846,12 @@ public class CustomAntElementsRegistry
 				}
 				if(loader != null)
 				{
-					final InputStream stream = loader.getResourceAsStream(resource);
-					if(stream != null)
+					final URL resourceUrl = loader.getResource(resource);
+					if(resourceUrl != null)
 					{
 						try
 						{
-							if(isXmlFormat(typedef, resource))
-							{
-								xmlFile = (XmlFile) loadContentAsFile(project, stream, StdFileTypes.XML);
-							}
-							else
-							{
-								propFile = (PropertiesFile) loadContentAsFile(project, stream, StdFileTypes.PROPERTIES);
-							}
+							antlib = AntlibDefinitionCache.getInstance(project).getAntlib(resourceUrl, isXmlFormat(typedef, resource));
 						}
 						catch(IOException e)
 						{
@@ -746,7 +860,7 @@ public class CustomAntElementsRegistry
 					}
 					else
 					{
-						myTypeDefErrors.put(typedef, "Resource \"" + resource + "\" not found in the classpath");
+						myTypeDefErrors.put(typedef.getXmlElement(), "Resource \"" + resource + "\" not found in the classpath");
 					}
 				}
 			}
@@ -757,7 +871,11 @@ public class CustomAntElementsRegistry
 				{
 					if(isXmlFormat(typedef, file.getName()))
 					{
-						xmlFile = file instanceof XmlFile ? (XmlFile) file : (XmlFile) loadContentAsFile((PsiFile) file, StdFileTypes.XML);
+						final XmlFile xmlFile = file instanceof XmlFile ? (XmlFile) file : (XmlFile) loadContentAsFile((PsiFile) file, StdFileTypes.XML);
+						if(xmlFile != null)
+						{
+							antlib = AntlibDefinitionCache.Antlib.create(xmlFile);
+						}
 					}
 					else
 					{ // assume properties format
@@ -778,38 +896,36 @@ public class CustomAntElementsRegistry
 				}
 			}
 
-			if(xmlFile != null)
+			if(antlib != null)
 			{
 				if(loader == null)
 				{ // if not initialized yet
 					loader = getClassLoader(typedef, antProject);
 				}
-				loadDefinitionsFromAntlib(xmlFile, uri, loader, typedef, antProject);
+				registerAntlibDefinitions(antlib, uri, loader, typedef, antProject);
 			}
 		}
 
-		private void loadDefinitionsFromAntlib(XmlFile xmlFile, String uri, ClassLoader loader, @Nullable AntDomTypeDef typedef, AntDomProject antProject)
+		private void registerAntlibDefinitions(AntlibDefinitionCache.Antlib antlib, String uri, ClassLoader loader, @Nullable AntDomTypeDef typedef, AntDomProject antProject)
 		{
-			final AntDomAntlib antLib = ThermitSupport.getAntLib(xmlFile);
-			if(antLib != null)
+			for(AntlibDefinitionCache.Definition def : antlib.getDefinitions())
 			{
-				final List<AntDomTypeDef> defs = new ArrayList<AntDomTypeDef>();
-				defs.addAll(antLib.getTaskdefs());
-				defs.addAll(antLib.getTypedefs());
-				if(!defs.isEmpty())
+				final String tagName = def.getName();
+				final String className = def.getClassName();
+				if(tagName != null && className != null)
 				{
-					for(AntDomTypeDef def : defs)
+					final AntDomTypeDef declaration = typedef != null ? typedef : antlib.getDeclaration(def);
+					if(declaration != null)
 					{
-						final String tagName = def.getName().getStringValue();
-						final String className = def.getClassName().getStringValue();
-						if(tagName != null && className != null)
-						{
-							registerElement(typedef != null ? typedef : def, tagName, uri, className, loader);
-						}
-						else
-						{
-							defineCustomElementsFromResources(def, uri, antProject, loader);
-						}
+						registerElement(declaration, tagName, uri, className, loader);
+					}
+				}
+				else
+				{
+					final AntDomTypeDef declaration = antlib.getDeclaration(def);
+					if(declaration != null)
+					{
+						defineCustomElementsFromResources(declaration, uri, antProject, loader);
 					}
 				}
 			}
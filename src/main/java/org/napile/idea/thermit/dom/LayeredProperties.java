@@ -0,0 +1,118 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read-only view over several property maps. As properties are immutable once set, the first layer
+ * defining a property wins. Layers are not copied, so large shared maps can be used by any number of views.
+ */
+final class LayeredProperties
+{
+	private final List<Map<String, String>> myLayers = new ArrayList<Map<String, String>>(4);
+
+	LayeredProperties addLayer(@Nullable Map<String, String> layer)
+	{
+		if(layer != null && !layer.isEmpty())
+		{
+			myLayers.add(layer);
+		}
+		return this;
+	}
+
+	@Nullable
+	String get(String name)
+	{
+		for(Map<String, String> layer : myLayers)
+		{
+			final String value = layer.get(name);
+			if(value != null)
+			{
+				return value;
+			}
+		}
+		return null;
+	}
+
+	@NotNull
+	Iterator<String> getNamesIterator()
+	{
+		return new Iterator<String>()
+		{
+			private int myLayerIndex = 0;
+			private Iterator<String> myCurrent = null;
+			private String myNext = null;
+
+			public boolean hasNext()
+			{
+				while(myNext == null)
+				{
+					if(myCurrent == null || !myCurrent.hasNext())
+					{
+						if(myLayerIndex >= myLayers.size())
+						{
+							return false;
+						}
+						myCurrent = myLayers.get(myLayerIndex++).keySet().iterator();
+						continue;
+					}
+					final String name = myCurrent.next();
+					if(!isDefinedInPreviousLayers(name, myLayerIndex - 1))
+					{
+						myNext = name;
+					}
+				}
+				return true;
+			}
+
+			public String next()
+			{
+				if(!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				final String next = myNext;
+				myNext = null;
+				return next;
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private boolean isDefinedInPreviousLayers(String name, int layerIndex)
+	{
+		for(int i = 0; i < layerIndex; i++)
+		{
+			if(myLayers.get(i).containsKey(name))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -16,15 +16,21 @@
 package org.napile.idea.thermit.dom;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.napile.idea.thermit.AntFileStub;
+import org.napile.idea.thermit.AntFileStubIndex;
 import org.napile.idea.thermit.ThermitSupport;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.xml.XmlElement;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.xml.DomElement;
@@ -38,13 +44,13 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 
 	protected static <K, V> void cacheResult(@Nullable final DomElement context, final Key<Map<K, V>> cacheKind, K key, V value)
 	{
-		if(context != null)
+		if(value == null)
+		{
+			return;
+		}
+		final Map<K, V> cachemap = getCacheMap(context, cacheKind, true);
+		if(cachemap != null)
 		{
-			Map<K, V> cachemap = context.getUserData(cacheKind);
-			if(cachemap == null)
-			{
-				context.putUserData(cacheKind, cachemap = Collections.synchronizedMap(new HashMap<K, V>()));
-			}
 			cachemap.put(key, value);
 		}
 	}
@@ -52,15 +58,39 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 	@Nullable
 	protected static <K, V> V getCachedResult(@Nullable final DomElement context, final Key<Map<K, V>> cacheKind, K key)
 	{
-		if(context != null)
+		final Map<K, V> cached = getCacheMap(context, cacheKind, false);
+		return cached != null ? cached.get(key) : null;
+	}
+
+	/**
+	 * Results are kept on the underlying XML element, which unlike the DOM element survives unrelated edits,
+	 * and are valid as long as no property provider changes.
+	 */
+	@Nullable
+	protected static <K, V> Map<K, V> getCacheMap(@Nullable final DomElement context, final Key<Map<K, V>> cacheKind, boolean create)
+	{
+		XmlElement holder = null;
+		for(DomElement element = context; element != null && holder == null; element = element.getParent())
 		{
-			final Map<K, V> cached = context.getUserData(cacheKind);
-			if(cached != null)
-			{
-				return cached.get(key);
-			}
+			holder = element.getXmlElement();
+		}
+		if(holder == null)
+		{
+			return null;
 		}
-		return null;
+		final long stamp = AntChangeTracker.getInstance(holder.getProject()).getPropertiesTracker().getModificationCount();
+		final Map<K, V> cachemap = holder.getUserData(cacheKind);
+		if(cachemap instanceof StampedMap && ((StampedMap) cachemap).myStamp == stamp)
+		{
+			return cachemap;
+		}
+		if(!create)
+		{
+			return null;
+		}
+		final StampedMap<K, V> newMap = new StampedMap<K, V>(stamp);
+		holder.putUserData(cacheKind, newMap);
+		return newMap;
 	}
 
 	public static enum Stage
@@ -73,6 +103,10 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 	private Stack<String> myCurrentTargetEffectiveName = new Stack<String>();
 
 	private final AntDomElement myContextElement;
+	@Nullable
+	private final VirtualFile myContextFile;
+	@Nullable
+	private String myBasedir;
 	private boolean myStopped;
 	private TargetsNameContext myNameContext = new TargetsNameContext();
 	private Map<String, AntDomTarget> myTargetsResolveMap = new HashMap<String, AntDomTarget>(); // target effective name -> thermit target
@@ -80,15 +114,31 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 
 	private Set<String> myProcessedTargets = new HashSet<String>();
 	private Set<AntDomProject> myVisitedProjects = new HashSet<AntDomProject>();
+	private Set<String> myStubTargets = new HashSet<String>(); // effective names of the targets of files served from stubs
+	private Set<VirtualFile> myVisitedStubFiles = new HashSet<VirtualFile>();
 
 	protected PropertyProviderFinder(DomElement contextElement)
 	{
 		myContextElement = contextElement != null ? contextElement.getParentOfType(AntDomElement.class, false) : null;
+		final AntDomProject contextProject = myContextElement != null ? myContextElement.getAntProject() : null;
+		final XmlElement contextXml = contextProject != null ? contextProject.getXmlElement() : null;
+		final PsiFile contextFile = contextXml != null ? contextXml.getContainingFile() : null;
+		myContextFile = contextFile != null ? contextFile.getOriginalFile().getVirtualFile() : null;
+	}
+
+	/**
+	 * @return false if the finder looks for properties only, so that imported files defining no properties besides the ones
+	 *         listed in their {@link AntFileStub} can be served from the stub without building their DOM
+	 */
+	protected boolean isIncludedTargetsRequired()
+	{
+		return true;
 	}
 
 	public void execute(AntDomProject startProject, String initialTargetName)
 	{
 		myStage = Stage.RESOLVE_MAP_BUILDING_STAGE;
+		myBasedir = startProject.getProjectBasedirPath();
 		startProject.accept(this);
 		stageCompleted(Stage.RESOLVE_MAP_BUILDING_STAGE, Stage.TARGETS_WALKUP_STAGE);
 		if(!myStopped)
@@ -147,11 +197,7 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 				{
 					for(String dependencyName : depsList)
 					{
-						final AntDomTarget dependency = getTargetByName(dependencyName);
-						if(dependency != null)
-						{
-							processTarget(dependencyName, dependency);
-						}
+						processDependency(dependencyName);
 					}
 				}
 				super.visitTarget(target);
@@ -219,6 +265,27 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 		}
 	}
 
+	private void processDependency(String dependencyName)
+	{
+		final AntDomTarget dependency = getTargetByName(dependencyName);
+		if(dependency != null)
+		{
+			processTarget(dependencyName, dependency);
+		}
+		else if(myStubTargets.contains(dependencyName) && myProcessedTargets.add(dependencyName))
+		{
+			// targets of files served from stubs define no properties, only their dependencies are walked
+			final List<String> depsList = myDependenciesMap.get(dependencyName);
+			if(depsList != null)
+			{
+				for(String name : depsList)
+				{
+					processDependency(name);
+				}
+			}
+		}
+	}
+
 	@Override
 	public void visitAntDomElement(AntDomElement element)
 	{
@@ -323,18 +390,162 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 		final PsiFileSystemItem item = directive.getFile().getValue();
 		if(item instanceof PsiFile)
 		{
-			final AntDomProject slaveProject = item instanceof XmlFile ? ThermitSupport.getAntDomProjectForceAntFile((XmlFile) item) : null;
-			if(slaveProject != null)
+			processIncludedFile((PsiFile) item, kind, directive.getTargetPrefix().getStringValue(), directive.getTargetPrefixSeparatorValue());
+		}
+	}
+
+	private void processIncludedFile(PsiFile file, InclusionKind kind, @Nullable String prefix, @NotNull String separator)
+	{
+		if(processStub(file, kind, prefix, separator))
+		{
+			return;
+		}
+		final AntDomProject slaveProject = file instanceof XmlFile ? ThermitSupport.getAntDomProjectForceAntFile((XmlFile) file) : null;
+		if(slaveProject != null)
+		{
+			myNameContext.pushPrefix(prefix, separator, slaveProject.getName().getRawText(), kind);
+			try
 			{
-				myNameContext.pushPrefix(directive, kind, slaveProject);
-				try
+				slaveProject.accept(this);
+			}
+			finally
+			{
+				myNameContext.popPrefix();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the file was served from its stub
+	 */
+	private boolean processStub(PsiFile file, InclusionKind kind, @Nullable String prefix, @NotNull String separator)
+	{
+		if(isIncludedTargetsRequired())
+		{
+			return false;
+		}
+		final VirtualFile vFile = file.getVirtualFile();
+		if(vFile == null || vFile.equals(myContextFile))
+		{
+			return false;
+		}
+		final AntFileStub stub = AntFileStubIndex.getStub(file.getProject(), vFile);
+		if(stub == null || !stub.arePropertiesComplete())
+		{
+			return false;
+		}
+		if(!myVisitedStubFiles.add(vFile))
+		{
+			return true;
+		}
+		myNameContext.pushPrefix(prefix, separator, stub.getProjectName(), kind);
+		try
+		{
+			processStub(file, stub);
+		}
+		finally
+		{
+			myNameContext.popPrefix();
+			myVisitedStubFiles.remove(vFile);
+		}
+		return true;
+	}
+
+	private void processStub(PsiFile file, AntFileStub stub)
+	{
+		final List<AntFileStub.Target> targets = stub.getTargets();
+		final List<AntFileStub.Property> properties = stub.getProperties();
+		int targetIndex = 0;
+		int propertyIndex = 0;
+		AntFileStubPropertiesProvider provider = new AntFileStubPropertiesProvider(file, myBasedir);
+		provider.addProjectProperties(stub.getProjectName());
+		// properties and targets are processed in the order of the file with respect to imports
+		for(AntFileStub.Import anImport : stub.getImports())
+		{
+			for(; targetIndex < targets.size() && targets.get(targetIndex).getLine() < anImport.getLine(); targetIndex++)
+			{
+				stubTargetDefined(targets.get(targetIndex));
+			}
+			for(; propertyIndex < properties.size() && properties.get(propertyIndex).getLine() < anImport.getLine(); propertyIndex++)
+			{
+				provider.addProperty(properties.get(propertyIndex));
+			}
+			if(!provider.isEmpty())
+			{
+				propertyProviderFound(provider);
+				provider = new AntFileStubPropertiesProvider(file, myBasedir);
+			}
+			if(myStopped)
+			{
+				return;
+			}
+			final VirtualFile importedFile = LocalFileSystem.getInstance().findFileByPath(anImport.getResolvedPath());
+			final PsiFile imported = importedFile != null ? file.getManager().findFile(importedFile) : null;
+			if(imported != null)
+			{
+				final String separator = anImport.getTargetPrefixSeparator();
+				processIncludedFile(imported, anImport.isInclude() ? InclusionKind.INCLUDE : InclusionKind.IMPORT, anImport.getTargetPrefix(), separator != null ? separator : AntDomIncludingDirective.DEFAULT_SEPARATOR);
+			}
+			if(myStopped)
+			{
+				return;
+			}
+		}
+		for(; targetIndex < targets.size(); targetIndex++)
+		{
+			stubTargetDefined(targets.get(targetIndex));
+		}
+		for(; propertyIndex < properties.size(); propertyIndex++)
+		{
+			provider.addProperty(properties.get(propertyIndex));
+		}
+		if(!provider.isEmpty())
+		{
+			propertyProviderFound(provider);
+		}
+	}
+
+	/**
+	 * Names the target the same way {@link #visitTarget(AntDomTarget)} does and records its dependencies
+	 */
+	private void stubTargetDefined(AntFileStub.Target target)
+	{
+		final String declaredTargetName = target.getName();
+		final String effectiveTargetName;
+		switch(myNameContext.getCurrentInclusionKind())
+		{
+			case IMPORT:
+				final String alias = myNameContext.getShortPrefix() + declaredTargetName;
+				if(!myTargetsResolveMap.containsKey(declaredTargetName) && !myStubTargets.contains(declaredTargetName))
 				{
-					slaveProject.accept(this);
+					effectiveTargetName = declaredTargetName;
+					myStubTargets.add(alias);
 				}
-				finally
+				else
 				{
-					myNameContext.popPrefix();
+					effectiveTargetName = alias;
 				}
+				break;
+
+			case INCLUDE:
+				effectiveTargetName = myNameContext.getFQPrefix() + declaredTargetName;
+				break;
+
+			default:
+				effectiveTargetName = declaredTargetName;
+				break;
+		}
+		if(myTargetsResolveMap.containsKey(effectiveTargetName) || !myStubTargets.add(effectiveTargetName))
+		{
+			return;
+		}
+		final String dependsStr = target.getDepends();
+		if(dependsStr != null)
+		{
+			final StringTokenizer tokenizer = new StringTokenizer(dependsStr, ",", false);
+			while(tokenizer.hasMoreTokens())
+			{
+				addDependency(effectiveTargetName, myNameContext.calcTargetReferenceText(tokenizer.nextToken().trim()));
 			}
 		}
 	}
@@ -445,13 +656,11 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 			return myPrefixes.isEmpty() ? "" : myPrefixes.getLast().getFirst();
 		}
 
-		public void pushPrefix(AntDomIncludingDirective directive, final InclusionKind kind, final @NotNull AntDomProject slaveProject)
+		public void pushPrefix(@Nullable String prefix, @NotNull String separator, @Nullable String projectName, final InclusionKind kind)
 		{
-			final String separator = directive.getTargetPrefixSeparatorValue();
-			String prefix = directive.getTargetPrefix().getStringValue();
 			if(prefix == null)
 			{
-				prefix = slaveProject.getName().getRawText();
+				prefix = projectName;
 				if(prefix == null)
 				{
 					prefix = "anonymous" + (myDefaultPrefixCounter++);
@@ -472,4 +681,14 @@ public abstract class PropertyProviderFinder extends AntDomRecursiveVisitor
 			myPrefixes.removeLast();
 		}
 	}
+
+	private static final class StampedMap<K, V> extends ConcurrentHashMap<K, V>
+	{
+		private final long myStamp;
+
+		private StampedMap(long stamp)
+		{
+			myStamp = stamp;
+		}
+	}
 }
@@ -42,6 +42,12 @@ public class PropertyResolver extends PropertyProviderFinder
 		myPropertyName = propertyName;
 	}
 
+	@Override
+	protected boolean isIncludedTargetsRequired()
+	{
+		return false;
+	}
+
 	public void visitAntDomAntCallParam(AntDomAntCallParam antCallParam)
 	{
 		// deliberately skip ancall params, they will be processed as a special case
@@ -15,18 +15,13 @@
  */
 package org.napile.idea.thermit.validation;
 
-import java.util.List;
-
-import org.napile.idea.thermit.ThermitBundle;
-import org.napile.idea.thermit.dom.AntDomCustomElement;
+import org.napile.idea.thermit.dom.AntDomAnalysis;
 import org.napile.idea.thermit.dom.AntDomElement;
-import org.napile.idea.thermit.dom.AntDomNamedElement;
-import org.napile.idea.thermit.dom.AntDomRecursiveVisitor;
-import org.napile.idea.thermit.dom.AntDomTypeDef;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlTag;
-import com.intellij.util.StringBuilderSpinAllocator;
 import com.intellij.util.xml.DomElement;
+import com.intellij.util.xml.DomFileElement;
 import com.intellij.util.xml.highlighting.DomElementAnnotationHolder;
 import com.intellij.util.xml.highlighting.DomElementsAnnotator;
 
@@ -35,62 +30,22 @@ public class AntAnnotator implements DomElementsAnnotator
 
 	public void annotate(DomElement element, final DomElementAnnotationHolder holder)
 	{
-		element.accept(new AntDomRecursiveVisitor()
+		final DomElement annotated = element instanceof DomFileElement ? ((DomFileElement) element).getRootElement() : element;
+		final AntDomElement antElement = annotated instanceof AntDomElement ? (AntDomElement) annotated : annotated.getParentOfType(AntDomElement.class, false);
+		if(antElement == null)
 		{
-
-			public void visitTypeDef(AntDomTypeDef typedef)
-			{
-				final List<String> errors = typedef.getErrorDescriptions();
-				if(!errors.isEmpty())
-				{
-					final StringBuilder builder = StringBuilderSpinAllocator.alloc();
-					try
-					{
-						builder.append(ThermitBundle.message("failed.to.load.types")).append(":");
-						for(String error : errors)
-						{
-							builder.append("\n").append(error);
-						}
-						createAnnotationOnTag(typedef, builder.toString(), holder);
-					}
-					finally
-					{
-						StringBuilderSpinAllocator.dispose(builder);
-					}
-				}
-				super.visitTypeDef(typedef);
-			}
-
-			public void visitAntDomCustomElement(AntDomCustomElement custom)
-			{
-				if(custom.getDefinitionClass() == null)
-				{
-					final AntDomNamedElement declaringElement = custom.getDeclaringElement();
-					if(declaringElement instanceof AntDomTypeDef)
-					{
-						String failedMessage = ThermitBundle.message("using.definition.which.type.failed.to.load");
-						final String error = custom.getLoadError();
-						if(error != null)
-						{
-							failedMessage = failedMessage + ": " + error;
-						}
-						createAnnotationOnTag(custom, failedMessage, holder);
-					}
-				}
-				super.visitAntDomCustomElement(custom);
-			}
-
-			public void visitAntDomElement(AntDomElement element)
+			return;
+		}
+		// typedefs and custom elements have already been checked by the shared analysis pass
+		final XmlTag scope = antElement.getXmlTag();
+		for(AntDomAnalysis.ElementProblem problem : AntDomAnalysis.getProblems(antElement).getElementProblems())
+		{
+			final AntDomElement problemElement = problem.getElement();
+			if(scope == null || PsiTreeUtil.isAncestor(scope, problemElement.getXmlTag(), false))
 			{
-				//for (GenericDomValue child : DomUtil.getDefinedChildrenOfType(element, GenericDomValue.class, false, true)) {
-				//  final XmlElement valueElement = DomUtil.getValueElement(child);
-				//  if (valueElement != null) {
-				//    checkReferences(valueElement, holder, child);
-				//  }
-				//}
-				super.visitAntDomElement(element);
+				createAnnotationOnTag(problemElement, problem.getMessage(), holder);
 			}
-		});
+		}
 	}
 
 	private static void createAnnotationOnTag(AntDomElement custom, String failedMessage, DomElementAnnotationHolder holder)
@@ -19,10 +19,8 @@ import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.napile.idea.thermit.ThermitBundle;
-import org.napile.idea.thermit.dom.AntDomProject;
+import org.napile.idea.thermit.dom.AntDomAnalysis;
 import org.napile.idea.thermit.dom.AntDomTarget;
-import org.napile.idea.thermit.dom.TargetResolver;
-import com.intellij.openapi.util.Comparing;
 import com.intellij.util.xml.DomElement;
 import com.intellij.util.xml.highlighting.DomElementAnnotationHolder;
 import com.intellij.util.xml.highlighting.DomHighlightingHelper;
@@ -49,28 +47,13 @@ public class AntDuplicateTargetsInspection extends AntInspection
 
 	protected void checkDomElement(DomElement element, final DomElementAnnotationHolder holder, DomHighlightingHelper helper)
 	{
-		if(element instanceof AntDomProject)
+		if(element instanceof AntDomTarget)
 		{
-			final AntDomProject project = (AntDomProject) element;
-			TargetResolver.validateDuplicateTargets(project.getContextAntProject(), new TargetResolver.TargetSink()
+			final AntDomTarget target = (AntDomTarget) element;
+			for(String message : AntDomAnalysis.getProblems(target).getDuplicateTargetMessages(target))
 			{
-				public void duplicateTargetDetected(AntDomTarget existingTarget, AntDomTarget duplicatingTarget, String targetEffectiveName)
-				{
-					final AntDomProject existingTargetProj = existingTarget.getAntProject();
-					final AntDomProject duplucatingTargetProj = duplicatingTarget.getAntProject();
-					final boolean isFromDifferentFiles = !Comparing.equal(existingTargetProj, duplucatingTargetProj);
-					if(project.equals(existingTargetProj))
-					{
-						final String duplicatedMessage = isFromDifferentFiles ? ThermitBundle.message("target.is.duplicated.in.imported.file", targetEffectiveName, duplucatingTargetProj != null ? duplucatingTargetProj.getName() : "") : ThermitBundle.message("target.is.duplicated", targetEffectiveName);
-						holder.createProblem(existingTarget.getName(), duplicatedMessage);
-					}
-					if(project.equals(duplucatingTargetProj))
-					{
-						final String duplicatedMessage = isFromDifferentFiles ? ThermitBundle.message("target.is.duplicated.in.imported.file", targetEffectiveName, existingTargetProj != null ? existingTargetProj.getName() : "") : ThermitBundle.message("target.is.duplicated", targetEffectiveName);
-						holder.createProblem(duplicatingTarget.getName(), duplicatedMessage);
-					}
-				}
-			});
+				holder.createProblem(target.getName(), message);
+			}
 		}
 	}
 }
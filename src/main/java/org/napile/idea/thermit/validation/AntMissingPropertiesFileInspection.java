@@ -19,9 +19,8 @@ import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.napile.idea.thermit.ThermitBundle;
+import org.napile.idea.thermit.dom.AntDomAnalysis;
 import org.napile.idea.thermit.dom.AntDomProperty;
-import com.intellij.lang.properties.psi.PropertiesFile;
-import com.intellij.psi.PsiFileSystemItem;
 import com.intellij.util.xml.DomElement;
 import com.intellij.util.xml.highlighting.DomElementAnnotationHolder;
 import com.intellij.util.xml.highlighting.DomHighlightingHelper;
@@ -51,14 +50,9 @@ public class AntMissingPropertiesFileInspection extends AntInspection
 		if(element instanceof AntDomProperty)
 		{
 			final AntDomProperty property = (AntDomProperty) element;
-			final String fileName = property.getFile().getStringValue();
-			if(fileName != null)
+			if(AntDomAnalysis.getProblems(property).isPropertiesFileMissing(property))
 			{
-				final PsiFileSystemItem file = property.getFile().getValue();
-				if(!(file instanceof PropertiesFile))
-				{
-					holder.createProblem(property.getFile(), ThermitBundle.message("file.doesnt.exist", fileName));
-				}
+				holder.createProblem(property.getFile(), ThermitBundle.message("file.doesnt.exist", property.getFile().getStringValue()));
 			}
 		}
 	}
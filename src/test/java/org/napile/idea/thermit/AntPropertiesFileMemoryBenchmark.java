@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.intellij.lang.properties.IProperty;
+import com.intellij.lang.properties.psi.PropertiesFile;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+/**
+ * Retained heap of 200 properties files of 500 properties, each loaded by 5 property elements: as PSI with the values
+ * copied into a map per element, and as the shared data of the properties file index. Run with a heap of at least 1 GB.
+ */
+public class AntPropertiesFileMemoryBenchmark extends LightCodeInsightFixtureTestCase
+{
+	private static final int FILE_COUNT = 200;
+	private static final int PROPERTY_COUNT = 500;
+	private static final int ELEMENTS_PER_FILE = 5;
+
+	public void testMemory()
+	{
+		final long base = getUsedMemory();
+		Object[] retained = loadPsi();
+		final long psi = getUsedMemory() - base;
+		report("psi", psi);
+		retained = null;
+
+		final long emptyBase = getUsedMemory();
+		retained = loadIndexData();
+		final long indexed = getUsedMemory() - emptyBase;
+		report("index", indexed);
+		assertEquals(FILE_COUNT, retained.length);
+
+		System.out.println("saved: " + (psi - indexed) * 100 / psi + "%");
+	}
+
+	/**
+	 * What every property element did before: build PSI of the file and copy its properties into a map of its own
+	 */
+	private Object[] loadPsi()
+	{
+		final PsiFileFactory factory = PsiFileFactory.getInstance(getProject());
+		final Object[] retained = new Object[FILE_COUNT];
+		for(int i = 0; i < FILE_COUNT; i++)
+		{
+			final PropertiesFile file = (PropertiesFile) factory.createFileFromText("file" + i + ".properties", StdFileTypes.PROPERTIES, createText(i));
+			final List<IProperty> properties = file.getProperties();
+			final Object[] maps = new Object[ELEMENTS_PER_FILE + 1];
+			maps[0] = properties;
+			for(int j = 1; j <= ELEMENTS_PER_FILE; j++)
+			{
+				final Map<String, String> result = new HashMap<String, String>();
+				for(IProperty property : properties)
+				{
+					result.put(property.getUnescapedKey(), property.getValue());
+				}
+				maps[j] = result;
+			}
+			retained[i] = maps;
+		}
+		return retained;
+	}
+
+	/**
+	 * One value of the index per file, shared by all the elements loading it
+	 */
+	private static Object[] loadIndexData()
+	{
+		final Object[] retained = new Object[FILE_COUNT];
+		for(int i = 0; i < FILE_COUNT; i++)
+		{
+			retained[i] = AntPropertiesFileIndex.parse(createText(i));
+		}
+		return retained;
+	}
+
+	private static String createText(int file)
+	{
+		final StringBuilder text = new StringBuilder();
+		text.append("# generated file ").append(file).append('\n');
+		for(int i = 0; i < PROPERTY_COUNT; i++)
+		{
+			text.append("module").append(file).append(".property").append(i).append('=');
+			text.append("${basedir}/lib/library").append(i % 50).append("/version-").append(i).append(".jar\n");
+		}
+		return text.toString();
+	}
+
+	private static void report(String name, long bytes)
+	{
+		System.out.println(name + ": " + bytes / (1024 * 1024) + " MB, " + bytes / (FILE_COUNT * PROPERTY_COUNT) + " bytes per property");
+	}
+
+	private static long getUsedMemory()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++)
+		{
+			System.gc();
+			try
+			{
+				Thread.sleep(100);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+/**
+ * Retained heap of a synthetic build of a million messages, with the texts kept as strings and in the store of the
+ * build. Run with a heap of at least 1 GB.
+ */
+public class AntMessageMemoryBenchmark
+{
+	private static final int MESSAGE_COUNT = 1000000;
+
+	public static void main(String[] args)
+	{
+		final long base = getUsedMemory();
+
+		AntMessage[] messages = createBuild(null);
+		final long strings = getUsedMemory() - base;
+		report("strings", strings, messages);
+		messages = null;
+
+		final long emptyBase = getUsedMemory();
+		messages = createBuild(new BuildTextStore());
+		final long stored = getUsedMemory() - emptyBase;
+		report("store", stored, messages);
+
+		System.out.println("saved: " + (strings - stored) * 100 / strings + "%");
+	}
+
+	private static AntMessage[] createBuild(BuildTextStore store)
+	{
+		final AntMessage[] messages = new AntMessage[MESSAGE_COUNT];
+		for(int i = 0; i < MESSAGE_COUNT; i++)
+		{
+			final AntMessage message;
+			if(i % 100 == 0)
+			{
+				message = new AntMessage(AntBuildMessageView.MessageType.ERROR, AntBuildMessageView.PRIORITY_ERR, new String[]{"src/org/example/Class" + i + ".java:" + (i % 500) + ": cannot find symbol", "", "symbol  : variable value" + i}, null, i % 500, 1);
+			}
+			else if(i % 10 == 0)
+			{
+				message = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_WARN, "warning: [deprecation] method" + i + "() in org.example.Class" + (i / 10) + " has been deprecated", null, 0, 0);
+			}
+			else
+			{
+				message = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, "Copying 1 file to /home/user/project/out/production/module" + (i % 37) + "/resource" + i + ".properties", null, 0, 0);
+			}
+			messages[i] = store != null ? message.storeText(store) : message;
+		}
+		return messages;
+	}
+
+	private static void report(String name, long bytes, AntMessage[] messages)
+	{
+		System.out.println(name + ": " + bytes / (1024 * 1024) + " MB, " + bytes / messages.length + " bytes per message");
+	}
+
+	private static long getUsedMemory()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++)
+		{
+			System.gc();
+			try
+			{
+				Thread.sleep(100);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
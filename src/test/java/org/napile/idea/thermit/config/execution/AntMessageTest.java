@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class AntMessageTest extends TestCase
+{
+	public void testStoredText()
+	{
+		final BuildTextStore store = new BuildTextStore();
+		final AntMessage message = new AntMessage(AntBuildMessageView.MessageType.ERROR, AntBuildMessageView.PRIORITY_ERR, "Compile failed", null, 3, 7);
+		final AntMessage stored = message.storeText(store);
+		assertEquals("Compile failed", stored.getText());
+		assertEquals(AntBuildMessageView.MessageType.ERROR, stored.getType());
+		assertEquals(AntBuildMessageView.PRIORITY_ERR, stored.getPriority());
+		assertEquals(3, stored.getLine());
+		assertEquals(7, stored.getColumn());
+		assertSame(stored, stored.storeText(store));
+	}
+
+	public void testTextAcrossChunks()
+	{
+		final BuildTextStore store = new BuildTextStore();
+		final AntMessage[] messages = new AntMessage[20000];
+		for(int i = 0; i < messages.length; i++)
+		{
+			messages[i] = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, "message " + i, null, 0, 0).storeText(store);
+		}
+		assertTrue(store.size() > 1 << 17);
+		for(int i = 0; i < messages.length; i++)
+		{
+			assertEquals("message " + i, messages[i].getText());
+		}
+	}
+
+	public void testNonAsciiTextAcrossChunks()
+	{
+		final BuildTextStore store = new BuildTextStore();
+		final StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < 40000; i++)
+		{
+			builder.append("\u00fc\u4e2d");
+		}
+		final String text = builder.toString();
+		new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, "x", null, 0, 0).storeText(store);
+		final AntMessage stored = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, text, null, 0, 0).storeText(store);
+		assertEquals(text, stored.getText());
+	}
+
+	public void testEmptyText()
+	{
+		final AntMessage stored = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, "", null, 0, 0).storeText(new BuildTextStore());
+		assertEquals("", stored.getText());
+		assertEquals(0, stored.getTextLines().length);
+	}
+
+	public void testLinesKeepBlankLines()
+	{
+		final String[] lines = {"Foo.java:3: error", "", "    int x = ;", ""};
+		final AntMessage message = new AntMessage(AntBuildMessageView.MessageType.ERROR, AntBuildMessageView.PRIORITY_ERR, lines, null, 3, 1);
+		assertEquals(Arrays.asList(lines), Arrays.asList(message.getTextLines()));
+		assertEquals(Arrays.asList(lines), Arrays.asList(message.storeText(new BuildTextStore()).getTextLines()));
+	}
+
+	public void testTextDropsBlankLines()
+	{
+		final AntMessage message = new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, "first\r\n\r\nsecond\n", null, 0, 0);
+		assertEquals(Arrays.asList("first", "second"), Arrays.asList(message.getTextLines()));
+	}
+}
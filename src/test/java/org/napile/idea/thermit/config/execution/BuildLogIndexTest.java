@@ -0,0 +1,222 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.config.execution;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BuildLogIndexTest extends TestCase
+{
+	public void testPlainText()
+	{
+		assertLiteral("BUILD FAILED", "BUILD FAILED");
+	}
+
+	public void testCountedQuantifier()
+	{
+		assertLiteral("", "x{2,5}");
+		assertLiteral("ab", "abx{2}");
+	}
+
+	public void testOptionalGroup()
+	{
+		assertLiteral("foo", "foo(bar)?");
+	}
+
+	public void testRepeatedGroup()
+	{
+		assertLiteral("", "(abc)*");
+	}
+
+	public void testGroupInTheMiddle()
+	{
+		assertLiteral("error", "error(s|\\d+):");
+	}
+
+	public void testOptionalCharacter()
+	{
+		assertLiteral("colo", "colou?r");
+		assertLiteral("warnin", "warning*");
+	}
+
+	public void testRequiredCharacter()
+	{
+		assertLiteral("abc", "abc+d");
+	}
+
+	public void testUnicodeEscape()
+	{
+		assertLiteral("", "\\u0041");
+		assertLiteral("bcd", "\\u0041bcd");
+	}
+
+	public void testHexAndOctalEscapes()
+	{
+		assertLiteral("", "\\x41\\0101");
+		assertLiteral("", "\\x{41}");
+	}
+
+	public void testPropertyEscape()
+	{
+		assertLiteral("", "\\p{Alpha}");
+	}
+
+	public void testBackReference()
+	{
+		assertLiteral("", "(a)\\12");
+	}
+
+	public void testEscapedCharacterEndsRun()
+	{
+		assertLiteral("javac", "javac\\.exe");
+	}
+
+	public void testQuotation()
+	{
+		assertLiteral("", "abc\\Qd.e\\E");
+	}
+
+	public void testCharacterClass()
+	{
+		assertLiteral("def", "[abc]def");
+		assertLiteral("yz", "[]x]yz");
+		assertLiteral("tail", "[a[bc]]tail");
+	}
+
+	public void testAlternation()
+	{
+		assertLiteral("", "foo|bar");
+	}
+
+	public void testInlineFlags()
+	{
+		assertLiteral("error", "(?i)error");
+		assertLiteral("", "(?x)foo bar");
+	}
+
+	public void testLookup()
+	{
+		final BuildLogIndex index = createIndex(BuildLogIndex.MAX_POSTINGS_SIZE);
+		assertIds(index.intersect("compile"), 0, 2);
+		assertIds(index.intersect("jar"), 1);
+		assertIds(index.intersect("missing"));
+		assertSearch(index, "compile", "compile: 3 files", "Compile tests");
+	}
+
+	public void testIntersection()
+	{
+		final BuildLogIndex index = new BuildLogIndex();
+		add(index, "abc xyz");
+		add(index, "abcd");
+		add(index, "bcd xyz");
+		add(index, "xyz");
+		// each trigram of the literal occurs in two messages, all of them only in one
+		assertIds(index.intersect("abcd"), 1);
+		assertIds(index.intersect("xyz"), 0, 2, 3);
+		assertIds(index.intersect("bcd xyz"), 2);
+		assertIds(index.intersect("abc xyz"), 0);
+		assertIds(index.intersect("abcd xyz"));
+		assertSearch(index, "abcd", "abcd");
+		assertSearch(index, "abcd xyz");
+	}
+
+	public void testRepeatedTrigramsAreRecordedOnce()
+	{
+		final BuildLogIndex index = new BuildLogIndex();
+		add(index, "aaaaaaaa");
+		add(index, "aaa aaa");
+		assertIds(index.intersect("aaa"), 0, 1);
+	}
+
+	public void testCaseInsensitive()
+	{
+		final BuildLogIndex index = createIndex(BuildLogIndex.MAX_POSTINGS_SIZE);
+		assertSearch(index, "COMPILE", "compile: 3 files", "Compile tests");
+		add(index, "TITLE");
+		assertSearch(index, "title", "TITLE");
+		assertEquals("title", BuildLogIndex.toLowerCase("TITLE"));
+		assertEquals("i", BuildLogIndex.toLowerCase("I"));
+	}
+
+	public void testDroppedIndex()
+	{
+		final BuildLogIndex index = createIndex(100);
+		assertFalse(index.isIndexed());
+		assertNull(index.intersect("compile"));
+		assertSearch(index, "compile", "compile: 3 files", "Compile tests");
+		assertSearch(index, "missing");
+
+		index.clear();
+		assertTrue(index.isIndexed());
+	}
+
+	public void testManyMessages()
+	{
+		final BuildLogIndex index = new BuildLogIndex();
+		for(int i = 0; i < 1000; i++)
+		{
+			add(index, i % 100 == 0 ? "found " + i : "line " + i);
+		}
+		final TIntArrayList ids = index.intersect("found");
+		assertEquals(10, ids.size());
+		for(int i = 0; i < ids.size(); i++)
+		{
+			assertEquals(i * 100, ids.get(i));
+		}
+	}
+
+	private static BuildLogIndex createIndex(int maxPostingsSize)
+	{
+		final BuildLogIndex index = new BuildLogIndex(maxPostingsSize);
+		add(index, "compile: 3 files");
+		add(index, "Building jar");
+		add(index, "Compile tests");
+		return index;
+	}
+
+	private static void add(BuildLogIndex index, String text)
+	{
+		index.add(new AntMessage(AntBuildMessageView.MessageType.MESSAGE, AntBuildMessageView.PRIORITY_BRIEF, text, null, 0, 0), text);
+	}
+
+	private static void assertIds(TIntArrayList actual, int... expected)
+	{
+		assertNotNull(actual);
+		assertEquals(expected.length, actual.size());
+		for(int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], actual.get(i));
+		}
+	}
+
+	private static void assertSearch(BuildLogIndex index, String query, String... expected)
+	{
+		final List<BuildLogIndex.Match> matches = index.search(BuildLogIndex.Query.parse(query, false, AntBuildMessageView.PRIORITY_BRIEF));
+		assertEquals(expected.length, matches.size());
+		for(int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], matches.get(i).getMessage().getText());
+		}
+	}
+
+	private static void assertLiteral(String expected, String regex)
+	{
+		assertEquals(regex, expected, BuildLogIndex.Query.getLongestLiteral(regex));
+	}
+}
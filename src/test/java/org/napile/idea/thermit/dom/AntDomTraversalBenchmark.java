@@ -0,0 +1,106 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.napile.idea.thermit.dom;
+
+import java.util.Iterator;
+
+import org.napile.idea.thermit.ThermitSupport;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+/**
+ * Time of a recursive visit of a build file of 5,000 targets, walking the cached pre-order snapshot and walking the
+ * children iterators of every element.
+ */
+public class AntDomTraversalBenchmark extends LightCodeInsightFixtureTestCase
+{
+	private static final int TARGET_COUNT = 5000;
+	private static final int WARM_UP_PASSES = 5;
+	private static final int PASSES = 20;
+
+	public void testFiveThousandTargets()
+	{
+		final StringBuilder text = new StringBuilder("<project name=\"benchmark\" default=\"target0\">\n");
+		for(int i = 0; i < TARGET_COUNT; i++)
+		{
+			text.append("<target name=\"target").append(i).append('"');
+			if(i > 0)
+			{
+				text.append(" depends=\"target").append(i - 1).append('"');
+			}
+			text.append(">\n");
+			text.append("  <property name=\"property").append(i).append("\" value=\"value").append(i).append("\"/>\n");
+			text.append("  <echo message=\"${property").append(i).append("}\"/>\n");
+			text.append("</target>\n");
+		}
+		text.append("</project>\n");
+		myFixture.configureByText("benchmark.txml", text.toString());
+		final AntDomProject project = ThermitSupport.getAntDomProjectForceAntFile(myFixture.getFile());
+		assertNotNull(project);
+
+		final CountingVisitor snapshotVisitor = new CountingVisitor();
+		final IteratingVisitor iteratingVisitor = new IteratingVisitor();
+		final long snapshotTime = measure(project, snapshotVisitor);
+		final long iteratorTime = measure(project, iteratingVisitor);
+		assertEquals(iteratingVisitor.myCount, snapshotVisitor.myCount);
+
+		final int elements = snapshotVisitor.myCount / (WARM_UP_PASSES + PASSES);
+		System.out.println("elements: " + elements);
+		System.out.println("snapshot: " + snapshotTime / PASSES / 1000 + " us per pass");
+		System.out.println("iterators: " + iteratorTime / PASSES / 1000 + " us per pass");
+	}
+
+	private static long measure(AntDomProject project, AntDomRecursiveVisitor visitor)
+	{
+		for(int i = 0; i < WARM_UP_PASSES; i++)
+		{
+			project.accept(visitor);
+		}
+		final long start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+		{
+			project.accept(visitor);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static final class CountingVisitor extends AntDomRecursiveVisitor
+	{
+		private int myCount;
+
+		public void visitAntDomElement(AntDomElement element)
+		{
+			myCount++;
+			super.visitAntDomElement(element);
+		}
+	}
+
+	/**
+	 * The traversal as it was before the snapshot.
+	 */
+	private static final class IteratingVisitor extends AntDomRecursiveVisitor
+	{
+		private int myCount;
+
+		public void visitAntDomElement(AntDomElement element)
+		{
+			myCount++;
+			for(Iterator<AntDomElement> iterator = element.getAntChildrenIterator(); iterator.hasNext(); )
+			{
+				iterator.next().accept(this);
+			}
+		}
+	}
+}